@@ -0,0 +1,83 @@
+package com.brettbaron.claudemod.api;
+
+import com.brettbaron.claudemod.mcs.McsFixtures;
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Getting the MCS out of an API response the way BlockPlacement.processResponse does with a ResponseReader, for tool calls and
+ * text replies, and out of a streamed response the way StreamingResponseParser does
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResponseParsingBenchmark {
+    private static final Gson gson = new Gson();
+
+    @Param({"1000", "10000", "50000"})
+    public int lines;
+
+    private String toolResponse;
+    private String textResponse;
+    private List<String> toolStream;
+
+    @Setup
+    public void setup() {
+        List<String> mcs = McsFixtures.mcsLines(lines);
+        toolResponse = McsFixtures.toolResponse(mcs);
+        textResponse = McsFixtures.textMessage(mcs);
+        toolStream = McsFixtures.toolStream(mcs);
+    }
+
+    @Benchmark
+    public String toolResponse() {
+        return BlockPlacement.extractCommands(toolResponse);
+    }
+
+    @Benchmark
+    public String textResponse() {
+        return BlockPlacement.extractCommands(textResponse);
+    }
+
+    // The whole-tree parse extractCommands replaced, for comparison
+    @Benchmark
+    public String toolResponseTree() {
+        JsonObject json = gson.fromJson(toolResponse, JsonObject.class);
+        for (JsonElement block : json.getAsJsonArray("content")) {
+            JsonObject input = block.getAsJsonObject().getAsJsonObject("input");
+            if (input != null) {
+                return input.get("commands").getAsString();
+            }
+        }
+        return null;
+    }
+
+    @Benchmark
+    public int streamedToolResponse(Blackhole blackhole) {
+        StreamingResponseParser parser = new StreamingResponseParser(blackhole::consume);
+        for (String line : toolStream) {
+            parser.acceptLine(line);
+        }
+        parser.finish();
+        return parser.getLinesEmitted();
+    }
+}
@@ -0,0 +1,65 @@
+package com.brettbaron.claudemod.mcs;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.block.Block;
+import net.minecraft.block.BlockState;
+import net.minecraft.block.Blocks;
+import net.minecraft.util.math.ChunkSectionPos;
+import net.minecraft.world.chunk.ChunkSection;
+import net.minecraft.world.chunk.PalettedContainer;
+
+/**
+ * A {@link DirectBlockWriter} over a world held in memory as real chunk sections, for benchmarking the
+ * {@link McsExecutor} without a server. Every chunk is loaded and starts as air; the world is 384 blocks
+ * high like the overworld. Blocks are written straight into their section, without block updates,
+ * lighting or a journal.
+ */
+class InMemoryBlockWriter extends DirectBlockWriter {
+    private static final int MIN_SECTION_Y = -4;
+    private static final int MAX_SECTION_Y = 19;
+
+    private final Long2ObjectOpenHashMap<ChunkSection> sections = new Long2ObjectOpenHashMap<>();
+
+    InMemoryBlockWriter() {
+        super(null, null, false);
+    }
+
+    @Override
+    public boolean setBlock(int x, int y, int z, BlockState state, boolean keep) {
+        ChunkSection section = getSection(ChunkSectionPos.getSectionCoord(x), ChunkSectionPos.getSectionCoord(y), ChunkSectionPos.getSectionCoord(z));
+        if (section == null) {
+            return false;
+        }
+        BlockState current = section.getBlockState(x & 15, y & 15, z & 15);
+        if (current == state || (keep && !current.isAir())) {
+            return false;
+        }
+        section.setBlockState(x & 15, y & 15, z & 15, state, false);
+        return true;
+    }
+
+    @Override
+    public BlockState getBlock(int x, int y, int z) {
+        ChunkSection section = getSection(ChunkSectionPos.getSectionCoord(x), ChunkSectionPos.getSectionCoord(y), ChunkSectionPos.getSectionCoord(z));
+        return section == null ? Blocks.AIR.getDefaultState() : section.getBlockState(x & 15, y & 15, z & 15);
+    }
+
+    @Override
+    public ChunkSection getSection(int sectionX, int sectionY, int sectionZ) {
+        if (sectionY < MIN_SECTION_Y || sectionY > MAX_SECTION_Y) {
+            return null;
+        }
+        // Biomes are never read, so the sections have none
+        return sections.computeIfAbsent(ChunkSectionPos.asLong(sectionX, sectionY, sectionZ), key -> new ChunkSection(
+            new PalettedContainer<>(Block.STATE_IDS, Blocks.AIR.getDefaultState(), PalettedContainer.PaletteProvider.BLOCK_STATE), null));
+    }
+
+    @Override
+    public boolean isLoaded(int minX, int minZ, int maxX, int maxZ) {
+        return true;
+    }
+
+    @Override
+    public void flushUpdates() {
+    }
+}
@@ -0,0 +1,77 @@
+package com.brettbaron.claudemod.mcs;
+
+import net.minecraft.util.math.BlockPos;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Executing programs with the {@link McsExecutor} against an {@link InMemoryBlockWriter}, so the
+ * chunk ordering, section diffing, clone snapshots and block writes are measured without a running
+ * server. Commands that need the command manager go to a dispatcher that does nothing; their in-game
+ * throughput is reported by /claude stats. Each build starts on an empty world, so creating its chunk
+ * sections is part of the cost, except for rebuild, which runs the build again over a world that
+ * already holds it and only diffs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class McsExecutionBenchmark {
+    private static final BlockPos ORIGIN = new BlockPos(0, 64, 0);
+    private static final long RUN_NANOS = TimeUnit.HOURS.toNanos(1);
+
+    @Param({"1000", "10000", "50000"})
+    public int lines;
+
+    private McsProgram program;
+    private McsProgram optimized;
+    private InMemoryBlockWriter built;
+
+    @Setup
+    public void setup() {
+        McsFixtures.bootstrap();
+        program = McsParser.parse(McsFixtures.mcsLines(lines));
+        optimized = McsOptimizer.optimize(program);
+        built = new InMemoryBlockWriter();
+        execute(program, built);
+    }
+
+    @Benchmark
+    public long execute() {
+        return execute(program, new InMemoryBlockWriter());
+    }
+
+    @Benchmark
+    public long executeOptimized() {
+        return execute(optimized, new InMemoryBlockWriter());
+    }
+
+    @Benchmark
+    public long rebuild() {
+        return execute(program, built);
+    }
+
+    /**
+     * @return Blocks the build changed
+     */
+    private static long execute(McsProgram program, InMemoryBlockWriter writer) {
+        McsExecutor executor = new McsExecutor(program, writer, command -> { }, ORIGIN, true, null);
+        while (!executor.run(System.nanoTime() + RUN_NANOS)) {
+            // A single run only stops early at its deadline
+        }
+        return executor.getBlocksChanged();
+    }
+}
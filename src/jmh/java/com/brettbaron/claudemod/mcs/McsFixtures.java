@@ -0,0 +1,189 @@
+package com.brettbaron.claudemod.mcs;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import net.minecraft.Bootstrap;
+import net.minecraft.SharedConstants;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates Claude responses of a given size for the benchmarks. The MCS is shaped like what Claude
+ * writes for a large build: layered fills, hollow rooms, detail setblocks with block states, comments,
+ * clones and the odd command that has to go through the command manager. Output is seeded so every
+ * run benchmarks the same input.
+ */
+public class McsFixtures {
+    private static final Gson gson = new Gson();
+
+    private static final String[] MATERIALS = {
+        "stone_bricks", "oak_planks", "spruce_log", "cobblestone", "glass", "deepslate_tiles",
+        "white_concrete", "dark_oak_planks", "smooth_stone", "bricks"
+    };
+    private static final String[] DETAILS = {
+        "oak_stairs[facing=north,half=bottom]", "lantern[hanging=true]", "oak_door[facing=east,half=lower]",
+        "glass_pane", "torch", "spruce_trapdoor[facing=south,open=true]", "oak_fence", "chest[facing=west]"
+    };
+
+    private static boolean bootstrapped = false;
+
+    /**
+     * Load the vanilla registries, which block state parsing needs
+     */
+    public static synchronized void bootstrap() {
+        if (!bootstrapped) {
+            SharedConstants.createGameVersion();
+            Bootstrap.initialize();
+            bootstrapped = true;
+        }
+    }
+
+    /**
+     * @return count MCS lines using relative coordinates
+     */
+    public static List<String> mcsLines(int count) {
+        Random random = new Random(count);
+        List<String> lines = new ArrayList<>(count);
+        int room = 0;
+
+        while (lines.size() < count) {
+            // One "room" of the build: a comment, floor, hollow walls, then detailing
+            int x = (room % 8) * 12;
+            int z = (room / 8 % 8) * 12;
+            int y = room / 64 * 6;
+            String material = MATERIALS[random.nextInt(MATERIALS.length)];
+
+            lines.add("# Room " + room);
+            lines.add(String.format("/fill ~%d ~%d ~%d ~%d ~%d ~%d %s", x, y, z, x + 10, y, z + 10, material));
+            lines.add(String.format("/fill ~%d ~%d ~%d ~%d ~%d ~%d %s hollow", x, y + 1, z, x + 10, y + 5, z + 10,
+                MATERIALS[random.nextInt(MATERIALS.length)]));
+
+            int details = 10 + random.nextInt(20);
+            for (int i = 0; i < details; i++) {
+                lines.add(String.format("/setblock ~%d ~%d ~%d %s", x + 1 + random.nextInt(9), y + 1 + random.nextInt(4),
+                    z + 1 + random.nextInt(9), DETAILS[random.nextInt(DETAILS.length)]));
+            }
+
+            if (room % 5 == 4) {
+                lines.add(String.format("/clone ~%d ~%d ~%d ~%d ~%d ~%d ~%d ~%d ~%d", x, y, z, x + 10, y + 5, z + 10,
+                    x, y + 6, z));
+            }
+            if (room % 7 == 6) {
+                lines.add(String.format("/execute positioned ~%d ~%d ~%d run summon armor_stand", x + 5, y + 1, z + 5));
+            }
+            lines.add("");
+            room++;
+        }
+
+        return new ArrayList<>(lines.subList(0, count));
+    }
+
+    /**
+     * @return A text reply with the MCS in a code block, surrounded by prose
+     */
+    public static String textResponse(List<String> lines) {
+        return "Here's the build you asked for. I've laid it out as a grid of rooms, each with a floor, "
+            + "hollow walls and some furniture.\n\n```mcs\n" + String.join("\n", lines)
+            + "\n```\n\nRun it from where you want the north-west corner to be.";
+    }
+
+    /**
+     * @return A text reply without a code block, so extraction has to scan for command lines
+     */
+    public static String bareResponse(List<String> lines) {
+        return "Here are the commands:\n" + String.join("\n", lines) + "\nEnjoy the build!";
+    }
+
+    /**
+     * @return The JSON body of a message where Claude called the generate_mcs tool
+     */
+    public static String toolResponse(List<String> lines) {
+        JsonObject input = new JsonObject();
+        input.addProperty("commands", String.join("\n", lines));
+
+        JsonObject text = new JsonObject();
+        text.addProperty("type", "text");
+        text.addProperty("text", "I'll generate the MCS for this build.");
+
+        JsonObject toolUse = new JsonObject();
+        toolUse.addProperty("type", "tool_use");
+        toolUse.addProperty("id", "toolu_01A09q90qw90lq917835lq9");
+        toolUse.addProperty("name", "generate_mcs");
+        toolUse.add("input", input);
+
+        JsonArray content = new JsonArray();
+        content.add(text);
+        content.add(toolUse);
+        return message(content, "tool_use");
+    }
+
+    /**
+     * @return The JSON body of a message with a plain text reply
+     */
+    public static String textMessage(List<String> lines) {
+        JsonObject text = new JsonObject();
+        text.addProperty("type", "text");
+        text.addProperty("text", textResponse(lines));
+
+        JsonArray content = new JsonArray();
+        content.add(text);
+        return message(content, "end_turn");
+    }
+
+    /**
+     * @return The SSE lines of a streamed generate_mcs tool call, with the input split into small deltas
+     * the way the API sends them
+     */
+    public static List<String> toolStream(List<String> lines) {
+        List<String> events = new ArrayList<>();
+        event(events, "message_start", "{\"type\":\"message_start\",\"message\":{\"id\":\"msg_01\",\"type\":\"message\","
+            + "\"role\":\"assistant\",\"content\":[],\"stop_reason\":null}}");
+        event(events, "content_block_start", "{\"type\":\"content_block_start\",\"index\":0,\"content_block\":"
+            + "{\"type\":\"tool_use\",\"id\":\"toolu_01\",\"name\":\"generate_mcs\",\"input\":{}}}");
+
+        JsonObject input = new JsonObject();
+        input.addProperty("commands", String.join("\n", lines));
+        String json = gson.toJson(input);
+        for (int i = 0; i < json.length(); i += 48) {
+            JsonObject delta = new JsonObject();
+            delta.addProperty("type", "input_json_delta");
+            delta.addProperty("partial_json", json.substring(i, Math.min(json.length(), i + 48)));
+
+            JsonObject event = new JsonObject();
+            event.addProperty("type", "content_block_delta");
+            event.addProperty("index", 0);
+            event.add("delta", delta);
+            event(events, "content_block_delta", gson.toJson(event));
+        }
+
+        event(events, "content_block_stop", "{\"type\":\"content_block_stop\",\"index\":0}");
+        event(events, "message_delta", "{\"type\":\"message_delta\",\"delta\":{\"stop_reason\":\"tool_use\"}}");
+        event(events, "message_stop", "{\"type\":\"message_stop\"}");
+        return events;
+    }
+
+    private static String message(JsonArray content, String stopReason) {
+        JsonObject usage = new JsonObject();
+        usage.addProperty("input_tokens", 2095);
+        usage.addProperty("output_tokens", 8192);
+
+        JsonObject message = new JsonObject();
+        message.addProperty("id", "msg_01XFDUDYJgAACzvnptvVoYEL");
+        message.addProperty("type", "message");
+        message.addProperty("role", "assistant");
+        message.addProperty("model", "claude-3-5-sonnet-20240620");
+        message.add("content", content);
+        message.addProperty("stop_reason", stopReason);
+        message.add("usage", usage);
+        return gson.toJson(message);
+    }
+
+    private static void event(List<String> events, String type, String data) {
+        events.add("event: " + type);
+        events.add("data: " + data);
+        events.add("");
+    }
+}
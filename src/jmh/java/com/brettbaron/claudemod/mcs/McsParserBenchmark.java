@@ -0,0 +1,70 @@
+package com.brettbaron.claudemod.mcs;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compiling MCS text into a program: line parsing, optimization, and loading a compiled sidecar instead
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class McsParserBenchmark {
+    @Param({"1000", "10000", "50000"})
+    public int lines;
+
+    private List<String> mcs;
+    private McsProgram program;
+    private Path mcsFile;
+
+    @Setup
+    public void setup() throws IOException {
+        McsFixtures.bootstrap();
+        mcs = McsFixtures.mcsLines(lines);
+        program = McsParser.parse(mcs);
+
+        mcsFile = Files.createTempFile("benchmark", ".mcs");
+        Files.write(mcsFile, mcs);
+        McsBinaryFormat.write(program, mcsFile);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(McsBinaryFormat.getSidecarPath(mcsFile));
+        Files.deleteIfExists(mcsFile);
+    }
+
+    @Benchmark
+    public McsProgram parse() {
+        return McsParser.parse(mcs);
+    }
+
+    @Benchmark
+    public McsProgram optimize() {
+        return McsOptimizer.optimize(program);
+    }
+
+    @Benchmark
+    public McsProgram readSidecar() {
+        return McsBinaryFormat.read(mcsFile);
+    }
+}
@@ -0,0 +1,50 @@
+package com.brettbaron.claudemod.mcs;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pulling the MCS out of a text reply, with and without a code block
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class McsProcessorBenchmark {
+    @Param({"1000", "10000", "50000"})
+    public int lines;
+
+    private String codeBlockResponse;
+    private String bareResponse;
+
+    @Setup
+    public void setup() {
+        List<String> mcs = McsFixtures.mcsLines(lines);
+        codeBlockResponse = McsFixtures.textResponse(mcs);
+        bareResponse = McsFixtures.bareResponse(mcs);
+    }
+
+    @Benchmark
+    public String extractCodeBlock() {
+        return McsProcessor.extractMcsContent(codeBlockResponse);
+    }
+
+    @Benchmark
+    public String extractBareCommands() {
+        return McsProcessor.extractMcsContent(bareResponse);
+    }
+}
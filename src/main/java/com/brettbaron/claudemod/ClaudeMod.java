@@ -1,29 +1,41 @@
 package com.brettbaron.claudemod;
 
+import com.brettbaron.claudemod.api.BuildSession;
+import com.brettbaron.claudemod.api.ClaudeAPI;
+import com.brettbaron.claudemod.api.ClaudeRequestPipeline;
+import com.brettbaron.claudemod.api.PlannedBuild;
+import com.brettbaron.claudemod.api.ResponseCache;
 import com.brettbaron.claudemod.command.ApiKeyCommand;
+import com.brettbaron.claudemod.command.BuildJobCommand;
 import com.brettbaron.claudemod.command.ClaudeCommand;
+import com.brettbaron.claudemod.command.SchematicCommand;
+import com.brettbaron.claudemod.command.SessionCommand;
+import com.brettbaron.claudemod.command.StatsCommand;
+import com.brettbaron.claudemod.command.UndoCommand;
+import com.brettbaron.claudemod.command.ValidateCommand;
 import com.brettbaron.claudemod.config.ClaudeConfig;
+import com.brettbaron.claudemod.log.ClaudeLog;
+import com.brettbaron.claudemod.log.LogCategory;
+import com.brettbaron.claudemod.mcs.BuildScheduler;
 import com.brettbaron.claudemod.mcs.McsProcessor;
+import com.brettbaron.claudemod.mcs.UndoHistory;
+import com.brettbaron.claudemod.metrics.ClaudeMetrics;
+import com.brettbaron.claudemod.metrics.MetricsExporter;
+import com.brettbaron.claudemod.world.WorldContextSampler;
 import net.fabricmc.api.ModInitializer;
 import net.fabricmc.fabric.api.command.v2.CommandRegistrationCallback;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.File;
-import java.io.FileWriter;
-import java.io.IOException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.nio.file.Paths;
 
 public class ClaudeMod implements ModInitializer {
 	// This logger is used to write text to the console and the log file.
 	// It is considered best practice to use your mod id as the logger's name.
 	// That way, it's clear which mod wrote info, warnings, and errors.
     public static final Logger LOGGER = LoggerFactory.getLogger("claudemod");
-    
-    // Custom file logging to desktop
-    private static FileWriter logFileWriter;
     public static final String MOD_ID = "claudemod";
 
 	@Override
@@ -33,65 +45,64 @@ public class ClaudeMod implements ModInitializer {
 		// Proceed with mild caution.
 
 		LOGGER.info("Claude Minecraft Mod initializing");
-		System.out.println("Claude Minecraft Mod initializing");
 		
 		// Set up custom desktop logging
-		try {
-			// Create log directory if it doesn't exist
-			File logDir = new File(System.getProperty("user.home") + "/Desktop/minecraft-logs");
-			if (!logDir.exists()) {
-				logDir.mkdirs();
-			}
-			
-			// Create log file with timestamp
-			String timestamp = new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss").format(new Date());
-			File logFile = new File(logDir, "claude-mod-" + timestamp + ".log");
-			logFileWriter = new FileWriter(logFile, true);
-			log("Claude Minecraft Mod initializing - Log file created");
-		} catch (IOException e) {
-			LOGGER.error("Failed to create custom log file", e);
-			System.err.println("Failed to create custom log file: " + e.getMessage());
-		}
+		ClaudeLog.start(Paths.get(System.getProperty("user.home"), "Desktop", "minecraft-logs"));
+		log("Claude Minecraft Mod initializing - Log file created");
 		
 		// Load configuration
 		ClaudeConfig.load();
+		ClaudeLog.configure(ClaudeConfig.getLogLevel(), ClaudeConfig.getCategoryLogLevels(),
+			ClaudeConfig.getLogMaxFileMegabytes() * 1024L * 1024L, ClaudeConfig.getLogMaxFiles());
 		
 		// Initialize MCS processor
 		try {
 			McsProcessor.initialize();
+			BuildScheduler.register();
+			ResponseCache.load();
+			ClaudeMetrics.init();
 			log("MCS Processor initialized");
 		} catch (Exception e) {
 			LOGGER.error("Failed to initialize MCS processor", e);
-			System.err.println("Failed to initialize MCS processor: " + e.getMessage());
 		}
 		
 		// Register commands
 		CommandRegistrationCallback.EVENT.register((dispatcher, registryAccess, environment) -> {
 			ClaudeCommand.register(dispatcher);
 			ApiKeyCommand.register(dispatcher);
+			BuildJobCommand.register(dispatcher);
+			StatsCommand.register(dispatcher);
+			UndoCommand.register(dispatcher);
+			SchematicCommand.register(dispatcher);
+			ValidateCommand.register(dispatcher);
+			SessionCommand.register(dispatcher);
+		});
+		
+		// Abandon in-flight API requests when the server shuts down
+		ServerLifecycleEvents.SERVER_STOPPING.register(server -> {
+			ClaudeRequestPipeline.shutdown();
+			PlannedBuild.shutdown();
+			ClaudeAPI.shutdown();
+		});
+		
+		// Metrics are exported while a server is running; the HTTP endpoint would otherwise keep the JVM alive
+		ServerLifecycleEvents.SERVER_STARTED.register(server -> MetricsExporter.start());
+		ServerLifecycleEvents.SERVER_STOPPED.register(server -> MetricsExporter.stop());
+		
+		// Journals, terrain summaries and sessions hold on to their worlds, so let them go once builds have been cancelled
+		ServerLifecycleEvents.SERVER_STOPPED.register(server -> {
+			UndoHistory.clear();
+			WorldContextSampler.clear();
+			BuildSession.clear();
 		});
 		
-		LOGGER.info("Claude Minecraft Mod initialized successfully");
 		log("Claude Minecraft Mod initialized successfully");
 	}
 	
 	/**
-	 * Custom logging to both standard logger and our desktop file
+	 * Log a general message. It is written to the game log and our desktop file by a background thread.
 	 */
 	public static void log(String message) {
-		LOGGER.info(message);
-		System.out.println("CLAUDE MOD: " + message);
-		
-		// Also write to our custom log file
-		if (logFileWriter != null) {
-			try {
-				String timestamp = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date());
-				logFileWriter.write("[" + timestamp + "] " + message + "\n");
-				logFileWriter.flush();
-			} catch (IOException e) {
-				LOGGER.error("Failed to write to custom log file", e);
-				System.err.println("Failed to write to custom log file: " + e.getMessage());
-			}
-		}
+		ClaudeLog.info(LogCategory.GENERAL, message);
 	}
-}
\ No newline at end of file
+}
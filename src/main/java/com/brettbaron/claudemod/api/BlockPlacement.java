@@ -1,182 +1,291 @@
 package com.brettbaron.claudemod.api;
 
 import com.brettbaron.claudemod.ClaudeMod;
+import com.brettbaron.claudemod.mcs.BuildJob;
 import com.brettbaron.claudemod.mcs.McsProcessor;
-import com.google.gson.*;
+import com.brettbaron.claudemod.mcs.McsProgram;
+import com.brettbaron.claudemod.metrics.ClaudeMetrics;
+import com.google.gson.JsonParseException;
 import net.minecraft.server.command.ServerCommandSource;
 import net.minecraft.text.Text;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.UUID;
 
 /**
- * Handles the processing of Claude's MCS (Minecraft Command Syntax) responses
+ * Handles the processing of Claude's MCS (Minecraft Command Syntax) responses.
+ *
+ * Responses are read, compiled, optimized and saved on the request worker with {@link #prepareResponse}
+ * or {@link #prepareCommands}, so the server thread only receives the finished program and starts it
+ * with {@link #build}. Edits are prepared against a snapshot of the session with {@link #prepareEdit}
+ * and placed with {@link #processEdit}.
  */
 public class BlockPlacement {
-    private static final Gson gson = new Gson();
-    
     /**
-     * Process a response from Claude API and extract MCS commands
+     * A build compiled and saved off the server thread, ready to be placed
+     */
+    public static final class PreparedBuild {
+        private final String name;
+        private final String commands;
+        private final McsProgram program;
+        private final String mcsFilePath;
+        private final String summary;
+
+        private PreparedBuild(String name, String commands, McsProgram program, String mcsFilePath, String summary) {
+            this.name = name;
+            this.commands = commands;
+            this.program = program;
+            this.mcsFilePath = mcsFilePath;
+            this.summary = summary;
+        }
+    }
+
+    /**
+     * An edit compiled, saved and diffed against its session's build off the server thread, ready to be placed
+     */
+    public static final class PreparedEdit {
+        private final String name;
+        private final String mcsFilePath;
+        private final long coveredVolume;
+        private final BuildSession.Edit edit;
+
+        private PreparedEdit(String name, String mcsFilePath, long coveredVolume, BuildSession.Edit edit) {
+            this.name = name;
+            this.mcsFilePath = mcsFilePath;
+            this.coveredVolume = coveredVolume;
+            this.edit = edit;
+        }
+    }
+
+    /**
+     * Extract the MCS commands from a response from Claude API, then compile and save them. Touches
+     * nothing in the world, so it runs on the request worker.
      * 
-     * @param apiResponse Raw JSON response from Claude API
-     * @param source The command source for getting the world context
-     * @return Number of commands prepared for execution
+     * @param response The response from Claude API, as read by {@link ClaudeAPI}
+     * @return The build, ready for {@link #build}
+     * @throws IOException If the response is an error or has no commands, or the MCS file can't be saved
      */
-    public static int processResponse(String apiResponse, ServerCommandSource source) {
+    public static PreparedBuild prepareResponse(ResponseReader response) throws IOException {
+        long start = System.nanoTime();
         try {
             ClaudeMod.log("Processing Claude API response for MCS commands");
-            JsonObject responseJson = gson.fromJson(apiResponse, JsonObject.class);
             
             // Check if there was an error in the response
-            if (responseJson.has("error")) {
-                String errorMessage = responseJson.getAsJsonObject("error").get("message").getAsString();
-                ClaudeMod.log("API error: " + errorMessage);
-                source.sendFeedback(() -> Text.literal("Error from Claude API: " + errorMessage), false);
-                return 0;
+            if (response.getError() != null) {
+                ClaudeMod.log("API error: " + response.getError());
+                throw new IOException("Error from Claude API: " + response.getError());
             }
             
-            // First, check for tool usage that might contain MCS commands
-            String mcsCommands = null;
-            
-            // Look for content array
-            if (!responseJson.has("content")) {
+            if (!response.hasContent()) {
                 ClaudeMod.LOGGER.error("Invalid API response format: missing content");
                 throw new JsonParseException("Invalid API response format: missing content");
             }
             
-            // Check if content is an array
-            JsonElement contentElement = responseJson.get("content");
-            if (!contentElement.isJsonArray()) {
-                ClaudeMod.log("Invalid API response format: content is not an array");
-                throw new JsonParseException("Invalid API response format: content is not an array");
-            }
-            
-            JsonArray contentArray = contentElement.getAsJsonArray();
-            
-            // Look for generate_mcs tool calls
-            for (JsonElement contentEl : contentArray) {
-                if (!contentEl.isJsonObject()) continue;
-                
-                JsonObject contentObj = contentEl.getAsJsonObject();
-                
-                if (contentObj.has("type") && contentObj.get("type").getAsString().equals("tool_use")) {
-                    if (contentObj.has("name") && contentObj.get("name").getAsString().equals("generate_mcs")) {
-                        if (contentObj.has("input") && contentObj.get("input").isJsonObject()) {
-                            JsonObject input = contentObj.get("input").getAsJsonObject();
-                            if (input.has("commands")) {
-                                mcsCommands = input.get("commands").getAsString();
-                                break;
-                            }
-                        }
-                    }
-                }
-            }
-            
-            // If we didn't find MCS commands via tool usage, extract from the text content
+            // Commands from the generate_mcs tool call, or extracted from the text if Claude didn't use it
+            String mcsCommands = response.getCommands();
             if (mcsCommands == null || mcsCommands.isEmpty()) {
-                // Extract message content as a raw string
-                String rawContent = extractTextContent(responseJson);
-                
-                // Create MCS file from raw content
-                String buildName = "build_" + UUID.randomUUID().toString().substring(0, 8);
-                String mcsFilePath = McsProcessor.createMcsFromResponse(rawContent, buildName);
-                
-                // Execute the MCS file
-                source.sendFeedback(() -> Text.literal("Created MCS file: " + mcsFilePath), false);
-                source.sendFeedback(() -> Text.literal("Executing MCS commands..."), false);
-                
-                // Start execution and count commands
-                int commandCount = countCommands(mcsFilePath);
-                McsProcessor.executeMcsFile(mcsFilePath, source);
-                
-                return commandCount;
-            } else {
-                // We have MCS commands from tool usage, save and execute them
-                String buildName = "build_" + UUID.randomUUID().toString().substring(0, 8);
-                String mcsFilePath = McsProcessor.saveMcsFile(buildName, mcsCommands);
-                
-                // Execute the MCS file
-                source.sendFeedback(() -> Text.literal("Created MCS file: " + mcsFilePath), false);
-                source.sendFeedback(() -> Text.literal("Executing MCS commands..."), false);
-                
-                // Start execution and count commands
-                int commandCount = countCommands(mcsFilePath);
-                McsProcessor.executeMcsFile(mcsFilePath, source);
-                
-                return commandCount;
+                throw new IOException("No MCS content found in Claude's response");
             }
-            
-        } catch (JsonParseException e) {
-            ClaudeMod.log("Error parsing Claude API response: " + e.getMessage());
-            source.sendFeedback(() -> Text.literal("Error: Could not parse Claude's response - " + e.getMessage()), false);
+            return compileAndSave(mcsCommands);
+        } finally {
+            ClaudeMetrics.RESPONSE_PROCESSING.observeNanos(System.nanoTime() - start);
+        }
+    }
+    
+    /**
+     * Compile and save MCS commands that have already been extracted, such as the parts of a response
+     * that had to be continued. Runs on the request worker.
+     * 
+     * @param mcsCommands The commands, one per line
+     * @return The build, ready for {@link #build}
+     * @throws IOException If the MCS file can't be saved
+     */
+    public static PreparedBuild prepareCommands(String mcsCommands) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return compileAndSave(mcsCommands);
+        } finally {
+            ClaudeMetrics.RESPONSE_PROCESSING.observeNanos(System.nanoTime() - start);
+        }
+    }
+    
+    /**
+     * Remember a prepared build in the {@link ResponseCache}. Runs on the request worker, as the cache
+     * sizes the saved files.
+     * 
+     * @param build The build from {@link #prepareResponse} or {@link #prepareCommands}
+     * @param cacheKey Response cache key for the prompt
+     */
+    public static void cache(PreparedBuild build, String cacheKey) {
+        // Builds with absolute coordinates would be placed where they were first generated
+        if (ResponseCache.isCacheable(build.program)) {
+            ResponseCache.put(cacheKey, build.mcsFilePath, build.program);
+        }
+    }
+    
+    /**
+     * Start a prepared build. Must be called on the server thread.
+     * 
+     * @param build The build from {@link #prepareResponse} or {@link #prepareCommands}
+     * @param source The command source for getting the world context
+     * @param session Session the build starts once it has been placed, or null
+     * @return Number of commands prepared for execution
+     */
+    public static int build(PreparedBuild build, ServerCommandSource source, BuildSession session) {
+        source.sendFeedback(() -> Text.literal("Created MCS file: " + build.mcsFilePath), false);
+        source.sendFeedback(() -> Text.literal("Executing MCS commands..."), false);
+        
+        reportProgram(build, source);
+        BuildJob job = McsProcessor.submitProgram(build.name, build.program, source);
+        if (session != null) {
+            session.trackBuild(job, build.commands);
+        }
+        return build.program.getOpCount();
+    }
+    
+    /**
+     * Compile and save the commands of an edit and work out which blocks it changes, against the
+     * session's build as it was when the edit was requested. Runs on the request worker.
+     * 
+     * @param mcsCommands The commands Claude generated for the edit, one per line
+     * @param prompt What the player asked to change
+     * @param snapshot The session when the edit was requested
+     * @return The edit, ready for {@link #processEdit}
+     * @throws IOException If the MCS file can't be saved
+     */
+    public static PreparedEdit prepareEdit(String mcsCommands, String prompt, BuildSession.Snapshot snapshot) throws IOException {
+        long start = System.nanoTime();
+        try {
+            String buildName = "edit_" + UUID.randomUUID().toString().substring(0, 8);
+            McsProgram program = McsProcessor.compileContent(mcsCommands);
+            String mcsFilePath = McsProcessor.saveMcsFile(buildName, mcsCommands);
+            BuildSession.Edit edit = snapshot.applyEdit(prompt, mcsCommands, program);
+            return new PreparedEdit(buildName, mcsFilePath, program.getTotalVolume(), edit);
+        } finally {
+            ClaudeMetrics.RESPONSE_PROCESSING.observeNanos(System.nanoTime() - start);
+        }
+    }
+    
+    /**
+     * Place a prepared edit to a session's build. Only the blocks that differ from the build are placed,
+     * relative to the session's origin rather than where the player stands now, and the session takes
+     * the edited build once they have all been placed. Must be called on the server thread.
+     * 
+     * @param prepared The edit from {@link #prepareEdit}
+     * @param session The player's session
+     * @param source The command source that requested the edit
+     * @return Number of commands prepared for execution
+     */
+    public static int processEdit(PreparedEdit prepared, BuildSession session, ServerCommandSource source) {
+        McsProgram changes = prepared.edit.getChanges();
+        source.sendFeedback(() -> Text.literal("Created MCS file: " + prepared.mcsFilePath), false);
+        ClaudeMod.log("Edit " + prepared.name + " covers " + prepared.coveredVolume + " blocks, " + changes.getTotalVolume() + " change");
+        source.sendFeedback(() -> Text.literal("Edit changes " + changes.getTotalVolume() + " of the "
+            + prepared.coveredVolume + " blocks it covers"), false);
+        if (changes.getOpCount() == 0) {
+            session.recordEdit(prepared.edit);
             return 0;
+        }
+        
+        try {
+            BuildJob job = McsProcessor.submitProgram(prepared.name, changes, session.atOrigin(source));
+            session.trackEdit(job, prepared.edit, source);
+            return changes.getOpCount();
         } catch (Exception e) {
+            session.setEditPending(false);
             ClaudeMod.log("Error processing MCS commands: " + e.getMessage());
-            e.printStackTrace();
             source.sendFeedback(() -> Text.literal("Error processing MCS commands: " + e.getMessage()), false);
             return 0;
         }
     }
     
+    private static PreparedBuild compileAndSave(String mcsCommands) throws IOException {
+        String buildName = "build_" + UUID.randomUUID().toString().substring(0, 8);
+        
+        // Compile from memory; the file and its sidecar are only written so the build can be loaded again later
+        McsProgram program = McsProcessor.compileContent(mcsCommands);
+        String mcsFilePath = McsProcessor.saveMcsFile(buildName, mcsCommands);
+        McsProcessor.saveCompiled(program, mcsFilePath);
+        return new PreparedBuild(buildName, mcsCommands, program, mcsFilePath, summarize(program));
+    }
+    
     /**
-     * Extract text content from Claude's response
-     * 
-     * @param jsonResponse The JSON response object
-     * @return The extracted text content
+     * Describe a build from its ops alone, without simulating them: the box around its relative fills,
+     * setblocks and clones, and how many blocks they place. Air is not counted, hollow and outline fills
+     * only count their shell, and blocks placed more than once are counted each time.
      */
-    private static String extractTextContent(JsonObject jsonResponse) {
-        StringBuilder contentBuilder = new StringBuilder();
-        
-        try {
-            if (jsonResponse.has("content") && jsonResponse.get("content").isJsonArray()) {
-                JsonArray contentArray = jsonResponse.get("content").getAsJsonArray();
-                
-                for (JsonElement element : contentArray) {
-                    if (element.isJsonObject()) {
-                        JsonObject contentObj = element.getAsJsonObject();
-                        
-                        if (contentObj.has("type") && contentObj.get("type").getAsString().equals("text")) {
-                            if (contentObj.has("text")) {
-                                String text = contentObj.get("text").getAsString();
-                                contentBuilder.append(text).append("\n");
-                            }
-                        }
-                    }
-                }
+    static String summarize(McsProgram program) {
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, minZ = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE, maxZ = Integer.MIN_VALUE;
+        long blocks = 0;
+        for (int op = 0; op < program.getOpCount(); op++) {
+            int opcode = program.getOpcode(op);
+            if (opcode == McsProgram.OP_COMMAND) {
+                continue;
             }
-            
-            return contentBuilder.toString();
-        } catch (Exception e) {
-            ClaudeMod.log("Error extracting text content: " + e.getMessage());
-            return "";
+            boolean clone = opcode == McsProgram.OP_CLONE;
+            if (!clone && program.getState(op).isAir()) {
+                continue;
+            }
+
+            int x1 = program.getCoord(op, 0, 0), y1 = program.getCoord(op, 1, 0), z1 = program.getCoord(op, 2, 0);
+            int x2 = program.getCoord(op, 3, 0), y2 = program.getCoord(op, 4, 0), z2 = program.getCoord(op, 5, 0);
+            long sizeX = Math.abs((long) x2 - x1) + 1, sizeY = Math.abs((long) y2 - y1) + 1, sizeZ = Math.abs((long) z2 - z1) + 1;
+            int mode = program.getMode(op);
+            if (!clone && (mode == McsProgram.MODE_HOLLOW || mode == McsProgram.MODE_OUTLINE)) {
+                blocks += sizeX * sizeY * sizeZ - Math.max(0, sizeX - 2) * Math.max(0, sizeY - 2) * Math.max(0, sizeZ - 2);
+            } else {
+                blocks += sizeX * sizeY * sizeZ;
+            }
+
+            // The box is relative to the player, so ops with absolute coordinates are left out of it
+            int relative = clone ? 0x1C0 : 0x3F;
+            if ((program.getRelativeMask(op) & relative) != relative) {
+                continue;
+            }
+            int fromX = clone ? program.getCoord(op, 6, 0) : Math.min(x1, x2);
+            int fromY = clone ? program.getCoord(op, 7, 0) : Math.min(y1, y2);
+            int fromZ = clone ? program.getCoord(op, 8, 0) : Math.min(z1, z2);
+            minX = Math.min(minX, fromX);
+            minY = Math.min(minY, fromY);
+            minZ = Math.min(minZ, fromZ);
+            maxX = (int) Math.max(maxX, fromX + sizeX - 1);
+            maxY = (int) Math.max(maxY, fromY + sizeY - 1);
+            maxZ = (int) Math.max(maxZ, fromZ + sizeZ - 1);
+        }
+
+        if (minX > maxX) {
+            return blocks + " blocks";
         }
+        return String.format("%dx%dx%d, %d blocks", maxX - minX + 1, maxY - minY + 1, maxZ - minZ + 1, blocks);
     }
     
     /**
-     * Count the number of actual commands in an MCS file
+     * Pull the MCS commands out of a complete API response, from the generate_mcs tool call if Claude
+     * made one and from the text otherwise
+     *
+     * @param apiResponse Raw JSON response from Claude API
+     * @return The commands, or null if the response has none
+     */
+    static String extractCommands(String apiResponse) {
+        return ResponseReader.read(apiResponse).getCommands();
+    }
+    
+    /**
+     * Tell the player what the build contains and how many commands the optimizer removed
      * 
-     * @param filePath The path to the MCS file
-     * @return The number of commands (excluding comments and empty lines)
+     * @param build The prepared build
+     * @param source The command source to report to
      */
-    private static int countCommands(String filePath) {
-        try {
-            java.nio.file.Path path = java.nio.file.Paths.get(filePath);
-            List<String> lines = java.nio.file.Files.readAllLines(path);
-            
-            int commandCount = 0;
-            for (String line : lines) {
-                line = line.trim();
-                if (!line.isEmpty() && !line.startsWith("#")) {
-                    commandCount++;
-                }
-            }
-            
-            return commandCount;
-        } catch (IOException e) {
-            ClaudeMod.log("Error counting commands in MCS file: " + e.getMessage());
-            return 0;
+    private static void reportProgram(PreparedBuild build, ServerCommandSource source) {
+        McsProgram program = build.program;
+        ClaudeMod.log("Build summary: " + build.summary);
+        source.sendFeedback(() -> Text.literal("Build size: " + build.summary), false);
+        
+        int saved = program.getSourceOpCount() - program.getOpCount();
+        if (saved > 0) {
+            source.sendFeedback(() -> Text.literal("Optimized " + program.getSourceOpCount() + " commands down to "
+                + program.getOpCount() + " (saved " + saved + ")"), false);
         }
     }
-}
\ No newline at end of file
+}
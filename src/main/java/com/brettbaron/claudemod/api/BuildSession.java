@@ -0,0 +1,420 @@
+package com.brettbaron.claudemod.api;
+
+import com.brettbaron.claudemod.config.ClaudeConfig;
+import com.brettbaron.claudemod.mcs.BuildDiff;
+import com.brettbaron.claudemod.mcs.BuildJob;
+import com.brettbaron.claudemod.mcs.BuildJobManager;
+import com.brettbaron.claudemod.mcs.McsOptimizer;
+import com.brettbaron.claudemod.mcs.McsProgram;
+import com.brettbaron.claudemod.mcs.SparseVoxelModel;
+import net.minecraft.block.BlockState;
+import net.minecraft.command.argument.BlockArgumentParser;
+import net.minecraft.registry.Registries;
+import net.minecraft.server.command.ServerCommandSource;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.text.Text;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.Vec3d;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * A player's conversation with Claude about their current build, for /claude edit.
+ *
+ * A session is created with each /claude prompt and replaces the player's previous one once its build
+ * has been placed in full. It remembers the ops that were actually run, relative to where the player
+ * stood, and the build as a {@link SparseVoxelModel}. Edits ask Claude only for the commands that
+ * change the build, and {@link BuildDiff} drops every block the build already has before anything is
+ * placed. Claude is shown the current build, re-meshed into fills, and as many earlier turns as fit in
+ * session_history_tokens; older turns keep only their prompt, since the current build already contains
+ * their result.
+ *
+ * The request for an edit and its diff are worked out on the request worker from a {@link Snapshot},
+ * and the session only takes the edited model once its changes have been placed in full. An edit that
+ * is cancelled or fails ends the session, since the world no longer matches it. Sessions are dropped
+ * after session_timeout_minutes without use. All methods other than those of {@link Snapshot} must be
+ * called on the server thread.
+ */
+public class BuildSession {
+    // Rough length of a token in prompts and commands
+    private static final double CHARS_PER_TOKEN = 3.0;
+    // Turns remembered at all, including those reduced to their prompt
+    private static final int MAX_TURNS = 32;
+    // Larger builds are described by their size and blocks instead of as fills
+    private static final long MAX_DESCRIBED_VOXELS = 262_144;
+    private static final int DESCRIBED_BLOCK_TYPES = 24;
+
+    private static final Map<UUID, BuildSession> sessions = new HashMap<>();
+
+    private final UUID owner;
+    private final ServerWorld world;
+    private final BlockPos origin;
+    private final String prompt;
+    private final List<Turn> turns = new ArrayList<>();
+    // The validated program of the first build, until an edit replaces it with a model
+    private McsProgram program = null;
+    // Replaced, never changed, so snapshots can keep reading it on the request worker
+    private SparseVoxelModel model = null;
+    private String size = null;
+    private boolean editPending = false;
+    private long lastUsedNanos = System.nanoTime();
+
+    /**
+     * One request in a session and the commands Claude answered with
+     */
+    public static final class Turn {
+        private final String prompt;
+        private final String commands;
+        private final boolean edit;
+
+        private Turn(String prompt, String commands, boolean edit) {
+            this.prompt = prompt;
+            this.commands = commands;
+            this.edit = edit;
+        }
+
+        public String getPrompt() {
+            return prompt;
+        }
+
+        /**
+         * @return The commands, or null once they have been dropped from the history
+         */
+        public String getCommands() {
+            return commands;
+        }
+
+        /**
+         * @return false for the prompt the session started with
+         */
+        public boolean isEdit() {
+            return edit;
+        }
+
+        private int length() {
+            return prompt.length() + (commands != null ? commands.length() : 0);
+        }
+    }
+
+    /**
+     * An edit worked out against a {@link Snapshot}: the blocks it changes and the build it leaves
+     */
+    public static final class Edit {
+        private final String prompt;
+        private final String commands;
+        private final McsProgram changes;
+        private final SparseVoxelModel model;
+        private final String size;
+
+        private Edit(String prompt, String commands, McsProgram changes, SparseVoxelModel model) {
+            this.prompt = prompt;
+            this.commands = commands;
+            this.changes = changes;
+            this.model = model;
+            this.size = model.describe();
+        }
+
+        /**
+         * @return The ops that place only the blocks the edit changes
+         */
+        public McsProgram getChanges() {
+            return changes;
+        }
+    }
+
+    /**
+     * The build and history of a session when an edit was requested. Used on the request worker, so
+     * it holds only what the session no longer changes.
+     */
+    public static final class Snapshot {
+        private final McsProgram program;
+        private final List<Turn> turns;
+        private SparseVoxelModel model;
+
+        private Snapshot(McsProgram program, SparseVoxelModel model, List<Turn> turns) {
+            this.program = program;
+            this.model = model;
+            this.turns = turns;
+        }
+
+        /**
+         * @return The current build, which must not be changed
+         */
+        public SparseVoxelModel getModel() {
+            if (model == null) {
+                model = SparseVoxelModel.fromProgram(program);
+            }
+            return model;
+        }
+
+        /**
+         * Work out what an edit changes, on a copy of the build
+         *
+         * @param editPrompt What the player asked to change
+         * @param commands The MCS commands Claude generated, relative to the session's origin
+         * @param edit The compiled edit
+         */
+        public Edit applyEdit(String editPrompt, String commands, McsProgram edit) {
+            SparseVoxelModel edited = getModel().copy();
+            McsProgram changes = BuildDiff.apply(edit, edited);
+            return new Edit(editPrompt, commands, changes, edited);
+        }
+
+        /**
+         * Describe the current build for Claude, as fills relative to the origin if they fit in the budget
+         * and as its size and most common blocks otherwise. Air is left out.
+         *
+         * @param maxChars Longest description to return
+         */
+        public String describeBuild(int maxChars) {
+            SparseVoxelModel current = getModel();
+            SparseVoxelModel solid = new SparseVoxelModel();
+            current.forEach((x, y, z, index) -> {
+                BlockState state = current.getPaletteState(index);
+                if (!state.isAir()) {
+                    solid.set(x, y, z, state);
+                }
+            });
+            if (solid.getVoxelCount() == 0) {
+                return "The build is currently empty.";
+            }
+
+            if (solid.getVoxelCount() > MAX_DESCRIBED_VOXELS) {
+                return summarize(solid);
+            }
+
+            // Meshing empties the model, so the fallback is worked out first
+            String summary = summarize(solid);
+            McsProgram fills = McsOptimizer.fromModel(solid);
+            StringBuilder text = new StringBuilder();
+            for (int op = 0; op < fills.getOpCount() && text.length() <= maxChars; op++) {
+                boolean single = fills.getOpcode(op) == McsProgram.OP_SETBLOCK;
+                text.append(single ? "/setblock" : "/fill");
+                for (int coord = 0; coord < (single ? 3 : 6); coord++) {
+                    text.append(" ~").append(fills.getCoord(op, coord, 0));
+                }
+                text.append(' ').append(BlockArgumentParser.stringifyBlockState(fills.getState(op))).append('\n');
+            }
+            return text.length() <= maxChars ? text.toString() : summary;
+        }
+
+        /**
+         * Earlier turns to send with an edit, oldest first. Turns whose commands do not fit in the budget
+         * are returned with only their prompt, so Claude still knows what was asked for.
+         *
+         * @param maxChars Characters the turns may use
+         */
+        public List<Turn> getHistory(int maxChars) {
+            List<Turn> history = new ArrayList<>(turns.size());
+            int used = 0;
+            boolean fits = true;
+            for (int i = turns.size() - 1; i >= 0; i--) {
+                Turn turn = turns.get(i);
+                fits = fits && turn.commands != null && used + turn.length() <= maxChars;
+                if (fits) {
+                    used += turn.length();
+                    history.add(0, turn);
+                } else {
+                    used += turn.prompt.length();
+                    history.add(0, new Turn(turn.prompt, null, turn.edit));
+                }
+            }
+            return history;
+        }
+    }
+
+    private BuildSession(ServerCommandSource source, String prompt) {
+        this.owner = BuildJobManager.getOwnerId(source);
+        this.world = source.getWorld();
+        this.origin = BlockPos.ofFloored(source.getPosition());
+        this.prompt = prompt;
+    }
+
+    /**
+     * Create a session for a fresh build. It only replaces the player's previous session once
+     * {@link #trackBuild} sees the build placed.
+     *
+     * @param prompt The player's prompt
+     * @return The session, or null if sessions are turned off
+     */
+    public static BuildSession create(ServerCommandSource source, String prompt) {
+        if (ClaudeConfig.getSessionTimeoutMinutes() == 0) {
+            return null;
+        }
+        return new BuildSession(source, prompt);
+    }
+
+    /**
+     * @param owner The player's key from {@link BuildJobManager#getOwnerId}
+     * @return The player's session, or null if they have none or it has expired
+     */
+    public static BuildSession get(UUID owner) {
+        BuildSession session = sessions.get(owner);
+        long timeoutNanos = ClaudeConfig.getSessionTimeoutMinutes() * 60_000_000_000L;
+        if (session != null && System.nanoTime() - session.lastUsedNanos > timeoutNanos) {
+            sessions.remove(owner);
+            return null;
+        }
+        return session;
+    }
+
+    /**
+     * End the player's session, such as when the build it describes is undone
+     *
+     * @return true if there was a session
+     */
+    public static boolean end(UUID owner) {
+        return sessions.remove(owner) != null;
+    }
+
+    /**
+     * Forget every session, for when the server stops
+     */
+    public static void clear() {
+        sessions.clear();
+    }
+
+    /**
+     * Start the session once its build has run to the end, replacing the player's previous session.
+     * A build that is cancelled or fails starts nothing.
+     *
+     * @param job The build, whose validated program the session remembers
+     * @param commands The MCS commands Claude generated
+     */
+    public void trackBuild(BuildJob job, String commands) {
+        job.getFuture().whenComplete((result, error) -> {
+            if (error != null || !job.isCompleted()) {
+                return;
+            }
+            program = job.getProgram();
+            size = BlockPlacement.summarize(program);
+            addTurn(new Turn(prompt, commands, false));
+            sessions.put(owner, this);
+        });
+    }
+
+    /**
+     * @return The build and history as they are now, for preparing an edit on the request worker
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(program, model, new ArrayList<>(turns));
+    }
+
+    /**
+     * Take the build an edit produced once its changes have run to the end. If they were cancelled,
+     * failed or had invalid commands left out, the world no longer matches the edited build, so the
+     * session is ended instead.
+     *
+     * @param job The job placing the edit's changes
+     * @param edit The edit from {@link Snapshot#applyEdit}
+     * @param source The command source that requested the edit
+     */
+    public void trackEdit(BuildJob job, Edit edit, ServerCommandSource source) {
+        job.getFuture().whenComplete((result, error) -> {
+            if (error == null && job.isCompleted() && job.getInvalidCount() == 0) {
+                recordEdit(edit);
+                return;
+            }
+            editPending = false;
+            if (sessions.get(owner) == this) {
+                sessions.remove(owner);
+                source.sendError(Text.literal("Your build session ended because the edit was not placed in full"));
+            }
+        });
+    }
+
+    /**
+     * Take the build an edit produced, once it has been placed or when it changes nothing
+     *
+     * @param edit The edit from {@link Snapshot#applyEdit}
+     */
+    public void recordEdit(Edit edit) {
+        model = edit.model;
+        program = null;
+        size = edit.size;
+        addTurn(new Turn(edit.prompt, edit.commands, true));
+        editPending = false;
+    }
+
+    public boolean isEditPending() {
+        return editPending;
+    }
+
+    public void setEditPending(boolean editPending) {
+        this.editPending = editPending;
+        lastUsedNanos = System.nanoTime();
+    }
+
+    public int getTurnCount() {
+        return turns.size();
+    }
+
+    public BlockPos getOrigin() {
+        return origin;
+    }
+
+    /**
+     * @return A one-line summary of the build for chat
+     */
+    public String describeSize() {
+        return size;
+    }
+
+    /**
+     * @return The command source to build an edit as: the player's source moved to the session's origin
+     */
+    public ServerCommandSource atOrigin(ServerCommandSource source) {
+        return source.withWorld(world).withPosition(Vec3d.ofBottomCenter(origin));
+    }
+
+    /**
+     * @return Characters of the edit request given to the current build and the history
+     */
+    public static int getHistoryChars() {
+        return (int) (ClaudeConfig.getSessionHistoryTokens() * CHARS_PER_TOKEN);
+    }
+
+    /**
+     * Append a turn, dropping the commands of the oldest turns so the history stays within its budget
+     */
+    private void addTurn(Turn turn) {
+        turns.add(turn);
+        lastUsedNanos = System.nanoTime();
+        while (turns.size() > MAX_TURNS) {
+            turns.remove(0);
+        }
+
+        int total = 0;
+        for (Turn kept : turns) {
+            total += kept.length();
+        }
+        for (int i = 0; i < turns.size() && total > getHistoryChars(); i++) {
+            Turn oldest = turns.get(i);
+            if (oldest.commands != null) {
+                total -= oldest.commands.length();
+                turns.set(i, new Turn(oldest.prompt, null, oldest.edit));
+            }
+        }
+    }
+
+    private static String summarize(SparseVoxelModel model) {
+        int[] bounds = model.getBounds();
+        StringBuilder text = new StringBuilder(String.format(
+            "The build is too large to list. It fills parts of the box from ~%d ~%d ~%d to ~%d ~%d ~%d and contains",
+            bounds[0], bounds[1], bounds[2], bounds[3], bounds[4], bounds[5]));
+        int types = 0;
+        for (Map.Entry<BlockState, Long> entry : model.getBlockCounts().entrySet()) {
+            if (types++ == DESCRIBED_BLOCK_TYPES) {
+                text.append(", and other blocks");
+                break;
+            }
+            text.append(types > 1 ? ", " : " ").append(entry.getValue()).append(' ')
+                .append(Registries.BLOCK.getId(entry.getKey().getBlock()));
+        }
+        return text.append('.').toString();
+    }
+}
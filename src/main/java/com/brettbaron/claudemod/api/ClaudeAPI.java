@@ -2,186 +2,491 @@ package com.brettbaron.claudemod.api;
 
 import com.brettbaron.claudemod.ClaudeMod;
 import com.brettbaron.claudemod.config.ClaudeConfig;
+import com.brettbaron.claudemod.log.ClaudeLog;
+import com.brettbaron.claudemod.log.LogCategory;
+import com.brettbaron.claudemod.metrics.ClaudeMetrics;
 import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.time.Duration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class ClaudeAPI {
-    private static final String API_URL = "https://api.anthropic.com/v1/messages";
     private static final Gson gson = new Gson();
     
-    // The Claude tool schema for block placement
-    private static final String TOOL_SCHEMA = """
-        {
-          "tools": [{
-            "name": "generate_mcs",
-            "description": "Generate Minecraft Command Syntax (MCS) for building structures",
-            "input_schema": {
-              "type": "object",
-              "properties": {
-                "commands": {
-                  "type": "string",
-                  "description": "A string containing multiple Minecraft commands (one per line) to build the structure. Can include /fill, /setblock, /clone, etc."
-                }
-              },
-              "required": ["commands"]
-            }
-          }]
-        }
-    """;
+    // Requests currently waiting on the API, keyed by a hash of their endpoint, key and body
+    private static final Map<String, CompletableFuture<ResponseReader>> inFlight = new ConcurrentHashMap<>();
+    private static HttpClient client;
+    private static ExecutorService clientExecutor;
+    
+    private static final int MAX_TOKENS = 8192;
+    private static final int PLAN_MAX_TOKENS = 4096;
+    // How earlier edits appear in the history of a session
+    private static final String EDIT_HISTORY_PREFIX = "Change the build: ";
+    
+    // Prompts are loaded from the mod's resources once
+    private static final PromptTemplate USER_PROMPT = PromptTemplate.load("user.txt");
+    private static final String CONTINUE_PROMPT = PromptTemplate.loadText("continue.txt");
+    private static final PromptTemplate EDIT_PROMPT = PromptTemplate.load("edit.txt");
+    private static final PromptTemplate PLAN_USER_PROMPT = PromptTemplate.load("plan_user.txt");
+    
+    // The static tools and system prompt of each kind of request, serialized once. They come first in
+    // the request and end with a cache breakpoint, so repeated requests read them from the prompt cache.
+    private static final String GENERATE_PREFIX = serializePrefix(
+        PromptTemplate.load("system.txt").render(Map.of("example", PromptTemplate.loadResource("/assets/claudemod/mcs_templates/template.txt"))),
+        "generate_mcs_tool.json", null);
+    private static final String PLAN_PREFIX = serializePrefix(
+        PromptTemplate.loadText("plan_system.txt"), "plan_build_tool.json", "plan_build");
+
+    public static ResponseReader sendRequest(String prompt) throws IOException {
+        return send(createRequestBody(prompt, null, false));
+    }
 
-    public static String sendRequest(String prompt) throws IOException {
+    /**
+     * Ask Claude to carry on with a build whose previous response was cut off at max_tokens
+     *
+     * @param prompt The full prompt the build was started with
+     * @param previousCommands Every command generated for the build so far
+     */
+    public static ResponseReader sendContinuationRequest(String prompt, List<String> previousCommands) throws IOException {
+        return send(createRequestBody(prompt, previousCommands, false));
+    }
+
+    /**
+     * Ask Claude for the commands that change a session's build, for /claude edit
+     *
+     * @param history Earlier turns of the session, oldest first
+     * @param build Description of the build as it stands now
+     * @param prompt What the player asked to change
+     * @param previousCommands Commands already generated when continuing a response cut off at max_tokens, or null
+     */
+    public static ResponseReader sendEditRequest(List<BuildSession.Turn> history, String build, String prompt, List<String> previousCommands) throws IOException {
+        return send(createEditRequestBody(history, build, prompt, previousCommands));
+    }
+
+    /**
+     * Ask Claude to split a build into components with bounding boxes, for /claude plan
+     *
+     * @param prompt The full prompt describing the whole build
+     * @param maxComponents The most components the plan may have
+     * @return The response, with the plan in a plan_build tool call of its body
+     */
+    public static ResponseReader sendPlanRequest(String prompt, int maxComponents) throws IOException {
+        return send(createPlanRequestBody(prompt, maxComponents));
+    }
+
+    private static ResponseReader send(String requestBody) throws IOException {
         try {
             String apiKey = ClaudeConfig.getApiKey();
             if (apiKey == null || apiKey.isEmpty()) {
                 throw new IOException("Claude API key not set. Please use the /claude-key command to set your API key.");
             }
 
-            // Construct the request to Claude API
-            JsonObject requestBody = new JsonObject();
-            requestBody.addProperty("model", ClaudeConfig.getModel());
-            requestBody.addProperty("max_tokens", 8192);
-            requestBody.addProperty("system", "You are an expert Minecraft architect and builder who specializes in creating efficient command sequences for building structures. " +
-                    "You understand Minecraft's commands like /fill, /setblock, /clone, and /execute, and know how to use them efficiently to create complex builds. " +
-                    "You follow architectural principles like proportion, balance, and aesthetic design. " +
-                    "When asked to build something, you create a sequence of Minecraft commands that, when executed in order, will create the requested structure. " +
-                    "Your output should be a complete set of Minecraft commands in a code block, ready for execution in-game.");
-            
-            // Create messages array properly
-            JsonObject userMessage = new JsonObject();
-            userMessage.addProperty("role", "user");
-            userMessage.addProperty("content", 
-                "# MINECRAFT COMMAND GENERATOR GUIDE\n\n" +
-                
-                "## COMMAND TYPES\n" +
-                "Use these powerful commands efficiently to build structures:\n\n" +
-                
-                "### FILL COMMAND\n" +
-                "- Format: `/fill x1 y1 z1 x2 y2 z2 block [data] [options]`\n" +
-                "- Use for large areas like walls, floors, roofs\n" +
-                "- Limit to areas of 32,768 blocks or less\n" +
-                "- Example: `/fill ~0 ~0 ~0 ~10 ~0 ~10 minecraft:stone`\n\n" +
-                
-                "### SETBLOCK COMMAND\n" +
-                "- Format: `/setblock x y z block [data] [options]`\n" +
-                "- Use for single blocks or precise placement\n" +
-                "- Great for blocks with specific states/properties\n" +
-                "- Example: `/setblock ~5 ~1 ~5 minecraft:oak_door[half=lower,facing=east]`\n\n" +
-                
-                "### CLONE COMMAND\n" +
-                "- Format: `/clone x1 y1 z1 x2 y2 z2 x y z [options]`\n" +
-                "- Use for repeating patterns or symmetry\n" +
-                "- Can mirror structures using carefully chosen coordinates\n" +
-                "- Example: `/clone ~0 ~0 ~0 ~5 ~5 ~5 ~10 ~0 ~0`\n\n" +
-                
-                "### EXECUTE COMMAND\n" +
-                "- Format: `/execute ... run command`\n" +
-                "- Use for complex conditional building\n" +
-                "- Can replace only specific blocks\n" +
-                "- Example: `/execute if block ~0 ~-1 ~0 minecraft:stone run setblock ~0 ~0 ~0 minecraft:grass_block`\n\n" +
-                
-                "## EFFICIENCY TIPS\n" +
-                
-                "### OPTIMIZE COMMAND COUNT\n" +
-                "- Use `/fill` for large areas rather than many `/setblock` commands\n" +
-                "- Build in logical order: foundation → walls → roof → details\n" +
-                "- Use relative coordinates (~ ~ ~) based on player position\n" +
-                "- When appropriate, use `/clone` to copy repeated elements\n\n" +
-                
-                "### TECHNICAL LIMITATIONS\n" +
-                "- Maximum 32,768 blocks per `/fill` command\n" +
-                "- Commands with relative coordinates (~) are based on player position\n" +
-                "- Use comments (lines starting with #) to organize sections\n" +
-                "- Some blocks require certain block states (doors, stairs, etc.)\n\n" +
-                
-                "## AVAILABLE BLOCKS\n" +
-                "All Minecraft blocks can be used with these formats:\n" +
-                "- Basic blocks: `minecraft:stone`, `minecraft:oak_planks`\n" +
-                "- Blocks with states: `minecraft:oak_stairs[facing=north,half=bottom]`\n\n" +
-                
-                "## OUTPUT FORMAT\n" +
-                "Your response should include ONLY a code block containing commands:\n" +
-                "```\n" +
-                "# Foundation\n" +
-                "/fill ~0 ~0 ~0 ~10 ~0 ~10 minecraft:stone\n" +
-                "# Walls\n" +
-                "/fill ~0 ~1 ~0 ~10 ~4 ~0 minecraft:oak_planks\n" +
-                "# Etc...\n" +
-                "```\n\n" +
-                
-                "## YOUR TASK\n" +
-                "Create a comprehensive set of Minecraft commands that will build: " + prompt);
-            
-            com.google.gson.JsonArray messagesArray = new com.google.gson.JsonArray();
-            messagesArray.add(userMessage);
-            
-            // Add messages as a JsonArray
-            requestBody.add("messages", messagesArray);
-            
-            // Add the tool schema
-            JsonObject toolsJson = gson.fromJson(TOOL_SCHEMA, JsonObject.class);
-            requestBody.add("tools", toolsJson.get("tools"));
-            
             // Log the request details
-            ClaudeMod.log("Making Claude API request to: " + API_URL);
-            ClaudeMod.log("Request body: " + requestBody.toString());
+            String apiUrl = ClaudeConfig.getApiUrl();
+            ClaudeMod.log("Making Claude API request to: " + apiUrl);
+            // Request bodies are large, so they are only logged at debug level
+            ClaudeLog.debug(LogCategory.API, () -> "Request body: " + requestBody);
             
-            // Create HTTP client
-            HttpClient client = HttpClient.newBuilder()
-                .version(HttpClient.Version.HTTP_2)
-                .connectTimeout(Duration.ofSeconds(30))
-                .build();
-            
-            // Create request
-            HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(API_URL))
-                .timeout(Duration.ofMinutes(1))
-                .header("x-api-key", apiKey)
-                .header("anthropic-version", "2023-06-01")
-                .header("content-type", "application/json")
-                .POST(HttpRequest.BodyPublishers.ofString(requestBody.toString()))
-                .build();
-            
-            ClaudeMod.log("Sending API request with headers: x-api-key=" + apiKey.substring(0, 5) + "..., anthropic-version=2023-06-01");
-            
-            // Send request and get response
-            ClaudeMod.log("Executing HTTP request...");
-            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
-            
-            int statusCode = response.statusCode();
-            ClaudeMod.log("Received response code: " + statusCode);
-            
-            // Check if request was successful
+            return sendCoalesced(apiUrl, apiKey, requestBody);
+        } catch (Exception e) {
+            ClaudeLog.error(LogCategory.API, "Error calling Claude API: " + e.getClass().getName() + ": " + e.getMessage(), e);
+            if (e instanceof IOException) {
+                throw (IOException) e;
+            }
+            throw new IOException("Error calling Claude API", e);
+        }
+    }
+
+    /**
+     * Send a prompt in streaming mode. Completed MCS lines are handed to the consumer as soon as they
+     * arrive, on the calling thread, long before the full response is available.
+     *
+     * @param prompt The full prompt to send to Claude
+     * @param previousCommands Commands already generated when continuing a response cut off at max_tokens, or null
+     * @param lineConsumer Receives each generated MCS line in order
+     * @return The parser holding the final state of the stream, such as its stop reason
+     */
+    public static StreamingResponseParser sendStreamingRequest(String prompt, List<String> previousCommands, Consumer<String> lineConsumer) throws IOException {
+        String apiKey = ClaudeConfig.getApiKey();
+        if (apiKey == null || apiKey.isEmpty()) {
+            throw new IOException("Claude API key not set. Please use the /claude-key command to set your API key.");
+        }
+        
+        String requestBody = createRequestBody(prompt, previousCommands, true);
+        
+        String apiUrl = ClaudeConfig.getApiUrl();
+        ClaudeMod.log("Making streaming Claude API request to: " + apiUrl);
+        
+        long start = System.nanoTime();
+        ClaudeMetrics.API_REQUESTS.increment();
+        try {
+            StreamingResponseParser parser = stream(apiUrl, apiKey, requestBody, new Consumer<>() {
+                private boolean first = true;
+                
+                @Override
+                public void accept(String line) {
+                    if (first) {
+                        first = false;
+                        ClaudeMetrics.API_FIRST_LINE.observeNanos(System.nanoTime() - start);
+                    }
+                    lineConsumer.accept(line);
+                }
+            });
+            ClaudeMetrics.API_LATENCY.observeNanos(System.nanoTime() - start);
+            recordUsage(parser.getUsage());
+            return parser;
+        } catch (IOException | RuntimeException e) {
+            ClaudeMetrics.API_ERRORS.increment();
+            throw e;
+        }
+    }
+    
+    private static StreamingResponseParser stream(String apiUrl, String apiKey, String body, Consumer<String> lineConsumer) throws IOException {
+        HttpRequest request = createHttpRequest(apiUrl, apiKey, body);
+        HttpResponse<Stream<String>> response;
+        try {
+            response = getClient().send(request, HttpResponse.BodyHandlers.ofLines());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Claude API request interrupted", e);
+        }
+        
+        int statusCode = response.statusCode();
+        ClaudeMod.log("Received streaming response code: " + statusCode);
+        
+        try (Stream<String> lines = response.body()) {
             if (statusCode < 200 || statusCode >= 300) {
-                String errorBody = response.body();
+                String errorBody = lines.collect(Collectors.joining("\n"));
                 ClaudeMod.log("API error response: " + errorBody);
                 throw new IOException("Unexpected response code: " + statusCode + " - " + errorBody);
             }
             
-            String responseBody = response.body();
+            StreamingResponseParser parser = new StreamingResponseParser(lineConsumer);
+            Iterator<String> iterator = lines.iterator();
+            while (iterator.hasNext()) {
+                parser.acceptLine(iterator.next());
+            }
+            parser.finish();
             
-            if (responseBody == null || responseBody.isEmpty()) {
-                ClaudeMod.log("API returned empty response");
-                throw new IOException("API returned empty response");
+            ClaudeMod.log("Claude API stream finished with " + parser.getLinesEmitted() + " MCS lines, stop reason: " + parser.getStopReason());
+            return parser;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+    
+    /**
+     * Build the messages request for a prompt
+     *
+     * @param previousCommands Commands generated by earlier responses that were cut off, or null
+     * @param stream Whether to ask for a streamed response
+     */
+    private static String createRequestBody(String prompt, List<String> previousCommands, boolean stream) {
+        JsonArray messages = new JsonArray();
+        messages.add(createMessage("user", USER_PROMPT.render(Map.of("prompt", prompt))));
+        addContinuation(messages, previousCommands);
+        return assembleBody(GENERATE_PREFIX, MAX_TOKENS, messages, stream);
+    }
+    
+    /**
+     * Build the request for an edit: the session's earlier turns as a conversation, then the current
+     * build and the change. Turns that only kept their prompt are listed ahead of the first message.
+     */
+    private static String createEditRequestBody(List<BuildSession.Turn> history, String build, String prompt, List<String> previousCommands) {
+        JsonArray messages = new JsonArray();
+        StringBuilder earlier = new StringBuilder();
+        for (BuildSession.Turn turn : history) {
+            if (turn.getCommands() == null) {
+                earlier.append("- ").append(turn.getPrompt()).append('\n');
+                continue;
             }
+            String request = turn.isEdit()
+                ? EDIT_HISTORY_PREFIX + turn.getPrompt()
+                : USER_PROMPT.render(Map.of("prompt", turn.getPrompt()));
+            messages.add(createMessage("user", withEarlierRequests(earlier, request)));
+            messages.add(createMessage("assistant", "```\n" + turn.getCommands() + "\n```"));
+        }
+        
+        String request = EDIT_PROMPT.render(Map.of("build", build, "prompt", prompt));
+        messages.add(createMessage("user", withEarlierRequests(earlier, request)));
+        addContinuation(messages, previousCommands);
+        return assembleBody(GENERATE_PREFIX, MAX_TOKENS, messages, false);
+    }
+    
+    /**
+     * Put the prompts of turns that dropped out of the history in front of a message, once
+     */
+    private static String withEarlierRequests(StringBuilder earlier, String message) {
+        if (earlier.length() == 0) {
+            return message;
+        }
+        String text = "Earlier requests for this build, which are already built:\n" + earlier + "\n" + message;
+        earlier.setLength(0);
+        return text;
+    }
+    
+    private static void addContinuation(JsonArray messages, List<String> previousCommands) {
+        if (previousCommands != null) {
+            // Show Claude what it has written so far and ask for the rest
+            messages.add(createMessage("assistant", "```\n" + String.join("\n", previousCommands) + "\n```"));
+            messages.add(createMessage("user", CONTINUE_PROMPT));
+        }
+    }
+    
+    /**
+     * Build the request that asks for a plan rather than for commands
+     */
+    private static String createPlanRequestBody(String prompt, int maxComponents) {
+        JsonArray messages = new JsonArray();
+        messages.add(createMessage("user", PLAN_USER_PROMPT.render(Map.of(
+            "max_components", String.valueOf(maxComponents),
+            "prompt", prompt))));
+        return assembleBody(PLAN_PREFIX, PLAN_MAX_TOKENS, messages, false);
+    }
+    
+    private static JsonObject createMessage(String role, String content) {
+        JsonObject message = new JsonObject();
+        message.addProperty("role", role);
+        message.addProperty("content", content);
+        return message;
+    }
+    
+    /**
+     * Join a serialized prefix with the parts of the request that change
+     */
+    private static String assembleBody(String prefix, int maxTokens, JsonArray messages, boolean stream) {
+        StringBuilder body = new StringBuilder(prefix.length() + 256);
+        body.append("{\"model\":").append(gson.toJson(ClaudeConfig.getModel()))
+            .append(",\"max_tokens\":").append(maxTokens);
+        if (stream) {
+            body.append(",\"stream\":true");
+        }
+        return body.append(',').append(prefix)
+            .append(",\"messages\":").append(gson.toJson(messages))
+            .append('}').toString();
+    }
+    
+    /**
+     * Serialize the tools and system prompt of a kind of request, with a cache breakpoint after the system prompt
+     *
+     * @param toolResource File name of the tool definition in the prompts directory
+     * @param forcedTool Name of a tool Claude must call, or null to let it choose
+     * @return The fields as they appear inside the request object, without surrounding braces
+     */
+    private static String serializePrefix(String system, String toolResource, String forcedTool) {
+        JsonObject prefix = new JsonObject();
+        
+        JsonArray tools = new JsonArray();
+        tools.add(gson.fromJson(PromptTemplate.loadText(toolResource), JsonObject.class));
+        prefix.add("tools", tools);
+        
+        if (forcedTool != null) {
+            JsonObject toolChoice = new JsonObject();
+            toolChoice.addProperty("type", "tool");
+            toolChoice.addProperty("name", forcedTool);
+            prefix.add("tool_choice", toolChoice);
+        }
+        
+        // The API caches everything up to and including the block marked with cache_control: tools, then system
+        JsonObject systemBlock = new JsonObject();
+        systemBlock.addProperty("type", "text");
+        systemBlock.addProperty("text", system);
+        JsonObject cacheControl = new JsonObject();
+        cacheControl.addProperty("type", "ephemeral");
+        systemBlock.add("cache_control", cacheControl);
+        JsonArray systemBlocks = new JsonArray();
+        systemBlocks.add(systemBlock);
+        prefix.add("system", systemBlocks);
+        
+        String json = gson.toJson(prefix);
+        return json.substring(1, json.length() - 1);
+    }
+    
+    /**
+     * Send a request body, sharing the upstream call with any identical request already in flight. The
+     * response is read once, and every caller gets the same reader.
+     */
+    private static ResponseReader sendCoalesced(String apiUrl, String apiKey, String body) throws IOException {
+        String key = ResponseCache.sha256(apiUrl + "\n" + apiKey + "\n" + body);
+        CompletableFuture<ResponseReader> call = new CompletableFuture<>();
+        CompletableFuture<ResponseReader> existing = inFlight.putIfAbsent(key, call);
+        
+        if (existing != null) {
+            ClaudeMod.log("Identical Claude API request already in flight, waiting for its response");
+            ClaudeMetrics.API_COALESCED.increment();
+            return await(existing);
+        }
+        
+        long start = System.nanoTime();
+        ClaudeMetrics.API_REQUESTS.increment();
+        try {
+            String responseBody = execute(apiUrl, apiKey, body);
+            ClaudeMetrics.API_LATENCY.observeNanos(System.nanoTime() - start);
+            ClaudeMetrics.API_RESPONSE_SIZE.observe(responseBody.length());
+            ResponseReader response = ResponseReader.read(responseBody);
+            recordUsage(response.getUsage());
+            call.complete(response);
+            return response;
+        } catch (IOException | RuntimeException e) {
+            ClaudeMetrics.API_ERRORS.increment();
+            call.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, call);
+        }
+    }
+    
+    private static String execute(String apiUrl, String apiKey, String body) throws IOException {
+        HttpRequest request = createHttpRequest(apiUrl, apiKey, body);
+        
+        ClaudeLog.debug(LogCategory.API, () -> "Sending API request with headers: x-api-key="
+            + apiKey.substring(0, Math.min(apiKey.length(), 5)) + "..., anthropic-version=2023-06-01");
+        HttpResponse<String> response;
+        try {
+            response = getClient().send(request, HttpResponse.BodyHandlers.ofString());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Claude API request interrupted", e);
+        }
+        
+        int statusCode = response.statusCode();
+        ClaudeMod.log("Received response code: " + statusCode);
+        
+        // Check if request was successful
+        if (statusCode < 200 || statusCode >= 300) {
+            String errorBody = response.body();
+            ClaudeMod.log("API error response: " + errorBody);
+            throw new IOException("Unexpected response code: " + statusCode + " - " + errorBody);
+        }
+        
+        String responseBody = response.body();
+        
+        if (responseBody == null || responseBody.isEmpty()) {
+            ClaudeMod.log("API returned empty response");
+            throw new IOException("API returned empty response");
+        }
+        
+        ClaudeMod.log("Claude API response received with length: " + responseBody.length());
+        ClaudeLog.debug(LogCategory.API, () -> "API response preview: " + responseBody.substring(0, Math.min(responseBody.length(), 100)) + "...");
+        
+        return responseBody;
+    }
+    
+    /**
+     * Add a response's token counts to the metrics, including how much of the prompt came from the prompt cache
+     */
+    private static void recordUsage(JsonObject usage) {
+        if (usage == null) {
+            return;
+        }
+        long input = getTokens(usage, "input_tokens");
+        long cacheWrite = getTokens(usage, "cache_creation_input_tokens");
+        long cacheRead = getTokens(usage, "cache_read_input_tokens");
+        long output = getTokens(usage, "output_tokens");
+        ClaudeMetrics.API_INPUT_TOKENS.add(input);
+        ClaudeMetrics.API_CACHE_WRITE_TOKENS.add(cacheWrite);
+        ClaudeMetrics.API_CACHE_READ_TOKENS.add(cacheRead);
+        ClaudeMetrics.API_OUTPUT_TOKENS.add(output);
+        ClaudeLog.debug(LogCategory.API, () -> "Token usage: " + input + " input, " + cacheWrite + " cache write, "
+            + cacheRead + " cache read, " + output + " output");
+    }
+    
+    private static long getTokens(JsonObject usage, String field) {
+        JsonElement value = usage.get(field);
+        return value != null && value.isJsonPrimitive() ? value.getAsLong() : 0;
+    }
+    
+    private static HttpRequest createHttpRequest(String apiUrl, String apiKey, String body) {
+        return HttpRequest.newBuilder()
+            .uri(URI.create(apiUrl))
+            .timeout(Duration.ofMinutes(1))
+            .header("x-api-key", apiKey)
+            .header("anthropic-version", "2023-06-01")
+            .header("content-type", "application/json")
+            .POST(HttpRequest.BodyPublishers.ofString(body))
+            .build();
+    }
+    
+    private static ResponseReader await(CompletableFuture<ResponseReader> call) throws IOException {
+        try {
+            return call.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Claude API request interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Error calling Claude API", e.getCause());
+        }
+    }
+    
+    /**
+     * The shared HTTP client. It is created on first use and kept for the life of the server so that
+     * connections and TLS sessions are reused between requests.
+     */
+    private static synchronized HttpClient getClient() {
+        if (client == null) {
+            // The JDK reads these once, when its HTTP client implementation is first loaded
+            setDefaultProperty("jdk.httpclient.connectionPoolSize", ClaudeConfig.getHttpConnectionPoolSize());
+            setDefaultProperty("jdk.httpclient.keepalive.timeout", ClaudeConfig.getHttpKeepaliveSeconds());
             
-            ClaudeMod.log("Claude API response received with length: " + responseBody.length());
-            ClaudeMod.log("API RESPONSE PREVIEW: " + responseBody.substring(0, Math.min(responseBody.length(), 100)) + "...");
+            AtomicInteger threadCount = new AtomicInteger(1);
+            clientExecutor = Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "Claude-Http-" + threadCount.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            });
             
-            return responseBody;
-        } catch (Exception e) {
-            ClaudeMod.log("Error calling Claude API: " + e.getClass().getName() + ": " + e.getMessage());
-            e.printStackTrace();
-            if (e instanceof IOException) {
-                throw (IOException) e;
-            }
-            throw new IOException("Error calling Claude API", e);
+            client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(Duration.ofSeconds(30))
+                .executor(clientExecutor)
+                .build();
+            ClaudeMod.log("Created shared HTTP client for the Claude API");
+        }
+        return client;
+    }
+    
+    /**
+     * Close the shared HTTP client, aborting requests still in flight and its open connections. A new
+     * client is created if another request is sent.
+     */
+    public static synchronized void shutdown() {
+        if (client != null) {
+            client.shutdownNow();
+        }
+        if (clientExecutor != null) {
+            clientExecutor.shutdownNow();
+            clientExecutor = null;
+        }
+        client = null;
+    }
+    
+    private static void setDefaultProperty(String key, int value) {
+        // Leave values passed on the command line alone
+        if (System.getProperty(key) == null) {
+            System.setProperty(key, String.valueOf(value));
         }
     }
 }
\ No newline at end of file
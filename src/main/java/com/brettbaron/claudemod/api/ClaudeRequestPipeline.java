@@ -0,0 +1,414 @@
+package com.brettbaron.claudemod.api;
+
+import com.brettbaron.claudemod.ClaudeMod;
+import com.brettbaron.claudemod.config.ClaudeConfig;
+import com.brettbaron.claudemod.mcs.BuildJob;
+import com.brettbaron.claudemod.mcs.McsProcessor;
+import com.brettbaron.claudemod.mcs.McsProgram;
+import com.brettbaron.claudemod.metrics.ClaudeMetrics;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.command.ServerCommandSource;
+import net.minecraft.text.Text;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Runs Claude API requests on a bounded worker pool so the server thread never waits on the network.
+ * Responses are parsed, compiled, optimized and saved on the worker too, and only the finished program
+ * is handed back to the server thread, which is the only place the world is touched.
+ */
+public class ClaudeRequestPipeline {
+    private static final AtomicInteger nextJobId = new AtomicInteger(1);
+    private static final Map<Integer, Future<?>> pendingJobs = new ConcurrentHashMap<>();
+    // Prompts being generated, by cache key, so the same build asked for from elsewhere waits for them
+    private static final Map<String, CompletableFuture<Void>> generating = new ConcurrentHashMap<>();
+    private static ThreadPoolExecutor executor;
+
+    /**
+     * Queue a prompt for generation and return immediately. Prompts that were built before are
+     * served from the {@link ResponseCache} without calling the API. A prompt that is already being
+     * generated, for any player at any position, waits for that generation and is then served from the
+     * cache too. Once the build has been placed it starts a new {@link BuildSession} that /claude edit
+     * can continue.
+     *
+     * @param prompt The player's prompt, used in the cache key
+     * @param terrain The terrain description included in the contextual prompt, also used in the cache key
+     * @param contextualPrompt The full prompt to send to Claude
+     * @param source The command source that requested the build
+     * @return The job id, or -1 if the request queue is full
+     */
+    public static int submit(String prompt, String terrain, String contextualPrompt, ServerCommandSource source) {
+        int jobId = nextJobId.getAndIncrement();
+        String cacheKey = ResponseCache.createKey(prompt, terrain, ClaudeConfig.getModel());
+        BuildSession session = BuildSession.create(source, prompt);
+
+        return enqueue(jobId, () -> {
+            Runnable generate = () -> {
+                if (ClaudeConfig.isStreamResponses()) {
+                    runStreamingJob(jobId, contextualPrompt, cacheKey, session, source);
+                } else {
+                    runJob(jobId, contextualPrompt, cacheKey, session, source);
+                }
+            };
+            if (!ClaudeConfig.isCacheEnabled()) {
+                generate.run();
+                return;
+            }
+
+            // The cache checks its files on disk, so it is looked up here rather than on the server thread
+            ResponseCache.Entry cached = generateOnce(cacheKey, () -> ResponseCache.lookup(cacheKey),
+                () -> source.getServer().execute(() -> source.sendFeedback(() ->
+                    Text.literal("[#" + jobId + "] The same build is already being generated, waiting for it..."), false)),
+                generate);
+            if (cached != null) {
+                ClaudeMod.log("Claude request #" + jobId + " served from the response cache");
+                source.getServer().execute(() ->
+                    source.sendFeedback(() -> Text.literal("[#" + jobId + "] Reusing cached build for this prompt"), false));
+                runCachedJob(jobId, cached, session, source);
+            }
+        });
+    }
+
+    /**
+     * Generate a prompt unless it is cached. The cache key leaves out the player's position, so if the
+     * same key is already being generated, wait for that generation and look the cache up again. Builds
+     * with absolute coordinates are never cached, and are generated again once the wait is over.
+     *
+     * @param cacheKey The prompt's cache key
+     * @param lookup Looks the key up in the cache
+     * @param onWait Told when this prompt has to wait for another generation
+     * @param generate Generates the prompt, filling the cache before it returns
+     * @return The cached build, or null if it was generated by this call
+     */
+    static <T> T generateOnce(String cacheKey, Supplier<T> lookup, Runnable onWait, Runnable generate) {
+        T cached = lookup.get();
+        if (cached != null) {
+            return cached;
+        }
+
+        CompletableFuture<Void> generation = new CompletableFuture<>();
+        CompletableFuture<Void> existing = generating.putIfAbsent(cacheKey, generation);
+        if (existing != null) {
+            ClaudeMetrics.API_COALESCED.increment();
+            onWait.run();
+            try {
+                existing.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                // Generations always complete normally
+            }
+            cached = lookup.get();
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        try {
+            generate.run();
+        } finally {
+            generating.remove(cacheKey, generation);
+            generation.complete(null);
+        }
+        return null;
+    }
+
+    /**
+     * Queue an edit of a session's build. Claude is asked only for the commands that change the build,
+     * and only the blocks that differ from it are placed. Edits are not cached or streamed. Must be
+     * called on the server thread.
+     *
+     * @param session The player's session
+     * @param prompt What the player asked to change
+     * @param source The command source that requested the edit
+     * @return The job id, or -1 if the request queue is full
+     */
+    public static int submitEdit(BuildSession session, String prompt, ServerCommandSource source) {
+        int jobId = nextJobId.getAndIncrement();
+
+        // The session belongs to the server thread, so the worker puts the request together from a snapshot
+        BuildSession.Snapshot snapshot = session.snapshot();
+        int queued = enqueue(jobId, () -> runEditJob(jobId, session, snapshot, prompt, source));
+        if (queued >= 0) {
+            session.setEditPending(true);
+        }
+        return queued;
+    }
+
+    /**
+     * Queue a prompt to be split into components that are generated in parallel and merged into one
+     * build, see {@link PlannedBuild}. Planned builds are not cached.
+     *
+     * @param contextualPrompt The full prompt to send to Claude
+     * @param source The command source that requested the build
+     * @return The job id, or -1 if the request queue is full
+     */
+    public static int submitPlanned(String contextualPrompt, ServerCommandSource source) {
+        int jobId = nextJobId.getAndIncrement();
+        return enqueue(jobId, () -> runPlannedJob(jobId, contextualPrompt, source));
+    }
+
+    /**
+     * @return The number of requests that are queued or waiting on the API
+     */
+    public static int getPendingCount() {
+        return pendingJobs.size();
+    }
+
+    /**
+     * Stop all workers, abandoning any requests that have not completed yet
+     */
+    public static synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+        pendingJobs.clear();
+    }
+
+    private static int enqueue(int jobId, Runnable job) {
+        try {
+            Future<?> future = getExecutor().submit(job);
+            pendingJobs.put(jobId, future);
+            ClaudeMod.log("Queued Claude request #" + jobId + " (" + pendingJobs.size() + " pending)");
+            return jobId;
+        } catch (RejectedExecutionException e) {
+            ClaudeMod.log("Rejected Claude request #" + jobId + ": request queue is full");
+            return -1;
+        }
+    }
+
+    private static synchronized ThreadPoolExecutor getExecutor() {
+        if (executor == null) {
+            int workers = ClaudeConfig.getMaxConcurrentRequests();
+            int queueSize = ClaudeConfig.getMaxQueuedRequests();
+
+            executor = new ThreadPoolExecutor(workers, workers, 60L, TimeUnit.SECONDS,
+                queueSize > 0 ? new ArrayBlockingQueue<>(queueSize) : new SynchronousQueue<>(),
+                new WorkerThreadFactory());
+            executor.allowCoreThreadTimeOut(true);
+            ClaudeMod.log("Started Claude request pipeline with " + workers + " workers and a queue of " + queueSize);
+        }
+        return executor;
+    }
+
+    private static void runCachedJob(int jobId, ResponseCache.Entry cached, BuildSession session, ServerCommandSource source) {
+        MinecraftServer server = source.getServer();
+        String name = Paths.get(cached.getMcsFilePath()).getFileName().toString();
+
+        try {
+            McsProgram program = cached.getProgram() != null ? cached.getProgram() : McsProcessor.loadProgram(cached.getMcsFilePath());
+            // The session needs both the program and the commands Claude wrote for it
+            String commands = session != null ? Files.readString(Paths.get(cached.getMcsFilePath())) : null;
+            server.execute(() -> {
+                pendingJobs.remove(jobId);
+                BuildJob job = McsProcessor.submitProgram(name, program, source);
+                if (session != null) {
+                    session.trackBuild(job, commands);
+                }
+            });
+        } catch (IOException e) {
+            ClaudeMod.log("Error executing MCS file: " + e.getMessage());
+            server.execute(() -> {
+                pendingJobs.remove(jobId);
+                source.sendFeedback(() -> Text.literal("Error executing MCS file: " + e.getMessage()), false);
+            });
+        }
+    }
+
+    private static void runJob(int jobId, String prompt, String cacheKey, BuildSession session, ServerCommandSource source) {
+        MinecraftServer server = source.getServer();
+
+        try {
+            ClaudeMod.log("Sending Claude request #" + jobId);
+            // Read once, for both the stop reason and the commands
+            ResponseReader apiResponse = ClaudeAPI.sendRequest(prompt);
+
+            BlockPlacement.PreparedBuild build;
+            if (apiResponse.isTruncated()) {
+                // Without streaming, every part is generated before anything is built
+                String commands = ResponseContinuation.complete(prompt, apiResponse, continuation -> server.execute(() ->
+                    source.sendFeedback(() -> Text.literal("[#" + jobId + "] Claude reached its output limit, continuing ("
+                        + continuation + "/" + ClaudeConfig.getMaxContinuations() + ")..."), false)));
+                if (commands == null) {
+                    server.execute(() -> {
+                        pendingJobs.remove(jobId);
+                        source.sendError(Text.literal("[#" + jobId + "] No MCS content found in Claude's response"));
+                    });
+                    return;
+                }
+                build = BlockPlacement.prepareCommands(commands);
+            } else {
+                server.execute(() -> source.sendFeedback(() -> Text.literal("[#" + jobId + "] Got response from Claude, processing..."), false));
+                build = BlockPlacement.prepareResponse(apiResponse);
+            }
+
+            BlockPlacement.cache(build, cacheKey);
+
+            // World access has to happen on the server thread
+            server.execute(() -> {
+                pendingJobs.remove(jobId);
+                int commandsProcessed = BlockPlacement.build(build, source, session);
+                source.sendFeedback(() ->
+                    Text.literal("[#" + jobId + "] Built structure with " + commandsProcessed + " commands!"), false);
+            });
+        } catch (Exception e) {
+            ClaudeMod.log("Claude request #" + jobId + " failed: " + e.getClass().getName() + ": " + e.getMessage());
+
+            server.execute(() -> {
+                pendingJobs.remove(jobId);
+                source.sendError(Text.literal("[#" + jobId + "] ERROR: " + e.getClass().getName() + ": " + e.getMessage()));
+
+                // If there's a cause, print that too
+                if (e.getCause() != null) {
+                    source.sendError(Text.literal("Caused by: " + e.getCause().getMessage()));
+                }
+            });
+        }
+    }
+
+    private static void runStreamingJob(int jobId, String prompt, String cacheKey, BuildSession session, ServerCommandSource source) {
+        MinecraftServer server = source.getServer();
+        StreamingBuild build = new StreamingBuild(jobId, source, cacheKey, session);
+
+        try {
+            ClaudeMod.log("Sending streaming Claude request #" + jobId);
+            // Every line generated so far, for continuing a response that is cut off
+            List<String> generated = new ArrayList<>();
+            Consumer<String> lineConsumer = line -> {
+                generated.add(line);
+                // Each line is parsed and built on the server thread, in the order it arrived
+                server.execute(() -> build.acceptLine(line));
+            };
+
+            StreamingResponseParser parser = ClaudeAPI.sendStreamingRequest(prompt, null, lineConsumer);
+            int continuations = 0;
+            // The build keeps running what has arrived while the next part is generated
+            while (parser.isTruncated() && continuations < ClaudeConfig.getMaxContinuations()) {
+                int continuation = ++continuations;
+                ClaudeMod.log("Claude request #" + jobId + " cut off at max_tokens after " + generated.size() + " lines, requesting continuation " + continuation);
+                server.execute(() -> build.continueGenerating(continuation));
+                parser = ClaudeAPI.sendStreamingRequest(prompt, generated, lineConsumer);
+            }
+
+            boolean truncated = parser.isTruncated();
+            // Saved and cached here so the server thread does no disk I/O
+            String mcsFilePath = build.save(generated);
+            server.execute(() -> {
+                pendingJobs.remove(jobId);
+                build.complete(truncated, mcsFilePath);
+            });
+        } catch (Exception e) {
+            ClaudeMod.log("Streaming Claude request #" + jobId + " failed: " + e.getClass().getName() + ": " + e.getMessage());
+
+            server.execute(() -> {
+                pendingJobs.remove(jobId);
+                build.fail(e);
+            });
+        }
+    }
+
+    private static void runEditJob(int jobId, BuildSession session, BuildSession.Snapshot snapshot, String prompt,
+                                   ServerCommandSource source) {
+        MinecraftServer server = source.getServer();
+
+        try {
+            int maxChars = BuildSession.getHistoryChars();
+            String build = snapshot.describeBuild(maxChars);
+            List<BuildSession.Turn> history = snapshot.getHistory(maxChars - build.length());
+
+            ClaudeMod.log("Sending edit request #" + jobId + " with " + history.size() + " earlier turns");
+            ResponseReader apiResponse = ClaudeAPI.sendEditRequest(history, build, prompt, null);
+            // The changes are diffed against the build as a whole, so every part is generated before anything is placed
+            String commands = ResponseContinuation.complete(apiResponse,
+                continuation -> server.execute(() ->
+                    source.sendFeedback(() -> Text.literal("[#" + jobId + "] Claude reached its output limit, continuing ("
+                        + continuation + "/" + ClaudeConfig.getMaxContinuations() + ")..."), false)),
+                previousCommands -> ClaudeAPI.sendEditRequest(history, build, prompt, previousCommands));
+
+            if (commands == null) {
+                server.execute(() -> {
+                    pendingJobs.remove(jobId);
+                    session.setEditPending(false);
+                    source.sendError(Text.literal("[#" + jobId + "] No MCS content found in Claude's response"));
+                });
+                return;
+            }
+            BlockPlacement.PreparedEdit edit = BlockPlacement.prepareEdit(commands, prompt, snapshot);
+
+            server.execute(() -> {
+                pendingJobs.remove(jobId);
+                int commandsProcessed = BlockPlacement.processEdit(edit, session, source);
+                source.sendFeedback(() ->
+                    Text.literal("[#" + jobId + "] Edited build with " + commandsProcessed + " commands"), false);
+            });
+        } catch (Exception e) {
+            ClaudeMod.log("Edit request #" + jobId + " failed: " + e.getClass().getName() + ": " + e.getMessage());
+
+            server.execute(() -> {
+                pendingJobs.remove(jobId);
+                session.setEditPending(false);
+                source.sendError(Text.literal("[#" + jobId + "] ERROR: " + e.getClass().getName() + ": " + e.getMessage()));
+                if (e.getCause() != null) {
+                    source.sendError(Text.literal("Caused by: " + e.getCause().getMessage()));
+                }
+            });
+        }
+    }
+
+    private static void runPlannedJob(int jobId, String prompt, ServerCommandSource source) {
+        MinecraftServer server = source.getServer();
+        PlannedBuild build = new PlannedBuild(jobId, source);
+
+        try {
+            ClaudeMod.log("Planning Claude request #" + jobId);
+            build.generate(prompt);
+            build.merge();
+            build.save();
+
+            server.execute(() -> {
+                pendingJobs.remove(jobId);
+                build.build();
+            });
+        } catch (Exception e) {
+            ClaudeMod.log("Planned Claude request #" + jobId + " failed: " + e.getClass().getName() + ": " + e.getMessage());
+
+            server.execute(() -> {
+                pendingJobs.remove(jobId);
+                source.sendError(Text.literal("[#" + jobId + "] ERROR: " + e.getClass().getName() + ": " + e.getMessage()));
+                if (e.getCause() != null) {
+                    source.sendError(Text.literal("Caused by: " + e.getCause().getMessage()));
+                }
+            });
+        }
+    }
+
+    private static class WorkerThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadCount = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "Claude-Request-" + threadCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
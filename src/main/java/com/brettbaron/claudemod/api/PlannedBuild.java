@@ -0,0 +1,352 @@
+package com.brettbaron.claudemod.api;
+
+import com.brettbaron.claudemod.ClaudeMod;
+import com.brettbaron.claudemod.config.ClaudeConfig;
+import com.brettbaron.claudemod.mcs.McsOptimizer;
+import com.brettbaron.claudemod.mcs.McsParser;
+import com.brettbaron.claudemod.mcs.McsProcessor;
+import com.brettbaron.claudemod.mcs.McsProgram;
+import com.brettbaron.claudemod.mcs.ProgramMerger;
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import net.minecraft.server.command.ServerCommandSource;
+import net.minecraft.text.Text;
+import net.minecraft.util.math.BlockPos;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * A large build generated in parts, for /claude plan.
+ *
+ * Claude is first asked to split the request into components, each with a bounding box around the
+ * player. The components are then generated concurrently, at most planner_parallelism at a time across
+ * all plans, and merged with a {@link ProgramMerger} into a single build job. Generating, merging,
+ * optimizing and saving all happen on the request worker, and only the finished program is handed to
+ * the server thread. Every call goes through {@link ClaudeAPI}, so the whole pipeline can be run
+ * against a local stub server with api_url.
+ */
+public class PlannedBuild {
+    private static final Gson gson = new Gson();
+    private static ThreadPoolExecutor executor;
+
+    private final int jobId;
+    private final ServerCommandSource source;
+    private final BlockPos origin;
+    private final Consumer<String> progress;
+    private final String buildName = "plan_" + UUID.randomUUID().toString().substring(0, 8);
+    private List<Component> components = List.of();
+    private String[] generated = new String[0];
+    private String mcsContent = null;
+    private McsProgram program = null;
+    private int droppedOps = 0;
+    private String mcsFilePath = null;
+
+    /**
+     * @param jobId The request id shown to the player
+     * @param source The command source that requested the build
+     */
+    public PlannedBuild(int jobId, ServerCommandSource source) {
+        this(jobId, source, BlockPos.ofFloored(source.getPosition()),
+            message -> source.getServer().execute(() -> source.sendFeedback(() -> Text.literal(message), false)));
+    }
+
+    /**
+     * @param origin Where the build is placed, for clipping commands with absolute coordinates
+     * @param progress Receives progress messages from the request worker
+     */
+    PlannedBuild(int jobId, ServerCommandSource source, BlockPos origin, Consumer<String> progress) {
+        this.jobId = jobId;
+        this.source = source;
+        this.origin = origin;
+        this.progress = progress;
+    }
+
+    /**
+     * Plan the build and generate every component. Must be called on a request worker, since it waits
+     * for all the API calls to finish.
+     *
+     * @param prompt The full prompt describing the whole build
+     * @throws IOException If the plan could not be made or no component could be generated
+     */
+    public void generate(String prompt) throws IOException {
+        // The plan is a tool call the response reader does not keep, so it is read from the raw response
+        components = parsePlan(ClaudeAPI.sendPlanRequest(prompt, ClaudeConfig.getPlannerMaxComponents()).getBody(),
+            ClaudeConfig.getPlannerMaxComponents());
+        if (components.isEmpty()) {
+            throw new IOException("Claude did not return any components for the build plan");
+        }
+
+        List<String> names = new ArrayList<>();
+        for (Component component : components) {
+            names.add(component.getName());
+        }
+        ClaudeMod.log("Claude request #" + jobId + " planned " + components.size() + " components: " + String.join(", ", names));
+        progress.accept("[#" + jobId + "] Planned " + components.size()
+            + " components (" + String.join(", ", names) + "), generating them...");
+
+        List<Future<String>> futures = new ArrayList<>();
+        for (int i = 0; i < components.size(); i++) {
+            int index = i;
+            futures.add(getExecutor().submit(() -> generateComponent(prompt, index)));
+        }
+
+        generated = new String[components.size()];
+        Exception lastError = null;
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                generated[i] = futures.get(i).get();
+            } catch (InterruptedException e) {
+                futures.forEach(future -> future.cancel(true));
+                Thread.currentThread().interrupt();
+                throw new IOException("Build plan interrupted", e);
+            } catch (ExecutionException e) {
+                lastError = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                ClaudeMod.log("Component " + components.get(i).getName() + " of request #" + jobId
+                    + " failed: " + lastError.getMessage());
+            }
+        }
+
+        if (Arrays.stream(generated).allMatch(mcs -> mcs == null)) {
+            throw new IOException("No component of the build plan could be generated", lastError);
+        }
+    }
+
+    /**
+     * Clip the generated components to their boxes, merge them into one build and optimize it. Runs on
+     * the request worker after {@link #generate}.
+     *
+     * @throws IOException If none of the components has any commands
+     */
+    public void merge() throws IOException {
+        ProgramMerger merger = new ProgramMerger(origin.getX(), origin.getY(), origin.getZ());
+        StringBuilder content = new StringBuilder();
+
+        for (int i = 0; i < components.size(); i++) {
+            Component component = components.get(i);
+            if (generated[i] == null) {
+                continue;
+            }
+
+            merger.add(McsParser.parseText(generated[i]), component.getBox());
+            content.append("# Component: ").append(component.getName())
+                .append(" (").append(component.describeBox()).append(")\n")
+                .append(generated[i]).append('\n');
+        }
+
+        McsProgram merged = merger.getProgram();
+        if (merged.getOpCount() == 0) {
+            throw new IOException("No MCS content found in Claude's responses");
+        }
+        program = ClaudeConfig.isOptimizeBuilds() ? McsOptimizer.optimize(merged) : merged;
+        droppedOps = merger.getDroppedOps();
+        mcsContent = content.toString();
+    }
+
+    /**
+     * Save the merged build's MCS file. Runs on the request worker after {@link #merge}; a build that
+     * could not be saved is still placed.
+     */
+    public void save() {
+        try {
+            // The file keeps each component as generated, before clipping
+            mcsFilePath = McsProcessor.saveMcsFile(buildName, mcsContent);
+        } catch (IOException e) {
+            ClaudeMod.log("Could not save planned build " + buildName + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Start the merged build. Must be called on the server thread.
+     */
+    public void build() {
+        int built = 0;
+        for (int i = 0; i < components.size(); i++) {
+            if (generated[i] == null) {
+                source.sendError(Text.literal("[#" + jobId + "] Could not generate " + components.get(i).getName() + ", building the rest"));
+            } else {
+                built++;
+            }
+        }
+        if (mcsFilePath != null) {
+            sendFeedback("Created MCS file: " + mcsFilePath);
+        }
+
+        if (droppedOps > 0) {
+            ClaudeMod.log("Planned build " + buildName + " dropped " + droppedOps + " commands outside their component's box");
+            sendFeedback("[#" + jobId + "] Skipped " + droppedOps + " commands that were outside their component's area");
+        }
+
+        McsProcessor.executeProgram(buildName, program, source);
+        sendFeedback("[#" + jobId + "] Merged " + built + " components into " + program.getOpCount() + " commands");
+    }
+
+    /**
+     * @return The components of the plan, once {@link #generate} has made it
+     */
+    List<Component> getComponents() {
+        return components;
+    }
+
+    /**
+     * @return The merged build, once {@link #merge} has run
+     */
+    McsProgram getProgram() {
+        return program;
+    }
+
+    /**
+     * @return Commands left out of the merged build because they were outside their component's box
+     */
+    int getDroppedOps() {
+        return droppedOps;
+    }
+
+    /**
+     * Stop the component workers, abandoning any generations that have not completed yet
+     */
+    public static synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    private String generateComponent(String prompt, int index) throws IOException {
+        Component component = components.get(index);
+        StringBuilder others = new StringBuilder();
+        for (Component other : components) {
+            if (other != component) {
+                others.append("- ").append(other.getName()).append(": ").append(other.getDescription())
+                    .append(" (").append(other.describeBox()).append(")\n");
+            }
+        }
+
+        String componentPrompt = prompt + "\n\n"
+            + "This build is being generated in parts. Build ONLY this part: " + component.getName() + " - " + component.getDescription() + "\n"
+            + "Every block must be inside the box from " + component.describeBox() + ", relative to the player. "
+            + "Use relative coordinates (~). Blocks outside the box are discarded.\n"
+            + "The other parts are built separately:\n" + others;
+
+        String mcs = ResponseContinuation.complete(componentPrompt, ClaudeAPI.sendRequest(componentPrompt), continuation ->
+            ClaudeMod.log("Component " + component.getName() + " cut off at max_tokens, requesting continuation " + continuation));
+        if (mcs == null || mcs.isEmpty()) {
+            throw new IOException("No MCS content found in Claude's response");
+        }
+        return mcs;
+    }
+
+    /**
+     * Read the components out of the plan_build tool call
+     */
+    static List<Component> parsePlan(String apiResponse, int maxComponents) throws IOException {
+        List<Component> components = new ArrayList<>();
+        try {
+            JsonObject responseJson = gson.fromJson(apiResponse, JsonObject.class);
+            if (!responseJson.has("content") || !responseJson.get("content").isJsonArray()) {
+                throw new IOException("Invalid API response format: missing content");
+            }
+
+            for (JsonElement contentEl : responseJson.getAsJsonArray("content")) {
+                if (!contentEl.isJsonObject()) continue;
+
+                JsonObject contentObj = contentEl.getAsJsonObject();
+                if (!contentObj.has("name") || !contentObj.get("name").getAsString().equals("plan_build")
+                        || !contentObj.has("input") || !contentObj.get("input").isJsonObject()) {
+                    continue;
+                }
+
+                JsonArray array = contentObj.getAsJsonObject("input").getAsJsonArray("components");
+                for (JsonElement element : array) {
+                    if (components.size() >= maxComponents) {
+                        break;
+                    }
+                    JsonObject component = element.getAsJsonObject();
+                    JsonArray min = component.getAsJsonArray("min");
+                    JsonArray max = component.getAsJsonArray("max");
+                    if (min == null || max == null || min.size() != 3 || max.size() != 3) {
+                        ClaudeMod.log("Skipping build plan component without a valid box: " + component);
+                        continue;
+                    }
+
+                    int[] box = new int[6];
+                    for (int axis = 0; axis < 3; axis++) {
+                        box[axis] = Math.min(min.get(axis).getAsInt(), max.get(axis).getAsInt());
+                        box[axis + 3] = Math.max(min.get(axis).getAsInt(), max.get(axis).getAsInt());
+                    }
+                    components.add(new Component(component.get("name").getAsString(),
+                        component.has("description") ? component.get("description").getAsString() : "", box));
+                }
+            }
+        } catch (JsonParseException | IllegalStateException | ClassCastException | NullPointerException e) {
+            throw new IOException("Could not read the build plan: " + e.getMessage(), e);
+        }
+        return components;
+    }
+
+    private static synchronized ThreadPoolExecutor getExecutor() {
+        if (executor == null) {
+            int workers = ClaudeConfig.getPlannerParallelism();
+            AtomicInteger threadCount = new AtomicInteger(1);
+            executor = new ThreadPoolExecutor(workers, workers, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+                Thread thread = new Thread(runnable, "Claude-Planner-" + threadCount.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.allowCoreThreadTimeOut(true);
+            ClaudeMod.log("Started build planner with " + workers + " workers");
+        }
+        return executor;
+    }
+
+    private void sendFeedback(String message) {
+        source.sendFeedback(() -> Text.literal(message), false);
+    }
+
+    /**
+     * One part of a planned build and the box it has to stay in
+     */
+    public static class Component {
+        private final String name;
+        private final String description;
+        private final int[] box;
+
+        /**
+         * @param box min x, y, z, max x, y, z relative to the player
+         */
+        public Component(String name, String description, int[] box) {
+            this.name = name;
+            this.description = description;
+            this.box = box;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+
+        public int[] getBox() {
+            return box;
+        }
+
+        String describeBox() {
+            return "~" + box[0] + " ~" + box[1] + " ~" + box[2] + " to ~" + box[3] + " ~" + box[4] + " ~" + box[5];
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.brettbaron.claudemod.api;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A prompt from the mod's resources (assets/claudemod/prompts), split once into literal text and
+ * {{name}} placeholders so rendering it is a single pass of appends.
+ */
+public class PromptTemplate {
+    private static final String RESOURCE_DIR = "/assets/claudemod/prompts/";
+
+    // Literal text before each placeholder, and after the last one
+    private final String[] literals;
+    private final String[] names;
+    private final int literalLength;
+
+    private PromptTemplate(String[] literals, String[] names) {
+        this.literals = literals;
+        this.names = names;
+        int length = 0;
+        for (String literal : literals) {
+            length += literal.length();
+        }
+        this.literalLength = length;
+    }
+
+    /**
+     * Load and compile a template from the prompts directory
+     *
+     * @param name File name of the template, such as system.txt
+     * @throws UncheckedIOException If the resource is missing, since it ships with the mod
+     */
+    public static PromptTemplate load(String name) {
+        return compile(loadText(name));
+    }
+
+    /**
+     * Split a template's text on its {{name}} placeholders
+     */
+    public static PromptTemplate compile(String text) {
+        List<String> literals = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        int start = 0;
+        while (true) {
+            int open = text.indexOf("{{", start);
+            int close = open < 0 ? -1 : text.indexOf("}}", open + 2);
+            if (close < 0) {
+                break;
+            }
+            literals.add(text.substring(start, open));
+            names.add(text.substring(open + 2, close).trim());
+            start = close + 2;
+        }
+        literals.add(text.substring(start));
+        return new PromptTemplate(literals.toArray(new String[0]), names.toArray(new String[0]));
+    }
+
+    /**
+     * Read a file from the prompts directory, without its trailing newline
+     */
+    public static String loadText(String name) {
+        return loadResource(RESOURCE_DIR + name);
+    }
+
+    /**
+     * Read any text resource of the mod, without its trailing newline
+     *
+     * @param path Absolute resource path, such as /assets/claudemod/mcs_templates/template.txt
+     */
+    public static String loadResource(String path) {
+        try (InputStream in = PromptTemplate.class.getResourceAsStream(path)) {
+            if (in == null) {
+                throw new IOException("Missing resource " + path);
+            }
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8).stripTrailing();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @param values Text for each placeholder; placeholders without a value are left empty
+     */
+    public String render(Map<String, String> values) {
+        int length = literalLength;
+        for (String name : names) {
+            String value = values.get(name);
+            length += value == null ? 0 : value.length();
+        }
+
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < names.length; i++) {
+            builder.append(literals[i]);
+            String value = values.get(names[i]);
+            if (value != null) {
+                builder.append(value);
+            }
+        }
+        return builder.append(literals[names.length]).toString();
+    }
+}
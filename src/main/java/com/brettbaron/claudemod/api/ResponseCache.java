@@ -0,0 +1,350 @@
+package com.brettbaron.claudemod.api;
+
+import com.brettbaron.claudemod.ClaudeMod;
+import com.brettbaron.claudemod.config.ClaudeConfig;
+import com.brettbaron.claudemod.mcs.McsBinaryFormat;
+import com.brettbaron.claudemod.mcs.McsProcessor;
+import com.brettbaron.claudemod.mcs.McsProgram;
+import com.brettbaron.claudemod.metrics.ClaudeMetrics;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.regex.Pattern;
+
+/**
+ * Caches generated builds by prompt so repeated requests skip the Claude API entirely.
+ *
+ * Keys combine the normalized prompt, the terrain description sent with it, the model and the
+ * coordinate mode of the generated commands. The player's absolute position is deliberately left out
+ * of the key, so only builds that are entirely relative to the player are cached; a build with any
+ * absolute coordinate would be placed where it was first generated. There are two tiers:
+ * <ul>
+ *   <li>a bounded in-memory LRU of compiled programs, and</li>
+ *   <li>an on-disk index in mcs_files/ that maps keys to the MCS files already saved there.</li>
+ * </ul>
+ * Entries expire after the configured TTL, and the disk index is capped by the total size of the files
+ * it points to, as recorded when each entry was cached. Evicting an entry only removes it from the index;
+ * the MCS file stays as a saved build. Lookups and puts touch the disk, so they are made on the request
+ * workers rather than the server thread.
+ */
+public class ResponseCache {
+    private static final String INDEX_FILE = "cache_index.properties";
+    // Builds are generated with ~ coordinates, so one cached build fits any position
+    private static final String COORDINATE_MODE = "relative";
+    // A single coordinate in a command: a number, or ~ or ^ with an optional offset
+    private static final Pattern COORDINATE = Pattern.compile("[~^](-?\\d*\\.?\\d+)?|-?\\d*\\.?\\d+");
+
+    private static final Object INDEX_WRITE_LOCK = new Object();
+
+    private static final Properties diskIndex = new Properties();
+    private static long indexVersion = 0;
+    private static long writtenIndexVersion = 0;
+    private static final Map<String, Entry> memory = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > ClaudeConfig.getCacheMemoryEntries();
+        }
+    };
+
+    /**
+     * A cached build
+     */
+    public static class Entry {
+        private final String mcsFilePath;
+        private final long createdMillis;
+        private final McsProgram program;
+
+        Entry(String mcsFilePath, long createdMillis, McsProgram program) {
+            this.mcsFilePath = mcsFilePath;
+            this.createdMillis = createdMillis;
+            this.program = program;
+        }
+
+        public String getMcsFilePath() {
+            return mcsFilePath;
+        }
+
+        /**
+         * @return The compiled program, or null if only the file is known
+         */
+        public McsProgram getProgram() {
+            return program;
+        }
+    }
+
+    /**
+     * Load the disk index from mcs_files/
+     */
+    public static synchronized void load() {
+        Path indexPath = getIndexPath();
+        if (!Files.exists(indexPath)) {
+            return;
+        }
+
+        try (Reader reader = Files.newBufferedReader(indexPath, StandardCharsets.UTF_8)) {
+            diskIndex.load(reader);
+            ClaudeMod.log("Loaded response cache index with " + diskIndex.size() + " entries");
+        } catch (IOException e) {
+            ClaudeMod.log("Could not load response cache index: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Build the cache key for a prompt
+     *
+     * @param prompt The player's prompt, without position context
+     * @param terrain The description of the terrain around the player sent with the prompt, or an empty string
+     * @param model The model the request will be sent to
+     */
+    public static String createKey(String prompt, String terrain, String model) {
+        String normalized = prompt.toLowerCase(Locale.ROOT).trim()
+            .replaceAll("\\s+", " ")
+            .replaceAll("[.!?]+$", "");
+        return sha256(model + "\n" + COORDINATE_MODE + "\n" + normalized + "\n" + terrain);
+    }
+
+    /**
+     * @return true if the build is placed the same wherever it is run: every fill, setblock and clone uses
+     * ~ coordinates, and no other command has an absolute position
+     */
+    public static boolean isCacheable(McsProgram program) {
+        for (int op = 0; op < program.getOpCount(); op++) {
+            int opcode = program.getOpcode(op);
+            if (opcode == McsProgram.OP_COMMAND) {
+                if (hasAbsolutePosition(program.getCommand(op))) {
+                    return false;
+                }
+                continue;
+            }
+            int coords = opcode == McsProgram.OP_CLONE ? 9 : 6;
+            int allRelative = (1 << coords) - 1;
+            if ((program.getRelativeMask(op) & allRelative) != allRelative) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The cached build for the key, or null on a miss
+     */
+    public static Entry lookup(String key) {
+        if (!ClaudeConfig.isCacheEnabled()) {
+            return null;
+        }
+
+        Entry entry = find(key);
+        // Checked outside the lock; a file deleted since it was cached is a miss
+        if (entry != null && !Files.exists(Path.of(entry.mcsFilePath))) {
+            remove(key);
+            entry = null;
+        }
+        if (entry != null) {
+            ClaudeMetrics.CACHE_HITS.increment();
+        } else {
+            ClaudeMetrics.CACHE_MISSES.increment();
+        }
+        return entry;
+    }
+
+    private static synchronized Entry find(String key) {
+        long now = System.currentTimeMillis();
+        Entry entry = memory.get(key);
+        if (entry != null && !isExpired(entry.createdMillis, now)) {
+            return entry;
+        }
+        memory.remove(key);
+
+        String indexed = diskIndex.getProperty(key);
+        if (indexed == null) {
+            return null;
+        }
+
+        String[] parts = parseIndexEntry(indexed);
+        if (parts == null) {
+            ClaudeMod.log("Dropping malformed response cache entry " + key);
+            diskIndex.remove(key);
+            saveIndex();
+            return null;
+        }
+        Path mcsFile = McsProcessor.getMcsDirectory().resolve(parts[2]);
+        long created = Long.parseLong(parts[0]);
+        if (isExpired(created, now)) {
+            diskIndex.remove(key);
+            saveIndex();
+            return null;
+        }
+
+        entry = new Entry(mcsFile.toAbsolutePath().toString(), created, null);
+        memory.put(key, entry);
+        return entry;
+    }
+
+    private static synchronized void remove(String key) {
+        memory.remove(key);
+        if (diskIndex.remove(key) != null) {
+            saveIndex();
+        }
+    }
+
+    /**
+     * Remember the build generated for a key
+     *
+     * @param key The key from {@link #createKey(String, String, String)}
+     * @param mcsFilePath The saved MCS file, and its compiled sidecar if it has one
+     * @param program The compiled program, kept in the memory tier
+     */
+    public static void put(String key, String mcsFilePath, McsProgram program) {
+        if (!ClaudeConfig.isCacheEnabled()) {
+            return;
+        }
+
+        // Sized once here, so eviction never has to stat the indexed files
+        Path mcsFile = Path.of(mcsFilePath);
+        long size = fileSize(mcsFile) + fileSize(McsBinaryFormat.getSidecarPath(mcsFile));
+        if (size == 0) {
+            return;
+        }
+
+        synchronized (ResponseCache.class) {
+            long now = System.currentTimeMillis();
+            memory.put(key, new Entry(mcsFilePath, now, program));
+            diskIndex.setProperty(key, now + "|" + size + "|" + mcsFile.getFileName());
+            evictDisk(now);
+            saveIndex();
+        }
+    }
+
+    /**
+     * Drop expired entries, then the oldest ones until the indexed files fit in the size cap
+     */
+    private static void evictDisk(long now) {
+        long maxBytes = ClaudeConfig.getCacheMaxDiskMegabytes() * 1024L * 1024L;
+        List<String[]> entries = new ArrayList<>();
+        long totalBytes = 0;
+
+        for (String key : diskIndex.stringPropertyNames()) {
+            String[] parts = parseIndexEntry(diskIndex.getProperty(key));
+            if (parts == null || isExpired(Long.parseLong(parts[0]), now)) {
+                diskIndex.remove(key);
+                memory.remove(key);
+                continue;
+            }
+            entries.add(new String[] {key, parts[0], parts[1]});
+            totalBytes += Long.parseLong(parts[1]);
+        }
+
+        entries.sort((a, b) -> Long.compare(Long.parseLong(a[1]), Long.parseLong(b[1])));
+        for (String[] entry : entries) {
+            if (totalBytes <= maxBytes) {
+                break;
+            }
+            diskIndex.remove(entry[0]);
+            memory.remove(entry[0]);
+            totalBytes -= Long.parseLong(entry[2]);
+        }
+    }
+
+    private static void saveIndex() {
+        Properties snapshot = new Properties();
+        snapshot.putAll(diskIndex);
+        long version = ++indexVersion;
+
+        // Written in the background so the server thread never waits on the disk
+        CompletableFuture.runAsync(() -> {
+            synchronized (INDEX_WRITE_LOCK) {
+                // A newer snapshot has already been written
+                if (version < writtenIndexVersion) {
+                    return;
+                }
+                writtenIndexVersion = version;
+
+                try (Writer writer = Files.newBufferedWriter(getIndexPath(), StandardCharsets.UTF_8)) {
+                    snapshot.store(writer, "Claude response cache: key = created millis | bytes | MCS file");
+                } catch (IOException e) {
+                    ClaudeMod.log("Could not save response cache index: " + e.getMessage());
+                }
+            }
+        });
+    }
+
+    /**
+     * Split an index value into its creation time, the size of its files and the file name
+     *
+     * @return The three parts, or null if the value was not written by this cache or the file name is not a plain name
+     */
+    private static String[] parseIndexEntry(String value) {
+        String[] parts = value.split("\\|", 3);
+        if (parts.length != 3 || parts[2].isEmpty() || parts[2].contains("/") || parts[2].contains("\\")) {
+            return null;
+        }
+        try {
+            Long.parseLong(parts[0]);
+            Long.parseLong(parts[1]);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return parts;
+    }
+
+    /**
+     * @return true if three tokens in a row are coordinates and at least one of them is a plain number
+     */
+    private static boolean hasAbsolutePosition(String command) {
+        String[] tokens = command.trim().split("\\s+");
+        for (int i = 0; i + 2 < tokens.length; i++) {
+            if (COORDINATE.matcher(tokens[i]).matches() && COORDINATE.matcher(tokens[i + 1]).matches()
+                    && COORDINATE.matcher(tokens[i + 2]).matches()
+                    && (isAbsolute(tokens[i]) || isAbsolute(tokens[i + 1]) || isAbsolute(tokens[i + 2]))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isAbsolute(String coordinate) {
+        return coordinate.charAt(0) != '~' && coordinate.charAt(0) != '^';
+    }
+
+    private static boolean isExpired(long createdMillis, long now) {
+        return now - createdMillis > ClaudeConfig.getCacheTtlHours() * 3_600_000L;
+    }
+
+    private static long fileSize(Path path) {
+        try {
+            return Files.exists(path) ? Files.size(path) : 0;
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static Path getIndexPath() {
+        return McsProcessor.getMcsDirectory().resolve(INDEX_FILE);
+    }
+
+    /**
+     * @return The SHA-256 of a string as hex, also used to key identical API requests in flight
+     */
+    static String sha256(String value) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(value.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
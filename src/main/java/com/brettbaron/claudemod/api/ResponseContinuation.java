@@ -0,0 +1,83 @@
+package com.brettbaron.claudemod.api;
+
+import com.brettbaron.claudemod.ClaudeMod;
+import com.brettbaron.claudemod.config.ClaudeConfig;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/**
+ * Completes non-streamed responses that were cut off at max_tokens.
+ *
+ * Claude is sent the commands it has generated so far and asked for the rest, up to max_continuations
+ * times. The last line of a cut off response is dropped, since it usually ends halfway through a
+ * command; Claude sees that it is missing and writes it again. Streamed builds continue the same way
+ * in {@link ClaudeRequestPipeline}, building each part as it arrives.
+ */
+public class ResponseContinuation {
+    /**
+     * Requests the next part of a response
+     */
+    @FunctionalInterface
+    public interface ContinuationRequest {
+        /**
+         * @param previousCommands Every command generated so far
+         * @return The response
+         */
+        ResponseReader send(List<String> previousCommands) throws IOException;
+    }
+
+    /**
+     * Collect the commands of a response, continuing it for as long as it is cut off. Blocks on the API.
+     *
+     * @param prompt The full prompt the response was generated for
+     * @param response The first response
+     * @param onContinue Told the number of each continuation before it is requested
+     * @return The commands of every part, in order, or null if there were none
+     */
+    public static String complete(String prompt, ResponseReader response, IntConsumer onContinue) throws IOException {
+        return complete(response, onContinue, previousCommands -> ClaudeAPI.sendContinuationRequest(prompt, previousCommands));
+    }
+
+    /**
+     * Collect the commands of a response to any kind of request, continuing it for as long as it is cut off
+     *
+     * @param response The first response
+     * @param onContinue Told the number of each continuation before it is requested
+     * @param request Sends the request for each continuation
+     * @return The commands of every part, in order, or null if there were none
+     */
+    public static String complete(ResponseReader response, IntConsumer onContinue, ContinuationRequest request) throws IOException {
+        List<String> commands = new ArrayList<>();
+        int continuations = 0;
+
+        while (true) {
+            boolean truncated = response.isTruncated();
+            String part = response.getCommands();
+            if (part != null && !part.isEmpty()) {
+                List<String> lines = new ArrayList<>(Arrays.asList(part.split("\n")));
+                if (truncated && !lines.isEmpty()) {
+                    lines.remove(lines.size() - 1);
+                }
+                commands.addAll(lines);
+            }
+
+            if (!truncated) {
+                break;
+            }
+            if (continuations >= ClaudeConfig.getMaxContinuations()) {
+                ClaudeMod.log("Response still cut off after " + continuations + " continuations, building what was generated");
+                break;
+            }
+
+            onContinue.accept(++continuations);
+            ClaudeMod.log("Response cut off at max_tokens after " + commands.size() + " lines, requesting continuation " + continuations);
+            response = request.send(commands);
+        }
+
+        return commands.isEmpty() ? null : String.join("\n", commands);
+    }
+}
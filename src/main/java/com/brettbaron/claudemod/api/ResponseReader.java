@@ -0,0 +1,247 @@
+package com.brettbaron.claudemod.api;
+
+import com.brettbaron.claudemod.mcs.McsProcessor;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+
+/**
+ * Reads a complete (non-streamed) messages response in one pass with a {@link JsonReader}.
+ *
+ * Only the fields the mod uses are kept: the commands of the first generate_mcs tool call, the text
+ * blocks, the stop reason, the token usage and any error message. Everything else is skipped without
+ * building a JSON tree, so a large response costs one scan plus the strings that are actually needed.
+ * {@link ClaudeAPI} reads each response once and hands the reader to everything that needs it.
+ */
+public class ResponseReader {
+    private String body = null;
+    private String error = null;
+    private JsonObject usage = null;
+    private String stopReason = null;
+    private String toolCommands = null;
+    private StringBuilder text = null;
+    private boolean hasContent = false;
+
+    private ResponseReader() {
+    }
+
+    /**
+     * @throws JsonParseException If the response is not a valid messages response
+     */
+    public static ResponseReader read(String apiResponse) {
+        try {
+            ResponseReader response = read(new StringReader(apiResponse));
+            response.body = apiResponse;
+            return response;
+        } catch (IOException | IllegalStateException e) {
+            throw new JsonParseException("Invalid API response: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @throws IOException If the response is not valid JSON
+     * @throws IllegalStateException If a field has an unexpected type
+     */
+    public static ResponseReader read(Reader reader) throws IOException {
+        ResponseReader response = new ResponseReader();
+        JsonReader json = new JsonReader(reader);
+
+        json.beginObject();
+        while (json.hasNext()) {
+            switch (json.nextName()) {
+                case "content":
+                    response.readContent(json);
+                    break;
+                case "stop_reason":
+                    response.stopReason = nextStringOrNull(json);
+                    break;
+                case "error":
+                    response.readError(json);
+                    break;
+                case "usage":
+                    JsonElement usage = JsonParser.parseReader(json);
+                    response.usage = usage.isJsonObject() ? usage.getAsJsonObject() : null;
+                    break;
+                default:
+                    json.skipValue();
+                    break;
+            }
+        }
+        json.endObject();
+        return response;
+    }
+
+    /**
+     * @return The raw response, for requests with fields this reader does not keep, or null if it was read from a stream
+     */
+    public String getBody() {
+        return body;
+    }
+
+    /**
+     * @return The API's error message, or null if the response is not an error
+     */
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * @return true if the response has a content array
+     */
+    public boolean hasContent() {
+        return hasContent;
+    }
+
+    /**
+     * @return The token usage, or null if the response did not report it
+     */
+    public JsonObject getUsage() {
+        return usage;
+    }
+
+    public String getStopReason() {
+        return stopReason;
+    }
+
+    /**
+     * @return true if the model stopped because it reached max_tokens
+     */
+    public boolean isTruncated() {
+        return "max_tokens".equals(stopReason);
+    }
+
+    /**
+     * @return The commands of the generate_mcs tool call, or null if Claude did not make one
+     */
+    public String getToolCommands() {
+        return toolCommands;
+    }
+
+    /**
+     * @return All text blocks, each followed by a newline
+     */
+    public String getText() {
+        return text == null ? "" : text.toString();
+    }
+
+    /**
+     * @return The build's MCS: the tool call's commands if there are any, otherwise what can be extracted from the text
+     */
+    public String getCommands() {
+        if (toolCommands != null && !toolCommands.isEmpty()) {
+            return toolCommands;
+        }
+        return McsProcessor.extractMcsContent(getText());
+    }
+
+    private void readContent(JsonReader json) throws IOException {
+        if (json.peek() != JsonToken.BEGIN_ARRAY) {
+            json.skipValue();
+            return;
+        }
+        hasContent = true;
+
+        json.beginArray();
+        while (json.hasNext()) {
+            if (json.peek() == JsonToken.BEGIN_OBJECT) {
+                readBlock(json);
+            } else {
+                json.skipValue();
+            }
+        }
+        json.endArray();
+    }
+
+    private void readBlock(JsonReader json) throws IOException {
+        // The fields of a block may come in any order, so candidates are only used once it is complete
+        String type = null;
+        String name = null;
+        String blockText = null;
+        String commands = null;
+
+        json.beginObject();
+        while (json.hasNext()) {
+            switch (json.nextName()) {
+                case "type":
+                    type = nextStringOrNull(json);
+                    break;
+                case "name":
+                    name = nextStringOrNull(json);
+                    break;
+                case "text":
+                    blockText = nextStringOrNull(json);
+                    break;
+                case "input":
+                    commands = readInputCommands(json);
+                    break;
+                default:
+                    json.skipValue();
+                    break;
+            }
+        }
+        json.endObject();
+
+        if ("text".equals(type) && blockText != null) {
+            if (text == null) {
+                text = new StringBuilder(blockText.length() + 1);
+            }
+            text.append(blockText).append('\n');
+        } else if ("tool_use".equals(type) && "generate_mcs".equals(name) && commands != null && toolCommands == null) {
+            toolCommands = commands;
+        }
+    }
+
+    private static String readInputCommands(JsonReader json) throws IOException {
+        if (json.peek() != JsonToken.BEGIN_OBJECT) {
+            json.skipValue();
+            return null;
+        }
+
+        String commands = null;
+        json.beginObject();
+        while (json.hasNext()) {
+            if (json.nextName().equals("commands") && json.peek() == JsonToken.STRING) {
+                commands = json.nextString();
+            } else {
+                json.skipValue();
+            }
+        }
+        json.endObject();
+        return commands;
+    }
+
+    private void readError(JsonReader json) throws IOException {
+        if (json.peek() != JsonToken.BEGIN_OBJECT) {
+            json.skipValue();
+            return;
+        }
+
+        error = "";
+        json.beginObject();
+        while (json.hasNext()) {
+            if (json.nextName().equals("message")) {
+                String message = nextStringOrNull(json);
+                error = message != null ? message : "";
+            } else {
+                json.skipValue();
+            }
+        }
+        json.endObject();
+    }
+
+    private static String nextStringOrNull(JsonReader json) throws IOException {
+        JsonToken token = json.peek();
+        if (token == JsonToken.STRING || token == JsonToken.NUMBER) {
+            return json.nextString();
+        }
+        json.skipValue();
+        return null;
+    }
+}
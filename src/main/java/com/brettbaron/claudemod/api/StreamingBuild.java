@@ -0,0 +1,140 @@
+package com.brettbaron.claudemod.api;
+
+import com.brettbaron.claudemod.ClaudeMod;
+import com.brettbaron.claudemod.config.ClaudeConfig;
+import com.brettbaron.claudemod.mcs.BuildJob;
+import com.brettbaron.claudemod.mcs.BuildJobManager;
+import com.brettbaron.claudemod.mcs.McsParser;
+import com.brettbaron.claudemod.mcs.McsProcessor;
+import com.brettbaron.claudemod.mcs.McsProgram;
+import net.minecraft.server.command.ServerCommandSource;
+import net.minecraft.text.Text;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * A build that starts executing while Claude is still streaming its response.
+ *
+ * Lines are appended to an open {@link BuildJob} as they arrive, and the full MCS file is saved once
+ * the stream ends. Every method except {@link #save(List)} must be called on the server thread.
+ */
+public class StreamingBuild {
+    private final int jobId;
+    private final ServerCommandSource source;
+    private final String cacheKey;
+    private final BuildSession session;
+    private final String buildName = "build_" + UUID.randomUUID().toString().substring(0, 8);
+    private final StringBuilder mcsContent = new StringBuilder();
+
+    private BuildJob job = null;
+    private int lineCount = 0;
+
+    /**
+     * @param jobId The request id shown to the player
+     * @param source The command source that requested the build
+     * @param cacheKey Response cache key for the prompt, or null to skip caching
+     * @param session Session the build starts once it has been placed, or null
+     */
+    public StreamingBuild(int jobId, ServerCommandSource source, String cacheKey, BuildSession session) {
+        this.jobId = jobId;
+        this.source = source;
+        this.cacheKey = cacheKey;
+        this.session = session;
+    }
+
+    /**
+     * Add a generated MCS line, starting the build on the first one
+     */
+    public void acceptLine(String line) {
+        if (job == null) {
+            job = new BuildJob(buildName, source, new McsProgram(), true);
+            BuildJobManager.submit(job);
+            sendFeedback("[#" + jobId + "] Building while Claude is still generating...");
+        }
+
+        mcsContent.append(line).append('\n');
+        lineCount++;
+        job.appendLine(line);
+    }
+
+    /**
+     * The response was cut off at max_tokens and Claude is being asked for the rest
+     *
+     * @param continuation Which continuation this is, from 1
+     */
+    public void continueGenerating(int continuation) {
+        sendFeedback("[#" + jobId + "] Claude reached its output limit, continuing ("
+            + continuation + "/" + ClaudeConfig.getMaxContinuations() + ")...");
+    }
+
+    /**
+     * Save every generated line as an MCS file and cache it. Called on the request worker once the stream
+     * has ended, so the server thread never waits on the disk.
+     *
+     * @param lines Every line generated, including continuations
+     * @return The saved file, or null if nothing was generated or it could not be saved
+     */
+    public String save(List<String> lines) {
+        if (lines.isEmpty()) {
+            return null;
+        }
+
+        try {
+            String mcsFilePath = McsProcessor.saveMcsFile(buildName, String.join("\n", lines) + "\n");
+            // The streamed program was never optimized, so cache hits reload the file instead
+            if (cacheKey != null && ResponseCache.isCacheable(McsParser.parse(lines))) {
+                ResponseCache.put(cacheKey, mcsFilePath, null);
+            }
+            return mcsFilePath;
+        } catch (IOException e) {
+            ClaudeMod.log("Could not save streamed build " + buildName + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * The stream ended normally: let the build finish
+     *
+     * @param truncated Whether the last response was still cut off after every continuation
+     * @param mcsFilePath The file the build was saved to by {@link #save(List)}, or null
+     */
+    public void complete(boolean truncated, String mcsFilePath) {
+        if (job == null) {
+            source.sendError(Text.literal("[#" + jobId + "] No MCS content found in Claude's response"));
+            return;
+        }
+        job.close();
+        if (session != null) {
+            session.trackBuild(job, mcsContent.toString());
+        }
+        if (mcsFilePath != null) {
+            source.sendFeedback(() -> Text.literal("Created MCS file: " + mcsFilePath), false);
+        }
+
+        sendFeedback("[#" + jobId + "] Claude finished generating " + lineCount + " lines");
+        if (truncated) {
+            source.sendError(Text.literal("[#" + jobId + "] Claude's response was still cut off after "
+                + ClaudeConfig.getMaxContinuations() + " continuations, so the build may be incomplete"));
+        }
+    }
+
+    /**
+     * The stream failed: keep whatever has been generated so far and report the error
+     */
+    public void fail(Exception e) {
+        if (job != null) {
+            job.close();
+        }
+
+        source.sendError(Text.literal("[#" + jobId + "] ERROR: " + e.getClass().getName() + ": " + e.getMessage()));
+        if (e.getCause() != null) {
+            source.sendError(Text.literal("Caused by: " + e.getCause().getMessage()));
+        }
+    }
+
+    private void sendFeedback(String message) {
+        source.sendFeedback(() -> Text.literal(message), false);
+    }
+}
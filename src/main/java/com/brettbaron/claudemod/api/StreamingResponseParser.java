@@ -0,0 +1,398 @@
+package com.brettbaron.claudemod.api;
+
+import com.brettbaron.claudemod.ClaudeMod;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.function.Consumer;
+
+/**
+ * Incrementally parses a streamed (server-sent events) Claude messages response into MCS lines.
+ *
+ * Commands are taken from the generate_mcs tool input, which arrives as fragments of partial JSON, or
+ * from the first code block of a text reply. Each line is passed on as soon as its newline arrives.
+ * Whichever source produces lines first is used for the whole build, matching the non-streaming path
+ * where a build comes from either the tool call or the text.
+ *
+ * The last line of a block is only passed on once it is known that the response was not cut off at
+ * max_tokens, since a truncated response usually ends halfway through a command.
+ */
+public class StreamingResponseParser {
+    private static final Gson gson = new Gson();
+
+    private final Consumer<String> lineConsumer;
+    private final StringBuilder eventData = new StringBuilder();
+    private final StringBuilder textLine = new StringBuilder();
+    private final StringBuilder commandLine = new StringBuilder();
+
+    private boolean inCodeBlock = false;
+    private boolean codeBlockSeen = false;
+    private boolean fromTool = false;
+    private boolean fromText = false;
+    private ToolInputReader toolInput = null;
+    private String stopReason = null;
+    private int linesEmitted = 0;
+    private JsonObject startUsage = null;
+    private long outputTokens = 0;
+
+    /**
+     * @param lineConsumer Receives each completed MCS line
+     */
+    public StreamingResponseParser(Consumer<String> lineConsumer) {
+        this.lineConsumer = lineConsumer;
+    }
+
+    /**
+     * Feed one line of the SSE stream
+     *
+     * @throws UncheckedIOException If the stream reports an error
+     */
+    public void acceptLine(String line) {
+        if (line.isEmpty()) {
+            dispatchEvent();
+        } else if (line.startsWith("data:")) {
+            if (eventData.length() > 0) {
+                eventData.append('\n');
+            }
+            eventData.append(line.startsWith("data: ") ? line.substring(6) : line.substring(5));
+        }
+        // "event:" lines repeat the type found in the data, and ":" lines are keep-alive comments
+    }
+
+    /**
+     * Flush anything still buffered once the stream has ended. If the response was cut off, the
+     * unterminated last line is dropped instead.
+     */
+    public void finish() {
+        dispatchEvent();
+        if (isTruncated()) {
+            textLine.setLength(0);
+            commandLine.setLength(0);
+        }
+        endBlock();
+    }
+
+    /**
+     * @return Why the model stopped generating, or null if the stream ended early
+     */
+    public String getStopReason() {
+        return stopReason;
+    }
+
+    /**
+     * @return true if the model stopped because it reached max_tokens, so the build is incomplete
+     */
+    public boolean isTruncated() {
+        return "max_tokens".equals(stopReason);
+    }
+
+    /**
+     * @return The token usage of the response, as in a non-streamed response, or null if the stream did not report it
+     */
+    public JsonObject getUsage() {
+        if (startUsage == null) {
+            return null;
+        }
+        // message_start carries the input counts, and each message_delta the output tokens so far
+        JsonObject usage = startUsage.deepCopy();
+        usage.addProperty("output_tokens", Math.max(outputTokens, usage.has("output_tokens") ? usage.get("output_tokens").getAsLong() : 0));
+        return usage;
+    }
+
+    public int getLinesEmitted() {
+        return linesEmitted;
+    }
+
+    private void dispatchEvent() {
+        if (eventData.length() == 0) {
+            return;
+        }
+        String data = eventData.toString();
+        eventData.setLength(0);
+
+        JsonObject event;
+        try {
+            event = gson.fromJson(data, JsonObject.class);
+        } catch (JsonParseException e) {
+            ClaudeMod.log("Ignoring malformed stream event: " + e.getMessage());
+            return;
+        }
+        if (event == null || !event.has("type")) {
+            return;
+        }
+
+        switch (event.get("type").getAsString()) {
+            case "content_block_start":
+                startBlock(event.getAsJsonObject("content_block"));
+                break;
+            case "content_block_delta":
+                applyDelta(event.getAsJsonObject("delta"));
+                break;
+            case "content_block_stop":
+                // The block's last line waits for the next block or the end of the stream, which tell whether it was cut off
+                break;
+            case "message_delta":
+                JsonObject delta = event.getAsJsonObject("delta");
+                if (delta != null && delta.has("stop_reason") && !delta.get("stop_reason").isJsonNull()) {
+                    stopReason = delta.get("stop_reason").getAsString();
+                }
+                JsonObject deltaUsage = event.getAsJsonObject("usage");
+                if (deltaUsage != null && deltaUsage.has("output_tokens")) {
+                    outputTokens = deltaUsage.get("output_tokens").getAsLong();
+                }
+                break;
+            case "message_start":
+                JsonObject startMessage = event.getAsJsonObject("message");
+                if (startMessage != null && startMessage.has("usage") && startMessage.get("usage").isJsonObject()) {
+                    startUsage = startMessage.getAsJsonObject("usage");
+                }
+                break;
+            case "error":
+                JsonObject error = event.getAsJsonObject("error");
+                String message = error != null && error.has("message") ? error.get("message").getAsString() : data;
+                throw new UncheckedIOException(new IOException("Claude API stream error: " + message));
+            default:
+                // message_stop and ping carry nothing we need
+                break;
+        }
+    }
+
+    private void startBlock(JsonObject block) {
+        endBlock();
+
+        if (block != null && block.has("type") && "tool_use".equals(block.get("type").getAsString())
+            && block.has("name") && "generate_mcs".equals(block.get("name").getAsString())) {
+            toolInput = new ToolInputReader("commands");
+        }
+    }
+
+    private void applyDelta(JsonObject delta) {
+        if (delta == null || !delta.has("type")) {
+            return;
+        }
+
+        switch (delta.get("type").getAsString()) {
+            case "text_delta":
+                appendText(delta.get("text").getAsString());
+                break;
+            case "input_json_delta":
+                if (toolInput != null) {
+                    toolInput.accept(delta.get("partial_json").getAsString(), this::appendCommandChar);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void endBlock() {
+        if (textLine.length() > 0) {
+            completeTextLine();
+        }
+        if (commandLine.length() > 0) {
+            completeCommandLine();
+        }
+        toolInput = null;
+    }
+
+    private void appendText(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\n') {
+                completeTextLine();
+            } else {
+                textLine.append(c);
+            }
+        }
+    }
+
+    private void completeTextLine() {
+        String line = textLine.toString();
+        textLine.setLength(0);
+
+        String trimmed = line.trim();
+        if (trimmed.startsWith("```")) {
+            // Only the first code block holds the build
+            inCodeBlock = !inCodeBlock && !codeBlockSeen;
+            codeBlockSeen = true;
+            return;
+        }
+
+        // Without any code block, fall back to lines that look like building commands
+        boolean command = inCodeBlock || (!codeBlockSeen && (trimmed.startsWith("/fill ")
+            || trimmed.startsWith("/setblock ") || trimmed.startsWith("/clone ") || trimmed.startsWith("/execute ")));
+        if (command && !fromTool) {
+            fromText = true;
+            emit(line);
+        }
+    }
+
+    private void appendCommandChar(char c) {
+        if (c == '\n') {
+            completeCommandLine();
+        } else {
+            commandLine.append(c);
+        }
+    }
+
+    private void completeCommandLine() {
+        String line = commandLine.toString();
+        commandLine.setLength(0);
+
+        if (!fromText) {
+            fromTool = true;
+            emit(line);
+        }
+    }
+
+    private void emit(String line) {
+        linesEmitted++;
+        lineConsumer.accept(line);
+    }
+
+    /**
+     * Extracts the decoded value of one top-level string property from JSON that arrives in fragments.
+     * Characters are passed on as they are decoded, so the value never has to be complete.
+     */
+    static class ToolInputReader {
+        private static final int OBJECT = 0;
+        private static final int KEY = 1;
+        private static final int COLON = 2;
+        private static final int VALUE = 3;
+        private static final int STRING_VALUE = 4;
+        private static final int OTHER_VALUE = 5;
+
+        private final String property;
+        private final StringBuilder key = new StringBuilder();
+        private int state = OBJECT;
+        private boolean started = false;
+        private boolean capture = false;
+        private boolean escape = false;
+        private int unicodeDigits = -1;
+        private int unicodeValue = 0;
+        // Nesting and string state while skipping values we do not care about
+        private int skipDepth = 0;
+        private boolean skipInString = false;
+
+        ToolInputReader(String property) {
+            this.property = property;
+        }
+
+        void accept(String fragment, CharSink sink) {
+            for (int i = 0; i < fragment.length(); i++) {
+                accept(fragment.charAt(i), sink);
+            }
+        }
+
+        private void accept(char c, CharSink sink) {
+            switch (state) {
+                case OBJECT:
+                    if (c == '{' && !started) {
+                        started = true;
+                    } else if (c == '"') {
+                        key.setLength(0);
+                        state = KEY;
+                    }
+                    break;
+                case KEY:
+                    if (escape) {
+                        key.append(c);
+                        escape = false;
+                    } else if (c == '\\') {
+                        escape = true;
+                    } else if (c == '"') {
+                        state = COLON;
+                    } else {
+                        key.append(c);
+                    }
+                    break;
+                case COLON:
+                    if (c == ':') {
+                        state = VALUE;
+                    }
+                    break;
+                case VALUE:
+                    if (c == '"') {
+                        capture = property.contentEquals(key);
+                        state = STRING_VALUE;
+                    } else if (!Character.isWhitespace(c)) {
+                        skipDepth = c == '{' || c == '[' ? 1 : 0;
+                        skipInString = false;
+                        state = skipDepth > 0 ? OTHER_VALUE : OBJECT;
+                    }
+                    break;
+                case STRING_VALUE:
+                    readString(c, sink);
+                    break;
+                case OTHER_VALUE:
+                    skip(c);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private void readString(char c, CharSink sink) {
+            if (unicodeDigits >= 0) {
+                unicodeValue = unicodeValue * 16 + Character.digit(c, 16);
+                if (++unicodeDigits == 4) {
+                    emit((char) unicodeValue, sink);
+                    unicodeDigits = -1;
+                }
+            } else if (escape) {
+                escape = false;
+                switch (c) {
+                    case 'n': emit('\n', sink); break;
+                    case 't': emit('\t', sink); break;
+                    case 'r': break;
+                    case 'b': emit('\b', sink); break;
+                    case 'f': emit('\f', sink); break;
+                    case 'u': unicodeDigits = 0; unicodeValue = 0; break;
+                    default: emit(c, sink); break;
+                }
+            } else if (c == '\\') {
+                escape = true;
+            } else if (c == '"') {
+                if (capture) {
+                    // End the last line of the value
+                    sink.accept('\n');
+                }
+                capture = false;
+                state = OBJECT;
+            } else {
+                emit(c, sink);
+            }
+        }
+
+        private void skip(char c) {
+            if (skipInString) {
+                if (escape) {
+                    escape = false;
+                } else if (c == '\\') {
+                    escape = true;
+                } else if (c == '"') {
+                    skipInString = false;
+                }
+            } else if (c == '"') {
+                skipInString = true;
+            } else if (c == '{' || c == '[') {
+                skipDepth++;
+            } else if ((c == '}' || c == ']') && --skipDepth == 0) {
+                state = OBJECT;
+            }
+        }
+
+        private void emit(char c, CharSink sink) {
+            if (capture) {
+                sink.accept(c);
+            }
+        }
+    }
+
+    interface CharSink {
+        void accept(char c);
+    }
+}
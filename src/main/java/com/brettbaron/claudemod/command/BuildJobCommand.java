@@ -0,0 +1,141 @@
+package com.brettbaron.claudemod.command;
+
+import com.brettbaron.claudemod.mcs.BuildJob;
+import com.brettbaron.claudemod.mcs.BuildJobManager;
+import com.mojang.brigadier.CommandDispatcher;
+import com.mojang.brigadier.arguments.IntegerArgumentType;
+import com.mojang.brigadier.context.CommandContext;
+import net.minecraft.server.command.ServerCommandSource;
+import net.minecraft.text.Text;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+
+import static net.minecraft.server.command.CommandManager.argument;
+import static net.minecraft.server.command.CommandManager.literal;
+
+/**
+ * /claude jobs, cancel, pause and resume for managing running builds
+ */
+public class BuildJobCommand {
+
+    public static void register(CommandDispatcher<ServerCommandSource> dispatcher) {
+        dispatcher.register(
+            literal("claude")
+                .then(literal("jobs")
+                    .executes(BuildJobCommand::listJobs)
+                )
+                .then(literal("cancel")
+                    .then(argument("id", IntegerArgumentType.integer(1))
+                        .executes(BuildJobCommand::cancelJob)
+                    )
+                )
+                .then(literal("pause")
+                    .executes(context -> setPausedForOwner(context, true))
+                    .then(argument("id", IntegerArgumentType.integer(1))
+                        .executes(context -> setPaused(context, true))
+                    )
+                )
+                .then(literal("resume")
+                    .executes(context -> setPausedForOwner(context, false))
+                    .then(argument("id", IntegerArgumentType.integer(1))
+                        .executes(context -> setPaused(context, false))
+                    )
+                )
+        );
+    }
+
+    private static int listJobs(CommandContext<ServerCommandSource> context) {
+        ServerCommandSource source = context.getSource();
+        List<BuildJob> jobs = BuildJobManager.getJobs();
+
+        if (jobs.isEmpty()) {
+            source.sendFeedback(() -> Text.literal("No builds are running"), false);
+            return 0;
+        }
+
+        source.sendFeedback(() -> Text.literal(jobs.size() + " build(s):"), false);
+        for (BuildJob job : jobs) {
+            String total = job.isOpen() ? "?" : String.valueOf(job.getTotalCommands());
+            String line = String.format("#%d %s (%s) %s%s - %d/%s commands",
+                job.getId(), job.getName(), job.getOwner(), job.getState().name().toLowerCase(Locale.ROOT),
+                job.isPaused() ? ", paused" : "", job.getExecutedCommands(), total);
+            source.sendFeedback(() -> Text.literal(line), false);
+        }
+        return jobs.size();
+    }
+
+    private static int cancelJob(CommandContext<ServerCommandSource> context) {
+        ServerCommandSource source = context.getSource();
+        BuildJob job = findJob(context);
+        if (job == null) {
+            return 0;
+        }
+
+        BuildJobManager.cancel(job.getId(), "cancelled by " + source.getName());
+        return 1;
+    }
+
+    private static int setPaused(CommandContext<ServerCommandSource> context, boolean paused) {
+        ServerCommandSource source = context.getSource();
+        BuildJob job = findJob(context);
+        if (job == null) {
+            return 0;
+        }
+
+        if (paused) {
+            BuildJobManager.pause(job.getId());
+        } else {
+            BuildJobManager.resume(job.getId());
+        }
+        source.sendFeedback(() -> Text.literal("Build #" + job.getId() + (paused ? " paused" : " resumed")), false);
+        return 1;
+    }
+
+    /**
+     * Pause or resume every build started by the command source
+     */
+    private static int setPausedForOwner(CommandContext<ServerCommandSource> context, boolean paused) {
+        ServerCommandSource source = context.getSource();
+        UUID owner = BuildJobManager.getOwnerId(source);
+        int count = 0;
+
+        for (BuildJob job : BuildJobManager.getJobs()) {
+            if (job.getOwnerId().equals(owner) && job.isPaused() != paused) {
+                if (paused) {
+                    BuildJobManager.pause(job.getId());
+                } else {
+                    BuildJobManager.resume(job.getId());
+                }
+                count++;
+            }
+        }
+
+        final int changed = count;
+        source.sendFeedback(() -> Text.literal((paused ? "Paused " : "Resumed ") + changed + " build(s)"), false);
+        return changed;
+    }
+
+    /**
+     * Look up the job named by the id argument, checking that the source may manage it
+     *
+     * @return The job, or null after reporting why it cannot be used
+     */
+    private static BuildJob findJob(CommandContext<ServerCommandSource> context) {
+        ServerCommandSource source = context.getSource();
+        int id = IntegerArgumentType.getInteger(context, "id");
+        BuildJob job = BuildJobManager.getJob(id);
+
+        if (job == null) {
+            source.sendError(Text.literal("No running build with id #" + id));
+            return null;
+        }
+        // Players manage their own builds, operators manage everyone's
+        if (!job.getOwnerId().equals(BuildJobManager.getOwnerId(source)) && !source.hasPermissionLevel(2)) {
+            source.sendError(Text.literal("Build #" + id + " belongs to " + job.getOwner()));
+            return null;
+        }
+        return job;
+    }
+}
@@ -1,8 +1,9 @@
 package com.brettbaron.claudemod.command;
 
-import com.brettbaron.claudemod.ClaudeMod;
-import com.brettbaron.claudemod.api.ClaudeAPI;
-import com.brettbaron.claudemod.api.BlockPlacement;
+import com.brettbaron.claudemod.api.ClaudeRequestPipeline;
+import com.brettbaron.claudemod.log.ClaudeLog;
+import com.brettbaron.claudemod.log.LogCategory;
+import com.brettbaron.claudemod.world.WorldContextSampler;
 import com.mojang.brigadier.CommandDispatcher;
 import com.mojang.brigadier.arguments.StringArgumentType;
 import com.mojang.brigadier.context.CommandContext;
@@ -10,27 +11,42 @@ import com.mojang.brigadier.exceptions.CommandSyntaxException;
 import net.minecraft.server.command.ServerCommandSource;
 import net.minecraft.text.Text;
 
-import com.google.gson.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
 import static net.minecraft.server.command.CommandManager.argument;
 import static net.minecraft.server.command.CommandManager.literal;
 
 public class ClaudeCommand {
-    // Maximum number of API calls to prevent infinite loops
-    private static final int MAX_API_CALLS = 5;
-    private static final Gson gson = new Gson();
-
     public static void register(CommandDispatcher<ServerCommandSource> dispatcher) {
         dispatcher.register(
             literal("claude")
+                .then(literal("plan")
+                    .then(argument("prompt", StringArgumentType.greedyString())
+                        .executes(ClaudeCommand::executePlan)
+                    )
+                )
                 .then(argument("prompt", StringArgumentType.greedyString())
                     .executes(ClaudeCommand::executeCommand)
                 )
         );
     }
 
+    /**
+     * /claude plan: split a large build into components that are generated in parallel
+     */
+    private static int executePlan(CommandContext<ServerCommandSource> context) {
+        ServerCommandSource source = context.getSource();
+        String prompt = StringArgumentType.getString(context, "prompt");
+        source.sendFeedback(() -> Text.literal("Planning: " + prompt), false);
+
+        int jobId = ClaudeRequestPipeline.submitPlanned(createContextualPrompt(source, prompt, WorldContextSampler.describe(source)), source);
+        if (jobId < 0) {
+            source.sendError(Text.literal("Too many Claude requests in progress, please try again shortly"));
+            return 0;
+        }
+
+        source.sendFeedback(() -> Text.literal("Queued request #" + jobId + ", asking Claude for a build plan..."), false);
+        return jobId;
+    }
+
     private static int executeCommand(CommandContext<ServerCommandSource> context) throws CommandSyntaxException {
         ServerCommandSource source = context.getSource();
         String prompt = StringArgumentType.getString(context, "prompt");
@@ -39,54 +55,23 @@ public class ClaudeCommand {
         source.sendFeedback(() -> Text.literal("Processing: " + prompt), false);
         
         try {
-            // Add more detailed logging
-            ClaudeMod.LOGGER.info("======= CLAUDE MOD DEBUG =======");
-            ClaudeMod.LOGGER.info("Sending prompt to Claude API: " + prompt);
-            
-            // Get player position for context
-            int playerX = (int) source.getPosition().x;
-            int playerY = (int) source.getPosition().y;
-            int playerZ = (int) source.getPosition().z;
+            ClaudeLog.debug(LogCategory.COMMAND, () -> "Sending prompt to Claude API: " + prompt);
             
-            // Construct a more detailed prompt with context
-            String contextualPrompt = String.format(
-                "Player is at position (%d, %d, %d) in Minecraft and wants: %s", 
-                playerX, playerY, playerZ, prompt
-            );
+            // Construct a more detailed prompt with context; the terrain is also part of the cache key
+            String terrain = WorldContextSampler.describe(source);
+            String contextualPrompt = createContextualPrompt(source, prompt, terrain);
             
-            // Call Claude API synchronously for easier debugging
-            try {
-                source.sendFeedback(() -> Text.literal("Making API call to Claude..."), false);
-                
-                // Make the API call
-                String apiResponse = ClaudeAPI.sendRequest(contextualPrompt);
-                
-                source.sendFeedback(() -> Text.literal("Got response from Claude, processing..."), false);
-                
-                // Parse the response and extract continuation messages if any
-                int totalBlocksPlaced = processFullBuild(apiResponse, source);
-                
-                // Send success message
-                source.sendFeedback(() -> Text.literal("Successfully processed your request!"), false);
-                
-                return 1;
-            } catch (Exception e) {
-                ClaudeMod.LOGGER.error("ERROR IN CLAUDE MOD: " + e.getMessage(), e);
-                e.printStackTrace(); // Print stack trace to standard output
-                
-                // Print detailed error to player
-                source.sendFeedback(() -> Text.literal("ERROR: " + e.getClass().getName() + ": " + e.getMessage()), false);
-                
-                // If there's a cause, print that too
-                if (e.getCause() != null) {
-                    source.sendFeedback(() -> Text.literal("Caused by: " + e.getCause().getMessage()), false);
-                }
-                
+            // Hand the request to the pipeline so the server thread never waits on the API
+            int jobId = ClaudeRequestPipeline.submit(prompt, terrain, contextualPrompt, source);
+            if (jobId < 0) {
+                source.sendError(Text.literal("Too many Claude requests in progress, please try again shortly"));
                 return 0;
             }
+            
+            source.sendFeedback(() -> Text.literal("Queued request #" + jobId + ", making API call to Claude..."), false);
+            return jobId;
         } catch (Exception e) {
-            ClaudeMod.LOGGER.error("ERROR IN CLAUDE MOD COMMAND: " + e.getMessage(), e);
-            e.printStackTrace(); // Print stack trace to standard output
+            ClaudeLog.error(LogCategory.COMMAND, "Error in Claude command: " + e.getMessage(), e);
             source.sendError(Text.literal("Command error: " + e.getClass().getName() + ": " + e.getMessage()));
             
             // If there's a cause, print that too
@@ -98,30 +83,18 @@ public class ClaudeCommand {
         }
     }
     
-    /**
-     * Process the complete building process, handling multiple API calls if needed
-     */
-    private static int processFullBuild(String apiResponse, ServerCommandSource source) {
-        ClaudeMod.log("Processing MCS build response");
+    private static String createContextualPrompt(ServerCommandSource source, String prompt, String terrain) {
+        // Get player position for context
+        int playerX = (int) source.getPosition().x;
+        int playerY = (int) source.getPosition().y;
+        int playerZ = (int) source.getPosition().z;
         
-        try {
-            // Process the response to extract and execute MCS commands
-            int commandsProcessed = BlockPlacement.processResponse(apiResponse, source);
-            
-            // Final summary
-            final int totalCommands = commandsProcessed;
-            source.sendFeedback(() -> 
-                Text.literal("Built structure with " + totalCommands + " commands!"), false);
-            
-            return commandsProcessed;
-            
-        } catch (Exception e) {
-            ClaudeMod.log("Error in processFullBuild: " + e.getMessage());
-            e.printStackTrace();
-            source.sendFeedback(() -> Text.literal("Error processing full build: " + e.getMessage()), false);
-            return 0;
-        }
+        String contextualPrompt = String.format(
+            "Player is at position (%d, %d, %d) in Minecraft and wants: %s", 
+            playerX, playerY, playerZ, prompt
+        );
+        
+        // Describe the surroundings so the build can follow the ground
+        return terrain.isEmpty() ? contextualPrompt : contextualPrompt + "\n\n" + terrain;
     }
-    
-    // No longer needed for MCS approach - multi-turn building is now handled client-side
-}
\ No newline at end of file
+}
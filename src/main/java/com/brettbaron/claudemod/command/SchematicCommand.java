@@ -0,0 +1,190 @@
+package com.brettbaron.claudemod.command;
+
+import com.brettbaron.claudemod.ClaudeMod;
+import com.brettbaron.claudemod.config.ClaudeConfig;
+import com.brettbaron.claudemod.mcs.BuildJobManager;
+import com.brettbaron.claudemod.mcs.BuildJournal;
+import com.brettbaron.claudemod.mcs.McsOptimizer;
+import com.brettbaron.claudemod.mcs.McsProcessor;
+import com.brettbaron.claudemod.mcs.McsProgram;
+import com.brettbaron.claudemod.mcs.Schematic;
+import com.brettbaron.claudemod.mcs.UndoHistory;
+import com.mojang.brigadier.CommandDispatcher;
+import com.mojang.brigadier.arguments.StringArgumentType;
+import com.mojang.brigadier.context.CommandContext;
+import com.mojang.brigadier.exceptions.CommandSyntaxException;
+import net.minecraft.command.CommandSource;
+import net.minecraft.command.argument.BlockPosArgumentType;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.command.ServerCommandSource;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.text.Text;
+import net.minecraft.util.math.BlockPos;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static net.minecraft.server.command.CommandManager.argument;
+import static net.minecraft.server.command.CommandManager.literal;
+
+/**
+ * /claude export and /claude import for saving builds as Sponge schematics and placing them again
+ * without calling the API. Both need operator permission, since an export writes block entity data
+ * such as chest contents to disk. Blocks are captured on the server thread over several ticks, within
+ * the build budget, and files are encoded, written, read and turned into builds in the background.
+ */
+public class SchematicCommand {
+
+    public static void register(CommandDispatcher<ServerCommandSource> dispatcher) {
+        dispatcher.register(
+            literal("claude")
+                .then(literal("export")
+                    .requires(source -> source.hasPermissionLevel(2))
+                    .then(argument("name", StringArgumentType.word())
+                        .executes(SchematicCommand::exportLatest)
+                        .then(argument("from", BlockPosArgumentType.blockPos())
+                            .then(argument("to", BlockPosArgumentType.blockPos())
+                                .executes(SchematicCommand::exportRegion)
+                            )
+                        )
+                    )
+                )
+                .then(literal("import")
+                    .requires(source -> source.hasPermissionLevel(2))
+                    .then(argument("name", StringArgumentType.word())
+                        .suggests((context, builder) -> CommandSource.suggestMatching(Schematic.listNames(), builder))
+                        .executes(SchematicCommand::importSchematic)
+                    )
+                )
+        );
+    }
+
+    /**
+     * Export the box around the player's most recent build
+     */
+    private static int exportLatest(CommandContext<ServerCommandSource> context) {
+        ServerCommandSource source = context.getSource();
+        BuildJournal journal = UndoHistory.getLatest(BuildJobManager.getOwnerId(source));
+        int[] bounds = journal == null ? null : journal.getBounds();
+        if (bounds == null) {
+            source.sendError(Text.literal("You have no recent build to export, give the corners of the area instead"));
+            return 0;
+        }
+
+        return export(source, journal.getWorld(), StringArgumentType.getString(context, "name"),
+            new BlockPos(bounds[0], bounds[1], bounds[2]), new BlockPos(bounds[3], bounds[4], bounds[5]));
+    }
+
+    private static int exportRegion(CommandContext<ServerCommandSource> context) throws CommandSyntaxException {
+        ServerCommandSource source = context.getSource();
+        return export(source, source.getWorld(), StringArgumentType.getString(context, "name"),
+            BlockPosArgumentType.getLoadedBlockPos(context, "from"), BlockPosArgumentType.getLoadedBlockPos(context, "to"));
+    }
+
+    private static int export(ServerCommandSource source, ServerWorld world, String name, BlockPos from, BlockPos to) {
+        long volume = (Math.abs((long) to.getX() - from.getX()) + 1)
+            * (Math.abs((long) to.getY() - from.getY()) + 1)
+            * (Math.abs((long) to.getZ() - from.getZ()) + 1);
+        if (volume > ClaudeConfig.getSchematicMaxBlocks()) {
+            source.sendError(Text.literal("That area has " + volume + " blocks, the most that can be exported is "
+                + ClaudeConfig.getSchematicMaxBlocks() + " (schematic_max_blocks)"));
+            return 0;
+        }
+
+        if (!Schematic.isLoaded(world, from, to)) {
+            source.sendError(Text.literal("Part of that area is not loaded"));
+            return 0;
+        }
+
+        Path path = Schematic.getPath(name);
+        Schematic.Capture capture = new Schematic.Capture(world, from, to, BlockPos.ofFloored(source.getPosition()));
+        MinecraftServer server = source.getServer();
+        // Completed on the server thread once the last section has been read
+        capture.getFuture().whenComplete((schematic, error) -> {
+            if (error != null) {
+                ClaudeMod.log("Error exporting schematic " + path + ": " + error.getMessage());
+                source.sendError(Text.literal("Could not export schematic: " + error.getMessage()));
+                return;
+            }
+
+            String summary = String.format("%dx%dx%d, %d blocks of %d types, %d block entities",
+                schematic.getWidth(), schematic.getHeight(), schematic.getLength(), schematic.getBlockCount(),
+                schematic.getPaletteSize(), schematic.getBlockEntityCount());
+            CompletableFuture.runAsync(() -> {
+                try {
+                    Files.createDirectories(path.getParent());
+                    schematic.save(path);
+                    ClaudeMod.log("Exported schematic " + path.toAbsolutePath() + " (" + summary + ")");
+                    server.execute(() -> source.sendFeedback(() -> Text.literal("Exported " + path.getFileName() + " (" + summary + ")"), false));
+                } catch (IOException e) {
+                    ClaudeMod.log("Error exporting schematic " + path + ": " + e.getMessage());
+                    server.execute(() -> source.sendError(Text.literal("Could not save schematic: " + e.getMessage())));
+                }
+            });
+        });
+        BuildJobManager.capture(capture);
+
+        source.sendFeedback(() -> Text.literal("Exporting " + capture.getVolume() + " blocks to " + path.getFileName() + "..."), false);
+        return capture.getVolume();
+    }
+
+    /**
+     * Paste a schematic at the same offset from the player as it was exported from
+     */
+    private static int importSchematic(CommandContext<ServerCommandSource> context) {
+        ServerCommandSource source = context.getSource();
+        String name = StringArgumentType.getString(context, "name");
+        Path path = Schematic.getPath(name);
+        if (!Files.isRegularFile(path)) {
+            source.sendError(Text.literal("No schematic named " + name + " in " + Schematic.getSchematicDirectory()));
+            return 0;
+        }
+
+        MinecraftServer server = source.getServer();
+        CompletableFuture.supplyAsync(() -> {
+            try {
+                Schematic schematic = Schematic.load(path);
+                McsProgram program = schematic.toProgram();
+                return new Loaded(schematic, ClaudeConfig.isOptimizeBuilds() ? McsOptimizer.optimize(program) : program);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }).whenComplete((loaded, error) -> server.execute(() -> {
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                ClaudeMod.log("Error importing schematic " + path + ": " + cause.getMessage());
+                source.sendError(Text.literal("Could not read schematic: " + cause.getMessage()));
+                return;
+            }
+
+            Schematic schematic = loaded.schematic;
+            if (schematic.getUnknownStates() > 0) {
+                source.sendError(Text.literal(schematic.getUnknownStates() + " block types in " + name
+                    + " don't exist in this version and were replaced with air"));
+            }
+            int commands = loaded.program.getOpCount();
+            source.sendFeedback(() -> Text.literal("Placing " + path.getFileName() + " (" + schematic.getWidth() + "x"
+                + schematic.getHeight() + "x" + schematic.getLength() + ") as " + commands + " commands"), false);
+            McsProcessor.executeProgram(path.getFileName().toString(), loaded.program, source);
+        }));
+
+        source.sendFeedback(() -> Text.literal("Loading " + path.getFileName() + "..."), false);
+        return 1;
+    }
+
+    /**
+     * A schematic read in the background and the build made from it
+     */
+    private static final class Loaded {
+        private final Schematic schematic;
+        private final McsProgram program;
+
+        private Loaded(Schematic schematic, McsProgram program) {
+            this.schematic = schematic;
+            this.program = program;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.brettbaron.claudemod.command;
+
+import com.brettbaron.claudemod.api.BuildSession;
+import com.brettbaron.claudemod.api.ClaudeRequestPipeline;
+import com.brettbaron.claudemod.config.ClaudeConfig;
+import com.brettbaron.claudemod.mcs.BuildJobManager;
+import com.mojang.brigadier.CommandDispatcher;
+import com.mojang.brigadier.arguments.StringArgumentType;
+import com.mojang.brigadier.context.CommandContext;
+import net.minecraft.server.command.ServerCommandSource;
+import net.minecraft.text.Text;
+import net.minecraft.util.math.BlockPos;
+
+import static net.minecraft.server.command.CommandManager.argument;
+import static net.minecraft.server.command.CommandManager.literal;
+
+/**
+ * /claude edit for changing the build of a player's session, and /claude session for inspecting or ending it
+ */
+public class SessionCommand {
+
+    public static void register(CommandDispatcher<ServerCommandSource> dispatcher) {
+        dispatcher.register(
+            literal("claude")
+                .then(literal("edit")
+                    .then(argument("prompt", StringArgumentType.greedyString())
+                        .executes(SessionCommand::edit)
+                    )
+                )
+                .then(literal("session")
+                    .executes(SessionCommand::show)
+                    .then(literal("end")
+                        .executes(SessionCommand::end)
+                    )
+                )
+        );
+    }
+
+    private static int edit(CommandContext<ServerCommandSource> context) {
+        ServerCommandSource source = context.getSource();
+        String prompt = StringArgumentType.getString(context, "prompt");
+        if (ClaudeConfig.getSessionTimeoutMinutes() == 0) {
+            source.sendError(Text.literal("Build sessions are turned off (session_timeout_minutes=0)"));
+            return 0;
+        }
+
+        BuildSession session = BuildSession.get(BuildJobManager.getOwnerId(source));
+        if (session == null) {
+            source.sendError(Text.literal("You have no build to edit, start one with /claude <prompt>"));
+            return 0;
+        }
+        if (session.isEditPending()) {
+            source.sendError(Text.literal("Your previous edit is still being generated or placed"));
+            return 0;
+        }
+
+        source.sendFeedback(() -> Text.literal("Editing: " + prompt), false);
+        int jobId = ClaudeRequestPipeline.submitEdit(session, prompt, source);
+        if (jobId < 0) {
+            source.sendError(Text.literal("Too many Claude requests in progress, please try again shortly"));
+            return 0;
+        }
+
+        source.sendFeedback(() -> Text.literal("Queued request #" + jobId + ", asking Claude for the changes..."), false);
+        return jobId;
+    }
+
+    private static int show(CommandContext<ServerCommandSource> context) {
+        ServerCommandSource source = context.getSource();
+        BuildSession session = BuildSession.get(BuildJobManager.getOwnerId(source));
+        if (session == null) {
+            source.sendFeedback(() -> Text.literal("You have no build session"), false);
+            return 0;
+        }
+
+        BlockPos origin = session.getOrigin();
+        source.sendFeedback(() -> Text.literal(String.format("Build session at %d %d %d: %d turns, %s%s",
+            origin.getX(), origin.getY(), origin.getZ(), session.getTurnCount(), session.describeSize(),
+            session.isEditPending() ? ", edit in progress" : "")), false);
+        return 1;
+    }
+
+    private static int end(CommandContext<ServerCommandSource> context) {
+        ServerCommandSource source = context.getSource();
+        if (!BuildSession.end(BuildJobManager.getOwnerId(source))) {
+            source.sendError(Text.literal("You have no build session"));
+            return 0;
+        }
+        source.sendFeedback(() -> Text.literal("Ended your build session"), false);
+        return 1;
+    }
+}
@@ -0,0 +1,103 @@
+package com.brettbaron.claudemod.command;
+
+import com.brettbaron.claudemod.config.ClaudeConfig;
+import com.brettbaron.claudemod.metrics.ClaudeMetrics;
+import com.brettbaron.claudemod.metrics.Histogram;
+import com.brettbaron.claudemod.metrics.MetricsExporter;
+import com.mojang.brigadier.CommandDispatcher;
+import com.mojang.brigadier.context.CommandContext;
+import net.minecraft.server.command.ServerCommandSource;
+import net.minecraft.text.Text;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static net.minecraft.server.command.CommandManager.literal;
+
+/**
+ * /claude stats for a summary of the pipeline metrics, and /claude stats export to write them to a file
+ */
+public class StatsCommand {
+
+    public static void register(CommandDispatcher<ServerCommandSource> dispatcher) {
+        dispatcher.register(
+            literal("claude")
+                .then(literal("stats")
+                    .executes(StatsCommand::showStats)
+                    .then(literal("export")
+                        .requires(source -> source.hasPermissionLevel(2))
+                        .executes(StatsCommand::exportStats)
+                    )
+                )
+        );
+    }
+
+    private static int showStats(CommandContext<ServerCommandSource> context) {
+        ServerCommandSource source = context.getSource();
+
+        long requests = ClaudeMetrics.API_REQUESTS.get();
+        send(source, String.format("API: %d requests, %d errors, %d coalesced, latency p50 %.1fs / p95 %.1fs",
+            requests, ClaudeMetrics.API_ERRORS.get(), ClaudeMetrics.API_COALESCED.get(),
+            ClaudeMetrics.API_LATENCY.getQuantile(0.5), ClaudeMetrics.API_LATENCY.getQuantile(0.95)));
+        send(source, String.format("Streaming: first command after p50 %.1fs, average response %.1f KB",
+            ClaudeMetrics.API_FIRST_LINE.getQuantile(0.5), ClaudeMetrics.API_RESPONSE_SIZE.getMean() / 1024));
+
+        long cacheRead = ClaudeMetrics.API_CACHE_READ_TOKENS.get();
+        long input = ClaudeMetrics.API_INPUT_TOKENS.get() + ClaudeMetrics.API_CACHE_WRITE_TOKENS.get() + cacheRead;
+        send(source, String.format("Tokens: %d input (%.0f%% from prompt cache), %d output",
+            input, percent(cacheRead, input), ClaudeMetrics.API_OUTPUT_TOKENS.get()));
+
+        long hits = ClaudeMetrics.CACHE_HITS.get();
+        long lookups = hits + ClaudeMetrics.CACHE_MISSES.get();
+        send(source, String.format("Cache: %d of %d prompts reused (%.0f%%), %d compiled sidecars loaded",
+            hits, lookups, percent(hits, lookups), ClaudeMetrics.MCS_SIDECAR_HITS.get()));
+        send(source, String.format("Processing: response p50 %s, compile p50 %s",
+            formatSeconds(ClaudeMetrics.RESPONSE_PROCESSING), formatSeconds(ClaudeMetrics.MCS_COMPILE)));
+
+        long executed = ClaudeMetrics.COMMANDS_EXECUTED.get();
+        long failed = ClaudeMetrics.COMMANDS_FAILED.get();
+        Histogram tickTime = ClaudeMetrics.BUILD_TICK_TIME;
+        double buildSeconds = tickTime.getSum();
+        send(source, String.format("Builds: %d active, %d completed, %d failed, %d cancelled",
+            (int) ClaudeMetrics.ACTIVE_BUILDS.get(), ClaudeMetrics.BUILDS_COMPLETED.get(), ClaudeMetrics.BUILDS_FAILED.get(),
+            ClaudeMetrics.BUILDS_CANCELLED.get()));
+        send(source, String.format("Commands: %d executed, %d failed (%.1f%%), %.0f per second of build time, %d blocks changed, %d already in place",
+            executed, failed, percent(failed, executed + failed), buildSeconds > 0 ? executed / buildSeconds : 0,
+            ClaudeMetrics.BLOCKS_CHANGED.get(), ClaudeMetrics.BLOCKS_UNCHANGED.get()));
+        send(source, String.format("Ticks: server %.1f ms, builds %.2f ms avg / %.2f ms p95, budget %.1f ms",
+            ClaudeMetrics.SERVER_TICK.get(), tickTime.getMean() * 1000, tickTime.getQuantile(0.95) * 1000,
+            ClaudeMetrics.TICK_BUDGET.get()));
+        return 1;
+    }
+
+    private static int exportStats(CommandContext<ServerCommandSource> context) {
+        ServerCommandSource source = context.getSource();
+        Path file = ClaudeConfig.getMetricsExportFile();
+        if (file == null) {
+            file = ClaudeConfig.getConfigDirectory().resolve("metrics.prom");
+        }
+
+        try {
+            MetricsExporter.writeFile(file);
+            Path written = file;
+            source.sendFeedback(() -> Text.literal("Wrote metrics to " + written.toAbsolutePath()), false);
+            return 1;
+        } catch (IOException e) {
+            source.sendError(Text.literal("Could not write metrics: " + e.getMessage()));
+            return 0;
+        }
+    }
+
+    private static String formatSeconds(Histogram histogram) {
+        double seconds = histogram.getQuantile(0.5);
+        return seconds < 1 ? String.format("%.1f ms", seconds * 1000) : String.format("%.2f s", seconds);
+    }
+
+    private static double percent(long part, long total) {
+        return total == 0 ? 0 : part * 100.0 / total;
+    }
+
+    private static void send(ServerCommandSource source, String message) {
+        source.sendFeedback(() -> Text.literal(message), false);
+    }
+}
@@ -0,0 +1,58 @@
+package com.brettbaron.claudemod.command;
+
+import com.brettbaron.claudemod.api.BuildSession;
+import com.brettbaron.claudemod.mcs.BuildJobManager;
+import com.brettbaron.claudemod.mcs.UndoHistory;
+import com.mojang.brigadier.CommandDispatcher;
+import com.mojang.brigadier.context.CommandContext;
+import net.minecraft.server.command.ServerCommandSource;
+import net.minecraft.text.Text;
+
+import static net.minecraft.server.command.CommandManager.literal;
+
+/**
+ * /claude undo and /claude redo for reverting and restoring a player's recent builds
+ */
+public class UndoCommand {
+
+    public static void register(CommandDispatcher<ServerCommandSource> dispatcher) {
+        dispatcher.register(
+            literal("claude")
+                .then(literal("undo")
+                    .executes(UndoCommand::undo)
+                )
+                .then(literal("redo")
+                    .executes(UndoCommand::redo)
+                )
+        );
+    }
+
+    private static int undo(CommandContext<ServerCommandSource> context) {
+        ServerCommandSource source = context.getSource();
+        if (!UndoHistory.undo(source)) {
+            source.sendError(Text.literal("You have no builds to undo"));
+            return 0;
+        }
+        endSession(source);
+        return 1;
+    }
+
+    private static int redo(CommandContext<ServerCommandSource> context) {
+        ServerCommandSource source = context.getSource();
+        if (!UndoHistory.redo(source)) {
+            source.sendError(Text.literal("You have no undone builds to redo"));
+            return 0;
+        }
+        endSession(source);
+        return 1;
+    }
+
+    /**
+     * The session's model of the build no longer matches the world once a build is undone or redone
+     */
+    private static void endSession(ServerCommandSource source) {
+        if (BuildSession.end(BuildJobManager.getOwnerId(source))) {
+            source.sendFeedback(() -> Text.literal("Your build session has ended, start a new one with /claude <prompt>"), false);
+        }
+    }
+}
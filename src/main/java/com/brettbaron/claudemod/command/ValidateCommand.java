@@ -0,0 +1,102 @@
+package com.brettbaron.claudemod.command;
+
+import com.brettbaron.claudemod.ClaudeMod;
+import com.brettbaron.claudemod.mcs.McsProcessor;
+import com.brettbaron.claudemod.mcs.McsProgram;
+import com.brettbaron.claudemod.mcs.McsValidator;
+import com.mojang.brigadier.CommandDispatcher;
+import com.mojang.brigadier.arguments.StringArgumentType;
+import com.mojang.brigadier.context.CommandContext;
+import net.minecraft.command.CommandSource;
+import net.minecraft.server.command.ServerCommandSource;
+import net.minecraft.text.Text;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static net.minecraft.server.command.CommandManager.argument;
+import static net.minecraft.server.command.CommandManager.literal;
+
+/**
+ * /claude validate for checking a saved MCS file without placing anything
+ */
+public class ValidateCommand {
+
+    public static void register(CommandDispatcher<ServerCommandSource> dispatcher) {
+        dispatcher.register(
+            literal("claude")
+                .then(literal("validate")
+                    .then(argument("name", StringArgumentType.word())
+                        .suggests((context, builder) -> CommandSource.suggestMatching(listMcsFiles(), builder))
+                        .executes(ValidateCommand::validate)
+                    )
+                )
+        );
+    }
+
+    private static int validate(CommandContext<ServerCommandSource> context) {
+        ServerCommandSource source = context.getSource();
+        String name = StringArgumentType.getString(context, "name");
+        Path path = McsProcessor.getMcsDirectory().resolve(name.endsWith(".mcs") ? name : name + ".mcs");
+        if (!Files.isRegularFile(path)) {
+            source.sendError(Text.literal("No MCS file named " + name + " in " + McsProcessor.getMcsDirectory()));
+            return 0;
+        }
+
+        McsProgram program;
+        try {
+            program = McsProcessor.loadProgram(path.toString());
+        } catch (IOException e) {
+            source.sendError(Text.literal("Could not read " + path.getFileName() + ": " + e.getMessage()));
+            return 0;
+        }
+
+        McsValidator validator = new McsValidator(source);
+        McsProgram valid = validator.validate(program);
+        int direct = 0;
+        for (int op = 0; op < valid.getOpCount(); op++) {
+            if (valid.getOpcode(op) != McsProgram.OP_COMMAND) {
+                direct++;
+            }
+        }
+
+        int ticks = McsValidator.estimateTicks(valid);
+        String summary = String.format("%s: %d commands (%d placed directly), %d blocks, about %d ticks (%.1f s) to build",
+            path.getFileName(), valid.getOpCount(), direct, valid.getTotalVolume(), ticks, ticks / 20.0);
+        source.sendFeedback(() -> Text.literal(summary), false);
+
+        if (validator.getErrorCount() == 0) {
+            source.sendFeedback(() -> Text.literal("No problems found"), false);
+            return 1;
+        }
+
+        ClaudeMod.log("Validated " + path.getFileName() + ": " + validator.getErrorCount() + " invalid commands");
+        source.sendError(Text.literal(validator.getErrorCount() + " invalid commands would be left out:"));
+        for (String error : validator.getErrors()) {
+            source.sendError(Text.literal("- " + error));
+        }
+        if (validator.getErrorCount() > validator.getErrors().size()) {
+            source.sendError(Text.literal("... and " + (validator.getErrorCount() - validator.getErrors().size()) + " more"));
+        }
+        return 0;
+    }
+
+    private static List<String> listMcsFiles() {
+        Path directory = McsProcessor.getMcsDirectory();
+        if (!Files.isDirectory(directory)) {
+            return List.of();
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(file -> file.getFileName().toString())
+                .filter(name -> name.endsWith(".mcs"))
+                .map(name -> name.substring(0, name.length() - ".mcs".length()))
+                .sorted()
+                .toList();
+        } catch (IOException e) {
+            return List.of();
+        }
+    }
+}
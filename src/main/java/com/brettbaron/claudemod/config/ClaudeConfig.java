@@ -1,6 +1,8 @@
 package com.brettbaron.claudemod.config;
 
 import com.brettbaron.claudemod.ClaudeMod;
+import com.brettbaron.claudemod.log.LogCategory;
+import com.brettbaron.claudemod.log.LogLevel;
 import net.fabricmc.loader.api.FabricLoader;
 
 import java.io.File;
@@ -9,12 +11,41 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.Map;
 import java.util.Properties;
 
 public class ClaudeConfig {
     private static final Path CONFIG_DIR = FabricLoader.getInstance().getConfigDir().resolve("claudemod");
     private static final Path CONFIG_FILE = CONFIG_DIR.resolve("config.properties");
     
+    private static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 2;
+    private static final int DEFAULT_MAX_QUEUED_REQUESTS = 8;
+    private static final int DEFAULT_TICK_BUDGET_MS = 20;
+    private static final int DEFAULT_MIN_TICK_BUDGET_MS = 2;
+    private static final String DEFAULT_API_URL = "https://api.anthropic.com/v1/messages";
+    private static final int DEFAULT_HTTP_CONNECTION_POOL_SIZE = 4;
+    private static final int DEFAULT_HTTP_KEEPALIVE_SECONDS = 300;
+    private static final int DEFAULT_MAX_BUILDS_PER_PLAYER = 1;
+    private static final int DEFAULT_MAX_BLOCKS_PER_PLAYER = 2_000_000;
+    private static final int DEFAULT_CACHE_MEMORY_ENTRIES = 32;
+    private static final int DEFAULT_LOG_MAX_FILE_MB = 10;
+    private static final int DEFAULT_LOG_MAX_FILES = 5;
+    private static final int DEFAULT_METRICS_EXPORT_INTERVAL_SECONDS = 15;
+    private static final int DEFAULT_CACHE_TTL_HOURS = 168;
+    private static final int DEFAULT_CACHE_MAX_DISK_MB = 64;
+    private static final int DEFAULT_UNDO_HISTORY_SIZE = 10;
+    private static final int DEFAULT_PRELOAD_CHUNKS = 64;
+    private static final int DEFAULT_UNDO_MEMORY_MB = 64;
+    private static final int DEFAULT_PLANNER_PARALLELISM = 4;
+    private static final int DEFAULT_PLANNER_MAX_COMPONENTS = 8;
+    private static final int DEFAULT_MAX_CONTINUATIONS = 4;
+    private static final int DEFAULT_SCHEMATIC_MAX_BLOCKS = 1_048_576;
+    private static final int DEFAULT_CONTEXT_RADIUS = 32;
+    private static final int DEFAULT_CONTEXT_MAX_TOKENS = 600;
+    private static final int DEFAULT_SESSION_TIMEOUT_MINUTES = 30;
+    private static final int DEFAULT_SESSION_HISTORY_TOKENS = 4000;
+    
     private static Properties properties = new Properties();
     private static String apiKey = null;
     
@@ -64,6 +95,77 @@ public class ClaudeConfig {
         // Use env variable if available, otherwise default model
         properties.setProperty("model", envModel != null ? envModel : "claude-3-5-sonnet-20240620");
         
+        // Request pipeline limits
+        properties.setProperty("max_concurrent_requests", String.valueOf(DEFAULT_MAX_CONCURRENT_REQUESTS));
+        properties.setProperty("max_queued_requests", String.valueOf(DEFAULT_MAX_QUEUED_REQUESTS));
+        
+        // HTTP connections to the API are kept open and reused between requests
+        properties.setProperty("api_url", DEFAULT_API_URL);
+        properties.setProperty("http_connection_pool_size", String.valueOf(DEFAULT_HTTP_CONNECTION_POOL_SIZE));
+        properties.setProperty("http_keepalive_seconds", String.valueOf(DEFAULT_HTTP_KEEPALIVE_SECONDS));
+        
+        // Start building as soon as the first commands arrive instead of waiting for the full response
+        properties.setProperty("stream_responses", "true");
+        
+        // Follow-up requests for a response that was cut off at the output limit
+        properties.setProperty("max_continuations", String.valueOf(DEFAULT_MAX_CONTINUATIONS));
+        
+        // Terrain around the player sent with each prompt: blocks in each direction, and its size in tokens (0 = off)
+        properties.setProperty("context_radius", String.valueOf(DEFAULT_CONTEXT_RADIUS));
+        properties.setProperty("context_max_tokens", String.valueOf(DEFAULT_CONTEXT_MAX_TOKENS));
+        
+        // /claude edit: minutes an unused build session is kept (0 = off), and the tokens its history may use
+        properties.setProperty("session_timeout_minutes", String.valueOf(DEFAULT_SESSION_TIMEOUT_MINUTES));
+        properties.setProperty("session_history_tokens", String.valueOf(DEFAULT_SESSION_HISTORY_TOKENS));
+        
+        // /claude plan: components generated at once, and the most components a plan may have
+        properties.setProperty("planner_parallelism", String.valueOf(DEFAULT_PLANNER_PARALLELISM));
+        properties.setProperty("planner_max_components", String.valueOf(DEFAULT_PLANNER_MAX_COMPONENTS));
+        
+        // Build execution budget per server tick
+        properties.setProperty("tick_budget_ms", String.valueOf(DEFAULT_TICK_BUDGET_MS));
+        properties.setProperty("min_tick_budget_ms", String.valueOf(DEFAULT_MIN_TICK_BUDGET_MS));
+        
+        // Builds each player may run at once, and the blocks their queued builds may cover
+        properties.setProperty("max_builds_per_player", String.valueOf(DEFAULT_MAX_BUILDS_PER_PLAYER));
+        properties.setProperty("max_blocks_per_player", String.valueOf(DEFAULT_MAX_BLOCKS_PER_PLAYER));
+        
+        // Run builds chunk by chunk, and keep the chunks a build is about to write to loaded (0 = off)
+        properties.setProperty("reorder_builds", "true");
+        properties.setProperty("preload_chunks", String.valueOf(DEFAULT_PRELOAD_CHUNKS));
+        
+        // Hold back block updates and relighting until a build is placed, then apply them once
+        properties.setProperty("bulk_placement", "true");
+        
+        // Builds each player can undo, and the memory all undo history may use
+        properties.setProperty("undo_history_size", String.valueOf(DEFAULT_UNDO_HISTORY_SIZE));
+        properties.setProperty("undo_memory_mb", String.valueOf(DEFAULT_UNDO_MEMORY_MB));
+        
+        // Largest region /claude export will save as a schematic, and largest schematic /claude import will load
+        properties.setProperty("schematic_max_blocks", String.valueOf(DEFAULT_SCHEMATIC_MAX_BLOCKS));
+        
+        // Merge and de-duplicate generated commands before building
+        properties.setProperty("optimize_builds", "true");
+        
+        // Check every command against the server before a build starts, and leave out the ones that would fail
+        properties.setProperty("validate_builds", "true");
+        
+        // Reuse builds for repeated prompts instead of calling the API again
+        properties.setProperty("cache_enabled", "true");
+        properties.setProperty("cache_memory_entries", String.valueOf(DEFAULT_CACHE_MEMORY_ENTRIES));
+        properties.setProperty("cache_ttl_hours", String.valueOf(DEFAULT_CACHE_TTL_HOURS));
+        properties.setProperty("cache_max_disk_mb", String.valueOf(DEFAULT_CACHE_MAX_DISK_MB));
+        
+        // Logging: debug, info, warn, error or off, optionally per category with log_level.<category>
+        properties.setProperty("log_level", "info");
+        properties.setProperty("log_max_file_mb", String.valueOf(DEFAULT_LOG_MAX_FILE_MB));
+        properties.setProperty("log_max_files", String.valueOf(DEFAULT_LOG_MAX_FILES));
+        
+        // Prometheus metrics: a text file written periodically and/or an HTTP endpoint on localhost (0 = off)
+        properties.setProperty("metrics_export_file", "");
+        properties.setProperty("metrics_export_interval_seconds", String.valueOf(DEFAULT_METRICS_EXPORT_INTERVAL_SECONDS));
+        properties.setProperty("metrics_http_port", "0");
+        
         // Add a comment explaining environment variables
         properties.setProperty("# NOTE", "You can also set CLAUDE_API_KEY and CLAUDE_MODEL environment variables");
         
@@ -112,4 +214,303 @@ public class ClaudeConfig {
         // Fall back to the stored model or default
         return properties.getProperty("model", "claude-3-5-sonnet-20240620");
     }
-}
\ No newline at end of file
+    
+    /**
+     * Maximum number of Claude API requests that may be in flight at once
+     */
+    public static int getMaxConcurrentRequests() {
+        return Math.max(1, getInt("max_concurrent_requests", DEFAULT_MAX_CONCURRENT_REQUESTS));
+    }
+    
+    /**
+     * Maximum number of Claude API requests waiting for a free worker
+     */
+    public static int getMaxQueuedRequests() {
+        return Math.max(0, getInt("max_queued_requests", DEFAULT_MAX_QUEUED_REQUESTS));
+    }
+    
+    /**
+     * Messages endpoint requests are sent to. The claudemod.api.url system property takes precedence,
+     * which allows pointing the mod at a local stub server.
+     */
+    public static String getApiUrl() {
+        String override = System.getProperty("claudemod.api.url");
+        if (override != null && !override.isBlank()) {
+            return override.trim();
+        }
+        
+        String url = properties.getProperty("api_url");
+        return url == null || url.isBlank() ? DEFAULT_API_URL : url.trim();
+    }
+    
+    /**
+     * Whether responses are streamed so building starts while Claude is still generating
+     */
+    public static boolean isStreamResponses() {
+        return getBoolean("stream_responses", true);
+    }
+    
+    /**
+     * How many times Claude is asked to continue a response that stopped at max_tokens, or 0 to never continue
+     */
+    public static int getMaxContinuations() {
+        return Math.max(0, getInt("max_continuations", DEFAULT_MAX_CONTINUATIONS));
+    }
+    
+    /**
+     * How far around the player, in blocks, the terrain is described in prompts
+     */
+    public static int getContextRadius() {
+        return Math.max(0, Math.min(256, getInt("context_radius", DEFAULT_CONTEXT_RADIUS)));
+    }
+    
+    /**
+     * Approximate tokens the terrain description may use, or 0 to leave it out of prompts
+     */
+    public static int getContextMaxTokens() {
+        return Math.max(0, getInt("context_max_tokens", DEFAULT_CONTEXT_MAX_TOKENS));
+    }
+    
+    /**
+     * Minutes a player's build session is kept after it was last used, or 0 to turn sessions off
+     */
+    public static int getSessionTimeoutMinutes() {
+        return Math.max(0, getInt("session_timeout_minutes", DEFAULT_SESSION_TIMEOUT_MINUTES));
+    }
+    
+    /**
+     * Approximate tokens the current build and earlier turns may use in a /claude edit request
+     */
+    public static int getSessionHistoryTokens() {
+        return Math.max(500, getInt("session_history_tokens", DEFAULT_SESSION_HISTORY_TOKENS));
+    }
+    
+    /**
+     * Maximum number of components of a planned build that are generated at the same time
+     */
+    public static int getPlannerParallelism() {
+        return Math.max(1, getInt("planner_parallelism", DEFAULT_PLANNER_PARALLELISM));
+    }
+    
+    /**
+     * Maximum number of components a planned build is split into
+     */
+    public static int getPlannerMaxComponents() {
+        return Math.max(1, getInt("planner_max_components", DEFAULT_PLANNER_MAX_COMPONENTS));
+    }
+    
+    /**
+     * Maximum number of idle HTTP connections kept open to the API
+     */
+    public static int getHttpConnectionPoolSize() {
+        return Math.max(0, getInt("http_connection_pool_size", DEFAULT_HTTP_CONNECTION_POOL_SIZE));
+    }
+    
+    /**
+     * How long an idle HTTP connection to the API is kept open, in seconds
+     */
+    public static int getHttpKeepaliveSeconds() {
+        return Math.max(1, getInt("http_keepalive_seconds", DEFAULT_HTTP_KEEPALIVE_SECONDS));
+    }
+    
+    /**
+     * Maximum time in milliseconds builds may use per server tick when the server has headroom
+     */
+    public static int getTickBudgetMillis() {
+        return Math.max(1, getInt("tick_budget_ms", DEFAULT_TICK_BUDGET_MS));
+    }
+    
+    /**
+     * Time in milliseconds builds always get per server tick, even when the server is lagging
+     */
+    public static int getMinTickBudgetMillis() {
+        return Math.max(0, getInt("min_tick_budget_ms", DEFAULT_MIN_TICK_BUDGET_MS));
+    }
+    
+    /**
+     * Number of builds a single player may have running at once; further builds wait their turn
+     */
+    public static int getMaxBuildsPerPlayer() {
+        return Math.max(1, getInt("max_builds_per_player", DEFAULT_MAX_BUILDS_PER_PLAYER));
+    }
+    
+    /**
+     * Total blocks the unfinished builds of a single player may cover
+     */
+    public static int getMaxBlocksPerPlayer() {
+        return Math.max(0, getInt("max_blocks_per_player", DEFAULT_MAX_BLOCKS_PER_PLAYER));
+    }
+    
+    /**
+     * Whether builds are reordered to finish one chunk before moving to the next
+     */
+    public static boolean isReorderBuilds() {
+        return getBoolean("reorder_builds", true);
+    }
+    
+    /**
+     * Chunk columns a build keeps loaded ahead of where it is writing, or 0 to not load chunks
+     */
+    public static int getPreloadChunks() {
+        return Math.max(0, getInt("preload_chunks", DEFAULT_PRELOAD_CHUNKS));
+    }
+    
+    /**
+     * Whether block updates and light checks are held back until a build has been placed
+     */
+    public static boolean isBulkPlacement() {
+        return getBoolean("bulk_placement", true);
+    }
+    
+    /**
+     * Number of builds each player can undo, or 0 to disable undo
+     */
+    public static int getUndoHistorySize() {
+        return Math.max(0, getInt("undo_history_size", DEFAULT_UNDO_HISTORY_SIZE));
+    }
+    
+    /**
+     * Memory all undo history may use together, in megabytes. Older builds are forgotten first.
+     */
+    public static int getUndoMemoryMegabytes() {
+        return Math.max(1, getInt("undo_memory_mb", DEFAULT_UNDO_MEMORY_MB));
+    }
+    
+    /**
+     * Largest number of blocks a region exported with /claude export, or a schematic imported with
+     * /claude import, may contain
+     */
+    public static int getSchematicMaxBlocks() {
+        return Math.max(1, getInt("schematic_max_blocks", DEFAULT_SCHEMATIC_MAX_BLOCKS));
+    }
+    
+    /**
+     * Whether generated builds are run through the MCS optimizer before execution
+     */
+    public static boolean isOptimizeBuilds() {
+        return getBoolean("optimize_builds", true);
+    }
+    
+    /**
+     * Whether builds are checked by the McsValidator before they are placed
+     */
+    public static boolean isValidateBuilds() {
+        return getBoolean("validate_builds", true);
+    }
+    
+    /**
+     * Whether repeated prompts are answered from the response cache
+     */
+    public static boolean isCacheEnabled() {
+        return getBoolean("cache_enabled", true);
+    }
+    
+    /**
+     * Number of compiled builds kept in the in-memory cache tier
+     */
+    public static int getCacheMemoryEntries() {
+        return Math.max(0, getInt("cache_memory_entries", DEFAULT_CACHE_MEMORY_ENTRIES));
+    }
+    
+    /**
+     * How long a cached build stays valid, in hours
+     */
+    public static int getCacheTtlHours() {
+        return Math.max(0, getInt("cache_ttl_hours", DEFAULT_CACHE_TTL_HOURS));
+    }
+    
+    /**
+     * Total size of the MCS files the disk cache index may point to, in megabytes
+     */
+    public static int getCacheMaxDiskMegabytes() {
+        return Math.max(0, getInt("cache_max_disk_mb", DEFAULT_CACHE_MAX_DISK_MB));
+    }
+    
+    /**
+     * Log level for categories without their own log_level.&lt;category&gt; setting
+     */
+    public static LogLevel getLogLevel() {
+        return LogLevel.parse(properties.getProperty("log_level"), LogLevel.INFO);
+    }
+    
+    /**
+     * Log levels set for individual categories
+     */
+    public static Map<LogCategory, LogLevel> getCategoryLogLevels() {
+        Map<LogCategory, LogLevel> levels = new EnumMap<>(LogCategory.class);
+        for (LogCategory category : LogCategory.values()) {
+            String value = properties.getProperty("log_level." + category.getKey());
+            if (value != null) {
+                levels.put(category, LogLevel.parse(value, getLogLevel()));
+            }
+        }
+        return levels;
+    }
+    
+    /**
+     * Size at which the mod's log file is rotated, in megabytes
+     */
+    public static int getLogMaxFileMegabytes() {
+        return Math.max(1, getInt("log_max_file_mb", DEFAULT_LOG_MAX_FILE_MB));
+    }
+    
+    /**
+     * Number of log files kept, including the current one
+     */
+    public static int getLogMaxFiles() {
+        return Math.max(1, getInt("log_max_files", DEFAULT_LOG_MAX_FILES));
+    }
+    
+    /**
+     * @return The directory the config file lives in
+     */
+    public static Path getConfigDirectory() {
+        return CONFIG_DIR;
+    }
+    
+    /**
+     * File metrics are periodically exported to in the Prometheus text format
+     *
+     * @return The file, or null if periodic export is disabled
+     */
+    public static Path getMetricsExportFile() {
+        String value = properties.getProperty("metrics_export_file");
+        return value == null || value.isBlank() ? null : Path.of(value.trim());
+    }
+    
+    /**
+     * Time between periodic metrics exports, in seconds
+     */
+    public static int getMetricsExportIntervalSeconds() {
+        return Math.max(1, getInt("metrics_export_interval_seconds", DEFAULT_METRICS_EXPORT_INTERVAL_SECONDS));
+    }
+    
+    /**
+     * Localhost port the metrics endpoint is served on, or 0 if it is disabled
+     */
+    public static int getMetricsHttpPort() {
+        return Math.max(0, getInt("metrics_http_port", 0));
+    }
+    
+    private static boolean getBoolean(String key, boolean defaultValue) {
+        String value = properties.getProperty(key);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        return Boolean.parseBoolean(value.trim());
+    }
+    
+    private static int getInt(String key, int defaultValue) {
+        String value = properties.getProperty(key);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            ClaudeMod.log("Invalid value for config key " + key + ": " + value + " (using " + defaultValue + ")");
+            return defaultValue;
+        }
+    }
+}
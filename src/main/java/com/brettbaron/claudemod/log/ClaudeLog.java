@@ -0,0 +1,313 @@
+package com.brettbaron.claudemod.log;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * The mod's logging subsystem.
+ *
+ * Callers only check a per-category level and append to a lock-free ring buffer, so logging costs the
+ * server thread next to nothing. A background thread drains the ring in batches, formats timestamps
+ * (cached per second), writes the file with one flush per batch, rotates it by size and forwards INFO
+ * and above to the game log.
+ */
+public class ClaudeLog {
+    private static final Logger LOGGER = LoggerFactory.getLogger("claudemod");
+
+    private static final int RING_CAPACITY = 8192;
+    private static final long IDLE_PARK_NANOS = 100_000_000L;
+    private static final String LOG_FILE = "claude-mod.log";
+    private static final DateTimeFormatter TIMESTAMP_FORMAT =
+        DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneId.systemDefault());
+
+    private static final LogRingBuffer ring = new LogRingBuffer(RING_CAPACITY);
+    private static final long WAKE_MASK = ring.getCapacity() / 4 - 1;
+    // Lowest enabled level for each category, by ordinal
+    private static volatile int[] thresholds = defaultThresholds(LogLevel.INFO);
+
+    private static volatile long maxFileBytes = 10L * 1024 * 1024;
+    private static volatile int maxFiles = 5;
+
+    private static volatile Thread writerThread;
+    private static volatile boolean running = false;
+
+    // Writer thread state
+    private static Path logDirectory;
+    private static Writer fileWriter;
+    private static long fileBytes = 0;
+    private static long cachedSecond = -1;
+    private static String cachedTimestamp = "";
+
+    /**
+     * Start the writer thread. Messages logged before this are buffered and written once it runs.
+     *
+     * @param directory Directory the log file is written to, or null to only forward to the game log
+     */
+    public static synchronized void start(Path directory) {
+        if (running) {
+            return;
+        }
+        logDirectory = directory;
+        running = true;
+
+        writerThread = new Thread(ClaudeLog::writeLoop, "Claude-Log-Writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(ClaudeLog::stop, "Claude-Log-Shutdown"));
+    }
+
+    /**
+     * Apply levels and rotation settings
+     *
+     * @param defaultLevel Level for categories without their own setting
+     * @param categoryLevels Levels for individual categories
+     * @param maxBytes Size at which the log file is rotated
+     * @param files Number of log files kept, including the current one
+     */
+    public static void configure(LogLevel defaultLevel, Map<LogCategory, LogLevel> categoryLevels, long maxBytes, int files) {
+        int[] updated = defaultThresholds(defaultLevel);
+        for (Map.Entry<LogCategory, LogLevel> entry : categoryLevels.entrySet()) {
+            updated[entry.getKey().ordinal()] = entry.getValue().ordinal();
+        }
+        thresholds = updated;
+        maxFileBytes = Math.max(1024, maxBytes);
+        maxFiles = Math.max(1, files);
+    }
+
+    /**
+     * Flush everything that has been logged and stop the writer thread
+     */
+    public static void stop() {
+        Thread thread;
+        synchronized (ClaudeLog.class) {
+            if (!running) {
+                return;
+            }
+            running = false;
+            thread = writerThread;
+        }
+
+        LockSupport.unpark(thread);
+        try {
+            thread.join(2000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Cheap check for guarding messages that are expensive to build
+     */
+    public static boolean isEnabled(LogCategory category, LogLevel level) {
+        return level.ordinal() >= thresholds[category.ordinal()];
+    }
+
+    public static void debug(LogCategory category, String message) {
+        log(category, LogLevel.DEBUG, message, null);
+    }
+
+    /**
+     * Log a debug message that is only built when debug logging is enabled for the category
+     */
+    public static void debug(LogCategory category, Supplier<String> message) {
+        if (isEnabled(category, LogLevel.DEBUG)) {
+            log(category, LogLevel.DEBUG, message.get(), null);
+        }
+    }
+
+    public static void info(LogCategory category, String message) {
+        log(category, LogLevel.INFO, message, null);
+    }
+
+    public static void warn(LogCategory category, String message) {
+        log(category, LogLevel.WARN, message, null);
+    }
+
+    public static void error(LogCategory category, String message, Throwable error) {
+        log(category, LogLevel.ERROR, message, error);
+    }
+
+    public static void log(LogCategory category, LogLevel level, String message, Throwable error) {
+        if (!isEnabled(category, level)) {
+            return;
+        }
+
+        boolean important = level.ordinal() >= LogLevel.WARN.ordinal();
+        long position = ring.offer(System.currentTimeMillis(), level, category, message, error);
+        if (position < 0 && important) {
+            // Never lose warnings just because the writer has fallen behind
+            LOGGER.warn(message, error);
+        }
+        // Wake the writer early for warnings, and whenever a quarter of the ring has filled up
+        if (important || (position & WAKE_MASK) == WAKE_MASK) {
+            LockSupport.unpark(writerThread);
+        }
+    }
+
+    private static int[] defaultThresholds(LogLevel level) {
+        int[] values = new int[LogCategory.values().length];
+        Arrays.fill(values, level.ordinal());
+        return values;
+    }
+
+    private static void writeLoop() {
+        openFile();
+
+        StringBuilder line = new StringBuilder(256);
+        LogRingBuffer.EntryConsumer consumer = entry -> write(entry, line);
+
+        while (running) {
+            int drained = ring.drain(consumer);
+            if (drained > 0) {
+                flush();
+            } else {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+
+        // Write whatever was logged while shutting down
+        ring.drain(consumer);
+        flush();
+        closeFile();
+    }
+
+    private static void write(LogRingBuffer.Entry entry, StringBuilder line) {
+        if (entry.level.ordinal() >= LogLevel.INFO.ordinal()) {
+            forward(entry);
+        }
+
+        long dropped = ring.takeDropped();
+        line.setLength(0);
+        if (dropped > 0) {
+            line.append('[').append(timestamp(entry.timeMillis)).append("] WARN  [general] ")
+                .append(dropped).append(" log messages dropped, the log writer fell behind\n");
+        }
+
+        line.append('[').append(timestamp(entry.timeMillis)).append("] ");
+        line.append(entry.level.name());
+        for (int i = entry.level.name().length(); i < 6; i++) {
+            line.append(' ');
+        }
+        line.append('[').append(entry.category.getKey()).append("] ").append(entry.message).append('\n');
+
+        if (entry.error != null) {
+            StringWriter trace = new StringWriter();
+            entry.error.printStackTrace(new PrintWriter(trace));
+            line.append(trace);
+        }
+
+        if (fileWriter == null) {
+            return;
+        }
+        try {
+            fileWriter.append(line);
+            fileBytes += line.length();
+            if (fileBytes >= maxFileBytes) {
+                rotate();
+            }
+        } catch (IOException e) {
+            LOGGER.error("Failed to write to Claude mod log file", e);
+            closeFile();
+        }
+    }
+
+    private static void forward(LogRingBuffer.Entry entry) {
+        switch (entry.level) {
+            case WARN:
+                LOGGER.warn(entry.message, entry.error);
+                break;
+            case ERROR:
+                LOGGER.error(entry.message, entry.error);
+                break;
+            default:
+                LOGGER.info(entry.message);
+                break;
+        }
+    }
+
+    private static String timestamp(long timeMillis) {
+        long second = timeMillis / 1000;
+        if (second != cachedSecond) {
+            cachedSecond = second;
+            cachedTimestamp = TIMESTAMP_FORMAT.format(Instant.ofEpochMilli(timeMillis));
+        }
+        return cachedTimestamp;
+    }
+
+    private static void openFile() {
+        if (logDirectory == null) {
+            return;
+        }
+
+        try {
+            Files.createDirectories(logDirectory);
+            Path file = logDirectory.resolve(LOG_FILE);
+            fileBytes = Files.exists(file) ? Files.size(file) : 0;
+            fileWriter = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            LOGGER.error("Failed to open Claude mod log file", e);
+            fileWriter = null;
+        }
+    }
+
+    /**
+     * Shift claude-mod.log to claude-mod.1.log and so on, dropping the oldest, then start a new file
+     */
+    private static void rotate() throws IOException {
+        closeFile();
+
+        for (int i = maxFiles - 1; i >= 1; i--) {
+            Path from = logDirectory.resolve(i == 1 ? LOG_FILE : "claude-mod." + (i - 1) + ".log");
+            Path to = logDirectory.resolve("claude-mod." + i + ".log");
+            if (Files.exists(from)) {
+                Files.move(from, to, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        if (maxFiles == 1) {
+            Files.deleteIfExists(logDirectory.resolve(LOG_FILE));
+        }
+
+        openFile();
+    }
+
+    private static void flush() {
+        if (fileWriter == null) {
+            return;
+        }
+        try {
+            fileWriter.flush();
+        } catch (IOException e) {
+            LOGGER.error("Failed to flush Claude mod log file", e);
+        }
+    }
+
+    private static void closeFile() {
+        if (fileWriter == null) {
+            return;
+        }
+        try {
+            fileWriter.close();
+        } catch (IOException e) {
+            LOGGER.error("Failed to close Claude mod log file", e);
+        }
+        fileWriter = null;
+    }
+}
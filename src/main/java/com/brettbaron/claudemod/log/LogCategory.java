@@ -0,0 +1,22 @@
+package com.brettbaron.claudemod.log;
+
+import java.util.Locale;
+
+/**
+ * Area of the mod a log message comes from. Each category has its own level, set with
+ * log_level.&lt;category&gt; in the config.
+ */
+public enum LogCategory {
+    GENERAL,
+    API,
+    BUILD,
+    CACHE,
+    COMMAND;
+
+    /**
+     * @return The name used in config keys and log lines
+     */
+    public String getKey() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+}
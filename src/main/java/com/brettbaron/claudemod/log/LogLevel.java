@@ -0,0 +1,30 @@
+package com.brettbaron.claudemod.log;
+
+import java.util.Locale;
+
+/**
+ * Severity of a log message, from most to least verbose
+ */
+public enum LogLevel {
+    DEBUG,
+    INFO,
+    WARN,
+    ERROR,
+    OFF;
+
+    /**
+     * Parse a level name from the config, ignoring case
+     *
+     * @return The level, or the fallback if the name is not recognised
+     */
+    public static LogLevel parse(String name, LogLevel fallback) {
+        if (name == null || name.isBlank()) {
+            return fallback;
+        }
+        try {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return fallback;
+        }
+    }
+}
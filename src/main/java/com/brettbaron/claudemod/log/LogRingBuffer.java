@@ -0,0 +1,121 @@
+package com.brettbaron.claudemod.log;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded ring of log entries with many producers and a single consumer.
+ *
+ * Producers claim a slot with a single compare-and-set and never block; when the ring is full the entry
+ * is dropped and counted instead. Each slot carries a sequence number that tells the consumer when it
+ * has been published and tells producers when it has been drained.
+ */
+class LogRingBuffer {
+    /**
+     * A reusable slot. Fields are only read by the consumer after the slot has been published.
+     */
+    static class Entry {
+        long timeMillis;
+        LogLevel level;
+        LogCategory category;
+        String message;
+        Throwable error;
+    }
+
+    /**
+     * Receives drained entries
+     */
+    interface EntryConsumer {
+        void accept(Entry entry);
+    }
+
+    private final Entry[] slots;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    // Only touched by the consumer thread
+    private long head = 0;
+
+    /**
+     * @param capacity Number of slots, rounded up to a power of two
+     */
+    LogRingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        slots = new Entry[size];
+        sequences = new AtomicLongArray(size);
+        mask = size - 1;
+
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Entry();
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Append an entry without blocking
+     *
+     * @return The entry's position in the ring, or -1 if the ring was full and the entry was dropped
+     */
+    long offer(long timeMillis, LogLevel level, LogCategory category, String message, Throwable error) {
+        long position;
+        while (true) {
+            position = tail.get();
+            long difference = sequences.get((int) position & mask) - position;
+
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    break;
+                }
+            } else if (difference < 0) {
+                dropped.incrementAndGet();
+                return -1;
+            }
+            // Another producer claimed this slot first, try the next one
+        }
+
+        int index = (int) position & mask;
+        Entry entry = slots[index];
+        entry.timeMillis = timeMillis;
+        entry.level = level;
+        entry.category = category;
+        entry.message = message;
+        entry.error = error;
+        sequences.lazySet(index, position + 1);
+        return position;
+    }
+
+    /**
+     * Hand every published entry to the consumer. Must only be called from the consumer thread.
+     *
+     * @return Number of entries drained
+     */
+    int drain(EntryConsumer consumer) {
+        int count = 0;
+        while (true) {
+            int index = (int) head & mask;
+            if (sequences.get(index) != head + 1) {
+                return count;
+            }
+
+            Entry entry = slots[index];
+            consumer.accept(entry);
+            entry.message = null;
+            entry.error = null;
+            sequences.lazySet(index, head + slots.length);
+            head++;
+            count++;
+        }
+    }
+
+    int getCapacity() {
+        return slots.length;
+    }
+
+    /**
+     * @return Number of entries dropped since the last call
+     */
+    long takeDropped() {
+        return dropped.getAndSet(0);
+    }
+}
@@ -0,0 +1,78 @@
+package com.brettbaron.claudemod.mcs;
+
+import net.minecraft.block.BlockState;
+
+/**
+ * Turns a program that edits an existing build into only the blocks it actually changes.
+ *
+ * The build is kept as a {@link SparseVoxelModel} relative to its origin. Runs of ops whose effect is
+ * known (relative fills and setblocks) are simulated, every voxel that ends up in the state the build
+ * already has is dropped, and the rest is re-meshed into fills. Clones, keep modes, absolute coordinates
+ * and raw commands are passed through unchanged, the same barriers the {@link McsOptimizer} uses; the
+ * model follows them as far as it can, and raw commands are assumed to leave it alone.
+ */
+public class BuildDiff {
+    // Segments larger than this are passed through unchanged to bound memory use
+    private static final int MAX_SEGMENT_VOXELS = 1 << 22;
+
+    /**
+     * Diff an edit against a build and apply it to the build's model
+     *
+     * @param edit The ops of the edit, relative to the build's origin
+     * @param model The build before the edit; it is updated to the state after the edit
+     * @return The ops that place only the blocks that change
+     */
+    public static McsProgram apply(McsProgram edit, SparseVoxelModel model) {
+        McsProgram changes = new McsProgram();
+        changes.setSkippedLines(edit.getSkippedLines());
+        changes.setSourceOpCount(edit.getSourceOpCount());
+
+        SparseVoxelModel segment = new SparseVoxelModel();
+        int segmentStart = 0;
+        for (int op = 0; op < edit.getOpCount(); op++) {
+            if (McsOptimizer.isSimulatable(edit, op)) {
+                segment.apply(edit, op);
+                if (segment.getVoxelCount() > MAX_SEGMENT_VOXELS) {
+                    passThrough(edit, segmentStart, op + 1, model, changes);
+                    segment = new SparseVoxelModel();
+                    segmentStart = op + 1;
+                }
+                continue;
+            }
+
+            emitChanges(segment, model, changes);
+            segment = new SparseVoxelModel();
+            passThrough(edit, op, op + 1, model, changes);
+            segmentStart = op + 1;
+        }
+        emitChanges(segment, model, changes);
+        return changes;
+    }
+
+    /**
+     * Append the voxels of a simulated segment that differ from the model, and write them into the model
+     */
+    private static void emitChanges(SparseVoxelModel segment, SparseVoxelModel model, McsProgram out) {
+        SparseVoxelModel changed = new SparseVoxelModel();
+        // Keep the segment's palette order so supports are still placed before attachments
+        for (int index = 1; index < segment.getPaletteSize(); index++) {
+            changed.getPaletteIndex(segment.getPaletteState(index));
+        }
+
+        segment.forEach((x, y, z, index) -> {
+            BlockState state = segment.getPaletteState(index);
+            if (!state.equals(model.get(x, y, z))) {
+                changed.set(x, y, z, state);
+                model.set(x, y, z, state);
+            }
+        });
+        McsOptimizer.emit(changed, out);
+    }
+
+    private static void passThrough(McsProgram edit, int start, int end, SparseVoxelModel model, McsProgram out) {
+        for (int op = start; op < end; op++) {
+            model.apply(edit, op);
+            out.addOp(edit, op);
+        }
+    }
+}
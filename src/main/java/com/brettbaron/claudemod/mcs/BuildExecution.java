@@ -0,0 +1,44 @@
+package com.brettbaron.claudemod.mcs;
+
+/**
+ * The work behind a {@link BuildJob}, done a slice at a time on the server thread
+ */
+interface BuildExecution {
+    /**
+     * Do work until the deadline passes or there is none left
+     *
+     * @return true if everything has been done
+     */
+    boolean run(long deadlineNanos);
+
+    /**
+     * @return Ops handled so far, whether they succeeded or not
+     */
+    int getProcessedOps();
+
+    int getCompletedOps();
+
+    int getFailedOps();
+
+    long getBlocksChanged();
+
+    /**
+     * @return Blocks left alone because the world already had them
+     */
+    long getBlocksUnchanged();
+
+    /**
+     * @return The writer the work places blocks with
+     */
+    DirectBlockWriter getWriter();
+
+    /**
+     * @return true if no progress can be made until something else happens, such as chunks loading
+     */
+    boolean isWaiting();
+
+    /**
+     * Release what the work holds on to, once the job has ended for any reason
+     */
+    void close();
+}
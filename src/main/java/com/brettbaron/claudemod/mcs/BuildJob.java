@@ -0,0 +1,388 @@
+package com.brettbaron.claudemod.mcs;
+
+import com.brettbaron.claudemod.ClaudeMod;
+import com.brettbaron.claudemod.config.ClaudeConfig;
+import com.brettbaron.claudemod.metrics.ClaudeMetrics;
+import com.brettbaron.claudemod.world.WorldContextSampler;
+import net.minecraft.server.command.ServerCommandSource;
+import net.minecraft.text.Text;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A queued MCS build, or the undo or redo of one, that is executed a slice at a time by the {@link BuildScheduler}
+ */
+public class BuildJob {
+    /**
+     * Lifecycle of a build in the {@link BuildJobManager}
+     */
+    public enum State {
+        QUEUED,
+        RUNNING,
+        DONE
+    }
+
+
+    // Minimum time between progress messages sent to the player
+    private static final long PROGRESS_INTERVAL_NANOS = 2_000_000_000L;
+    // Invalid commands described in chat; the rest are only counted
+    private static final int REPORTED_ERRORS = 3;
+
+    private final String name;
+    private final String owner;
+    private final UUID ownerId;
+    private final ServerCommandSource source;
+    // Null for undo and redo jobs
+    private final McsProgram program;
+    private final BuildJournal journal;
+    // Null when validate_builds is off, and for undo and redo jobs
+    private final McsValidator validator;
+    private final BuildExecution executor;
+    private final CompletableFuture<Integer> future = new CompletableFuture<>();
+
+    private int id = 0;
+    private State state = State.QUEUED;
+    private boolean paused = false;
+    private long lastProgressNanos = 0;
+    // Executor totals already added to the metrics
+    private int reportedCompleted = 0;
+    private int reportedFailed = 0;
+    private long reportedBlocks = 0;
+    private long reportedUnchanged = 0;
+    private boolean started = false;
+    private boolean completed = false;
+    private boolean open;
+
+    /**
+     * @param name Display name of the build, usually the MCS file name
+     * @param source The command source the build runs as
+     * @param program The parsed build
+     */
+    public BuildJob(String name, ServerCommandSource source, McsProgram program) {
+        this(name, source, program, false);
+    }
+    
+    /**
+     * @param name Display name of the build, usually the MCS file name
+     * @param source The command source the build runs as
+     * @param program The parsed build
+     * @param open Whether more lines will be appended with {@link #appendLine(String)} until {@link #close()}
+     */
+    public BuildJob(String name, ServerCommandSource source, McsProgram program, boolean open) {
+        this.name = name;
+        this.owner = source.getName();
+        this.ownerId = BuildJobManager.getOwnerId(source);
+        this.source = source;
+        this.open = open;
+        this.validator = ClaudeConfig.isValidateBuilds() ? new McsValidator(source) : null;
+        this.program = validator != null ? validator.validate(program) : program;
+        if (validator != null && validator.getErrorCount() > 0) {
+            reportInvalid();
+        }
+        this.journal = ClaudeConfig.getUndoHistorySize() > 0
+            ? new BuildJournal(name, source.getWorld(), ClaudeConfig.getUndoMemoryMegabytes() * 1024L * 1024L)
+            : null;
+        // Per-command feedback would flood chat for large builds
+        McsExecutor mcsExecutor = new McsExecutor(this.program, source.withSilent(), journal, !open);
+        this.executor = mcsExecutor;
+        future.whenComplete((result, error) -> {
+            mcsExecutor.close();
+            invalidateTerrain();
+            recordJournal();
+        });
+    }
+    
+    /**
+     * @param name Display name of the job
+     * @param source The command source the job runs as
+     * @param replay Undo or redo of an earlier build
+     */
+    public BuildJob(String name, ServerCommandSource source, JournalReplay replay) {
+        this.name = name;
+        this.owner = source.getName();
+        this.ownerId = BuildJobManager.getOwnerId(source);
+        this.source = source;
+        this.program = null;
+        this.journal = null;
+        this.validator = null;
+        this.executor = replay;
+        this.open = false;
+        future.whenComplete((result, error) -> {
+            replay.close();
+            invalidateTerrain();
+        });
+    }
+
+    /**
+     * Execute commands until the deadline passes or the build is done. Must be called on the server thread.
+     *
+     * @param deadlineNanos {@link System#nanoTime()} value after which no further commands are started
+     * @return true if the build has finished
+     */
+    boolean run(long deadlineNanos) {
+        if (!started) {
+            started = true;
+            lastProgressNanos = System.nanoTime();
+            if (program == null) {
+                sendFeedback("Starting " + name + "...");
+            } else {
+                sendFeedback(open
+                    ? "Starting execution while commands are still being generated..."
+                    : "Starting execution of " + program.getOpCount() + " commands...");
+            }
+        }
+
+        boolean done = executor.run(deadlineNanos);
+        recordMetrics();
+        if (done && !open) {
+            finish();
+            return true;
+        }
+
+        reportProgress();
+        return false;
+    }
+
+    /**
+     * Parse another line into an open build. Must be called on the server thread.
+     */
+    public void appendLine(String line) {
+        if (!open || future.isDone()) {
+            return;
+        }
+        int opCount = program.getOpCount();
+        McsParser.parseLine(line, program);
+        if (validator != null && program.getOpCount() > opCount && !validator.validateLast(program)
+                && validator.getErrorCount() <= REPORTED_ERRORS) {
+            List<String> errors = validator.getErrors();
+            source.sendError(Text.literal("Skipped invalid " + errors.get(errors.size() - 1)));
+        }
+    }
+
+    /**
+     * Mark an open build as complete so it finishes once the remaining commands have run
+     */
+    public void close() {
+        open = false;
+    }
+
+    /**
+     * @return true if the build has run every command it has and is waiting for more lines, or is
+     * waiting for chunks to load
+     */
+    boolean isWaiting() {
+        return (open && executor.getProcessedOps() >= program.getOpCount()) || executor.isWaiting();
+    }
+
+    /**
+     * Abort the build, leaving whatever has been placed so far
+     */
+    void cancel(String reason) {
+        state = State.DONE;
+        sendFeedback("Build " + name + " cancelled: " + reason);
+        future.complete(executor.getCompletedOps());
+    }
+
+    /**
+     * @return The id assigned by the {@link BuildJobManager}, or 0 before the build is submitted
+     */
+    public int getId() {
+        return id;
+    }
+
+    void setId(int id) {
+        this.id = id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return Name of the player or other source that started the build
+     */
+    public String getOwner() {
+        return owner;
+    }
+
+    /**
+     * @return The owner's key from {@link BuildJobManager#getOwnerId}, which builds are limited and managed by
+     */
+    public UUID getOwnerId() {
+        return ownerId;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    void setState(State state) {
+        this.state = state;
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    void setPaused(boolean paused) {
+        this.paused = paused;
+    }
+
+    /**
+     * @return Blocks covered by the build's fills, setblocks and clones
+     */
+    public long getTotalVolume() {
+        return program != null ? program.getTotalVolume() : getReplay().getJournal().size();
+    }
+
+    /**
+     * @return The build's ops, or null for an undo or redo
+     */
+    public McsProgram getProgram() {
+        return program;
+    }
+
+    /**
+     * @return true while more lines are still being appended to the build
+     */
+    public boolean isOpen() {
+        return open;
+    }
+
+    public int getExecutedCommands() {
+        return executor.getCompletedOps();
+    }
+
+    /**
+     * @return Commands in the build, or blocks to restore for an undo or redo
+     */
+    public int getTotalCommands() {
+        return program != null ? program.getOpCount() : (int) getReplay().getJournal().size();
+    }
+
+    /**
+     * @return true once the build has run to the end, false while it runs and if it was cancelled or failed
+     */
+    public boolean isCompleted() {
+        return completed;
+    }
+
+    /**
+     * @return Commands the validator left out of the build
+     */
+    public int getInvalidCount() {
+        return validator != null ? validator.getErrorCount() : 0;
+    }
+
+    /**
+     * @return Future that completes with the number of executed commands once the build ends, also when it is cancelled
+     */
+    public CompletableFuture<Integer> getFuture() {
+        return future;
+    }
+
+    private JournalReplay getReplay() {
+        return (JournalReplay) executor;
+    }
+
+    private void recordMetrics() {
+        if (program != null) {
+            ClaudeMetrics.COMMANDS_EXECUTED.add(executor.getCompletedOps() - reportedCompleted);
+            ClaudeMetrics.COMMANDS_FAILED.add(executor.getFailedOps() - reportedFailed);
+        }
+        ClaudeMetrics.BLOCKS_CHANGED.add(executor.getBlocksChanged() - reportedBlocks);
+        ClaudeMetrics.BLOCKS_UNCHANGED.add(executor.getBlocksUnchanged() - reportedUnchanged);
+        reportedCompleted = executor.getCompletedOps();
+        reportedFailed = executor.getFailedOps();
+        reportedBlocks = executor.getBlocksChanged();
+        reportedUnchanged = executor.getBlocksUnchanged();
+    }
+
+    private void reportProgress() {
+        long now = System.nanoTime();
+        if (now - lastProgressNanos < PROGRESS_INTERVAL_NANOS) {
+            return;
+        }
+        lastProgressNanos = now;
+
+        final int progress = executor.getProcessedOps();
+        final int total = getTotalCommands();
+        if (program == null) {
+            sendFeedback(String.format("Progress: %d/%d blocks restored (%.1f%%)", progress, total, (progress * 100.0f / total)));
+            return;
+        }
+        if (open) {
+            sendFeedback("Progress: " + progress + " commands executed, more still being generated");
+            return;
+        }
+        sendFeedback(String.format("Progress: %d/%d commands executed (%.1f%%)",
+            progress, total, (progress * 100.0f / total)));
+    }
+
+    private void finish() {
+        completed = true;
+        if (program == null) {
+            int skipped = getReplay().getSkippedBlocks();
+            sendFeedback("Finished " + name + ": " + executor.getBlocksChanged() + " blocks changed"
+                + (skipped > 0 ? ", " + skipped + " left alone because they were changed since or not loaded" : ""));
+            future.complete(executor.getCompletedOps());
+            return;
+        }
+
+        int invalid = getInvalidCount();
+        sendFeedback(String.format("Execution complete: %d commands executed, %d lines skipped",
+            executor.getCompletedOps(), program.getSkippedLines())
+            + (invalid > 0 ? ", " + invalid + " invalid commands left out" : "")
+            + (executor.getBlocksUnchanged() > 0 ? ", " + executor.getBlocksUnchanged() + " blocks already in place" : ""));
+
+        if (executor.getFailedOps() > 0) {
+            ClaudeMod.log("Build " + name + " finished with " + executor.getFailedOps() + " failed commands");
+        }
+        ClaudeMod.log("Build " + name + " changed " + executor.getBlocksChanged() + " blocks, "
+            + executor.getBlocksUnchanged() + " were already in place");
+        future.complete(executor.getCompletedOps());
+    }
+
+    /**
+     * Tell the player which commands were left out before the build started
+     */
+    private void reportInvalid() {
+        List<String> errors = validator.getErrors();
+        ClaudeMod.log("Build " + name + " has " + validator.getErrorCount() + " invalid commands, first: " + errors.get(0));
+        source.sendError(Text.literal("Left out " + validator.getErrorCount() + " invalid commands from " + name + ":"));
+        for (int i = 0; i < Math.min(REPORTED_ERRORS, errors.size()); i++) {
+            source.sendError(Text.literal("- " + errors.get(i)));
+        }
+    }
+
+    /**
+     * Drop the cached terrain around the blocks the build changed, whether or not it kept a journal
+     */
+    private void invalidateTerrain() {
+        int[] bounds = executor.getWriter().getChangedBounds();
+        if (bounds != null) {
+            WorldContextSampler.invalidate(executor.getWriter().getWorld(), bounds);
+        }
+    }
+
+    /**
+     * Hand the journal to the undo history once the build has ended, however it ended
+     */
+    private void recordJournal() {
+        if (journal == null) {
+            return;
+        }
+        journal.close();
+        if (journal.isOverflowed()) {
+            sendFeedback("Build " + name + " is too large to undo");
+        } else {
+            UndoHistory.record(ownerId, journal);
+        }
+    }
+
+    void sendFeedback(String message) {
+        source.sendFeedback(() -> Text.literal(message), false);
+    }
+}
@@ -0,0 +1,335 @@
+package com.brettbaron.claudemod.mcs;
+
+import com.brettbaron.claudemod.ClaudeMod;
+import com.brettbaron.claudemod.config.ClaudeConfig;
+import com.brettbaron.claudemod.metrics.ClaudeMetrics;
+import net.minecraft.server.command.ServerCommandSource;
+import net.minecraft.server.network.ServerPlayerEntity;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Registry of every queued and running build.
+ *
+ * Each player may run a limited number of builds at once, and further builds wait in submission order.
+ * The blocks a player has queued are capped by a quota. Players are told apart by UUID, so renaming
+ * does not reset their limits, and the console, command blocks and other sources share one set of
+ * limits. Within a tick the running builds take turns, each getting an equal share of whatever budget
+ * is left, so one large build cannot starve the others.
+ * All methods must be called on the server thread.
+ */
+public class BuildJobManager {
+    // Owner of everything started by a source that is not a player
+    private static final UUID NON_PLAYER = new UUID(0, 0);
+
+    private static final Map<Integer, BuildJob> jobs = new LinkedHashMap<>();
+    // Mirrors jobs.size() for the metrics exporter, which reads it from its own thread
+    private static final AtomicInteger jobCount = new AtomicInteger();
+    private static int nextJobId = 1;
+    // Running build that gets the first slice next tick
+    private static int roundRobinCursor = 0;
+    // Writers of ended builds whose held back block updates are still being applied
+    private static final List<DirectBlockWriter> draining = new ArrayList<>();
+    // Schematic exports still reading their box
+    private static final List<Schematic.Capture> captures = new ArrayList<>();
+
+    /**
+     * @return The key a source's builds are counted under: the player's UUID, or a single shared key
+     * for sources that are not a player
+     */
+    public static UUID getOwnerId(ServerCommandSource source) {
+        ServerPlayerEntity player = source.getPlayer();
+        return player != null ? player.getUuid() : NON_PLAYER;
+    }
+
+    /**
+     * Register a build and queue it for execution
+     *
+     * @return false if the build was rejected because its owner is over their block quota
+     */
+    public static boolean submit(BuildJob job) {
+        long quota = ClaudeConfig.getMaxBlocksPerPlayer();
+        long queued = getQueuedVolume(job.getOwnerId());
+        if (queued + job.getTotalVolume() > quota) {
+            job.cancel("block quota exceeded (" + (queued + job.getTotalVolume()) + " of " + quota + " blocks)");
+            ClaudeMetrics.BUILDS_CANCELLED.increment();
+            return false;
+        }
+
+        boolean mustWait = countJobs(job.getOwnerId()) >= ClaudeConfig.getMaxBuildsPerPlayer();
+        job.setId(nextJobId++);
+        jobs.put(job.getId(), job);
+        jobCount.set(jobs.size());
+        ClaudeMetrics.BUILDS_STARTED.increment();
+        if (mustWait) {
+            job.sendFeedback("Build #" + job.getId() + " will start when one of your other builds finishes");
+        }
+        ClaudeMod.log("Queued build #" + job.getId() + " " + job.getName() + " for " + job.getOwner()
+            + " with " + job.getTotalCommands() + " commands (" + jobs.size() + " active)");
+        return true;
+    }
+
+    /**
+     * @return The job with the given id, or null if it is unknown or already finished
+     */
+    public static BuildJob getJob(int id) {
+        return jobs.get(id);
+    }
+
+    /**
+     * @return Snapshot of all unfinished jobs in submission order
+     */
+    public static List<BuildJob> getJobs() {
+        return new ArrayList<>(jobs.values());
+    }
+
+    /**
+     * @return true if there are builds, held back block updates or schematic exports that need time
+     */
+    public static boolean hasWork() {
+        return !jobs.isEmpty() || !draining.isEmpty() || !captures.isEmpty();
+    }
+
+    /**
+     * Read a schematic export's box over the next ticks, sharing the build budget
+     */
+    public static void capture(Schematic.Capture capture) {
+        captures.add(capture);
+    }
+
+    /**
+     * @return Number of unfinished jobs. Safe to read from any thread.
+     */
+    public static int getJobCount() {
+        return jobCount.get();
+    }
+
+    /**
+     * Cancel a build, leaving whatever has been placed so far
+     *
+     * @return false if there is no such job
+     */
+    public static boolean cancel(int id, String reason) {
+        BuildJob job = jobs.remove(id);
+        jobCount.set(jobs.size());
+        if (job == null) {
+            return false;
+        }
+        job.cancel(reason);
+        ClaudeMetrics.BUILDS_CANCELLED.increment();
+        return true;
+    }
+
+    /**
+     * Cancel every queued and running build
+     */
+    public static void cancelAll(String reason) {
+        for (BuildJob job : getJobs()) {
+            job.cancel(reason);
+            ClaudeMetrics.BUILDS_CANCELLED.increment();
+        }
+        jobs.clear();
+        jobCount.set(0);
+        for (Schematic.Capture capture : captures) {
+            capture.cancel(reason);
+        }
+        captures.clear();
+    }
+
+    /**
+     * Keep applying the held back block updates of a build that ended early over the next ticks, so
+     * cancelling a large build does not apply them all at once
+     */
+    static void drain(DirectBlockWriter writer) {
+        draining.add(writer);
+    }
+
+    /**
+     * Apply every held back block update at once, for when the server stops and there are no more ticks
+     */
+    public static void finishDraining() {
+        for (DirectBlockWriter writer : draining) {
+            writer.finishDeferred(0, false);
+        }
+        draining.clear();
+    }
+
+    /**
+     * Stop giving a build time until it is resumed
+     *
+     * @return false if there is no such job
+     */
+    public static boolean pause(int id) {
+        BuildJob job = jobs.get(id);
+        if (job == null) {
+            return false;
+        }
+        job.setPaused(true);
+        return true;
+    }
+
+    /**
+     * @return false if there is no such job
+     */
+    public static boolean resume(int id) {
+        BuildJob job = jobs.get(id);
+        if (job == null) {
+            return false;
+        }
+        job.setPaused(false);
+        return true;
+    }
+
+    /**
+     * Run builds until the deadline, sharing the time fairly between them
+     *
+     * @param deadlineNanos {@link System#nanoTime()} value after which no further work is started
+     */
+    static void run(long deadlineNanos) {
+        startQueuedJobs();
+
+        List<BuildJob> runnable = new ArrayList<>();
+        for (BuildJob job : jobs.values()) {
+            if (job.getState() == BuildJob.State.RUNNING && !job.isPaused()) {
+                runnable.add(job);
+            }
+        }
+
+        // Updates left over from ended builds, and schematic exports, each get the same share as one running build
+        if (!draining.isEmpty()) {
+            long remaining = deadlineNanos - System.nanoTime();
+            runDraining(System.nanoTime() + Math.max(remaining / (runnable.size() + (captures.isEmpty() ? 1 : 2)), 1));
+        }
+        if (!captures.isEmpty()) {
+            long remaining = deadlineNanos - System.nanoTime();
+            runCaptures(System.nanoTime() + Math.max(remaining / (runnable.size() + 1), 1));
+        }
+        if (runnable.isEmpty()) {
+            return;
+        }
+
+        int start = Math.floorMod(roundRobinCursor++, runnable.size());
+        boolean progressed = true;
+
+        // Keep going round while there is time left and some build still has work it can do
+        while (progressed && System.nanoTime() - deadlineNanos < 0) {
+            progressed = false;
+
+            for (int i = 0; i < runnable.size(); i++) {
+                BuildJob job = runnable.get((start + i) % runnable.size());
+                if (job.getState() != BuildJob.State.RUNNING || job.isWaiting()) {
+                    continue;
+                }
+
+                long remaining = deadlineNanos - System.nanoTime();
+                if (remaining <= 0) {
+                    return;
+                }
+                // Builds later in this round get an equal share of whatever is left
+                long slice = remaining / (runnable.size() - i);
+                runSlice(job, System.nanoTime() + Math.max(slice, 1));
+                progressed = true;
+            }
+        }
+    }
+
+    private static void runSlice(BuildJob job, long deadlineNanos) {
+        // Open builds grow as they are generated, so their quota is checked as they run
+        if (getQueuedVolume(job.getOwnerId()) > ClaudeConfig.getMaxBlocksPerPlayer()) {
+            cancel(job.getId(), "block quota exceeded");
+            return;
+        }
+
+        boolean finished;
+        boolean failed = false;
+        try {
+            finished = job.run(deadlineNanos);
+        } catch (Exception e) {
+            ClaudeMod.log("Build " + job.getName() + " failed: " + e.getMessage());
+            job.getFuture().completeExceptionally(e);
+            finished = true;
+            failed = true;
+        }
+
+        if (finished) {
+            job.setState(BuildJob.State.DONE);
+            jobs.remove(job.getId());
+            jobCount.set(jobs.size());
+            if (failed) {
+                ClaudeMetrics.BUILDS_FAILED.increment();
+            } else {
+                ClaudeMetrics.BUILDS_COMPLETED.increment();
+            }
+        }
+    }
+
+    private static void runDraining(long deadlineNanos) {
+        while (!draining.isEmpty() && System.nanoTime() - deadlineNanos < 0) {
+            if (draining.get(0).finishDeferred(deadlineNanos, true)) {
+                draining.remove(0);
+            }
+        }
+    }
+
+    private static void runCaptures(long deadlineNanos) {
+        while (!captures.isEmpty() && System.nanoTime() - deadlineNanos < 0) {
+            if (captures.get(0).run(deadlineNanos)) {
+                captures.remove(0);
+            }
+        }
+    }
+
+    /**
+     * Move queued builds to running while their owners are under the concurrency limit
+     */
+    private static void startQueuedJobs() {
+        int limit = ClaudeConfig.getMaxBuildsPerPlayer();
+        Map<UUID, Integer> running = new HashMap<>();
+
+        for (BuildJob job : jobs.values()) {
+            if (job.getState() == BuildJob.State.RUNNING) {
+                running.merge(job.getOwnerId(), 1, Integer::sum);
+            }
+        }
+
+        for (BuildJob job : jobs.values()) {
+            if (job.getState() != BuildJob.State.QUEUED || job.isPaused()) {
+                continue;
+            }
+            int count = running.getOrDefault(job.getOwnerId(), 0);
+            if (count < limit) {
+                job.setState(BuildJob.State.RUNNING);
+                running.put(job.getOwnerId(), count + 1);
+            }
+        }
+    }
+
+    private static int countJobs(UUID owner) {
+        int count = 0;
+        for (BuildJob job : jobs.values()) {
+            if (job.getOwnerId().equals(owner)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return Blocks covered by the unfinished builds of a player
+     */
+    private static long getQueuedVolume(UUID owner) {
+        long volume = 0;
+        for (BuildJob job : jobs.values()) {
+            if (job.getOwnerId().equals(owner)) {
+                volume += job.getTotalVolume();
+            }
+        }
+        return volume;
+    }
+}
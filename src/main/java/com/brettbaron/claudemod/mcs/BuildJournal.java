@@ -0,0 +1,262 @@
+package com.brettbaron.claudemod.mcs;
+
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
+import net.minecraft.block.BlockState;
+import net.minecraft.server.world.ServerWorld;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Records every block a build changes, with the state it replaced and the state it placed, so the
+ * build can be undone and redone.
+ *
+ * Block states are stored as indexes into a palette and positions as deltas from the previous change,
+ * all as varints. Builds write blocks in runs, so most entries take three or four bytes before
+ * compression. Entries are gathered into segments of {@link #SEGMENT_BYTES} which are deflated as they
+ * fill up, and each segment starts from absolute coordinates so segments can be decoded independently,
+ * which lets an undo walk them backwards. Block entity data is not recorded.
+ */
+public class BuildJournal {
+    // Uncompressed size at which a segment is compressed
+    static final int SEGMENT_BYTES = 64 * 1024;
+    // Longest entry: three coordinates and two palette indexes as varints
+    private static final int MAX_ENTRY_BYTES = 5 * 5;
+
+    private final String name;
+    private final ServerWorld world;
+    private final long maxBytes;
+    private final List<BlockState> palette = new ArrayList<>();
+    private final Reference2IntOpenHashMap<BlockState> paletteIndexes = new Reference2IntOpenHashMap<>();
+    private final List<byte[]> segments = new ArrayList<>();
+    private final List<Integer> segmentEntries = new ArrayList<>();
+
+    private byte[] buffer = new byte[SEGMENT_BYTES + MAX_ENTRY_BYTES];
+    private int length = 0;
+    private int bufferedEntries = 0;
+    private int lastX, lastY, lastZ;
+    private long entries = 0;
+    private long compressedBytes = 0;
+    private boolean overflowed = false;
+    private int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, minZ = Integer.MAX_VALUE;
+    private int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE, maxZ = Integer.MIN_VALUE;
+
+    /**
+     * @param name Name of the build, shown when it is undone
+     * @param world World the build is placed in
+     * @param maxBytes Compressed size after which the journal gives up, so a single build cannot exhaust memory
+     */
+    public BuildJournal(String name, ServerWorld world, long maxBytes) {
+        this.name = name;
+        this.world = world;
+        this.maxBytes = maxBytes;
+        paletteIndexes.defaultReturnValue(-1);
+    }
+
+    /**
+     * Record that a block was changed. Must be called on the server thread.
+     */
+    public void record(int x, int y, int z, BlockState previous, BlockState placed) {
+        if (overflowed || buffer == null) {
+            return;
+        }
+
+        minX = Math.min(minX, x);
+        minY = Math.min(minY, y);
+        minZ = Math.min(minZ, z);
+        maxX = Math.max(maxX, x);
+        maxY = Math.max(maxY, y);
+        maxZ = Math.max(maxZ, z);
+
+        writeVarInt(zigzag(x - lastX));
+        writeVarInt(zigzag(y - lastY));
+        writeVarInt(zigzag(z - lastZ));
+        writeVarInt(getPaletteIndex(previous));
+        writeVarInt(getPaletteIndex(placed));
+        lastX = x;
+        lastY = y;
+        lastZ = z;
+        bufferedEntries++;
+        entries++;
+
+        if (length >= SEGMENT_BYTES) {
+            seal();
+        }
+    }
+
+    /**
+     * Finish recording and release the write buffer
+     */
+    public void close() {
+        if (buffer != null && !overflowed) {
+            seal();
+        }
+        buffer = null;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public ServerWorld getWorld() {
+        return world;
+    }
+
+    /**
+     * @return Number of block changes recorded
+     */
+    public long size() {
+        return overflowed ? 0 : entries;
+    }
+
+    /**
+     * @return true if the build changed more than the journal could hold, so it cannot be undone
+     */
+    public boolean isOverflowed() {
+        return overflowed;
+    }
+
+    /**
+     * @return The box around every recorded change as min x, y, z, max x, y, z, or null if nothing was recorded
+     */
+    public int[] getBounds() {
+        return entries == 0 ? null : new int[]{minX, minY, minZ, maxX, maxY, maxZ};
+    }
+
+    /**
+     * @return Approximate bytes held by the journal
+     */
+    public long getMemoryFootprint() {
+        return compressedBytes + palette.size() * 16L + (buffer != null ? buffer.length : 0);
+    }
+
+    int getSegmentCount() {
+        return segments.size();
+    }
+
+    BlockState getPaletteState(int index) {
+        return palette.get(index);
+    }
+
+    /**
+     * Decompress one segment
+     *
+     * @return The segment's entries, five ints each: x, y, z, previous state index, placed state index
+     */
+    int[] readSegment(int segment) {
+        int count = segmentEntries.get(segment);
+        byte[] data = new byte[SEGMENT_BYTES + MAX_ENTRY_BYTES];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(segments.get(segment));
+            int read = 0;
+            while (!inflater.finished() && read < data.length) {
+                read += inflater.inflate(data, read, data.length - read);
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt build journal segment " + segment, e);
+        } finally {
+            inflater.end();
+        }
+
+        int[] decoded = new int[count * 5];
+        int[] position = {0};
+        int x = 0, y = 0, z = 0;
+        for (int i = 0; i < count; i++) {
+            x += unzigzag(readVarInt(data, position));
+            y += unzigzag(readVarInt(data, position));
+            z += unzigzag(readVarInt(data, position));
+            decoded[i * 5] = x;
+            decoded[i * 5 + 1] = y;
+            decoded[i * 5 + 2] = z;
+            decoded[i * 5 + 3] = readVarInt(data, position);
+            decoded[i * 5 + 4] = readVarInt(data, position);
+        }
+        return decoded;
+    }
+
+    private int getPaletteIndex(BlockState state) {
+        int index = paletteIndexes.getInt(state);
+        if (index < 0) {
+            index = palette.size();
+            palette.add(state);
+            paletteIndexes.put(state, index);
+        }
+        return index;
+    }
+
+    /**
+     * Compress the buffered entries into a segment and start a new one from absolute coordinates
+     */
+    private void seal() {
+        if (bufferedEntries == 0) {
+            return;
+        }
+
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        byte[] compressed;
+        try {
+            deflater.setInput(buffer, 0, length);
+            deflater.finish();
+            byte[] out = new byte[length / 2 + 64];
+            int written = 0;
+            while (!deflater.finished()) {
+                if (written == out.length) {
+                    out = Arrays.copyOf(out, out.length * 2);
+                }
+                written += deflater.deflate(out, written, out.length - written);
+            }
+            compressed = Arrays.copyOf(out, written);
+        } finally {
+            deflater.end();
+        }
+
+        segments.add(compressed);
+        segmentEntries.add(bufferedEntries);
+        compressedBytes += compressed.length;
+        length = 0;
+        bufferedEntries = 0;
+        lastX = lastY = lastZ = 0;
+
+        if (compressedBytes > maxBytes) {
+            // Too large to keep; drop what was recorded so the memory is released straight away
+            overflowed = true;
+            segments.clear();
+            segmentEntries.clear();
+            compressedBytes = 0;
+            buffer = null;
+        }
+    }
+
+    private void writeVarInt(int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer[length++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[length++] = (byte) value;
+    }
+
+    private static int readVarInt(byte[] data, int[] position) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = data[position[0]++];
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    private static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,80 @@
+package com.brettbaron.claudemod.mcs;
+
+import com.brettbaron.claudemod.config.ClaudeConfig;
+import com.brettbaron.claudemod.metrics.ClaudeMetrics;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerTickEvents;
+import net.minecraft.server.MinecraftServer;
+
+/**
+ * Gives the builds in the {@link BuildJobManager} time on the server thread at the end of every tick.
+ *
+ * Each tick gets a time budget derived from the measured tick time: when the server is idle builds
+ * may use up to the configured maximum, when it is busy they fall back to the configured minimum.
+ */
+public class BuildScheduler {
+    // Vanilla tick length at 20 TPS
+    private static final long TARGET_TICK_NANOS = 50_000_000L;
+    // Headroom left for everything else the server does between our slice and the next tick
+    private static final long SAFETY_MARGIN_NANOS = 5_000_000L;
+    // Weight of the newest sample in the tick time moving average
+    private static final double TICK_AVERAGE_WEIGHT = 0.1;
+
+    private static long tickStartNanos = 0;
+    private static double averageTickNanos = 0;
+    private static long lastBudgetNanos = 0;
+
+    /**
+     * Hook the scheduler into the server tick loop
+     */
+    public static void register() {
+        ServerTickEvents.START_SERVER_TICK.register(server -> tickStartNanos = System.nanoTime());
+        ServerTickEvents.END_SERVER_TICK.register(BuildScheduler::onEndTick);
+        ServerLifecycleEvents.SERVER_STOPPING.register(server -> {
+            BuildJobManager.cancelAll("server stopping");
+            BuildJobManager.finishDraining();
+        });
+    }
+
+    /**
+     * @return Moving average of the server's own tick time in milliseconds, excluding build work
+     */
+    public static double getAverageTickMillis() {
+        return averageTickNanos / 1_000_000.0;
+    }
+
+    /**
+     * @return The time budget granted to builds during the most recent tick, in milliseconds
+     */
+    public static double getLastBudgetMillis() {
+        return lastBudgetNanos / 1_000_000.0;
+    }
+
+    private static void onEndTick(MinecraftServer server) {
+        long now = System.nanoTime();
+        if (tickStartNanos != 0) {
+            long tickNanos = now - tickStartNanos;
+            averageTickNanos = averageTickNanos == 0
+                ? tickNanos
+                : averageTickNanos + (tickNanos - averageTickNanos) * TICK_AVERAGE_WEIGHT;
+        }
+
+        if (!BuildJobManager.hasWork()) {
+            lastBudgetNanos = 0;
+            return;
+        }
+
+        long budget = computeBudgetNanos();
+        lastBudgetNanos = budget;
+        BuildJobManager.run(now + budget);
+        ClaudeMetrics.BUILD_TICK_TIME.observeNanos(System.nanoTime() - now);
+    }
+
+    private static long computeBudgetNanos() {
+        long maxBudget = ClaudeConfig.getTickBudgetMillis() * 1_000_000L;
+        long minBudget = Math.min(maxBudget, ClaudeConfig.getMinTickBudgetMillis() * 1_000_000L);
+        long headroom = TARGET_TICK_NANOS - (long) averageTickNanos - SAFETY_MARGIN_NANOS;
+
+        return Math.max(minBudget, Math.min(maxBudget, headroom));
+    }
+}
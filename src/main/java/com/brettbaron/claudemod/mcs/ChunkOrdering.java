@@ -0,0 +1,193 @@
+package com.brettbaron.claudemod.mcs;
+
+import com.brettbaron.claudemod.ClaudeMod;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.util.math.ChunkPos;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reorders a program so that ops writing to the same chunk run together, instead of bouncing
+ * between chunks in whatever order Claude wrote them.
+ *
+ * Ops are grouped by the chunk column of their minimum corner. An op joins the latest group for its
+ * chunk unless that would move it in front of an earlier op it overlaps with (writing the same blocks,
+ * or a clone reading blocks the other op writes), in which case it starts a new group. Raw commands may
+ * do anything, so nothing is moved across them.
+ */
+public class ChunkOrdering {
+    // Per op: write box, then read box (clone source), each min x, y, z, max x, y, z
+    private static final int BOX_STRIDE = 12;
+
+    /**
+     * @param originX The build origin, which decides where relative coordinates fall
+     * @return The reordered program, or the original if reordering would not reduce the chunk switches
+     */
+    public static McsProgram reorder(McsProgram program, int originX, int originY, int originZ) {
+        int opCount = program.getOpCount();
+        int[] boxes = new int[opCount * BOX_STRIDE];
+        int[] groupOf = new int[opCount];
+        List<IntArrayList> groups = new ArrayList<>();
+        Long2IntOpenHashMap lastGroupForChunk = new Long2IntOpenHashMap();
+        lastGroupForChunk.defaultReturnValue(-1);
+        // Ops touching each chunk column, to find overlaps without comparing every pair
+        Long2ObjectOpenHashMap<IntArrayList> opsByColumn = new Long2ObjectOpenHashMap<>();
+        // Ops may not join a group before the last raw command
+        int firstOpenGroup = 0;
+
+        for (int op = 0; op < opCount; op++) {
+            if (program.getOpcode(op) == McsProgram.OP_COMMAND) {
+                groupOf[op] = groups.size();
+                groups.add(IntArrayList.wrap(new int[] {op}));
+                firstOpenGroup = groups.size();
+                continue;
+            }
+
+            resolveBoxes(program, op, originX, originY, originZ, boxes);
+            int base = op * BOX_STRIDE;
+            long chunk = ChunkPos.toLong(boxes[base] >> 4, boxes[base + 2] >> 4);
+
+            int group = lastGroupForChunk.get(chunk);
+            if (group < firstOpenGroup || conflictsAfter(op, group, boxes, groupOf, opsByColumn)) {
+                group = groups.size();
+                groups.add(new IntArrayList());
+                lastGroupForChunk.put(chunk, group);
+            }
+            groups.get(group).add(op);
+            groupOf[op] = group;
+            registerColumns(op, boxes, opsByColumn);
+        }
+
+        int[] order = new int[opCount];
+        int next = 0;
+        for (IntArrayList group : groups) {
+            for (int i = 0; i < group.size(); i++) {
+                order[next++] = group.getInt(i);
+            }
+        }
+
+        int before = countChunkSwitches(program, null, boxes);
+        int after = countChunkSwitches(program, order, boxes);
+        if (after >= before) {
+            return program;
+        }
+
+        McsProgram reordered = new McsProgram();
+        reordered.setSkippedLines(program.getSkippedLines());
+        reordered.setSourceOpCount(program.getSourceOpCount());
+        for (int op : order) {
+            reordered.addOp(program, op);
+        }
+        ClaudeMod.log("Reordered build by chunk: " + before + " chunk switches reduced to " + after);
+        return reordered;
+    }
+
+    /**
+     * @return true if the op overlaps an earlier op that was placed in a group after the given one
+     */
+    private static boolean conflictsAfter(int op, int group, int[] boxes, int[] groupOf, Long2ObjectOpenHashMap<IntArrayList> opsByColumn) {
+        int base = op * BOX_STRIDE;
+        for (int box = base; box <= base + 6; box += 6) {
+            if (box > base && !hasBox(boxes, box)) {
+                break;
+            }
+            for (int chunkX = boxes[box] >> 4; chunkX <= boxes[box + 3] >> 4; chunkX++) {
+                for (int chunkZ = boxes[box + 2] >> 4; chunkZ <= boxes[box + 5] >> 4; chunkZ++) {
+                    IntArrayList others = opsByColumn.get(ChunkPos.toLong(chunkX, chunkZ));
+                    if (others == null) {
+                        continue;
+                    }
+                    for (int i = 0; i < others.size(); i++) {
+                        int other = others.getInt(i);
+                        if (groupOf[other] > group && conflicts(boxes, op * BOX_STRIDE, other * BOX_STRIDE)) {
+                            return true;
+                        }
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Two ops conflict if either writes blocks the other reads or writes
+     */
+    private static boolean conflicts(int[] boxes, int a, int b) {
+        return intersects(boxes, a, b)
+            || (hasBox(boxes, a + 6) && intersects(boxes, a + 6, b))
+            || (hasBox(boxes, b + 6) && intersects(boxes, a, b + 6));
+    }
+
+    private static boolean intersects(int[] boxes, int a, int b) {
+        return boxes[a] <= boxes[b + 3] && boxes[a + 3] >= boxes[b]
+            && boxes[a + 1] <= boxes[b + 4] && boxes[a + 4] >= boxes[b + 1]
+            && boxes[a + 2] <= boxes[b + 5] && boxes[a + 5] >= boxes[b + 2];
+    }
+
+    private static boolean hasBox(int[] boxes, int box) {
+        return boxes[box] <= boxes[box + 3];
+    }
+
+    private static void registerColumns(int op, int[] boxes, Long2ObjectOpenHashMap<IntArrayList> opsByColumn) {
+        int base = op * BOX_STRIDE;
+        for (int box = base; box <= base + 6; box += 6) {
+            if (box > base && !hasBox(boxes, box)) {
+                break;
+            }
+            for (int chunkX = boxes[box] >> 4; chunkX <= boxes[box + 3] >> 4; chunkX++) {
+                for (int chunkZ = boxes[box + 2] >> 4; chunkZ <= boxes[box + 5] >> 4; chunkZ++) {
+                    opsByColumn.computeIfAbsent(ChunkPos.toLong(chunkX, chunkZ), key -> new IntArrayList()).add(op);
+                }
+            }
+        }
+    }
+
+    /**
+     * Resolve the area an op writes and, for clones, the area it reads
+     */
+    private static void resolveBoxes(McsProgram program, int op, int originX, int originY, int originZ, int[] boxes) {
+        int base = op * BOX_STRIDE;
+        int x1 = program.getCoord(op, 0, originX), y1 = program.getCoord(op, 1, originY), z1 = program.getCoord(op, 2, originZ);
+        int x2 = program.getCoord(op, 3, originX), y2 = program.getCoord(op, 4, originY), z2 = program.getCoord(op, 5, originZ);
+        setBox(boxes, base, Math.min(x1, x2), Math.min(y1, y2), Math.min(z1, z2), Math.max(x1, x2), Math.max(y1, y2), Math.max(z1, z2));
+
+        if (program.getOpcode(op) == McsProgram.OP_CLONE) {
+            // The source is read; the destination is written
+            System.arraycopy(boxes, base, boxes, base + 6, 6);
+            int destX = program.getCoord(op, 6, originX), destY = program.getCoord(op, 7, originY), destZ = program.getCoord(op, 8, originZ);
+            setBox(boxes, base, destX, destY, destZ, destX + Math.abs(x2 - x1), destY + Math.abs(y2 - y1), destZ + Math.abs(z2 - z1));
+        } else {
+            setBox(boxes, base + 6, 0, 0, 0, -1, -1, -1);
+        }
+    }
+
+    private static void setBox(int[] boxes, int index, int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+        boxes[index] = minX;
+        boxes[index + 1] = minY;
+        boxes[index + 2] = minZ;
+        boxes[index + 3] = maxX;
+        boxes[index + 4] = maxY;
+        boxes[index + 5] = maxZ;
+    }
+
+    private static int countChunkSwitches(McsProgram program, int[] order, int[] boxes) {
+        int switches = 0;
+        long previous = Long.MIN_VALUE;
+        for (int i = 0; i < program.getOpCount(); i++) {
+            int op = order != null ? order[i] : i;
+            if (program.getOpcode(op) == McsProgram.OP_COMMAND) {
+                continue;
+            }
+            int base = op * BOX_STRIDE;
+            long chunk = ChunkPos.toLong(boxes[base] >> 4, boxes[base + 2] >> 4);
+            if (chunk != previous && previous != Long.MIN_VALUE) {
+                switches++;
+            }
+            previous = chunk;
+        }
+        return switches;
+    }
+}
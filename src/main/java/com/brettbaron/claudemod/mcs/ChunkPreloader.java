@@ -0,0 +1,145 @@
+package com.brettbaron.claudemod.mcs;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import net.minecraft.server.world.ChunkTicketType;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.util.math.ChunkPos;
+
+import java.util.Comparator;
+
+/**
+ * Keeps the chunks a build is about to write to loaded with chunk tickets.
+ *
+ * The chunk columns each op touches are registered up front. Tickets are added for the columns of
+ * upcoming ops, up to a limit, so the chunk system can load them in the background before the
+ * executor gets there, and each ticket is removed once no later op needs its column. Must be used on
+ * the server thread.
+ */
+public class ChunkPreloader {
+    private static final ChunkTicketType<ChunkPos> BUILD_TICKET =
+        ChunkTicketType.create("claudemod_build", Comparator.comparingLong(ChunkPos::toLong));
+    // Also load the neighbors so block updates at the edge of a build do not load chunks synchronously
+    private static final int TICKET_RADIUS = 1;
+
+    private final ServerWorld world;
+    private final int maxChunks;
+    // Chunk column boxes the registered ops touch: min x, min z, max x, max z
+    private final IntArrayList boxes = new IntArrayList();
+    // Index in boxes of each op's first box, with the end of the last op at the end
+    private final IntArrayList opStarts = IntArrayList.of(0);
+    // Last registered op that touches each column
+    private final Long2IntOpenHashMap lastUse = new Long2IntOpenHashMap();
+    private final LongOpenHashSet ticketed = new LongOpenHashSet();
+    private int preloadCursor = 0;
+
+    /**
+     * @param maxChunks Columns to keep tickets for at once. A single op that needs more still gets all of them.
+     */
+    public ChunkPreloader(ServerWorld world, int maxChunks) {
+        this.world = world;
+        this.maxChunks = maxChunks;
+        lastUse.defaultReturnValue(-1);
+    }
+
+    /**
+     * Register the next op's footprint, in block coordinates
+     */
+    public void addOp(int minX, int minZ, int maxX, int maxZ) {
+        addBox(minX, minZ, maxX, maxZ);
+        opStarts.add(boxes.size());
+    }
+
+    /**
+     * Register the next op as two separate areas, such as the source and destination of a clone,
+     * so the columns between them are not loaded
+     */
+    public void addOp(int minX1, int minZ1, int maxX1, int maxZ1, int minX2, int minZ2, int maxX2, int maxZ2) {
+        addBox(minX1, minZ1, maxX1, maxZ1);
+        addBox(minX2, minZ2, maxX2, maxZ2);
+        opStarts.add(boxes.size());
+    }
+
+    /**
+     * Register an op that does not write to a known area
+     */
+    public void addEmptyOp() {
+        opStarts.add(boxes.size());
+    }
+
+    public int getOpCount() {
+        return opStarts.size() - 1;
+    }
+
+    /**
+     * @return Distinct chunk columns touched by the registered ops
+     */
+    public int getFootprint() {
+        return lastUse.size();
+    }
+
+    /**
+     * Release the columns that are no longer needed and request the ones needed next
+     *
+     * @param currentOp The op the executor is about to run
+     */
+    public void update(int currentOp) {
+        LongIterator iterator = ticketed.iterator();
+        while (iterator.hasNext()) {
+            long chunk = iterator.nextLong();
+            if (lastUse.get(chunk) < currentOp) {
+                removeTicket(chunk);
+                iterator.remove();
+            }
+        }
+
+        preloadCursor = Math.max(preloadCursor, currentOp);
+        while (preloadCursor < getOpCount() && (preloadCursor == currentOp || ticketed.size() < maxChunks)) {
+            for (int index = opStarts.getInt(preloadCursor); index < opStarts.getInt(preloadCursor + 1); index += 4) {
+                for (int chunkX = boxes.getInt(index); chunkX <= boxes.getInt(index + 2); chunkX++) {
+                    for (int chunkZ = boxes.getInt(index + 1); chunkZ <= boxes.getInt(index + 3); chunkZ++) {
+                        long chunk = ChunkPos.toLong(chunkX, chunkZ);
+                        if (ticketed.add(chunk)) {
+                            ChunkPos pos = new ChunkPos(chunk);
+                            world.getChunkManager().addTicket(BUILD_TICKET, pos, TICKET_RADIUS, pos);
+                        }
+                    }
+                }
+            }
+            preloadCursor++;
+        }
+    }
+
+    /**
+     * Remove every ticket, once the build has ended
+     */
+    public void releaseAll() {
+        LongIterator iterator = ticketed.iterator();
+        while (iterator.hasNext()) {
+            removeTicket(iterator.nextLong());
+        }
+        ticketed.clear();
+    }
+
+    private void addBox(int minX, int minZ, int maxX, int maxZ) {
+        int op = getOpCount();
+        int minChunkX = minX >> 4, minChunkZ = minZ >> 4, maxChunkX = maxX >> 4, maxChunkZ = maxZ >> 4;
+        boxes.add(minChunkX);
+        boxes.add(minChunkZ);
+        boxes.add(maxChunkX);
+        boxes.add(maxChunkZ);
+
+        for (int chunkX = minChunkX; chunkX <= maxChunkX; chunkX++) {
+            for (int chunkZ = minChunkZ; chunkZ <= maxChunkZ; chunkZ++) {
+                lastUse.put(ChunkPos.toLong(chunkX, chunkZ), op);
+            }
+        }
+    }
+
+    private void removeTicket(long chunk) {
+        ChunkPos pos = new ChunkPos(chunk);
+        world.getChunkManager().removeTicket(BUILD_TICKET, pos, TICKET_RADIUS, pos);
+    }
+}
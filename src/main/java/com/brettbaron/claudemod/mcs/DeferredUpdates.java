@@ -0,0 +1,143 @@
+package com.brettbaron.claudemod.mcs;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.block.Block;
+import net.minecraft.block.BlockState;
+import net.minecraft.block.Blocks;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkSectionPos;
+
+import java.util.Arrays;
+
+/**
+ * Block updates held back while a build is placed in bulk, and applied once it is done.
+ *
+ * Positions are kept as a bitset per chunk section (4096 bits for the blocks, and as many again for the
+ * ones that need relighting), so a block changed several times is only updated once and a million
+ * changed blocks take a few hundred kilobytes. Updates are applied section by section and can be
+ * spread over several ticks. Must be used on the server thread.
+ */
+class DeferredUpdates {
+    private static final int SECTION_BLOCKS = 16 * 16 * 16;
+    private static final int WORDS = SECTION_BLOCKS / 64;
+    // How many blocks are updated between deadline checks
+    private static final int TIME_CHECK_INTERVAL = 64;
+
+    private final Long2ObjectOpenHashMap<long[]> sections = new Long2ObjectOpenHashMap<>();
+    private final BlockPos.Mutable mutable = new BlockPos.Mutable();
+
+    // Sections being applied, and where in them
+    private long[] applyOrder;
+    private int sectionCursor;
+    private int bitCursor;
+
+    /**
+     * @param light Whether the block's light also needs to be checked
+     */
+    void add(int x, int y, int z, boolean light) {
+        long key = ChunkSectionPos.asLong(x >> 4, y >> 4, z >> 4);
+        long[] bits = sections.get(key);
+        if (bits == null) {
+            bits = new long[WORDS * 2];
+            sections.put(key, bits);
+        }
+
+        int index = ((y & 15) << 8) | ((z & 15) << 4) | (x & 15);
+        bits[index >> 6] |= 1L << index;
+        if (light) {
+            bits[WORDS + (index >> 6)] |= 1L << index;
+        }
+    }
+
+    boolean isEmpty() {
+        return sections.isEmpty();
+    }
+
+    /**
+     * Run the held back updates: the placed block's own placement logic (fluids start flowing, gravity
+     * blocks fall, redstone powers up), shape updates to and from its neighbors, neighbor notifications,
+     * and a light check where the block's light changed
+     *
+     * @param deadlineNanos {@link System#nanoTime()} value after which no further blocks are updated
+     * @param timed false to ignore the deadline and apply everything
+     * @return true once every update has been applied
+     */
+    boolean apply(ServerWorld world, long deadlineNanos, boolean timed) {
+        BlockState air = Blocks.AIR.getDefaultState();
+        int updated = 0;
+
+        while (!sections.isEmpty()) {
+            if (applyOrder == null) {
+                // Sorted so neighboring sections are applied together
+                applyOrder = sections.keySet().toLongArray();
+                Arrays.sort(applyOrder);
+                sectionCursor = 0;
+                bitCursor = 0;
+            }
+            if (sectionCursor >= applyOrder.length) {
+                applyOrder = null;
+                continue;
+            }
+
+            long key = applyOrder[sectionCursor];
+            long[] bits = sections.get(key);
+            if (bits == null) {
+                sectionCursor++;
+                continue;
+            }
+            int baseX = ChunkSectionPos.getBlockCoord(ChunkSectionPos.unpackX(key));
+            int baseY = ChunkSectionPos.getBlockCoord(ChunkSectionPos.unpackY(key));
+            int baseZ = ChunkSectionPos.getBlockCoord(ChunkSectionPos.unpackZ(key));
+
+            while (bitCursor < SECTION_BLOCKS) {
+                int index = bitCursor++;
+                if (bits[index >> 6] == 0) {
+                    bitCursor = (index | 63) + 1;
+                    continue;
+                }
+                if ((bits[index >> 6] & (1L << index)) == 0) {
+                    continue;
+                }
+                bits[index >> 6] &= ~(1L << index);
+                boolean light = (bits[WORDS + (index >> 6)] & (1L << index)) != 0;
+                bits[WORDS + (index >> 6)] &= ~(1L << index);
+
+                mutable.set(baseX + (index & 15), baseY + (index >> 8), baseZ + ((index >> 4) & 15));
+                if (world.isChunkLoaded(mutable.getX() >> 4, mutable.getZ() >> 4)) {
+                    BlockState state = world.getBlockState(mutable);
+                    state.onBlockAdded(world, mutable, air, false);
+                    state.updateNeighbors(world, mutable, Block.NOTIFY_LISTENERS);
+                    state.prepare(world, mutable, Block.NOTIFY_LISTENERS);
+                    world.updateNeighbors(mutable, state.getBlock());
+                    if (light) {
+                        world.getChunkManager().getLightingProvider().checkBlock(mutable);
+                    }
+                }
+
+                if (timed && ++updated % TIME_CHECK_INTERVAL == 0 && System.nanoTime() - deadlineNanos >= 0) {
+                    return false;
+                }
+            }
+
+            // Blocks added behind the cursor while this was spread over several ticks are picked up next round
+            if (isClear(bits)) {
+                sections.remove(key);
+            }
+            sectionCursor++;
+            bitCursor = 0;
+        }
+
+        applyOrder = null;
+        return true;
+    }
+
+    private static boolean isClear(long[] bits) {
+        for (long word : bits) {
+            if (word != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,230 @@
+package com.brettbaron.claudemod.mcs;
+
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import net.minecraft.block.Block;
+import net.minecraft.block.BlockState;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.util.Clearable;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkSectionPos;
+import net.minecraft.world.chunk.ChunkSection;
+import net.minecraft.world.chunk.WorldChunk;
+
+/**
+ * Writes block states straight into a {@link ServerWorld}, the way /fill and /setblock do,
+ * without going through command parsing. Neighbor updates are batched until {@link #flushUpdates()}.
+ * Every change is recorded in the {@link BuildJournal}, if there is one.
+ *
+ * In bulk mode blocks are placed without any of their side effects: no placement logic, shape updates,
+ * neighbor updates or light checks. Those are collected in {@link DeferredUpdates} and applied once
+ * with {@link #finishDeferred}, so a large build does not trigger cascades of updates while it is
+ * still being placed and every changed block is only updated and relit once.
+ *
+ * Reads go straight to the chunk section holding the block, and the last section is kept until the
+ * next {@link #flushUpdates()}, so comparing a run of blocks with the world skips the chunk lookup
+ * that {@link ServerWorld#getBlockState} does for every block.
+ */
+public class DirectBlockWriter {
+    // Notify clients, but skip shape updates (FORCE_STATE) and placement callbacks (MOVED)
+    private static final int BULK_FLAGS = Block.NOTIFY_LISTENERS | Block.FORCE_STATE | Block.MOVED;
+
+    // Writer whose block is being placed right now, if it defers light checks
+    private static DirectBlockWriter lightDeferrer = null;
+
+    private final ServerWorld world;
+    private final BuildJournal journal;
+    private final DeferredUpdates deferred;
+    private final BlockPos.Mutable mutable = new BlockPos.Mutable();
+    private final LongArrayList pendingUpdates = new LongArrayList();
+    // The section read last; chunks may unload between slices, so it is dropped on every flush
+    private ChunkSection cachedSection = null;
+    private long cachedSectionKey = 0;
+    // Box around every block changed so far
+    private int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, minZ = Integer.MAX_VALUE;
+    private int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE, maxZ = Integer.MIN_VALUE;
+
+    /**
+     * @param journal Records every change so it can be undone, or null
+     * @param bulk Whether to hold back block updates until {@link #finishDeferred}
+     */
+    public DirectBlockWriter(ServerWorld world, BuildJournal journal, boolean bulk) {
+        this.world = world;
+        this.journal = journal;
+        this.deferred = bulk ? new DeferredUpdates() : null;
+    }
+
+    /**
+     * Called from the chunk's light check while a block is being placed
+     *
+     * @return true if the check was deferred by a bulk writer and must be skipped now
+     */
+    public static boolean deferLightCheck(BlockPos pos) {
+        if (lightDeferrer == null) {
+            return false;
+        }
+        lightDeferrer.deferred.add(pos.getX(), pos.getY(), pos.getZ(), true);
+        return true;
+    }
+
+    public ServerWorld getWorld() {
+        return world;
+    }
+
+    /**
+     * Place a block state
+     *
+     * @param keep Only place the block if the position is currently air
+     * @return true if the world changed
+     */
+    public boolean setBlock(int x, int y, int z, BlockState state, boolean keep) {
+        mutable.set(x, y, z);
+        if (!world.isInBuildLimit(mutable)) {
+            return false;
+        }
+
+        BlockState current = getBlock(x, y, z);
+        if (current == state || (keep && !current.isAir())) {
+            return false;
+        }
+        return place(current, state);
+    }
+
+    /**
+     * Place a block state only if the position still holds the expected state, so blocks changed by
+     * someone else in the meantime are left alone
+     *
+     * @return true if the world changed
+     */
+    public boolean replaceBlock(int x, int y, int z, BlockState expected, BlockState state) {
+        mutable.set(x, y, z);
+        if (!world.isInBuildLimit(mutable) || !world.isChunkLoaded(ChunkSectionPos.getSectionCoord(x), ChunkSectionPos.getSectionCoord(z))) {
+            return false;
+        }
+
+        BlockState current = getBlock(x, y, z);
+        if (current != expected || current == state) {
+            return false;
+        }
+        return place(current, state);
+    }
+
+    public BlockState getBlock(int x, int y, int z) {
+        ChunkSection section = getSection(ChunkSectionPos.getSectionCoord(x), ChunkSectionPos.getSectionCoord(y), ChunkSectionPos.getSectionCoord(z));
+        if (section == null) {
+            return world.getBlockState(mutable.set(x, y, z));
+        }
+        mutable.set(x, y, z);
+        return section.getBlockState(x & 15, y & 15, z & 15);
+    }
+
+    /**
+     * Look up a chunk section for reading many of its blocks
+     *
+     * @return The section, or null if its chunk is not loaded or it is outside the world's height
+     */
+    public ChunkSection getSection(int sectionX, int sectionY, int sectionZ) {
+        long key = ChunkSectionPos.asLong(sectionX, sectionY, sectionZ);
+        if (cachedSection != null && cachedSectionKey == key) {
+            return cachedSection;
+        }
+
+        int index = world.sectionCoordToIndex(sectionY);
+        if (index < 0 || index >= world.countVerticalSections()) {
+            return null;
+        }
+        WorldChunk chunk = world.getChunkManager().getWorldChunk(sectionX, sectionZ);
+        if (chunk == null) {
+            return null;
+        }
+        cachedSection = chunk.getSection(index);
+        cachedSectionKey = key;
+        return cachedSection;
+    }
+
+    /**
+     * @return The box around every block changed through this writer as min x, y, z, max x, y, z, or null if nothing changed
+     */
+    public int[] getChangedBounds() {
+        return minX > maxX ? null : new int[]{minX, minY, minZ, maxX, maxY, maxZ};
+    }
+
+    /**
+     * @return true if every chunk column touched by the box is loaded
+     */
+    public boolean isLoaded(int minX, int minZ, int maxX, int maxZ) {
+        for (int chunkX = ChunkSectionPos.getSectionCoord(minX); chunkX <= ChunkSectionPos.getSectionCoord(maxX); chunkX++) {
+            for (int chunkZ = ChunkSectionPos.getSectionCoord(minZ); chunkZ <= ChunkSectionPos.getSectionCoord(maxZ); chunkZ++) {
+                if (!world.isChunkLoaded(chunkX, chunkZ)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private boolean place(BlockState current, BlockState state) {
+        // Empty containers first so replacing them does not spill their contents, like /fill does
+        Clearable.clear(world.getBlockEntity(mutable));
+
+        if (deferred != null) {
+            boolean changed;
+            lightDeferrer = this;
+            try {
+                changed = world.setBlockState(mutable, state, BULK_FLAGS);
+            } finally {
+                lightDeferrer = null;
+            }
+            if (!changed) {
+                return false;
+            }
+            deferred.add(mutable.getX(), mutable.getY(), mutable.getZ(), false);
+        } else {
+            if (!world.setBlockState(mutable, state, Block.NOTIFY_LISTENERS)) {
+                return false;
+            }
+            pendingUpdates.add(mutable.asLong());
+        }
+
+        if (journal != null) {
+            journal.record(mutable.getX(), mutable.getY(), mutable.getZ(), current, state);
+        }
+        minX = Math.min(minX, mutable.getX());
+        minY = Math.min(minY, mutable.getY());
+        minZ = Math.min(minZ, mutable.getZ());
+        maxX = Math.max(maxX, mutable.getX());
+        maxY = Math.max(maxY, mutable.getY());
+        maxZ = Math.max(maxZ, mutable.getZ());
+        return true;
+    }
+
+    /**
+     * Notify the neighbors of every block changed since the last flush, as /fill does once it has placed
+     * everything. Called at the end of every slice.
+     */
+    public void flushUpdates() {
+        cachedSection = null;
+        for (int i = 0; i < pendingUpdates.size(); i++) {
+            mutable.set(pendingUpdates.getLong(i));
+            world.updateNeighbors(mutable, world.getBlockState(mutable).getBlock());
+        }
+        pendingUpdates.clear();
+    }
+
+    /**
+     * @return true if updates held back in bulk mode are still waiting to be applied
+     */
+    public boolean hasDeferred() {
+        return deferred != null && !deferred.isEmpty();
+    }
+
+    /**
+     * Apply the updates held back in bulk mode
+     *
+     * @param deadlineNanos {@link System#nanoTime()} value after which no further blocks are updated
+     * @param timed false to ignore the deadline and apply everything now
+     * @return true once there is nothing left to apply
+     */
+    public boolean finishDeferred(long deadlineNanos, boolean timed) {
+        return deferred == null || deferred.apply(world, deadlineNanos, timed);
+    }
+}
@@ -0,0 +1,141 @@
+package com.brettbaron.claudemod.mcs;
+
+import com.brettbaron.claudemod.config.ClaudeConfig;
+import net.minecraft.block.BlockState;
+
+/**
+ * Plays a {@link BuildJournal} back into the world, either backwards to undo the build or forwards to
+ * redo it. A block is only changed if it is still in the state the build (or the undo) left it in,
+ * so anything players have changed since is kept.
+ */
+public class JournalReplay implements BuildExecution {
+    // How many blocks are written between deadline checks
+    private static final int TIME_CHECK_INTERVAL = 64;
+
+    private final BuildJournal journal;
+    private final boolean undo;
+    private final DirectBlockWriter writer;
+
+    private int segment;
+    private int[] entries;
+    private int entry;
+    private int processed = 0;
+    private int changed = 0;
+    private int skipped = 0;
+
+    /**
+     * @param undo true to restore the blocks the build replaced, false to place the build's blocks again
+     */
+    public JournalReplay(BuildJournal journal, boolean undo) {
+        this.journal = journal;
+        this.undo = undo;
+        this.writer = new DirectBlockWriter(journal.getWorld(), null, ClaudeConfig.isBulkPlacement());
+        this.segment = undo ? journal.getSegmentCount() - 1 : 0;
+    }
+
+    @Override
+    public boolean run(long deadlineNanos) {
+        while (!isFinished()) {
+            if (entries == null) {
+                entries = journal.readSegment(segment);
+                entry = undo ? entries.length / 5 - 1 : 0;
+            }
+
+            int offset = entry * 5;
+            BlockState previous = journal.getPaletteState(entries[offset + 3]);
+            BlockState placed = journal.getPaletteState(entries[offset + 4]);
+            boolean written = undo
+                ? writer.replaceBlock(entries[offset], entries[offset + 1], entries[offset + 2], placed, previous)
+                : writer.replaceBlock(entries[offset], entries[offset + 1], entries[offset + 2], previous, placed);
+            if (written) {
+                changed++;
+            } else {
+                skipped++;
+            }
+            processed++;
+            advance();
+
+            if ((processed % TIME_CHECK_INTERVAL) == 0 && System.nanoTime() - deadlineNanos >= 0) {
+                break;
+            }
+        }
+
+        writer.flushUpdates();
+        return isFinished() && writer.finishDeferred(deadlineNanos, true);
+    }
+
+    /**
+     * @return true once every recorded block has been handled
+     */
+    public boolean isFinished() {
+        return segment < 0 || segment >= journal.getSegmentCount();
+    }
+
+    public BuildJournal getJournal() {
+        return journal;
+    }
+
+    public boolean isUndo() {
+        return undo;
+    }
+
+    /**
+     * @return Blocks left alone because they had changed since, or their area was not loaded
+     */
+    public int getSkippedBlocks() {
+        return skipped;
+    }
+
+    @Override
+    public int getProcessedOps() {
+        return processed;
+    }
+
+    @Override
+    public int getCompletedOps() {
+        return changed;
+    }
+
+    @Override
+    public int getFailedOps() {
+        return skipped;
+    }
+
+    @Override
+    public long getBlocksChanged() {
+        return changed;
+    }
+
+    @Override
+    public long getBlocksUnchanged() {
+        return 0;
+    }
+
+    @Override
+    public DirectBlockWriter getWriter() {
+        return writer;
+    }
+
+    @Override
+    public boolean isWaiting() {
+        return false;
+    }
+
+    /**
+     * Hand any block updates still held back to the {@link BuildJobManager}, if the replay was cut short
+     */
+    @Override
+    public void close() {
+        if (writer.hasDeferred()) {
+            BuildJobManager.drain(writer);
+        }
+    }
+
+    private void advance() {
+        entry += undo ? -1 : 1;
+        if (entry < 0 || entry >= entries.length / 5) {
+            segment += undo ? -1 : 1;
+            entries = null;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.brettbaron.claudemod.mcs;
+
+import com.brettbaron.claudemod.ClaudeMod;
+import com.mojang.brigadier.exceptions.CommandSyntaxException;
+import net.minecraft.block.BlockState;
+import net.minecraft.command.argument.BlockArgumentParser;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compiled MCS sidecar files (.mcsb), stored next to the .mcs file they were compiled from.
+ *
+ * Layout, big-endian:
+ * <pre>
+ * int     magic "MCSB"
+ * int     format version
+ * long    size of the source .mcs file
+ * long    last-modified time of the source .mcs file
+ * int     op count
+ * int     skipped line count
+ * long    total volume
+ * int     op count before optimization
+ * int     palette size, then each block state as a length-prefixed UTF-8 string
+ * int     command count, then each command as a length-prefixed UTF-8 string
+ * int[]   op records, op count * {@link McsProgram#OP_STRIDE} ints
+ * </pre>
+ * Sidecars are memory-mapped when read. A sidecar whose recorded source size or timestamp no longer
+ * matches the .mcs file is treated as stale and ignored.
+ */
+public class McsBinaryFormat {
+    public static final String EXTENSION = ".mcsb";
+
+    private static final int MAGIC = 0x4D435342; // "MCSB"
+    // Raised when the parser compiles the same text differently, so older sidecars are recompiled
+    private static final int VERSION = 3;
+
+    /**
+     * @return The sidecar path for an MCS file
+     */
+    public static Path getSidecarPath(Path mcsFile) {
+        String name = mcsFile.getFileName().toString();
+        if (name.endsWith(".mcs")) {
+            name = name.substring(0, name.length() - 4);
+        }
+        return mcsFile.resolveSibling(name + EXTENSION);
+    }
+
+    /**
+     * Write a compiled program next to its source file
+     */
+    public static void write(McsProgram program, Path mcsFile) throws IOException {
+        Path sidecar = getSidecarPath(mcsFile);
+        Path temp = sidecar.resolveSibling(sidecar.getFileName() + ".tmp");
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(Files.size(mcsFile));
+            out.writeLong(Files.getLastModifiedTime(mcsFile).toMillis());
+            out.writeInt(program.getOpCount());
+            out.writeInt(program.getSkippedLines());
+            out.writeLong(program.getTotalVolume());
+            out.writeInt(program.getSourceOpCount());
+
+            out.writeInt(program.getPaletteSize());
+            for (int i = 0; i < program.getPaletteSize(); i++) {
+                writeString(out, BlockArgumentParser.stringifyBlockState(program.getPaletteState(i)));
+            }
+
+            out.writeInt(program.getCommandTextCount());
+            for (int i = 0; i < program.getCommandTextCount(); i++) {
+                writeString(out, program.getCommandText(i));
+            }
+
+            int[] ops = program.getOpData();
+            int length = program.getOpCount() * McsProgram.OP_STRIDE;
+            for (int i = 0; i < length; i++) {
+                out.writeInt(ops[i]);
+            }
+        }
+
+        Files.move(temp, sidecar, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Read the compiled sidecar of an MCS file
+     *
+     * @return The program, or null if there is no usable sidecar
+     */
+    public static McsProgram read(Path mcsFile) {
+        Path sidecar = getSidecarPath(mcsFile);
+        if (!Files.exists(sidecar)) {
+            return null;
+        }
+
+        try (FileChannel channel = FileChannel.open(sidecar, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                return null;
+            }
+            if (buffer.getLong() != Files.size(mcsFile) || buffer.getLong() != Files.getLastModifiedTime(mcsFile).toMillis()) {
+                return null;
+            }
+
+            int opCount = buffer.getInt();
+            int skippedLines = buffer.getInt();
+            long totalVolume = buffer.getLong();
+            int sourceOpCount = buffer.getInt();
+
+            int paletteSize = buffer.getInt();
+            List<BlockState> palette = new ArrayList<>(paletteSize);
+            for (int i = 0; i < paletteSize; i++) {
+                palette.add(McsParser.parseBlockState(readString(buffer)));
+            }
+
+            int commandCount = buffer.getInt();
+            List<String> commands = new ArrayList<>(commandCount);
+            for (int i = 0; i < commandCount; i++) {
+                commands.add(readString(buffer));
+            }
+
+            int[] ops = new int[opCount * McsProgram.OP_STRIDE];
+            buffer.asIntBuffer().get(ops);
+
+            return new McsProgram(palette, commands, ops, opCount, skippedLines, totalVolume, sourceOpCount);
+        } catch (IOException | CommandSyntaxException | RuntimeException e) {
+            // Unreadable or written by an incompatible version; the caller recompiles from text
+            ClaudeMod.log("Ignoring MCS sidecar " + sidecar + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
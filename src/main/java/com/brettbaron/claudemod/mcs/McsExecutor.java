@@ -0,0 +1,501 @@
+package com.brettbaron.claudemod.mcs;
+
+import com.brettbaron.claudemod.config.ClaudeConfig;
+import com.brettbaron.claudemod.log.ClaudeLog;
+import com.brettbaron.claudemod.log.LogCategory;
+import net.minecraft.block.BlockState;
+import net.minecraft.block.Blocks;
+import net.minecraft.server.command.ServerCommandSource;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.chunk.ChunkSection;
+
+import java.util.function.Consumer;
+
+/**
+ * Runs an {@link McsProgram} against the world in resumable slices.
+ *
+ * Fill, setblock and clone ops are written through a {@link DirectBlockWriter}; everything else is
+ * sent to the command dispatcher. A single large fill may be spread over several slices.
+ * Volume ops are diffed against the world one chunk section at a time: the blocks of the op inside the
+ * section are read straight from it and compared with what the op would place, and only the ones that
+ * differ are written. Running a build over an area that already matches it writes nothing, sends no
+ * block updates to clients and triggers no neighbor updates.
+ * Complete programs are reordered chunk by chunk first, and the chunks the build is about to write to
+ * are loaded ahead of time with a {@link ChunkPreloader}.
+ */
+public class McsExecutor implements BuildExecution {
+    // How many blocks are written between deadline checks
+    private static final int TIME_CHECK_INTERVAL = 64;
+    // How long an op waits for its chunks to load before it is skipped
+    private static final long CHUNK_WAIT_NANOS = 10_000_000_000L;
+
+    private final McsProgram program;
+    private final Consumer<String> dispatcher;
+    private final DirectBlockWriter writer;
+    private final ChunkPreloader preloader;
+    private final int originX;
+    private final int originY;
+    private final int originZ;
+
+    private int opIndex = 0;
+    private int completedOps = 0;
+    private int failedOps = 0;
+    private long blocksChanged = 0;
+    private long blocksUnchanged = 0;
+
+    // State of the volume op currently being written
+    private boolean opPrepared = false;
+    private int minX, minY, minZ, maxX, maxY, maxZ;
+    private int sizeX, sizeZ;
+    private long volume;
+    private int destX, destY, destZ;
+    private BlockState[] cloneBuffer;
+    // The box the op writes to, and the sections it covers in y, z, x order
+    private int targetMinX, targetMinY, targetMinZ, targetMaxX, targetMaxY, targetMaxZ;
+    private int sectionMinX, sectionMinY, sectionMinZ, sectionCountX, sectionCountZ;
+    private long sectionCount;
+    private long sectionIndex;
+    // Blocks of the current section that differ from the world, as local indices and the states to write
+    private final int[] changedBlocks = new int[4096];
+    private final BlockState[] changedStates = new BlockState[4096];
+    private int changedCount = 0;
+    private int changedIndex = 0;
+    private int sectionBaseX, sectionBaseY, sectionBaseZ;
+
+    // Area the current op is waiting on to load
+    private boolean waiting = false;
+    private long waitStartNanos = 0;
+    private int waitMinX, waitMinZ, waitMaxX, waitMaxZ;
+
+    /**
+     * @param program The program to run
+     * @param commandSource Source used for fallback commands and to resolve relative coordinates
+     * @param journal Records the blocks written directly so they can be undone, or null
+     * @param complete false if more ops will be appended to the program while it runs, which rules out reordering
+     */
+    public McsExecutor(McsProgram program, ServerCommandSource commandSource, BuildJournal journal, boolean complete) {
+        this(program, new DirectBlockWriter(commandSource.getWorld(), journal, ClaudeConfig.isBulkPlacement()),
+            command -> commandSource.getServer().getCommandManager().executeWithPrefix(commandSource, command),
+            BlockPos.ofFloored(commandSource.getPosition()), complete && ClaudeConfig.isReorderBuilds(),
+            ClaudeConfig.getPreloadChunks() > 0 ? new ChunkPreloader(commandSource.getWorld(), ClaudeConfig.getPreloadChunks()) : null);
+    }
+
+    /**
+     * Run a program through any writer and dispatcher, such as an in-memory world for the benchmarks
+     *
+     * @param dispatcher Runs the commands that are not written directly, throwing if one fails
+     * @param origin Position relative coordinates are resolved against
+     * @param reorder Whether to reorder the program chunk by chunk first
+     * @param preloader Loads chunks ahead of the build, or null
+     */
+    McsExecutor(McsProgram program, DirectBlockWriter writer, Consumer<String> dispatcher, BlockPos origin,
+                boolean reorder, ChunkPreloader preloader) {
+        this.writer = writer;
+        this.dispatcher = dispatcher;
+        this.originX = origin.getX();
+        this.originY = origin.getY();
+        this.originZ = origin.getZ();
+        this.program = reorder ? ChunkOrdering.reorder(program, originX, originY, originZ) : program;
+        this.preloader = preloader;
+    }
+
+    /**
+     * Execute ops until the deadline passes or the program is done
+     *
+     * @return true if every op has been executed
+     */
+    @Override
+    public boolean run(long deadlineNanos) {
+        waiting = false;
+        if (preloader != null) {
+            registerFootprints();
+            preloader.update(opIndex);
+        }
+
+        while (opIndex < program.getOpCount()) {
+            boolean opDone;
+
+            try {
+                opDone = program.getOpcode(opIndex) == McsProgram.OP_COMMAND
+                    ? runCommand(program.getCommand(opIndex))
+                    : runVolume(deadlineNanos);
+            } catch (Exception e) {
+                ClaudeLog.warn(LogCategory.BUILD, "Error executing MCS op " + opIndex + ": " + e.getMessage());
+                failedOps++;
+                opDone = true;
+            }
+
+            if (opDone) {
+                opIndex++;
+                opPrepared = false;
+                cloneBuffer = null;
+                waitStartNanos = 0;
+            } else if (waiting) {
+                break;
+            }
+
+            if (System.nanoTime() - deadlineNanos >= 0) {
+                break;
+            }
+        }
+
+        writer.flushUpdates();
+        // Held back block updates are applied once everything is placed
+        return opIndex >= program.getOpCount() && writer.finishDeferred(deadlineNanos, true);
+    }
+
+    @Override
+    public int getCompletedOps() {
+        return completedOps;
+    }
+
+    @Override
+    public int getFailedOps() {
+        return failedOps;
+    }
+
+    @Override
+    public int getProcessedOps() {
+        return opIndex;
+    }
+
+    @Override
+    public long getBlocksChanged() {
+        return blocksChanged;
+    }
+
+    @Override
+    public long getBlocksUnchanged() {
+        return blocksUnchanged;
+    }
+
+    @Override
+    public DirectBlockWriter getWriter() {
+        return writer;
+    }
+
+    /**
+     * @return true while the current op is waiting for its chunks to load
+     */
+    @Override
+    public boolean isWaiting() {
+        if (waiting && (writer.isLoaded(waitMinX, waitMinZ, waitMaxX, waitMaxZ)
+                || System.nanoTime() - waitStartNanos >= CHUNK_WAIT_NANOS)) {
+            waiting = false;
+        }
+        return waiting;
+    }
+
+    /**
+     * Hand any block updates still held back to the {@link BuildJobManager} to apply over the next ticks,
+     * and release the chunks held for the build, once it has ended
+     */
+    @Override
+    public void close() {
+        if (writer.hasDeferred()) {
+            BuildJobManager.drain(writer);
+        }
+        if (preloader != null) {
+            preloader.releaseAll();
+        }
+    }
+
+    private boolean runCommand(String command) {
+        try {
+            dispatcher.accept(command);
+            completedOps++;
+        } catch (Exception e) {
+            failedOps++;
+            // Failures are summarised when the build finishes, so each one is only logged at debug level
+            ClaudeLog.debug(LogCategory.BUILD, () -> "Error executing command '" + command + "': " + e.getMessage());
+        }
+        return true;
+    }
+
+    /**
+     * Write part of a fill, setblock or clone
+     *
+     * @return true once the op is complete
+     */
+    private boolean runVolume(long deadlineNanos) {
+        if (!opPrepared) {
+            if (!prepareVolume()) {
+                return !waiting;
+            }
+            opPrepared = true;
+            waitStartNanos = 0;
+            startSections();
+        } else if (changedIndex < changedCount && !writer.isLoaded(sectionBaseX, sectionBaseZ, sectionBaseX, sectionBaseZ)) {
+            // The chunk unloaded since the last slice, so compare the section again once it is back
+            changedCount = 0;
+            changedIndex = 0;
+            sectionIndex--;
+        }
+
+        boolean keep = program.getOpcode(opIndex) != McsProgram.OP_CLONE && program.getMode(opIndex) == McsProgram.MODE_KEEP;
+        int written = 0;
+        while (true) {
+            if (changedIndex < changedCount) {
+                int local = changedBlocks[changedIndex];
+                BlockState state = changedStates[changedIndex];
+                changedStates[changedIndex] = null;
+                changedIndex++;
+
+                if (writer.setBlock(sectionBaseX + (local & 15), sectionBaseY + (local >> 8), sectionBaseZ + ((local >> 4) & 15), state, keep)) {
+                    blocksChanged++;
+                }
+                if ((++written % TIME_CHECK_INTERVAL) == 0 && System.nanoTime() - deadlineNanos >= 0) {
+                    return false;
+                }
+                continue;
+            }
+
+            if (sectionIndex >= sectionCount) {
+                completedOps++;
+                return true;
+            }
+            if (!diffSection(sectionIndex)) {
+                if (waitForChunks(sectionBaseX, sectionBaseZ, sectionBaseX + 15, sectionBaseZ + 15)) {
+                    return false;
+                }
+                ClaudeLog.debug(LogCategory.BUILD, () -> "Skipping the rest of MCS op " + opIndex + ": target area was unloaded");
+                failedOps++;
+                return true;
+            }
+            sectionIndex++;
+            waitStartNanos = 0;
+            if (System.nanoTime() - deadlineNanos >= 0) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Work out which sections the op writes to, once its coordinates are resolved
+     */
+    private void startSections() {
+        if (program.getOpcode(opIndex) == McsProgram.OP_CLONE) {
+            targetMinX = destX;
+            targetMinY = destY;
+            targetMinZ = destZ;
+            targetMaxX = destX + sizeX - 1;
+            targetMaxY = destY + (maxY - minY);
+            targetMaxZ = destZ + sizeZ - 1;
+        } else {
+            targetMinX = minX;
+            targetMinY = minY;
+            targetMinZ = minZ;
+            targetMaxX = maxX;
+            targetMaxY = maxY;
+            targetMaxZ = maxZ;
+        }
+
+        sectionMinX = targetMinX >> 4;
+        sectionMinY = targetMinY >> 4;
+        sectionMinZ = targetMinZ >> 4;
+        sectionCountX = (targetMaxX >> 4) - sectionMinX + 1;
+        sectionCountZ = (targetMaxZ >> 4) - sectionMinZ + 1;
+        sectionCount = (long) sectionCountX * sectionCountZ * ((targetMaxY >> 4) - sectionMinY + 1);
+        sectionIndex = 0;
+        changedCount = 0;
+        changedIndex = 0;
+    }
+
+    /**
+     * Compare the part of the op inside one section with the world, and queue the blocks that differ
+     *
+     * @return false if the section's chunk is not loaded
+     */
+    private boolean diffSection(long index) {
+        int sectionX = sectionMinX + (int) (index % sectionCountX);
+        int sectionZ = sectionMinZ + (int) ((index / sectionCountX) % sectionCountZ);
+        int sectionY = sectionMinY + (int) (index / ((long) sectionCountX * sectionCountZ));
+        sectionBaseX = sectionX << 4;
+        sectionBaseY = sectionY << 4;
+        sectionBaseZ = sectionZ << 4;
+        changedCount = 0;
+        changedIndex = 0;
+
+        // Chunks can unload between slices, so only the first ones are known to be loaded
+        ChunkSection section = writer.getSection(sectionX, sectionY, sectionZ);
+        if (section == null) {
+            // Sections above or below the world have nothing to write
+            return writer.isLoaded(sectionBaseX, sectionBaseZ, sectionBaseX, sectionBaseZ);
+        }
+
+        int opcode = program.getOpcode(opIndex);
+        int mode = program.getMode(opIndex);
+        BlockState state = opcode == McsProgram.OP_CLONE ? null : program.getState(opIndex);
+        BlockState air = Blocks.AIR.getDefaultState();
+        boolean keep = opcode != McsProgram.OP_CLONE && mode == McsProgram.MODE_KEEP;
+
+        int fromX = Math.max(targetMinX, sectionBaseX), toX = Math.min(targetMaxX, sectionBaseX + 15);
+        int fromY = Math.max(targetMinY, sectionBaseY), toY = Math.min(targetMaxY, sectionBaseY + 15);
+        int fromZ = Math.max(targetMinZ, sectionBaseZ), toZ = Math.min(targetMaxZ, sectionBaseZ + 15);
+        for (int y = fromY; y <= toY; y++) {
+            for (int z = fromZ; z <= toZ; z++) {
+                for (int x = fromX; x <= toX; x++) {
+                    BlockState target;
+                    if (opcode == McsProgram.OP_CLONE) {
+                        target = cloneBuffer[(x - destX) + ((z - destZ) + (y - destY) * sizeZ) * sizeX];
+                        if ((mode & McsProgram.MODE_MASKED) != 0 && target.isAir()) {
+                            continue;
+                        }
+                    } else {
+                        boolean edge = x == minX || x == maxX || y == minY || y == maxY || z == minZ || z == maxZ;
+                        target = state;
+                        if (!edge && mode == McsProgram.MODE_HOLLOW) {
+                            target = air;
+                        } else if (!edge && mode == McsProgram.MODE_OUTLINE) {
+                            continue;
+                        }
+                    }
+
+                    BlockState current = section.getBlockState(x & 15, y & 15, z & 15);
+                    if (current == target || (keep && !current.isAir())) {
+                        blocksUnchanged++;
+                        continue;
+                    }
+                    changedBlocks[changedCount] = ((y & 15) << 8) | ((z & 15) << 4) | (x & 15);
+                    changedStates[changedCount] = target;
+                    changedCount++;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Resolve the op's coordinates and make sure it can be written directly
+     *
+     * @return false if the op was finished during preparation (failed or handed to the dispatcher),
+     * or has to wait for its chunks to load
+     */
+    private boolean prepareVolume() {
+        int x1 = program.getCoord(opIndex, 0, originX);
+        int y1 = program.getCoord(opIndex, 1, originY);
+        int z1 = program.getCoord(opIndex, 2, originZ);
+        int x2 = program.getCoord(opIndex, 3, originX);
+        int y2 = program.getCoord(opIndex, 4, originY);
+        int z2 = program.getCoord(opIndex, 5, originZ);
+
+        minX = Math.min(x1, x2);
+        minY = Math.min(y1, y2);
+        minZ = Math.min(z1, z2);
+        maxX = Math.max(x1, x2);
+        maxY = Math.max(y1, y2);
+        maxZ = Math.max(z1, z2);
+        sizeX = maxX - minX + 1;
+        sizeZ = maxZ - minZ + 1;
+        volume = (long) sizeX * (maxY - minY + 1) * sizeZ;
+
+        if (!writer.isLoaded(minX, minZ, maxX, maxZ)) {
+            if (waitForChunks(minX, minZ, maxX, maxZ)) {
+                return false;
+            }
+            ClaudeLog.debug(LogCategory.BUILD, () -> "Skipping MCS op " + opIndex + ": target area is not loaded");
+            failedOps++;
+            return false;
+        }
+
+        if (program.getOpcode(opIndex) == McsProgram.OP_CLONE) {
+            return prepareClone();
+        }
+        return true;
+    }
+
+    private boolean prepareClone() {
+        destX = program.getCoord(opIndex, 6, originX);
+        destY = program.getCoord(opIndex, 7, originY);
+        destZ = program.getCoord(opIndex, 8, originZ);
+        int destMaxX = destX + sizeX - 1;
+        int destMaxY = destY + (maxY - minY);
+        int destMaxZ = destZ + sizeZ - 1;
+
+        boolean overlaps = destX <= maxX && destMaxX >= minX
+            && destY <= maxY && destMaxY >= minY
+            && destZ <= maxZ && destMaxZ >= minZ;
+        boolean force = (program.getMode(opIndex) & McsProgram.MODE_FORCE) != 0;
+
+        boolean destinationLoaded = writer.isLoaded(destX, destZ, destMaxX, destMaxZ);
+        if (!destinationLoaded && waitForChunks(destX, destZ, destMaxX, destMaxZ)) {
+            return false;
+        }
+
+        // Overlapping normal clones fail in vanilla, so let the dispatcher produce that error
+        if ((overlaps && !force) || !destinationLoaded) {
+            runCommand(program.getCommand(opIndex));
+            return false;
+        }
+
+        // Snapshot the source first so overlapping clones copy the original blocks
+        cloneBuffer = new BlockState[(int) volume];
+        long layerSize = (long) sizeX * sizeZ;
+        for (int i = 0; i < cloneBuffer.length; i++) {
+            BlockState state = writer.getBlock(minX + (int) (i % sizeX), minY + (int) (i / layerSize), minZ + (int) ((i / sizeX) % sizeZ));
+
+            // Block entity data is only copied by the real clone command
+            if (state.hasBlockEntity()) {
+                cloneBuffer = null;
+                runCommand(program.getCommand(opIndex));
+                return false;
+            }
+            cloneBuffer[i] = state;
+        }
+        return true;
+    }
+
+    /**
+     * Start or keep waiting for an area to be loaded by the preloader
+     *
+     * @return false if there is no preloader or the op has waited too long
+     */
+    private boolean waitForChunks(int minX, int minZ, int maxX, int maxZ) {
+        if (preloader == null) {
+            return false;
+        }
+
+        long now = System.nanoTime();
+        if (waitStartNanos == 0) {
+            waitStartNanos = now;
+            preloader.update(opIndex);
+        } else if (now - waitStartNanos >= CHUNK_WAIT_NANOS) {
+            waitStartNanos = 0;
+            return false;
+        }
+
+        waiting = true;
+        waitMinX = minX;
+        waitMinZ = minZ;
+        waitMaxX = maxX;
+        waitMaxZ = maxZ;
+        return true;
+    }
+
+    /**
+     * Tell the preloader which chunks the ops added since the last call will write to
+     */
+    private void registerFootprints() {
+        for (int op = preloader.getOpCount(); op < program.getOpCount(); op++) {
+            if (program.getOpcode(op) == McsProgram.OP_COMMAND) {
+                preloader.addEmptyOp();
+                continue;
+            }
+
+            int x1 = program.getCoord(op, 0, originX);
+            int z1 = program.getCoord(op, 2, originZ);
+            int x2 = program.getCoord(op, 3, originX);
+            int z2 = program.getCoord(op, 5, originZ);
+            int minX = Math.min(x1, x2), minZ = Math.min(z1, z2), maxX = Math.max(x1, x2), maxZ = Math.max(z1, z2);
+
+            if (program.getOpcode(op) == McsProgram.OP_CLONE) {
+                // The source and destination are loaded separately, however far apart they are
+                int destX = program.getCoord(op, 6, originX);
+                int destZ = program.getCoord(op, 8, originZ);
+                preloader.addOp(minX, minZ, maxX, maxZ, destX, destZ, destX + (maxX - minX), destZ + (maxZ - minZ));
+                continue;
+            }
+            preloader.addOp(minX, minZ, maxX, maxZ);
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.brettbaron.claudemod.mcs;
+
+import com.brettbaron.claudemod.ClaudeMod;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Shrinks an {@link McsProgram} before it is executed.
+ *
+ * The program is split into segments of ops whose effect is fully known without looking at the world:
+ * relative fills (replace, hollow, outline) and relative setblocks. Each segment is simulated in a
+ * {@link SparseVoxelModel} so that blocks overwritten later in the segment are dropped, and the final state is then
+ * greedily re-meshed into as few fill boxes as possible. Clones, keep modes, absolute coordinates and raw
+ * commands depend on the world and act as barriers between segments, keeping their original position.
+ */
+public class McsOptimizer {
+    // Segments larger than this are left as they are to bound memory use
+    private static final int MAX_SEGMENT_VOXELS = 1 << 22;
+    private static final int ALL_RELATIVE = 0x3F;
+
+    /**
+     * Optimize a program. The result is never larger than the input.
+     *
+     * @return The optimized program, or the original if nothing could be saved
+     */
+    public static McsProgram optimize(McsProgram program) {
+        McsProgram optimized = new McsProgram();
+        optimized.setSkippedLines(program.getSkippedLines());
+        optimized.setSourceOpCount(program.getSourceOpCount());
+
+        int segmentStart = 0;
+        for (int op = 0; op <= program.getOpCount(); op++) {
+            if (op < program.getOpCount() && isSimulatable(program, op)) {
+                continue;
+            }
+
+            // Flush the segment that ends here, then copy the barrier op unchanged
+            optimizeSegment(program, segmentStart, op, optimized);
+            if (op < program.getOpCount()) {
+                optimized.addOp(program, op);
+            }
+            segmentStart = op + 1;
+        }
+
+        if (optimized.getOpCount() >= program.getOpCount()) {
+            return program;
+        }
+
+        ClaudeMod.log("Optimized MCS program from " + program.getOpCount() + " to " + optimized.getOpCount()
+            + " ops (saved " + (program.getOpCount() - optimized.getOpCount()) + ")");
+        return optimized;
+    }
+
+    /**
+     * Simulate ops [start, end) and append the re-meshed result, or the original ops if that is not smaller
+     */
+    private static void optimizeSegment(McsProgram program, int start, int end, McsProgram out) {
+        if (end - start < 2 || !simulateAndEmit(program, start, end, out)) {
+            for (int op = start; op < end; op++) {
+                out.addOp(program, op);
+            }
+        }
+    }
+
+    private static boolean simulateAndEmit(McsProgram program, int start, int end, McsProgram out) {
+        SparseVoxelModel model = new SparseVoxelModel();
+        for (int op = start; op < end; op++) {
+            model.apply(program, op);
+            if (model.getVoxelCount() > MAX_SEGMENT_VOXELS) {
+                return false;
+            }
+        }
+
+        List<int[]> boxes = remesh(model);
+        if (boxes.size() >= end - start) {
+            return false;
+        }
+        emit(boxes, model, out);
+        return true;
+    }
+
+    /**
+     * Cover a model with as few relative fills and setblocks as possible. The model is emptied in the process.
+     *
+     * @return A program that places the model with the origin at 0, 0, 0
+     */
+    public static McsProgram fromModel(SparseVoxelModel model) {
+        McsProgram program = new McsProgram();
+        emit(model, program);
+        return program;
+    }
+
+    /**
+     * Append the fills that place a model, emptying the model
+     */
+    static void emit(SparseVoxelModel model, McsProgram out) {
+        emit(remesh(model), model, out);
+    }
+
+    /**
+     * @return true if the op's effect is known without looking at the world
+     */
+    static boolean isSimulatable(McsProgram program, int op) {
+        int opcode = program.getOpcode(op);
+        if (opcode != McsProgram.OP_FILL && opcode != McsProgram.OP_SETBLOCK) {
+            return false;
+        }
+        // Keep depends on what is already in the world
+        return program.getMode(op) != McsProgram.MODE_KEEP
+            && (program.getRelativeMask(op) & ALL_RELATIVE) == ALL_RELATIVE;
+    }
+
+    private static void emit(List<int[]> boxes, SparseVoxelModel model, McsProgram out) {
+        // Palette indices follow first use, so sorting by them places supports before attachments
+        boxes.sort((a, b) -> Integer.compare(a[6], b[6]));
+        int[] coords = new int[6];
+        for (int[] box : boxes) {
+            System.arraycopy(box, 0, coords, 0, 6);
+            boolean single = coords[0] == coords[3] && coords[1] == coords[4] && coords[2] == coords[5];
+            out.addFill(single ? McsProgram.OP_SETBLOCK : McsProgram.OP_FILL, McsProgram.MODE_REPLACE,
+                coords, ALL_RELATIVE, model.getPaletteState(box[6]));
+        }
+    }
+
+    /**
+     * Greedily cover the model with boxes of a single block state, growing along x, then z, then y.
+     * The model is emptied in the process.
+     *
+     * @return Boxes as {minX, minY, minZ, maxX, maxY, maxZ, palette index}
+     */
+    private static List<int[]> remesh(SparseVoxelModel model) {
+        List<int[]> boxes = new ArrayList<>();
+
+        model.forEach((x1, y1, z1, palette) -> {
+            // Already covered by an earlier box
+            if (model.getIndex(x1, y1, z1) != palette) {
+                return;
+            }
+
+            int x2 = x1, y2 = y1, z2 = z1;
+            while (x2 - x1 + 1 < McsParser.MAX_FILL_VOLUME && model.getIndex(x2 + 1, y1, z1) == palette) {
+                x2++;
+            }
+            while ((long) (x2 - x1 + 1) * (z2 - z1 + 2) <= McsParser.MAX_FILL_VOLUME
+                && rowMatches(model, x1, x2, y1, z2 + 1, palette)) {
+                z2++;
+            }
+            while ((long) (x2 - x1 + 1) * (z2 - z1 + 1) * (y2 - y1 + 2) <= McsParser.MAX_FILL_VOLUME
+                && layerMatches(model, x1, x2, y2 + 1, z1, z2, palette)) {
+                y2++;
+            }
+
+            model.fill(x1, y1, z1, x2, y2, z2, 0);
+            boxes.add(new int[] {x1, y1, z1, x2, y2, z2, palette});
+        });
+        return boxes;
+    }
+
+    private static boolean rowMatches(SparseVoxelModel model, int x1, int x2, int y, int z, int palette) {
+        for (int x = x1; x <= x2; x++) {
+            if (model.getIndex(x, y, z) != palette) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean layerMatches(SparseVoxelModel model, int x1, int x2, int y, int z1, int z2, int palette) {
+        for (int z = z1; z <= z2; z++) {
+            if (!rowMatches(model, x1, x2, y, z, palette)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,333 @@
+package com.brettbaron.claudemod.mcs;
+
+import com.mojang.brigadier.exceptions.CommandSyntaxException;
+import net.minecraft.block.Block;
+import net.minecraft.block.BlockState;
+import net.minecraft.block.Blocks;
+import net.minecraft.command.argument.BlockArgumentParser;
+import net.minecraft.registry.Registries;
+import net.minecraft.registry.RegistryWrapper;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parses MCS text into an {@link McsProgram}.
+ *
+ * Plain /fill, /setblock and /clone lines are decoded into native ops that the {@link McsExecutor}
+ * writes straight into the world, with fills larger than vanilla allows split into several that are
+ * not. Anything else, including lines with NBT, local (^) coordinates or modes that depend on the
+ * command machinery, is kept as a raw command for the dispatcher.
+ */
+public class McsParser {
+    // Vanilla's default commandModificationBlockLimit
+    public static final int MAX_FILL_VOLUME = 32768;
+    // Larger fills are split into several of at most MAX_FILL_VOLUME, up to this size
+    private static final long MAX_SPLIT_VOLUME = (long) MAX_FILL_VOLUME * 4096;
+
+    /**
+     * Parse a whole MCS file
+     */
+    public static McsProgram parse(List<String> lines) {
+        McsProgram program = new McsProgram();
+        for (String line : lines) {
+            parseLine(line, program);
+        }
+        return program;
+    }
+
+    /**
+     * Parse MCS text held in memory, such as commands read straight out of an API response, without
+     * splitting it into a list first
+     */
+    public static McsProgram parseText(String text) {
+        McsProgram program = new McsProgram();
+        int start = 0;
+        int length = text.length();
+        while (start <= length) {
+            int end = text.indexOf('\n', start);
+            if (end < 0) {
+                end = length;
+            }
+            parseLine(text.substring(start, end), program);
+            start = end + 1;
+        }
+        return program;
+    }
+
+    /**
+     * Parse a single MCS line and append it to the program
+     */
+    public static void parseLine(String line, McsProgram program) {
+        String command = line.trim();
+
+        // Skip empty lines and comments
+        if (command.isEmpty() || command.startsWith("#")) {
+            program.addSkippedLine();
+            return;
+        }
+
+        // Remove leading slash if present
+        if (command.startsWith("/")) {
+            command = command.substring(1);
+        }
+
+        if (!parseNative(command, program)) {
+            program.addCommand(command);
+        }
+    }
+
+    private static boolean parseNative(String command, McsProgram program) {
+        // Block entity data and local coordinates need the full command implementation
+        if (command.indexOf('{') >= 0 || command.indexOf('^') >= 0) {
+            return false;
+        }
+
+        List<String> tokens = tokenize(command);
+        if (tokens == null || tokens.isEmpty()) {
+            return false;
+        }
+
+        try {
+            switch (tokens.get(0)) {
+                case "fill":
+                    return parseFill(tokens, program);
+                case "setblock":
+                    return parseSetblock(tokens, program);
+                case "clone":
+                    return parseClone(tokens, command, program);
+                default:
+                    return false;
+            }
+        } catch (CommandSyntaxException | NumberFormatException e) {
+            // Let the dispatcher report the problem the way it normally would
+            return false;
+        }
+    }
+
+    // fill <from> <to> <block> [replace|hollow|outline|keep]
+    private static boolean parseFill(List<String> tokens, McsProgram program) throws CommandSyntaxException {
+        if (tokens.size() != 8 && tokens.size() != 9) {
+            return false;
+        }
+
+        int[] coords = new int[6];
+        int relativeMask = parseCoordinates(tokens, 1, 6, coords);
+
+        int mode = McsProgram.MODE_REPLACE;
+        if (tokens.size() == 9) {
+            switch (tokens.get(8)) {
+                case "replace": mode = McsProgram.MODE_REPLACE; break;
+                case "hollow": mode = McsProgram.MODE_HOLLOW; break;
+                case "outline": mode = McsProgram.MODE_OUTLINE; break;
+                case "keep": mode = McsProgram.MODE_KEEP; break;
+                default: return false;
+            }
+        }
+
+        long volume = McsProgram.getVolume(coords, relativeMask);
+        if (volume < 0 || volume > MAX_SPLIT_VOLUME) {
+            return false;
+        }
+
+        BlockState state = parseBlockState(tokens.get(7));
+        if (volume <= MAX_FILL_VOLUME) {
+            program.addFill(McsProgram.OP_FILL, mode, coords, relativeMask, state);
+        } else {
+            splitFill(mode, coords, relativeMask, state, program);
+        }
+        return true;
+    }
+
+    /**
+     * Add a fill that is too large for vanilla as several that are not. A hollow or outline fill becomes
+     * its six faces, plus an air fill of the inside for hollow.
+     */
+    private static void splitFill(int mode, int[] coords, int relativeMask, BlockState state, McsProgram program) {
+        int[] min = new int[3];
+        int[] max = new int[3];
+        boolean thin = false;
+        for (int axis = 0; axis < 3; axis++) {
+            min[axis] = Math.min(coords[axis], coords[axis + 3]);
+            max[axis] = Math.max(coords[axis], coords[axis + 3]);
+            thin |= max[axis] - min[axis] < 2;
+        }
+
+        if ((mode != McsProgram.MODE_HOLLOW && mode != McsProgram.MODE_OUTLINE) || thin) {
+            // A box two blocks thin or less has no inside, so it is all shell
+            int boxMode = mode == McsProgram.MODE_KEEP ? McsProgram.MODE_KEEP : McsProgram.MODE_REPLACE;
+            addSplitBox(boxMode, min, max, relativeMask, state, program);
+            return;
+        }
+
+        if (mode == McsProgram.MODE_HOLLOW) {
+            addSplitBox(McsProgram.MODE_REPLACE, new int[]{min[0] + 1, min[1] + 1, min[2] + 1},
+                new int[]{max[0] - 1, max[1] - 1, max[2] - 1}, relativeMask, Blocks.AIR.getDefaultState(), program);
+        }
+
+        // Bottom and top, then the four walls between them without their overlapping edges
+        addSplitBox(McsProgram.MODE_REPLACE, min, new int[]{max[0], min[1], max[2]}, relativeMask, state, program);
+        addSplitBox(McsProgram.MODE_REPLACE, new int[]{min[0], max[1], min[2]}, max, relativeMask, state, program);
+        addSplitBox(McsProgram.MODE_REPLACE, new int[]{min[0], min[1] + 1, min[2]},
+            new int[]{max[0], max[1] - 1, min[2]}, relativeMask, state, program);
+        addSplitBox(McsProgram.MODE_REPLACE, new int[]{min[0], min[1] + 1, max[2]},
+            new int[]{max[0], max[1] - 1, max[2]}, relativeMask, state, program);
+        addSplitBox(McsProgram.MODE_REPLACE, new int[]{min[0], min[1] + 1, min[2] + 1},
+            new int[]{min[0], max[1] - 1, max[2] - 1}, relativeMask, state, program);
+        addSplitBox(McsProgram.MODE_REPLACE, new int[]{max[0], min[1] + 1, min[2] + 1},
+            new int[]{max[0], max[1] - 1, max[2] - 1}, relativeMask, state, program);
+    }
+
+    /**
+     * Add a box as fills of at most MAX_FILL_VOLUME, halving it along its longest side until each part fits
+     */
+    private static void addSplitBox(int mode, int[] min, int[] max, int relativeMask, BlockState state, McsProgram program) {
+        long volume = 1;
+        int longest = 0;
+        for (int axis = 0; axis < 3; axis++) {
+            volume *= max[axis] - min[axis] + 1L;
+            if (max[axis] - min[axis] > max[longest] - min[longest]) {
+                longest = axis;
+            }
+        }
+
+        if (volume <= MAX_FILL_VOLUME) {
+            program.addFill(McsProgram.OP_FILL, mode, new int[]{min[0], min[1], min[2], max[0], max[1], max[2]}, relativeMask, state);
+            return;
+        }
+
+        int middle = min[longest] + (max[longest] - min[longest]) / 2;
+        int[] lowerMax = max.clone();
+        int[] upperMin = min.clone();
+        lowerMax[longest] = middle;
+        upperMin[longest] = middle + 1;
+        addSplitBox(mode, min, lowerMax, relativeMask, state, program);
+        addSplitBox(mode, upperMin, max, relativeMask, state, program);
+    }
+
+    // setblock <pos> <block> [replace|keep]
+    private static boolean parseSetblock(List<String> tokens, McsProgram program) throws CommandSyntaxException {
+        if (tokens.size() != 5 && tokens.size() != 6) {
+            return false;
+        }
+
+        int[] coords = new int[6];
+        int relativeMask = parseCoordinates(tokens, 1, 3, coords);
+        System.arraycopy(coords, 0, coords, 3, 3);
+        relativeMask |= relativeMask << 3;
+
+        int mode = McsProgram.MODE_REPLACE;
+        if (tokens.size() == 6) {
+            switch (tokens.get(5)) {
+                case "replace": mode = McsProgram.MODE_REPLACE; break;
+                case "keep": mode = McsProgram.MODE_KEEP; break;
+                default: return false;
+            }
+        }
+
+        program.addFill(McsProgram.OP_SETBLOCK, mode, coords, relativeMask, parseBlockState(tokens.get(4)));
+        return true;
+    }
+
+    // clone <begin> <end> <destination> [replace|masked] [force|normal]
+    private static boolean parseClone(List<String> tokens, String command, McsProgram program) {
+        if (tokens.size() < 10 || tokens.size() > 12) {
+            return false;
+        }
+
+        int[] coords = new int[9];
+        int relativeMask = parseCoordinates(tokens, 1, 9, coords);
+
+        int mode = McsProgram.MODE_REPLACE;
+        if (tokens.size() >= 11) {
+            switch (tokens.get(10)) {
+                case "replace": break;
+                case "masked": mode |= McsProgram.MODE_MASKED; break;
+                default: return false;
+            }
+        }
+        if (tokens.size() == 12) {
+            switch (tokens.get(11)) {
+                case "normal": break;
+                case "force": mode |= McsProgram.MODE_FORCE; break;
+                default: return false;
+            }
+        }
+
+        long volume = McsProgram.getVolume(coords, relativeMask);
+        if (volume < 0 || volume > MAX_FILL_VOLUME) {
+            return false;
+        }
+
+        program.addClone(mode, coords, relativeMask, command);
+        return true;
+    }
+
+    /**
+     * Parse block coordinates. Relative coordinates must be whole numbers so they can be resolved
+     * against the block the build starts from.
+     *
+     * @return Bit mask of the coordinates that are relative
+     */
+    private static int parseCoordinates(List<String> tokens, int start, int count, int[] coords) {
+        int relativeMask = 0;
+        for (int i = 0; i < count; i++) {
+            String token = tokens.get(start + i);
+            if (token.startsWith("~")) {
+                coords[i] = token.length() == 1 ? 0 : Integer.parseInt(token.substring(1));
+                relativeMask |= 1 << i;
+            } else {
+                coords[i] = Integer.parseInt(token);
+            }
+        }
+        return relativeMask;
+    }
+
+    static BlockState parseBlockState(String token) throws CommandSyntaxException {
+        return BlockArgumentParser.block(blocks(), token, false).blockState();
+    }
+
+    private static RegistryWrapper<Block> blocks() {
+        return Registries.BLOCK.getReadOnlyWrapper();
+    }
+
+    /**
+     * Split a command on whitespace, keeping bracketed block states together
+     *
+     * @return The tokens, or null if the brackets are unbalanced
+     */
+    private static List<String> tokenize(String command) {
+        List<String> tokens = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        int depth = 0;
+
+        for (int i = 0; i < command.length(); i++) {
+            char c = command.charAt(i);
+            if (c == '[') {
+                depth++;
+            } else if (c == ']') {
+                depth--;
+                if (depth < 0) {
+                    return null;
+                }
+            }
+
+            if (Character.isWhitespace(c) && depth == 0) {
+                if (current.length() > 0) {
+                    tokens.add(current.toString());
+                    current.setLength(0);
+                }
+            } else if (!Character.isWhitespace(c)) {
+                current.append(c);
+            }
+        }
+
+        if (depth != 0) {
+            return null;
+        }
+        if (current.length() > 0) {
+            tokens.add(current.toString());
+        }
+        return tokens;
+    }
+}
@@ -1,6 +1,8 @@
 package com.brettbaron.claudemod.mcs;
 
 import com.brettbaron.claudemod.ClaudeMod;
+import com.brettbaron.claudemod.config.ClaudeConfig;
+import com.brettbaron.claudemod.metrics.ClaudeMetrics;
 import net.minecraft.server.command.ServerCommandSource;
 import net.minecraft.text.Text;
 
@@ -11,6 +13,8 @@ import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Handles Minecraft Command Syntax (MCS) file processing and execution
@@ -19,6 +23,13 @@ public class McsProcessor {
     // Directory where MCS files will be stored
     private static final String MCS_DIR = "mcs_files";
     
+    // Code blocks to look for in a text response, most specific first
+    private static final Pattern[] CODE_BLOCK_PATTERNS = {
+        Pattern.compile("```mcs\\s*([\\s\\S]*?)\\s*```"),
+        Pattern.compile("```minecraft\\s*([\\s\\S]*?)\\s*```"),
+        Pattern.compile("```([\\s\\S]*?)\\s*```") // Fallback to any code block
+    };
+    
     /**
      * Initialize the MCS processor, creating necessary directories
      */
@@ -35,6 +46,13 @@ public class McsProcessor {
         }
     }
     
+    /**
+     * @return The directory MCS files are saved in
+     */
+    public static Path getMcsDirectory() {
+        return Paths.get(MCS_DIR);
+    }
+    
     /**
      * Save an MCS file with the given content
      * 
@@ -60,7 +78,79 @@ public class McsProcessor {
     }
     
     /**
-     * Execute an MCS file line by line in the Minecraft world
+     * Load the compiled form of an MCS file. The .mcsb sidecar is used when it is up to date;
+     * otherwise the text is parsed, optimized and a fresh sidecar is written for next time.
+     * 
+     * @param filePath The path to the MCS file
+     * @return The compiled program
+     * @throws IOException If the MCS file can't be read
+     */
+    public static McsProgram loadProgram(String filePath) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return compile(Paths.get(filePath));
+        } finally {
+            ClaudeMetrics.MCS_COMPILE.observeNanos(System.nanoTime() - start);
+        }
+    }
+    
+    /**
+     * Compile MCS text that is already in memory, without reading it back from its file
+     * 
+     * @param content The MCS commands, one per line
+     * @return The compiled program
+     */
+    public static McsProgram compileContent(String content) {
+        long start = System.nanoTime();
+        try {
+            McsProgram program = McsParser.parseText(content);
+            return ClaudeConfig.isOptimizeBuilds() ? McsOptimizer.optimize(program) : program;
+        } finally {
+            ClaudeMetrics.MCS_COMPILE.observeNanos(System.nanoTime() - start);
+        }
+    }
+    
+    /**
+     * Write the .mcsb sidecar for a program compiled with {@link #compileContent}, so loading the saved
+     * file again skips parsing. Must be called after the MCS file itself has been saved.
+     * 
+     * @param program The compiled program
+     * @param filePath The path to the saved MCS file
+     */
+    public static void saveCompiled(McsProgram program, String filePath) {
+        Path path = Paths.get(filePath);
+        try {
+            McsBinaryFormat.write(program, path);
+        } catch (IOException e) {
+            // The sidecar is only a cache, the build can still go ahead
+            ClaudeMod.log("Could not write compiled MCS program for " + path + ": " + e.getMessage());
+        }
+    }
+    
+    private static McsProgram compile(Path path) throws IOException {
+        McsProgram program = McsBinaryFormat.read(path);
+        if (program != null) {
+            ClaudeMod.log("Loaded compiled MCS program: " + McsBinaryFormat.getSidecarPath(path));
+            ClaudeMetrics.MCS_SIDECAR_HITS.increment();
+            return program;
+        }
+        
+        program = McsParser.parse(Files.readAllLines(path));
+        if (ClaudeConfig.isOptimizeBuilds()) {
+            program = McsOptimizer.optimize(program);
+        }
+        
+        try {
+            McsBinaryFormat.write(program, path);
+        } catch (IOException e) {
+            // The sidecar is only a cache, the build can still go ahead
+            ClaudeMod.log("Could not write compiled MCS program for " + path + ": " + e.getMessage());
+        }
+        return program;
+    }
+    
+    /**
+     * Execute an MCS file in the Minecraft world
      * 
      * @param filePath The path to the MCS file
      * @param source The server command source
@@ -68,99 +158,45 @@ public class McsProcessor {
      */
     public static CompletableFuture<Integer> executeMcsFile(String filePath, ServerCommandSource source) {
         ClaudeMod.log("Executing MCS file: " + filePath);
-        CompletableFuture<Integer> future = new CompletableFuture<>();
-        
-        // Run in a separate thread to avoid blocking the main thread
-        Thread executionThread = new Thread(() -> {
-            try {
-                List<String> commands = Files.readAllLines(Paths.get(filePath));
-                int totalCommands = commands.size();
-                int executedCommands = 0;
-                int skippedCommands = 0;
-                
-                source.sendFeedback(() -> Text.literal("Starting execution of " + totalCommands + " commands..."), false);
-                
-                for (int i = 0; i < commands.size(); i++) {
-                    String command = commands.get(i).trim();
-                    
-                    // Skip empty lines and comments
-                    if (command.isEmpty() || command.startsWith("#")) {
-                        skippedCommands++;
-                        continue;
-                    }
-                    
-                    // Execute the command
-                    final String finalCommand = command;
-                    try {
-                        // Remove leading slash if present
-                        if (command.startsWith("/")) {
-                            command = command.substring(1);
-                        }
-                        
-                        source.getServer().getCommandManager().executeWithPrefix(source, command);
-                        executedCommands++;
-                        
-                        // Log progress periodically
-                        if (executedCommands % 100 == 0 || executedCommands == totalCommands) {
-                            final int progress = executedCommands;
-                            final int total = totalCommands - skippedCommands;
-                            source.sendFeedback(() -> 
-                                Text.literal(String.format("Progress: %d/%d commands executed (%.1f%%)", 
-                                    progress, total, (progress * 100.0f / total))), false);
-                        }
-                        
-                        // Small delay to prevent server overload
-                        Thread.sleep(5); 
-                    } catch (Exception e) {
-                        ClaudeMod.log("Error executing command '" + finalCommand + "': " + e.getMessage());
-                    }
-                }
-                
-                // Send final feedback
-                final int finalExecuted = executedCommands;
-                final int finalSkipped = skippedCommands;
-                source.sendFeedback(() -> 
-                    Text.literal(String.format("Execution complete: %d commands executed, %d lines skipped", 
-                        finalExecuted, finalSkipped)), false);
-                
-                future.complete(executedCommands);
-            } catch (Exception e) {
-                ClaudeMod.log("Error executing MCS file: " + e.getMessage());
-                e.printStackTrace();
-                source.sendFeedback(() -> Text.literal("Error executing MCS file: " + e.getMessage()), false);
-                future.completeExceptionally(e);
-            }
-        });
-        
-        executionThread.setName("MCS-Execution-Thread");
-        executionThread.start();
         
-        return future;
+        try {
+            McsProgram program = loadProgram(filePath);
+            return executeProgram(Paths.get(filePath).getFileName().toString(), program, source);
+        } catch (Exception e) {
+            ClaudeMod.log("Error executing MCS file: " + e.getMessage());
+            e.printStackTrace();
+            source.sendFeedback(() -> Text.literal("Error executing MCS file: " + e.getMessage()), false);
+            return CompletableFuture.failedFuture(e);
+        }
     }
     
     /**
-     * Creates an MCS file from a Claude-generated response
+     * Execute a compiled MCS program. The program is registered with the {@link BuildJobManager} and run
+     * on the server thread within each tick's time budget, sharing it with other builds. Fills, setblocks and clones are written
+     * directly; other lines go through the dispatcher.
      * 
-     * @param response The Claude API response
-     * @param buildName Name for the build/file
-     * @return Path to the created MCS file
-     * @throws IOException If there's an error creating the file
+     * @param name Display name of the build
+     * @param program The compiled program
+     * @param source The server command source
+     * @return CompletableFuture that completes when all commands are executed
      */
-    public static String createMcsFromResponse(String response, String buildName) throws IOException {
-        ClaudeMod.log("Creating MCS file from Claude response");
-        
-        // Extract MCS content from the response
-        String mcsContent = extractMcsContent(response);
-        
-        if (mcsContent == null || mcsContent.isEmpty()) {
-            throw new IOException("No MCS content found in Claude's response");
-        }
-        
-        // Sanitize build name for filename
-        String filename = buildName.replaceAll("[^a-zA-Z0-9_\\-]", "_");
-        
-        // Save the MCS file
-        return saveMcsFile(filename, mcsContent);
+    public static CompletableFuture<Integer> executeProgram(String name, McsProgram program, ServerCommandSource source) {
+        return submitProgram(name, program, source).getFuture();
+    }
+    
+    /**
+     * Execute a compiled MCS program like {@link #executeProgram}, for callers that need to know how
+     * the build ended and which ops were actually run
+     * 
+     * @param name Display name of the build
+     * @param program The compiled program
+     * @param source The server command source
+     * @return The submitted job, which may already have been cancelled
+     */
+    public static BuildJob submitProgram(String name, McsProgram program, ServerCommandSource source) {
+        BuildJob job = new BuildJob(name, source, program);
+        BuildJobManager.submit(job);
+        return job;
     }
     
     /**
@@ -169,17 +205,10 @@ public class McsProcessor {
      * @param response The Claude API response
      * @return The extracted MCS content or null if not found
      */
-    private static String extractMcsContent(String response) {
+    public static String extractMcsContent(String response) {
         // Try to find content between code blocks
-        String[] codeBlockPatterns = {
-            "```mcs\\s*([\\s\\S]*?)\\s*```",
-            "```minecraft\\s*([\\s\\S]*?)\\s*```",
-            "```([\\s\\S]*?)\\s*```" // Fallback to any code block
-        };
-        
-        for (String pattern : codeBlockPatterns) {
-            java.util.regex.Pattern p = java.util.regex.Pattern.compile(pattern);
-            java.util.regex.Matcher m = p.matcher(response);
+        for (Pattern pattern : CODE_BLOCK_PATTERNS) {
+            Matcher m = pattern.matcher(response);
             
             if (m.find()) {
                 return m.group(1).trim();
@@ -0,0 +1,278 @@
+package com.brettbaron.claudemod.mcs;
+
+import net.minecraft.block.BlockState;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A parsed MCS build: a flat list of fixed-size int records plus the block states and raw commands they refer to.
+ *
+ * Each record is {@link #OP_STRIDE} ints long:
+ * header, x1, y1, z1, x2, y2, z2, x3, y3, z3, argument.
+ * The header packs the opcode, the mode and a bit per coordinate that is relative to the build origin.
+ * The argument is a palette index for fills and setblocks, and a command index for clones and raw commands.
+ *
+ * Programs can be stored next to their MCS file with {@link McsBinaryFormat} so they never need to be reparsed.
+ */
+public class McsProgram {
+    public static final int OP_STRIDE = 11;
+
+    public static final int OP_FILL = 1;
+    public static final int OP_SETBLOCK = 2;
+    public static final int OP_CLONE = 3;
+    public static final int OP_COMMAND = 4;
+
+    // Fill and setblock modes
+    public static final int MODE_REPLACE = 0;
+    public static final int MODE_HOLLOW = 1;
+    public static final int MODE_OUTLINE = 2;
+    public static final int MODE_KEEP = 3;
+    // Clone modes, combined as flags
+    public static final int MODE_MASKED = 4;
+    public static final int MODE_FORCE = 8;
+
+    private static final int OPCODE_MASK = 0xFF;
+    private static final int MODE_SHIFT = 8;
+    private static final int MODE_MASK = 0xFF;
+    private static final int RELATIVE_SHIFT = 16;
+
+    private final List<BlockState> palette = new ArrayList<>();
+    private final Map<BlockState, Integer> paletteIndex = new HashMap<>();
+    private final List<String> commands = new ArrayList<>();
+    private int[] ops = new int[OP_STRIDE * 64];
+    private int opCount = 0;
+    private int skippedLines = 0;
+    private long totalVolume = 0;
+    private int sourceOpCount = -1;
+
+    public McsProgram() {
+    }
+
+    /**
+     * Rebuild a program from its serialized parts
+     */
+    McsProgram(List<BlockState> palette, List<String> commands, int[] ops, int opCount, int skippedLines, long totalVolume, int sourceOpCount) {
+        for (BlockState state : palette) {
+            getPaletteIndex(state);
+        }
+        this.commands.addAll(commands);
+        this.ops = ops.length >= OP_STRIDE ? ops : new int[OP_STRIDE * 64];
+        this.opCount = opCount;
+        this.skippedLines = skippedLines;
+        this.totalVolume = totalVolume;
+        this.sourceOpCount = sourceOpCount;
+    }
+
+    /**
+     * Append a fill (or setblock, when both corners match) of a single block state
+     *
+     * @param coords x1, y1, z1, x2, y2, z2
+     * @param relativeMask Bit i set when coords[i] is relative to the build origin
+     */
+    public void addFill(int opcode, int mode, int[] coords, int relativeMask, BlockState state) {
+        int index = append(opcode, mode, relativeMask);
+        System.arraycopy(coords, 0, ops, index + 1, 6);
+        ops[index + 10] = getPaletteIndex(state);
+        totalVolume += Math.max(0, getVolume(coords, relativeMask));
+    }
+
+    /**
+     * Append a clone. The original command text is kept so the executor can fall back to it.
+     *
+     * @param coords x1, y1, z1, x2, y2, z2, x3, y3, z3
+     * @param relativeMask Bit i set when coords[i] is relative to the build origin
+     */
+    public void addClone(int mode, int[] coords, int relativeMask, String command) {
+        int index = append(OP_CLONE, mode, relativeMask);
+        System.arraycopy(coords, 0, ops, index + 1, 9);
+        ops[index + 10] = addCommandText(command);
+        totalVolume += Math.max(0, getVolume(coords, relativeMask));
+    }
+
+    /**
+     * Append a copy of another program's op
+     */
+    public void addOp(McsProgram from, int op) {
+        int opcode = from.getOpcode(op);
+        int index = append(opcode, from.getMode(op), from.getRelativeMask(op));
+        System.arraycopy(from.ops, op * OP_STRIDE + 1, ops, index + 1, 9);
+
+        if (opcode == OP_FILL || opcode == OP_SETBLOCK) {
+            ops[index + 10] = getPaletteIndex(from.getState(op));
+            totalVolume += Math.max(0, getVolume(Arrays.copyOfRange(ops, index + 1, index + 7), from.getRelativeMask(op)));
+        } else {
+            ops[index + 10] = addCommandText(from.getCommand(op));
+            if (opcode == OP_CLONE) {
+                totalVolume += Math.max(0, getVolume(Arrays.copyOfRange(ops, index + 1, index + 7), from.getRelativeMask(op)));
+            }
+        }
+    }
+
+    /**
+     * Append a command that is executed through the normal command dispatcher
+     */
+    public void addCommand(String command) {
+        int index = append(OP_COMMAND, 0, 0);
+        ops[index + 10] = addCommandText(command);
+    }
+
+    /**
+     * Drop the op that was appended last, such as a streamed command that failed validation
+     */
+    void removeLastOp() {
+        int op = opCount - 1;
+        int index = op * OP_STRIDE;
+        int opcode = getOpcode(op);
+        if (opcode != OP_COMMAND) {
+            totalVolume -= Math.max(0, getVolume(Arrays.copyOfRange(ops, index + 1, index + 7), getRelativeMask(op)));
+        }
+        if ((opcode == OP_COMMAND || opcode == OP_CLONE) && ops[index + 10] == commands.size() - 1) {
+            commands.remove(commands.size() - 1);
+        }
+        opCount--;
+    }
+
+    /**
+     * Record a comment or blank line that was dropped while parsing
+     */
+    public void addSkippedLine() {
+        skippedLines++;
+    }
+
+    public int getOpCount() {
+        return opCount;
+    }
+
+    public int getSkippedLines() {
+        return skippedLines;
+    }
+
+    /**
+     * Set how many comment or blank lines the original text contained
+     */
+    public void setSkippedLines(int skippedLines) {
+        this.skippedLines = skippedLines;
+    }
+
+    /**
+     * @return How many ops the program had before optimization
+     */
+    public int getSourceOpCount() {
+        return sourceOpCount < 0 ? opCount : sourceOpCount;
+    }
+
+    public void setSourceOpCount(int sourceOpCount) {
+        this.sourceOpCount = sourceOpCount;
+    }
+
+    /**
+     * @return The number of blocks covered by all fill, setblock and clone ops, as far as it is known without an origin
+     */
+    public long getTotalVolume() {
+        return totalVolume;
+    }
+
+    public int getPaletteSize() {
+        return palette.size();
+    }
+
+    public BlockState getPaletteState(int index) {
+        return palette.get(index);
+    }
+
+    public int getCommandTextCount() {
+        return commands.size();
+    }
+
+    public String getCommandText(int index) {
+        return commands.get(index);
+    }
+
+    /**
+     * @return The backing op records; only the first {@code getOpCount() * OP_STRIDE} ints are used
+     */
+    int[] getOpData() {
+        return ops;
+    }
+
+    public int getOpcode(int op) {
+        return ops[op * OP_STRIDE] & OPCODE_MASK;
+    }
+
+    public int getMode(int op) {
+        return (ops[op * OP_STRIDE] >>> MODE_SHIFT) & MODE_MASK;
+    }
+
+    /**
+     * @return Bit i is set when coordinate slot i of the op is relative to the build origin
+     */
+    public int getRelativeMask(int op) {
+        return ops[op * OP_STRIDE] >>> RELATIVE_SHIFT;
+    }
+
+    /**
+     * Resolve one coordinate of an op against the build origin
+     *
+     * @param coord Coordinate slot, 0-8 in record order
+     * @param origin The origin component matching the slot's axis
+     */
+    public int getCoord(int op, int coord, int origin) {
+        int base = op * OP_STRIDE;
+        boolean relative = ((ops[base] >>> RELATIVE_SHIFT) & (1 << coord)) != 0;
+        int value = ops[base + 1 + coord];
+        return relative ? origin + value : value;
+    }
+
+    public BlockState getState(int op) {
+        return palette.get(ops[op * OP_STRIDE + 10]);
+    }
+
+    public String getCommand(int op) {
+        return commands.get(ops[op * OP_STRIDE + 10]);
+    }
+
+    /**
+     * @return The number of blocks between the first two corners, or -1 if it depends on the origin
+     */
+    static long getVolume(int[] coords, int relativeMask) {
+        long volume = 1;
+        for (int axis = 0; axis < 3; axis++) {
+            boolean fromRelative = (relativeMask & (1 << axis)) != 0;
+            boolean toRelative = (relativeMask & (1 << (axis + 3))) != 0;
+            if (fromRelative != toRelative) {
+                return -1;
+            }
+            volume *= Math.abs(coords[axis + 3] - coords[axis]) + 1L;
+        }
+        return volume;
+    }
+
+    private int append(int opcode, int mode, int relativeMask) {
+        int index = opCount * OP_STRIDE;
+        if (index + OP_STRIDE > ops.length) {
+            ops = Arrays.copyOf(ops, ops.length * 2);
+        }
+        ops[index] = (opcode & OPCODE_MASK) | ((mode & MODE_MASK) << MODE_SHIFT) | (relativeMask << RELATIVE_SHIFT);
+        opCount++;
+        return index;
+    }
+
+    private int getPaletteIndex(BlockState state) {
+        Integer index = paletteIndex.get(state);
+        if (index == null) {
+            index = palette.size();
+            palette.add(state);
+            paletteIndex.put(state, index);
+        }
+        return index;
+    }
+
+    private int addCommandText(String command) {
+        commands.add(command);
+        return commands.size() - 1;
+    }
+}
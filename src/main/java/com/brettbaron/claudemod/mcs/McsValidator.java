@@ -0,0 +1,210 @@
+package com.brettbaron.claudemod.mcs;
+
+import com.brettbaron.claudemod.config.ClaudeConfig;
+import com.brettbaron.claudemod.log.ClaudeLog;
+import com.brettbaron.claudemod.log.LogCategory;
+import com.brettbaron.claudemod.metrics.ClaudeMetrics;
+import com.mojang.brigadier.CommandDispatcher;
+import com.mojang.brigadier.ParseResults;
+import com.mojang.brigadier.exceptions.CommandSyntaxException;
+import net.minecraft.server.command.CommandManager;
+import net.minecraft.server.command.ServerCommandSource;
+import net.minecraft.util.math.BlockPos;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks a compiled build against the server before any of it is placed.
+ *
+ * Fills, setblocks and clones have already been checked against the block registry by the
+ * {@link McsParser}, so they are only rejected here when they lie entirely above or below the world.
+ * Every other command is parsed by the command dispatcher without being run, which catches unknown
+ * commands, bad block and item ids and malformed arguments up front instead of one dispatcher round
+ * trip at a time during the build. Must be used on the server thread.
+ */
+public class McsValidator {
+    // Errors kept for reporting; the rest are only counted
+    private static final int MAX_KEPT_ERRORS = 10;
+    // Throughput assumed until enough blocks have been placed to measure it
+    private static final double DEFAULT_BLOCKS_PER_MILLI = 1000;
+    private static final long MIN_MEASURED_BLOCKS = 100_000;
+    private static final double COMMAND_MILLIS = 0.05;
+
+    private final ServerCommandSource source;
+    private final CommandDispatcher<ServerCommandSource> dispatcher;
+    private final int originY;
+    private final int bottomY;
+    private final int topY;
+    private final List<String> errors = new ArrayList<>();
+    private int errorCount = 0;
+
+    /**
+     * @param source The command source the build will run as
+     */
+    public McsValidator(ServerCommandSource source) {
+        this.source = source;
+        this.dispatcher = source.getServer().getCommandManager().getDispatcher();
+        this.originY = BlockPos.ofFloored(source.getPosition()).getY();
+        this.bottomY = source.getWorld().getBottomY();
+        this.topY = source.getWorld().getTopY();
+    }
+
+    /**
+     * Check every op of a program
+     *
+     * @return The program without the ops that would fail, or the program itself if they all pass
+     */
+    public McsProgram validate(McsProgram program) {
+        McsProgram valid = null;
+        for (int op = 0; op < program.getOpCount(); op++) {
+            String error = check(program, op);
+            if (error == null) {
+                if (valid != null) {
+                    valid.addOp(program, op);
+                }
+                continue;
+            }
+
+            if (valid == null) {
+                valid = new McsProgram();
+                for (int copied = 0; copied < op; copied++) {
+                    valid.addOp(program, copied);
+                }
+            }
+            recordError(program, op, error);
+        }
+
+        if (valid == null) {
+            return program;
+        }
+        valid.setSkippedLines(program.getSkippedLines());
+        valid.setSourceOpCount(program.getSourceOpCount());
+        return valid;
+    }
+
+    /**
+     * Check the op appended last to an open build, and drop it if it would fail
+     *
+     * @return true if the op was kept
+     */
+    public boolean validateLast(McsProgram program) {
+        int op = program.getOpCount() - 1;
+        String error = check(program, op);
+        if (error == null) {
+            return true;
+        }
+        recordError(program, op, error);
+        program.removeLastOp();
+        return false;
+    }
+
+    /**
+     * @return Why the op would fail, or null if it is expected to succeed
+     */
+    public String check(McsProgram program, int op) {
+        int opcode = program.getOpcode(op);
+        if (opcode == McsProgram.OP_COMMAND) {
+            return checkCommand(program.getCommand(op));
+        }
+
+        int y1 = program.getCoord(op, 1, originY);
+        int y2 = program.getCoord(op, 4, originY);
+        if (isOutsideWorld(y1, y2)) {
+            return "entirely outside the world's height";
+        }
+        if (opcode == McsProgram.OP_CLONE) {
+            int destination = program.getCoord(op, 7, originY);
+            if (isOutsideWorld(destination, destination + Math.abs(y2 - y1))) {
+                return "destination is entirely outside the world's height";
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return Number of ops that failed validation
+     */
+    public int getErrorCount() {
+        return errorCount;
+    }
+
+    /**
+     * @return Descriptions of the first few ops that failed validation
+     */
+    public List<String> getErrors() {
+        return errors;
+    }
+
+    /**
+     * Estimate how long a program takes to place, from the throughput of earlier builds when there have
+     * been enough of them
+     *
+     * @return Estimated server ticks at the full tick_budget_ms
+     */
+    public static int estimateTicks(McsProgram program) {
+        long measuredBlocks = ClaudeMetrics.BLOCKS_CHANGED.get();
+        double measuredMillis = ClaudeMetrics.BUILD_TICK_TIME.getSum() * 1000;
+        double blocksPerMilli = measuredBlocks >= MIN_MEASURED_BLOCKS && measuredMillis > 0
+            ? measuredBlocks / measuredMillis
+            : DEFAULT_BLOCKS_PER_MILLI;
+
+        int commands = 0;
+        for (int op = 0; op < program.getOpCount(); op++) {
+            if (program.getOpcode(op) == McsProgram.OP_COMMAND) {
+                commands++;
+            }
+        }
+
+        double millis = program.getTotalVolume() / blocksPerMilli + commands * COMMAND_MILLIS;
+        return Math.max(1, (int) Math.ceil(millis / ClaudeConfig.getTickBudgetMillis()));
+    }
+
+    private String checkCommand(String command) {
+        ParseResults<ServerCommandSource> parse = dispatcher.parse(command, source);
+        CommandSyntaxException exception = CommandManager.getException(parse);
+        return exception == null ? null : exception.getMessage();
+    }
+
+    private boolean isOutsideWorld(int y1, int y2) {
+        return Math.max(y1, y2) < bottomY || Math.min(y1, y2) >= topY;
+    }
+
+    private void recordError(McsProgram program, int op, String error) {
+        errorCount++;
+        String description = "command " + (op + 1) + " (" + describe(program, op) + "): " + error;
+        ClaudeLog.debug(LogCategory.BUILD, () -> "Invalid " + description);
+        if (errors.size() < MAX_KEPT_ERRORS) {
+            errors.add(description);
+        }
+    }
+
+    private static String describe(McsProgram program, int op) {
+        String text;
+        switch (program.getOpcode(op)) {
+            case McsProgram.OP_COMMAND:
+            case McsProgram.OP_CLONE:
+                text = program.getCommand(op);
+                break;
+            case McsProgram.OP_SETBLOCK:
+                text = "setblock " + describeCoords(program, op, 0);
+                break;
+            default:
+                text = "fill " + describeCoords(program, op, 0) + " " + describeCoords(program, op, 3);
+                break;
+        }
+        return text.length() > 60 ? text.substring(0, 57) + "..." : text;
+    }
+
+    private static String describeCoords(McsProgram program, int op, int first) {
+        StringBuilder builder = new StringBuilder();
+        for (int coord = first; coord < first + 3; coord++) {
+            boolean relative = (program.getRelativeMask(op) & (1 << coord)) != 0;
+            if (coord > first) {
+                builder.append(' ');
+            }
+            builder.append(relative ? "~" : "").append(program.getCoord(op, coord, 0));
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,112 @@
+package com.brettbaron.claudemod.mcs;
+
+/**
+ * Combines the programs generated for the components of a planned build into one program.
+ *
+ * Each component was asked to stay inside its bounding box, so its fills and setblocks are clipped to
+ * that box and ops that fall entirely outside it are dropped. Where boxes overlap, components are
+ * placed in the order they were added, so the later one wins. Hollow and outline fills are kept whole
+ * or dropped, since clipping them would move their walls; clones are kept if their destination touches
+ * the box, and raw commands are always kept.
+ */
+public class ProgramMerger {
+    private final int[] origin;
+    private final McsProgram merged = new McsProgram();
+    private final int[] coords = new int[6];
+    private int sourceOpCount = 0;
+    private int skippedLines = 0;
+    private int droppedOps = 0;
+
+    /**
+     * @param originX The build origin, used to place ops written with absolute coordinates
+     */
+    public ProgramMerger(int originX, int originY, int originZ) {
+        this.origin = new int[] {originX, originY, originZ};
+    }
+
+    /**
+     * Append a component's program
+     *
+     * @param box The component's bounding box relative to the origin: min x, y, z, max x, y, z
+     */
+    public void add(McsProgram program, int[] box) {
+        sourceOpCount += program.getSourceOpCount();
+        skippedLines += program.getSkippedLines();
+
+        for (int op = 0; op < program.getOpCount(); op++) {
+            int opcode = program.getOpcode(op);
+            if (opcode == McsProgram.OP_COMMAND) {
+                merged.addOp(program, op);
+            } else if (opcode == McsProgram.OP_CLONE) {
+                if (cloneTouches(program, op, box)) {
+                    merged.addOp(program, op);
+                } else {
+                    droppedOps++;
+                }
+            } else if (clip(program, op, box)) {
+                merged.addFill(opcode, program.getMode(op), coords, program.getRelativeMask(op), program.getState(op));
+            } else {
+                droppedOps++;
+            }
+        }
+    }
+
+    /**
+     * @return The merged program, in the order the components were added
+     */
+    public McsProgram getProgram() {
+        merged.setSourceOpCount(sourceOpCount);
+        merged.setSkippedLines(skippedLines);
+        return merged;
+    }
+
+    /**
+     * @return Ops dropped because they were entirely outside their component's box
+     */
+    public int getDroppedOps() {
+        return droppedOps;
+    }
+
+    /**
+     * Clip a fill or setblock to the box, leaving the result in {@link #coords} in the op's own coordinate frame
+     *
+     * @return false if nothing of the op is left
+     */
+    private boolean clip(McsProgram program, int op, int[] box) {
+        int mode = program.getMode(op);
+        boolean clippable = mode == McsProgram.MODE_REPLACE || mode == McsProgram.MODE_KEEP;
+        int relativeMask = program.getRelativeMask(op);
+
+        for (int axis = 0; axis < 3; axis++) {
+            // Work relative to the origin, like the box
+            int from = program.getCoord(op, axis, origin[axis]) - origin[axis];
+            int to = program.getCoord(op, axis + 3, origin[axis]) - origin[axis];
+            int min = Math.min(from, to);
+            int max = Math.max(from, to);
+            if (max < box[axis] || min > box[axis + 3]) {
+                return false;
+            }
+            if (clippable) {
+                min = Math.max(min, box[axis]);
+                max = Math.min(max, box[axis + 3]);
+            }
+
+            boolean fromRelative = (relativeMask & (1 << axis)) != 0;
+            boolean toRelative = (relativeMask & (1 << (axis + 3))) != 0;
+            coords[axis] = fromRelative ? min : min + origin[axis];
+            coords[axis + 3] = toRelative ? max : max + origin[axis];
+        }
+        return true;
+    }
+
+    private boolean cloneTouches(McsProgram program, int op, int[] box) {
+        for (int axis = 0; axis < 3; axis++) {
+            int size = Math.abs(program.getCoord(op, axis + 3, origin[axis]) - program.getCoord(op, axis, origin[axis]));
+            int destination = program.getCoord(op, axis + 6, origin[axis]) - origin[axis];
+            if (destination + size < box[axis] || destination > box[axis + 3]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
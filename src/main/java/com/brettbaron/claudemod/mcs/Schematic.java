@@ -0,0 +1,561 @@
+package com.brettbaron.claudemod.mcs;
+
+import com.brettbaron.claudemod.ClaudeMod;
+import com.brettbaron.claudemod.config.ClaudeConfig;
+import com.mojang.brigadier.exceptions.CommandSyntaxException;
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
+import net.minecraft.SharedConstants;
+import net.minecraft.block.BlockState;
+import net.minecraft.block.Blocks;
+import net.minecraft.block.entity.BlockEntity;
+import net.minecraft.command.argument.BlockArgumentParser;
+import net.minecraft.nbt.NbtCompound;
+import net.minecraft.nbt.NbtElement;
+import net.minecraft.nbt.NbtIo;
+import net.minecraft.nbt.NbtList;
+import net.minecraft.nbt.NbtSizeTracker;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkSectionPos;
+import net.minecraft.world.chunk.ChunkSection;
+import net.minecraft.world.chunk.WorldChunk;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
+/**
+ * A box of blocks in the Sponge schematic format (.schem), for /claude export and /claude import.
+ *
+ * Blocks are stored as a palette of block state strings and one varint palette index per block, so a
+ * build with under 128 block types takes a byte per block before compression. Version 2 files are
+ * written, which WorldEdit and most other tools read, and version 1 to 3 files can be imported. Entities
+ * are not saved. An imported schematic becomes an {@link McsProgram} of relative fills, one per run of
+ * equal blocks along x, so it is placed, journaled and undone like any other build without a command
+ * being parsed.
+ */
+public class Schematic {
+    public static final String EXTENSION = ".schem";
+    private static final String SCHEMATIC_DIR = "schematics";
+    private static final int ALL_RELATIVE = 0x3F;
+    // Bytes of NBT a file may decompress to per block it is allowed to have, which leaves room for block entities
+    private static final long MAX_BYTES_PER_BLOCK = 16;
+    private static final long MIN_MAX_BYTES = 64L * 1024 * 1024;
+    private static final int MAX_NBT_DEPTH = 512;
+
+    private final int width;
+    private final int height;
+    private final int length;
+    // Position of the box's minimum corner relative to where it is pasted
+    private final int[] offset;
+    private final List<BlockState> palette;
+    // Palette indexes in x, then z, then y order
+    private final int[] blocks;
+    // Sponge version 2 entries: Pos and Id next to the block entity's own data
+    private final List<NbtCompound> blockEntities;
+    private int unknownStates = 0;
+
+    private Schematic(int width, int height, int length, int[] offset, List<BlockState> palette, int[] blocks, List<NbtCompound> blockEntities) {
+        this.width = width;
+        this.height = height;
+        this.length = length;
+        this.offset = offset;
+        this.palette = palette;
+        this.blocks = blocks;
+        this.blockEntities = blockEntities;
+    }
+
+    /**
+     * @return true if every chunk column the box touches is loaded, so capturing it loads nothing
+     */
+    public static boolean isLoaded(ServerWorld world, BlockPos from, BlockPos to) {
+        int minChunkX = ChunkSectionPos.getSectionCoord(Math.min(from.getX(), to.getX()));
+        int maxChunkX = ChunkSectionPos.getSectionCoord(Math.max(from.getX(), to.getX()));
+        int minChunkZ = ChunkSectionPos.getSectionCoord(Math.min(from.getZ(), to.getZ()));
+        int maxChunkZ = ChunkSectionPos.getSectionCoord(Math.max(from.getZ(), to.getZ()));
+        for (int chunkX = minChunkX; chunkX <= maxChunkX; chunkX++) {
+            for (int chunkZ = minChunkZ; chunkZ <= maxChunkZ; chunkZ++) {
+                if (!world.isChunkLoaded(chunkX, chunkZ)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copies a box of the world, including block entity data, a chunk section at a time. The box is far
+     * too large to read in one tick, so the {@link BuildJobManager} runs the capture in slices of the
+     * tick budget it gives builds. Blocks are read straight from each section's palette. Blocks changed
+     * while the capture runs are saved as they were when their section was read.
+     */
+    public static final class Capture {
+        private final ServerWorld world;
+        private final int minX;
+        private final int minY;
+        private final int minZ;
+        private final int width;
+        private final int height;
+        private final int length;
+        private final int[] offset;
+        private final List<BlockState> palette = new ArrayList<>();
+        private final Reference2IntOpenHashMap<BlockState> paletteIndexes = new Reference2IntOpenHashMap<>();
+        private final int[] blocks;
+        private final List<NbtCompound> blockEntities = new ArrayList<>();
+        private final CompletableFuture<Schematic> future = new CompletableFuture<>();
+
+        // The next section to read, walking x, then z, then y
+        private final int minSectionX;
+        private final int minSectionZ;
+        private final int maxSectionX;
+        private final int maxSectionY;
+        private final int maxSectionZ;
+        private int sectionX;
+        private int sectionY;
+        private int sectionZ;
+
+        /**
+         * Must be called on the server thread, with the box loaded
+         *
+         * @param from One corner of the box
+         * @param to The opposite corner
+         * @param origin Position the box is saved relative to, so it is pasted at the same offset from the importing player
+         */
+        public Capture(ServerWorld world, BlockPos from, BlockPos to, BlockPos origin) {
+            this.world = world;
+            this.minX = Math.min(from.getX(), to.getX());
+            this.minY = Math.min(from.getY(), to.getY());
+            this.minZ = Math.min(from.getZ(), to.getZ());
+            this.width = Math.abs(to.getX() - from.getX()) + 1;
+            this.height = Math.abs(to.getY() - from.getY()) + 1;
+            this.length = Math.abs(to.getZ() - from.getZ()) + 1;
+            this.offset = new int[]{minX - origin.getX(), minY - origin.getY(), minZ - origin.getZ()};
+            this.blocks = new int[width * height * length];
+            paletteIndexes.defaultReturnValue(-1);
+
+            this.minSectionX = ChunkSectionPos.getSectionCoord(minX);
+            this.minSectionZ = ChunkSectionPos.getSectionCoord(minZ);
+            this.maxSectionX = ChunkSectionPos.getSectionCoord(minX + width - 1);
+            this.maxSectionY = ChunkSectionPos.getSectionCoord(minY + height - 1);
+            this.maxSectionZ = ChunkSectionPos.getSectionCoord(minZ + length - 1);
+            this.sectionX = minSectionX;
+            this.sectionY = ChunkSectionPos.getSectionCoord(minY);
+            this.sectionZ = minSectionZ;
+        }
+
+        /**
+         * @return Completed with the schematic once every section has been read, or exceptionally if part
+         * of the box was unloaded or the capture was cancelled
+         */
+        public CompletableFuture<Schematic> getFuture() {
+            return future;
+        }
+
+        /**
+         * @return Blocks in the box
+         */
+        public int getVolume() {
+            return blocks.length;
+        }
+
+        /**
+         * Read sections until the deadline passes or the box is done. Must be called on the server thread.
+         *
+         * @return true once the capture has ended
+         */
+        boolean run(long deadlineNanos) {
+            if (future.isDone()) {
+                return true;
+            }
+
+            while (sectionY <= maxSectionY) {
+                WorldChunk chunk = world.getChunkManager().getWorldChunk(sectionX, sectionZ);
+                if (chunk == null) {
+                    future.completeExceptionally(new IllegalStateException("Part of the area was unloaded while it was being exported"));
+                    return true;
+                }
+                readSection(chunk);
+
+                if (++sectionX > maxSectionX) {
+                    sectionX = minSectionX;
+                    if (++sectionZ > maxSectionZ) {
+                        sectionZ = minSectionZ;
+                        sectionY++;
+                    }
+                }
+                if (System.nanoTime() - deadlineNanos >= 0) {
+                    break;
+                }
+            }
+
+            if (sectionY > maxSectionY) {
+                future.complete(new Schematic(width, height, length, offset, palette, blocks, blockEntities));
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Stop the capture, failing its future
+         */
+        void cancel(String reason) {
+            future.completeExceptionally(new IllegalStateException("Export cancelled: " + reason));
+        }
+
+        private void readSection(WorldChunk chunk) {
+            int baseX = sectionX << 4;
+            int baseY = sectionY << 4;
+            int baseZ = sectionZ << 4;
+            int fromX = Math.max(minX, baseX) - minX;
+            int fromY = Math.max(minY, baseY) - minY;
+            int fromZ = Math.max(minZ, baseZ) - minZ;
+            int toX = Math.min(minX + width, baseX + 16) - minX;
+            int toY = Math.min(minY + height, baseY + 16) - minY;
+            int toZ = Math.min(minZ + length, baseZ + 16) - minZ;
+
+            // Outside the world's height, or a section that is all air
+            int index = world.sectionCoordToIndex(sectionY);
+            ChunkSection section = index >= 0 && index < world.countVerticalSections() ? chunk.getSection(index) : null;
+            if (section == null || section.isEmpty()) {
+                int air = getPaletteIndex(Blocks.AIR.getDefaultState());
+                for (int y = fromY; y < toY; y++) {
+                    for (int z = fromZ; z < toZ; z++) {
+                        int row = (y * length + z) * width;
+                        Arrays.fill(blocks, row + fromX, row + toX, air);
+                    }
+                }
+                return;
+            }
+
+            BlockPos.Mutable pos = new BlockPos.Mutable();
+            for (int y = fromY; y < toY; y++) {
+                for (int z = fromZ; z < toZ; z++) {
+                    int row = (y * length + z) * width;
+                    for (int x = fromX; x < toX; x++) {
+                        BlockState state = section.getBlockState((minX + x) & 15, (minY + y) & 15, (minZ + z) & 15);
+                        blocks[row + x] = getPaletteIndex(state);
+
+                        if (state.hasBlockEntity()) {
+                            BlockEntity blockEntity = chunk.getBlockEntity(pos.set(minX + x, minY + y, minZ + z));
+                            if (blockEntity != null) {
+                                blockEntities.add(createBlockEntityEntry(blockEntity.createNbtWithId(world.getRegistryManager()), x, y, z));
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        private int getPaletteIndex(BlockState state) {
+            int paletteIndex = paletteIndexes.getInt(state);
+            if (paletteIndex < 0) {
+                paletteIndex = palette.size();
+                palette.add(state);
+                paletteIndexes.put(state, paletteIndex);
+            }
+            return paletteIndex;
+        }
+    }
+
+    /**
+     * Read a schematic file. Touches nothing but the file, so it can be called from any thread.
+     *
+     * @throws IOException If the file can't be read, is not a schematic this mod understands, or has more
+     * blocks than schematic_max_blocks
+     */
+    public static Schematic load(Path path) throws IOException {
+        long maxBlocks = ClaudeConfig.getSchematicMaxBlocks();
+        NbtCompound root = NbtIo.readCompressed(path,
+            new NbtSizeTracker(Math.max(MIN_MAX_BYTES, maxBlocks * MAX_BYTES_PER_BLOCK), MAX_NBT_DEPTH));
+        // Version 3 wraps everything in a Schematic compound
+        if (root.contains("Schematic", NbtElement.COMPOUND_TYPE)) {
+            root = root.getCompound("Schematic");
+        }
+
+        int version = root.getInt("Version");
+        NbtCompound paletteNbt;
+        byte[] data;
+        NbtList blockEntitiesNbt;
+        if (version == 3) {
+            NbtCompound blocksNbt = root.getCompound("Blocks");
+            paletteNbt = blocksNbt.getCompound("Palette");
+            data = blocksNbt.getByteArray("Data");
+            blockEntitiesNbt = blocksNbt.getList("BlockEntities", NbtElement.COMPOUND_TYPE);
+        } else if (version == 1 || version == 2) {
+            paletteNbt = root.getCompound("Palette");
+            data = root.getByteArray("BlockData");
+            blockEntitiesNbt = root.getList(version == 1 ? "TileEntities" : "BlockEntities", NbtElement.COMPOUND_TYPE);
+        } else {
+            throw new IOException("Unsupported schematic version " + version);
+        }
+
+        int dataVersion = root.getInt("DataVersion");
+        if (dataVersion > SharedConstants.getGameVersion().getSaveVersion().getId()) {
+            ClaudeMod.log("Schematic " + path.getFileName() + " is from a newer Minecraft version (data version " + dataVersion + ")");
+        }
+
+        int width = root.getShort("Width") & 0xFFFF;
+        int height = root.getShort("Height") & 0xFFFF;
+        int length = root.getShort("Length") & 0xFFFF;
+        // Checked before anything is allocated for the blocks; the product of three shorts can overflow an int
+        long volume = (long) width * height * length;
+        if (volume > maxBlocks) {
+            throw new IOException("Schematic has " + volume + " blocks, the most that can be imported is "
+                + maxBlocks + " (schematic_max_blocks)");
+        }
+        int[] offset = root.getIntArray("Offset");
+        if (offset.length != 3) {
+            offset = new int[3];
+        }
+
+        // Palette entries that don't exist in this version become air
+        BlockState[] states = new BlockState[paletteNbt.getSize()];
+        Arrays.fill(states, Blocks.AIR.getDefaultState());
+        int unknownStates = 0;
+        for (String key : paletteNbt.getKeys()) {
+            int index = paletteNbt.getInt(key);
+            if (index < 0 || index >= states.length) {
+                throw new IOException("Corrupt schematic palette entry " + key);
+            }
+            try {
+                states[index] = McsParser.parseBlockState(key);
+            } catch (CommandSyntaxException e) {
+                ClaudeMod.log("Unknown block state in schematic " + path.getFileName() + ": " + key);
+                unknownStates++;
+            }
+        }
+
+        int[] blocks = decodeVarInts(data, (int) volume, states.length);
+
+        List<NbtCompound> blockEntities = new ArrayList<>();
+        for (int i = 0; i < blockEntitiesNbt.size(); i++) {
+            NbtCompound entry = blockEntitiesNbt.getCompound(i);
+            if (version == 3) {
+                // Version 3 nests the block entity's own data
+                NbtCompound flattened = entry.getCompound("Data").copy();
+                flattened.putIntArray("Pos", entry.getIntArray("Pos"));
+                flattened.putString("Id", entry.getString("Id"));
+                entry = flattened;
+            }
+            if (entry.getIntArray("Pos").length == 3) {
+                blockEntities.add(entry);
+            }
+        }
+
+        Schematic schematic = new Schematic(width, height, length, offset, Arrays.asList(states), blocks, blockEntities);
+        schematic.unknownStates = unknownStates;
+        return schematic;
+    }
+
+    /**
+     * Write the schematic as a gzipped Sponge version 2 file. Can be called from any thread.
+     */
+    public void save(Path path) throws IOException {
+        NbtCompound root = new NbtCompound();
+        root.putInt("Version", 2);
+        root.putInt("DataVersion", SharedConstants.getGameVersion().getSaveVersion().getId());
+        root.putShort("Width", (short) width);
+        root.putShort("Height", (short) height);
+        root.putShort("Length", (short) length);
+        root.putIntArray("Offset", offset);
+
+        NbtCompound paletteNbt = new NbtCompound();
+        for (int i = 0; i < palette.size(); i++) {
+            paletteNbt.putInt(BlockArgumentParser.stringifyBlockState(palette.get(i)), i);
+        }
+        root.putInt("PaletteMax", palette.size());
+        root.put("Palette", paletteNbt);
+        root.putByteArray("BlockData", encodeVarInts(blocks));
+
+        NbtList blockEntitiesNbt = new NbtList();
+        blockEntitiesNbt.addAll(blockEntities);
+        root.put("BlockEntities", blockEntitiesNbt);
+
+        NbtIo.writeCompressed(root, path);
+    }
+
+    /**
+     * Turn the schematic into a build placed relative to the player. Each run of equal blocks along x
+     * becomes one fill, and block entity data is restored afterwards with /data merge. Can be called
+     * from any thread.
+     */
+    public McsProgram toProgram() {
+        McsProgram program = new McsProgram();
+        int[] coords = new int[6];
+        int index = 0;
+
+        for (int y = 0; y < height; y++) {
+            for (int z = 0; z < length; z++) {
+                int x = 0;
+                while (x < width) {
+                    int state = blocks[index + x];
+                    int end = x;
+                    while (end + 1 < width && blocks[index + end + 1] == state && end + 1 - x < McsParser.MAX_FILL_VOLUME) {
+                        end++;
+                    }
+
+                    coords[0] = offset[0] + x;
+                    coords[1] = offset[1] + y;
+                    coords[2] = offset[2] + z;
+                    coords[3] = offset[0] + end;
+                    coords[4] = coords[1];
+                    coords[5] = coords[2];
+                    program.addFill(end == x ? McsProgram.OP_SETBLOCK : McsProgram.OP_FILL, McsProgram.MODE_REPLACE,
+                        coords, ALL_RELATIVE, palette.get(state));
+                    x = end + 1;
+                }
+                index += width;
+            }
+        }
+
+        for (NbtCompound entry : blockEntities) {
+            int[] pos = entry.getIntArray("Pos");
+            NbtCompound data = entry.copy();
+            data.remove("Pos");
+            data.remove("Id");
+            if (data.getSize() > 0) {
+                program.addCommand("data merge block ~" + (offset[0] + pos[0]) + " ~" + (offset[1] + pos[1])
+                    + " ~" + (offset[2] + pos[2]) + " " + data.asString());
+            }
+        }
+
+        program.setSourceOpCount(program.getOpCount());
+        return program;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * @return Number of blocks in the box that are not air
+     */
+    public int getBlockCount() {
+        boolean[] air = new boolean[palette.size()];
+        for (int i = 0; i < air.length; i++) {
+            air[i] = palette.get(i).isAir();
+        }
+        int count = 0;
+        for (int block : blocks) {
+            if (!air[block]) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public int getPaletteSize() {
+        return palette.size();
+    }
+
+    public int getBlockEntityCount() {
+        return blockEntities.size();
+    }
+
+    /**
+     * @return Palette entries that could not be read and were replaced with air
+     */
+    public int getUnknownStates() {
+        return unknownStates;
+    }
+
+    /**
+     * @return The directory schematics are saved in and imported from
+     */
+    public static Path getSchematicDirectory() {
+        return Paths.get(SCHEMATIC_DIR);
+    }
+
+    /**
+     * @return The file a schematic of the given name is stored in
+     */
+    public static Path getPath(String name) {
+        String filename = name.endsWith(EXTENSION) ? name.substring(0, name.length() - EXTENSION.length()) : name;
+        return getSchematicDirectory().resolve(filename.replaceAll("[^a-zA-Z0-9_\\-]", "_") + EXTENSION);
+    }
+
+    /**
+     * @return The names of the saved schematics, without their extension
+     */
+    public static List<String> listNames() {
+        Path directory = getSchematicDirectory();
+        if (!Files.isDirectory(directory)) {
+            return List.of();
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(file -> file.getFileName().toString())
+                .filter(name -> name.endsWith(EXTENSION))
+                .map(name -> name.substring(0, name.length() - EXTENSION.length()))
+                .sorted()
+                .toList();
+        } catch (IOException e) {
+            ClaudeMod.log("Could not list schematics: " + e.getMessage());
+            return List.of();
+        }
+    }
+
+    private static NbtCompound createBlockEntityEntry(NbtCompound data, int x, int y, int z) {
+        NbtCompound entry = new NbtCompound();
+        entry.putIntArray("Pos", new int[]{x, y, z});
+        entry.putString("Id", data.getString("id"));
+        data.remove("id");
+        data.remove("x");
+        data.remove("y");
+        data.remove("z");
+        return entry.copyFrom(data);
+    }
+
+    private static byte[] encodeVarInts(int[] values) {
+        byte[] out = new byte[values.length * 2];
+        int length = 0;
+        for (int value : values) {
+            if (length + 5 > out.length) {
+                out = Arrays.copyOf(out, Math.max(out.length * 2, length + 5));
+            }
+            while ((value & ~0x7F) != 0) {
+                out[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            out[length++] = (byte) value;
+        }
+        return Arrays.copyOf(out, length);
+    }
+
+    private static int[] decodeVarInts(byte[] data, int count, int paletteSize) throws IOException {
+        int[] values = new int[count];
+        int position = 0;
+        for (int i = 0; i < count; i++) {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                if (position >= data.length || shift > 28) {
+                    throw new IOException("Schematic block data is truncated");
+                }
+                b = data[position++];
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+
+            if (value < 0 || value >= paletteSize) {
+                throw new IOException("Schematic block data refers to palette entry " + value + " of " + paletteSize);
+            }
+            values[i] = value;
+        }
+        return values;
+    }
+}
@@ -0,0 +1,413 @@
+package com.brettbaron.claudemod.mcs;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.block.BlockState;
+import net.minecraft.block.Blocks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory model of a build: which block state ends up at each position.
+ *
+ * Voxels are stored in 16x16x16 sections keyed by packed section coordinates. Each section is a flat
+ * short array of indices into a palette shared by the whole model, with 0 meaning "not set", so a
+ * build with millions of blocks costs two bytes per voxel in the sections it touches and never boxes
+ * positions or states. Coordinates are usually relative to the build origin and may be negative.
+ */
+public class SparseVoxelModel {
+    public static final int SECTION_SIZE = 16;
+    private static final int SECTION_VOLUME = SECTION_SIZE * SECTION_SIZE * SECTION_SIZE;
+    // Packed section keys use 21 bits per axis
+    private static final int AXIS_BITS = 21;
+    private static final int AXIS_OFFSET = 1 << (AXIS_BITS - 1);
+    private static final long AXIS_MASK = (1L << AXIS_BITS) - 1;
+    // Rough per-section overhead of the object header, array header and hash map slot
+    private static final int SECTION_OVERHEAD_BYTES = 64;
+
+    private final Long2ObjectOpenHashMap<Section> sections = new Long2ObjectOpenHashMap<>();
+    private final List<BlockState> palette = new ArrayList<>();
+    private final Map<BlockState, Integer> paletteIndex = new HashMap<>();
+    private long voxelCount = 0;
+
+    /**
+     * Receives voxels from {@link #forEach(VoxelConsumer)}
+     */
+    @FunctionalInterface
+    public interface VoxelConsumer {
+        void accept(int x, int y, int z, int paletteIndex);
+    }
+
+    public SparseVoxelModel() {
+        // Index 0 is reserved for "not set"
+        palette.add(null);
+    }
+
+    /**
+     * Build a model by interpreting a program's relative ops with the origin at 0, 0, 0.
+     * Raw commands and ops with absolute coordinates are skipped because their effect is unknown;
+     * keep modes assume the world is empty.
+     */
+    public static SparseVoxelModel fromProgram(McsProgram program) {
+        SparseVoxelModel model = new SparseVoxelModel();
+        for (int op = 0; op < program.getOpCount(); op++) {
+            model.apply(program, op);
+        }
+        return model;
+    }
+
+    /**
+     * @return An independent copy of the model with the same palette indices
+     */
+    public SparseVoxelModel copy() {
+        SparseVoxelModel copy = new SparseVoxelModel();
+        copy.palette.clear();
+        copy.palette.addAll(palette);
+        copy.paletteIndex.putAll(paletteIndex);
+        for (Long2ObjectMap.Entry<Section> entry : sections.long2ObjectEntrySet()) {
+            Section section = new Section();
+            System.arraycopy(entry.getValue().blocks, 0, section.blocks, 0, SECTION_VOLUME);
+            section.count = entry.getValue().count;
+            copy.sections.put(entry.getLongKey(), section);
+        }
+        copy.voxelCount = voxelCount;
+        return copy;
+    }
+
+    /**
+     * Apply a single op of a program to the model
+     *
+     * @return false if the op could not be simulated
+     */
+    public boolean apply(McsProgram program, int op) {
+        int opcode = program.getOpcode(op);
+        if (opcode == McsProgram.OP_COMMAND || (program.getRelativeMask(op) & 0x3F) != 0x3F) {
+            return false;
+        }
+
+        int x1 = program.getCoord(op, 0, 0), y1 = program.getCoord(op, 1, 0), z1 = program.getCoord(op, 2, 0);
+        int x2 = program.getCoord(op, 3, 0), y2 = program.getCoord(op, 4, 0), z2 = program.getCoord(op, 5, 0);
+        int minX = Math.min(x1, x2), minY = Math.min(y1, y2), minZ = Math.min(z1, z2);
+        int maxX = Math.max(x1, x2), maxY = Math.max(y1, y2), maxZ = Math.max(z1, z2);
+
+        if (opcode == McsProgram.OP_CLONE) {
+            if ((program.getRelativeMask(op) & 0x1C0) != 0x1C0) {
+                return false;
+            }
+            clone(minX, minY, minZ, maxX, maxY, maxZ,
+                program.getCoord(op, 6, 0), program.getCoord(op, 7, 0), program.getCoord(op, 8, 0),
+                (program.getMode(op) & McsProgram.MODE_MASKED) != 0);
+            return true;
+        }
+
+        int mode = program.getMode(op);
+        short state = (short) getPaletteIndex(program.getState(op));
+        short air = mode == McsProgram.MODE_HOLLOW ? (short) getPaletteIndex(Blocks.AIR.getDefaultState()) : 0;
+
+        if (mode == McsProgram.MODE_REPLACE) {
+            fill(minX, minY, minZ, maxX, maxY, maxZ, state);
+            return true;
+        }
+
+        for (int y = minY; y <= maxY; y++) {
+            for (int z = minZ; z <= maxZ; z++) {
+                for (int x = minX; x <= maxX; x++) {
+                    boolean edge = x == minX || x == maxX || y == minY || y == maxY || z == minZ || z == maxZ;
+                    if (mode == McsProgram.MODE_KEEP) {
+                        if (getIndex(x, y, z) == 0) {
+                            setIndex(x, y, z, state);
+                        }
+                    } else if (edge) {
+                        setIndex(x, y, z, state);
+                    } else if (mode == McsProgram.MODE_HOLLOW) {
+                        setIndex(x, y, z, air);
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    public void set(int x, int y, int z, BlockState state) {
+        setIndex(x, y, z, state == null ? 0 : getPaletteIndex(state));
+    }
+
+    /**
+     * @return The state at the position, or null if the model does not set it
+     */
+    public BlockState get(int x, int y, int z) {
+        return palette.get(getIndex(x, y, z));
+    }
+
+    /**
+     * Fill a box with a palette index, writing whole section rows at a time
+     */
+    public void fill(int minX, int minY, int minZ, int maxX, int maxY, int maxZ, int index) {
+        for (int y = minY; y <= maxY; y++) {
+            for (int z = minZ; z <= maxZ; z++) {
+                int x = minX;
+                while (x <= maxX) {
+                    // Write up to the end of the current section in one go
+                    int sectionEnd = Math.min(maxX, (Math.floorDiv(x, SECTION_SIZE) + 1) * SECTION_SIZE - 1);
+                    Section section = getSection(x, y, z, index != 0);
+                    if (section != null) {
+                        int base = localIndex(x, y, z);
+                        for (int i = 0; i <= sectionEnd - x; i++) {
+                            voxelCount += section.set(base + i, (short) index);
+                        }
+                        removeIfEmpty(section, x, y, z);
+                    }
+                    x = sectionEnd + 1;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The palette index at the position, 0 if not set
+     */
+    public int getIndex(int x, int y, int z) {
+        Section section = getSection(x, y, z, false);
+        return section == null ? 0 : section.blocks[localIndex(x, y, z)] & 0xFFFF;
+    }
+
+    public void setIndex(int x, int y, int z, int index) {
+        Section section = getSection(x, y, z, index != 0);
+        if (section != null) {
+            voxelCount += section.set(localIndex(x, y, z), (short) index);
+            removeIfEmpty(section, x, y, z);
+        }
+    }
+
+    /**
+     * @return The palette index for a state, adding it to the palette if necessary
+     */
+    public int getPaletteIndex(BlockState state) {
+        Integer index = paletteIndex.get(state);
+        if (index == null) {
+            if (palette.size() > 0xFFFF) {
+                throw new IllegalStateException("Voxel model palette is full");
+            }
+            index = palette.size();
+            palette.add(state);
+            paletteIndex.put(state, index);
+        }
+        return index;
+    }
+
+    public BlockState getPaletteState(int index) {
+        return palette.get(index);
+    }
+
+    /**
+     * @return Number of palette entries, including the unused index 0
+     */
+    public int getPaletteSize() {
+        return palette.size();
+    }
+
+    /**
+     * @return Number of positions the model sets, including air
+     */
+    public long getVoxelCount() {
+        return voxelCount;
+    }
+
+    public int getSectionCount() {
+        return sections.size();
+    }
+
+    /**
+     * @return How many times each state occurs, most common first
+     */
+    public Map<BlockState, Long> getBlockCounts() {
+        long[] counts = new long[palette.size()];
+        for (Section section : sections.values()) {
+            for (short index : section.blocks) {
+                counts[index & 0xFFFF]++;
+            }
+        }
+
+        List<Integer> order = new ArrayList<>();
+        for (int i = 1; i < counts.length; i++) {
+            if (counts[i] > 0) {
+                order.add(i);
+            }
+        }
+        order.sort((a, b) -> Long.compare(counts[b], counts[a]));
+
+        Map<BlockState, Long> result = new LinkedHashMap<>();
+        for (int index : order) {
+            result.put(palette.get(index), counts[index]);
+        }
+        return result;
+    }
+
+    /**
+     * @return {minX, minY, minZ, maxX, maxY, maxZ} of all set voxels, or null if the model is empty
+     */
+    public int[] getBounds() {
+        int[] bounds = null;
+        for (Long2ObjectMap.Entry<Section> entry : sections.long2ObjectEntrySet()) {
+            long key = entry.getLongKey();
+            int baseX = unpackX(key) * SECTION_SIZE, baseY = unpackY(key) * SECTION_SIZE, baseZ = unpackZ(key) * SECTION_SIZE;
+            short[] blocks = entry.getValue().blocks;
+
+            for (int i = 0; i < SECTION_VOLUME; i++) {
+                if (blocks[i] == 0) {
+                    continue;
+                }
+                int x = baseX + (i & 15), y = baseY + (i >> 8), z = baseZ + ((i >> 4) & 15);
+                if (bounds == null) {
+                    bounds = new int[] {x, y, z, x, y, z};
+                } else {
+                    bounds[0] = Math.min(bounds[0], x);
+                    bounds[1] = Math.min(bounds[1], y);
+                    bounds[2] = Math.min(bounds[2], z);
+                    bounds[3] = Math.max(bounds[3], x);
+                    bounds[4] = Math.max(bounds[4], y);
+                    bounds[5] = Math.max(bounds[5], z);
+                }
+            }
+        }
+        return bounds;
+    }
+
+    /**
+     * @return Approximate heap use of the model in bytes
+     */
+    public long getMemoryFootprint() {
+        return (long) sections.size() * (SECTION_VOLUME * Short.BYTES + SECTION_OVERHEAD_BYTES)
+            + (long) palette.size() * 48;
+    }
+
+    /**
+     * Visit every set voxel, section by section in ascending y, z, x order
+     */
+    public void forEach(VoxelConsumer consumer) {
+        long[] keys = sections.keySet().toLongArray();
+        Arrays.sort(keys);
+
+        for (long key : keys) {
+            Section section = sections.get(key);
+            if (section == null) {
+                continue;
+            }
+            int baseX = unpackX(key) * SECTION_SIZE, baseY = unpackY(key) * SECTION_SIZE, baseZ = unpackZ(key) * SECTION_SIZE;
+            for (int i = 0; i < SECTION_VOLUME; i++) {
+                int index = section.blocks[i] & 0xFFFF;
+                if (index != 0) {
+                    consumer.accept(baseX + (i & 15), baseY + (i >> 8), baseZ + ((i >> 4) & 15), index);
+                }
+            }
+        }
+    }
+
+    /**
+     * A one-line summary of the model for logs and chat. Voxels set to air, such as the inside of a
+     * hollow fill, are not counted as blocks.
+     */
+    public String describe() {
+        int[] bounds = getBounds();
+        if (bounds == null) {
+            return "empty build";
+        }
+        long blocks = 0;
+        for (Map.Entry<BlockState, Long> entry : getBlockCounts().entrySet()) {
+            if (!entry.getKey().isAir()) {
+                blocks += entry.getValue();
+            }
+        }
+        return String.format("%dx%dx%d, %d blocks in %d sections (~%d KiB)",
+            bounds[3] - bounds[0] + 1, bounds[4] - bounds[1] + 1, bounds[5] - bounds[2] + 1,
+            blocks, sections.size(), getMemoryFootprint() / 1024);
+    }
+
+    private void clone(int minX, int minY, int minZ, int maxX, int maxY, int maxZ, int destX, int destY, int destZ, boolean masked) {
+        int sizeX = maxX - minX + 1, sizeY = maxY - minY + 1, sizeZ = maxZ - minZ + 1;
+        // Snapshot first so overlapping regions copy the original voxels
+        int[] snapshot = new int[sizeX * sizeY * sizeZ];
+        int i = 0;
+        for (int y = 0; y < sizeY; y++) {
+            for (int z = 0; z < sizeZ; z++) {
+                for (int x = 0; x < sizeX; x++) {
+                    snapshot[i++] = getIndex(minX + x, minY + y, minZ + z);
+                }
+            }
+        }
+
+        i = 0;
+        for (int y = 0; y < sizeY; y++) {
+            for (int z = 0; z < sizeZ; z++) {
+                for (int x = 0; x < sizeX; x++) {
+                    int index = snapshot[i++];
+                    BlockState state = palette.get(index);
+                    // Unknown source voxels are treated as air
+                    if (masked && (state == null || state.isAir())) {
+                        continue;
+                    }
+                    setIndex(destX + x, destY + y, destZ + z, index == 0 ? getPaletteIndex(Blocks.AIR.getDefaultState()) : index);
+                }
+            }
+        }
+    }
+
+    private Section getSection(int x, int y, int z, boolean create) {
+        long key = pack(x >> 4, y >> 4, z >> 4);
+        Section section = sections.get(key);
+        if (section == null && create) {
+            section = new Section();
+            sections.put(key, section);
+        }
+        return section;
+    }
+
+    private void removeIfEmpty(Section section, int x, int y, int z) {
+        if (section.count == 0) {
+            sections.remove(pack(x >> 4, y >> 4, z >> 4));
+        }
+    }
+
+    private static int localIndex(int x, int y, int z) {
+        return ((y & 15) << 8) | ((z & 15) << 4) | (x & 15);
+    }
+
+    private static long pack(int sectionX, int sectionY, int sectionZ) {
+        return ((long) (sectionY + AXIS_OFFSET) << (2 * AXIS_BITS))
+            | ((long) (sectionZ + AXIS_OFFSET) << AXIS_BITS)
+            | (sectionX + AXIS_OFFSET);
+    }
+
+    private static int unpackX(long key) {
+        return (int) (key & AXIS_MASK) - AXIS_OFFSET;
+    }
+
+    private static int unpackY(long key) {
+        return (int) ((key >>> (2 * AXIS_BITS)) & AXIS_MASK) - AXIS_OFFSET;
+    }
+
+    private static int unpackZ(long key) {
+        return (int) ((key >>> AXIS_BITS) & AXIS_MASK) - AXIS_OFFSET;
+    }
+
+    private static class Section {
+        final short[] blocks = new short[SECTION_VOLUME];
+        int count = 0;
+
+        /**
+         * @return The change in the number of set voxels
+         */
+        int set(int index, short value) {
+            short old = blocks[index];
+            blocks[index] = value;
+            int delta = (value != 0 ? 1 : 0) - (old != 0 ? 1 : 0);
+            count += delta;
+            return delta;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.brettbaron.claudemod.mcs;
+
+import com.brettbaron.claudemod.ClaudeMod;
+import com.brettbaron.claudemod.config.ClaudeConfig;
+import net.minecraft.server.command.ServerCommandSource;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * The journals of each player's recent builds, for /claude undo and /claude redo.
+ *
+ * Each player keeps up to undo_history_size builds. All journals together stay under undo_memory_mb,
+ * and the oldest journal of any player is forgotten first. Starting a new build clears the player's
+ * redo history. Players are told apart by the key from {@link BuildJobManager#getOwnerId}. All methods
+ * except {@link #getMemoryUsage()} must be called on the server thread.
+ */
+public class UndoHistory {
+    private static final Map<UUID, Deque<BuildJournal>> undoStacks = new HashMap<>();
+    private static final Map<UUID, Deque<BuildJournal>> redoStacks = new HashMap<>();
+    // Every journal held, oldest first
+    private static final List<BuildJournal> journals = new ArrayList<>();
+    private static volatile long memoryUsage = 0;
+
+    /**
+     * Remember a finished or cancelled build so it can be undone
+     */
+    public static void record(UUID owner, BuildJournal journal) {
+        if (journal.size() == 0 || ClaudeConfig.getUndoHistorySize() == 0) {
+            return;
+        }
+
+        Deque<BuildJournal> redo = redoStacks.remove(owner);
+        if (redo != null) {
+            journals.removeAll(redo);
+        }
+        push(owner, journal, false);
+    }
+
+    /**
+     * Start undoing the player's most recent build
+     *
+     * @return false if there is nothing to undo
+     */
+    public static boolean undo(ServerCommandSource source) {
+        return replay(source, true);
+    }
+
+    /**
+     * Start placing the player's most recently undone build again
+     *
+     * @return false if there is nothing to redo
+     */
+    public static boolean redo(ServerCommandSource source) {
+        return replay(source, false);
+    }
+
+    /**
+     * @return The journal of the player's most recent build that has not been undone, or null if there is none
+     */
+    public static BuildJournal getLatest(UUID owner) {
+        Deque<BuildJournal> stack = undoStacks.get(owner);
+        return stack == null ? null : stack.peek();
+    }
+
+    public static int getUndoCount(UUID owner) {
+        Deque<BuildJournal> stack = undoStacks.get(owner);
+        return stack == null ? 0 : stack.size();
+    }
+
+    public static int getRedoCount(UUID owner) {
+        Deque<BuildJournal> stack = redoStacks.get(owner);
+        return stack == null ? 0 : stack.size();
+    }
+
+    /**
+     * @return Approximate bytes held by all journals. Safe to read from any thread.
+     */
+    public static long getMemoryUsage() {
+        return memoryUsage;
+    }
+
+    /**
+     * Forget all history, for when the server stops
+     */
+    public static void clear() {
+        undoStacks.clear();
+        redoStacks.clear();
+        journals.clear();
+        memoryUsage = 0;
+    }
+
+    private static boolean replay(ServerCommandSource source, boolean undo) {
+        UUID owner = BuildJobManager.getOwnerId(source);
+        Deque<BuildJournal> stack = (undo ? undoStacks : redoStacks).get(owner);
+        if (stack == null || stack.isEmpty()) {
+            return false;
+        }
+
+        BuildJournal journal = stack.pop();
+        journals.remove(journal);
+        updateMemoryUsage();
+
+        JournalReplay replay = new JournalReplay(journal, undo);
+        BuildJob job = new BuildJob((undo ? "undo of " : "redo of ") + journal.getName(), source, replay);
+        job.getFuture().whenComplete((result, error) -> {
+            // A replay that was cut short goes back where it came from; running it again skips the blocks already done
+            push(owner, journal, replay.isFinished() == undo);
+        });
+        BuildJobManager.submit(job);
+        return true;
+    }
+
+    private static void push(UUID owner, BuildJournal journal, boolean redo) {
+        Deque<BuildJournal> stack = (redo ? redoStacks : undoStacks).computeIfAbsent(owner, key -> new ArrayDeque<>());
+        stack.push(journal);
+        journals.add(journal);
+
+        int limit = ClaudeConfig.getUndoHistorySize();
+        while (stack.size() > limit) {
+            journals.remove(stack.removeLast());
+        }
+
+        long maxBytes = ClaudeConfig.getUndoMemoryMegabytes() * 1024L * 1024L;
+        updateMemoryUsage();
+        while (memoryUsage > maxBytes && journals.size() > 1) {
+            forget(journals.get(0));
+        }
+    }
+
+    /**
+     * Drop the oldest journal to make room
+     */
+    private static void forget(BuildJournal journal) {
+        journals.remove(journal);
+        for (Deque<BuildJournal> stack : undoStacks.values()) {
+            stack.remove(journal);
+        }
+        for (Deque<BuildJournal> stack : redoStacks.values()) {
+            stack.remove(journal);
+        }
+        updateMemoryUsage();
+        ClaudeMod.log("Undo history for " + journal.getName() + " dropped to stay within undo_memory_mb");
+    }
+
+    private static void updateMemoryUsage() {
+        long total = 0;
+        for (BuildJournal journal : journals) {
+            total += journal.getMemoryFootprint();
+        }
+        memoryUsage = total;
+    }
+}
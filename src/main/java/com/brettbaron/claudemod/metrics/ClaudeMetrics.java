@@ -0,0 +1,90 @@
+package com.brettbaron.claudemod.metrics;
+
+import com.brettbaron.claudemod.api.ClaudeRequestPipeline;
+import com.brettbaron.claudemod.mcs.BuildJobManager;
+import com.brettbaron.claudemod.mcs.BuildScheduler;
+import com.brettbaron.claudemod.mcs.UndoHistory;
+
+/**
+ * The metrics recorded across the generate-and-build pipeline
+ */
+public class ClaudeMetrics {
+    private static final double[] LATENCY_SECONDS = {0.25, 0.5, 1, 2, 5, 10, 20, 30, 60, 120};
+    private static final double[] PROCESSING_SECONDS = {0.0005, 0.001, 0.005, 0.01, 0.05, 0.1, 0.5, 1, 5};
+    private static final double[] SLICE_SECONDS = {0.0005, 0.001, 0.002, 0.005, 0.01, 0.02, 0.05};
+    private static final double[] SIZE_BYTES = {1024, 4096, 16384, 65536, 262144, 1048576};
+
+    // Claude API
+    public static final Counter API_REQUESTS = MetricsRegistry.counter("claude_api_requests_total",
+        "Requests sent to the Claude API");
+    public static final Counter API_ERRORS = MetricsRegistry.counter("claude_api_errors_total",
+        "Claude API requests that failed");
+    public static final Counter API_COALESCED = MetricsRegistry.counter("claude_api_coalesced_total",
+        "Requests that waited for an identical request or prompt already in flight");
+    public static final Histogram API_LATENCY = MetricsRegistry.histogram("claude_api_latency_seconds",
+        "Time from sending a request to receiving the full response", LATENCY_SECONDS);
+    public static final Histogram API_FIRST_LINE = MetricsRegistry.histogram("claude_api_first_line_seconds",
+        "Time from sending a streaming request to receiving the first MCS line", LATENCY_SECONDS);
+    public static final Histogram API_RESPONSE_SIZE = MetricsRegistry.histogram("claude_api_response_bytes",
+        "Size of Claude API responses", SIZE_BYTES);
+    public static final Counter API_INPUT_TOKENS = MetricsRegistry.counter("claude_api_input_tokens_total",
+        "Input tokens billed at the full rate, outside the prompt cache");
+    public static final Counter API_CACHE_WRITE_TOKENS = MetricsRegistry.counter("claude_api_cache_write_tokens_total",
+        "Input tokens written to the prompt cache");
+    public static final Counter API_CACHE_READ_TOKENS = MetricsRegistry.counter("claude_api_cache_read_tokens_total",
+        "Input tokens read from the prompt cache");
+    public static final Counter API_OUTPUT_TOKENS = MetricsRegistry.counter("claude_api_output_tokens_total",
+        "Tokens generated by Claude");
+
+    // Response cache
+    public static final Counter CACHE_HITS = MetricsRegistry.counter("claude_cache_hits_total",
+        "Prompts answered from the response cache");
+    public static final Counter CACHE_MISSES = MetricsRegistry.counter("claude_cache_misses_total",
+        "Prompts that had to be sent to the API");
+
+    // Turning responses into programs
+    public static final Histogram RESPONSE_PROCESSING = MetricsRegistry.histogram("claude_response_processing_seconds",
+        "Time to extract, save and compile the MCS commands of a response", PROCESSING_SECONDS);
+    public static final Histogram MCS_COMPILE = MetricsRegistry.histogram("claude_mcs_compile_seconds",
+        "Time to load an MCS file into a program, from its sidecar or by parsing", PROCESSING_SECONDS);
+    public static final Counter MCS_SIDECAR_HITS = MetricsRegistry.counter("claude_mcs_sidecar_hits_total",
+        "MCS files loaded from a compiled sidecar instead of being parsed");
+
+    // Builds
+    public static final Counter BUILDS_STARTED = MetricsRegistry.counter("claude_builds_started_total",
+        "Builds submitted for execution");
+    public static final Counter BUILDS_COMPLETED = MetricsRegistry.counter("claude_builds_completed_total",
+        "Builds that ran to completion");
+    public static final Counter BUILDS_FAILED = MetricsRegistry.counter("claude_builds_failed_total",
+        "Builds stopped by an error");
+    public static final Counter BUILDS_CANCELLED = MetricsRegistry.counter("claude_builds_cancelled_total",
+        "Builds that were cancelled or rejected");
+    public static final Counter COMMANDS_EXECUTED = MetricsRegistry.counter("claude_commands_executed_total",
+        "MCS commands executed successfully");
+    public static final Counter COMMANDS_FAILED = MetricsRegistry.counter("claude_commands_failed_total",
+        "MCS commands that failed or were skipped");
+    public static final Counter BLOCKS_CHANGED = MetricsRegistry.counter("claude_blocks_changed_total",
+        "Blocks written directly by builds");
+    public static final Counter BLOCKS_UNCHANGED = MetricsRegistry.counter("claude_blocks_unchanged_total",
+        "Blocks a build left alone because the world already matched");
+    public static final Histogram BUILD_TICK_TIME = MetricsRegistry.histogram("claude_build_tick_seconds",
+        "Time spent running builds in a single server tick", SLICE_SECONDS);
+
+    public static final Gauge ACTIVE_BUILDS = MetricsRegistry.gauge("claude_builds_active",
+        "Builds that are queued or running", BuildJobManager::getJobCount);
+    public static final Gauge PENDING_REQUESTS = MetricsRegistry.gauge("claude_requests_pending",
+        "Requests queued or waiting on the Claude API", ClaudeRequestPipeline::getPendingCount);
+    public static final Gauge TICK_BUDGET = MetricsRegistry.gauge("claude_build_tick_budget_milliseconds",
+        "Time budget granted to builds in the most recent tick", BuildScheduler::getLastBudgetMillis);
+    public static final Gauge SERVER_TICK = MetricsRegistry.gauge("claude_server_tick_milliseconds",
+        "Moving average of the server's tick time excluding builds", BuildScheduler::getAverageTickMillis);
+    public static final Gauge UNDO_MEMORY = MetricsRegistry.gauge("claude_undo_journal_bytes",
+        "Memory held by the undo history", UndoHistory::getMemoryUsage);
+
+    /**
+     * Make sure every metric is registered, so exports list them before they are first used
+     */
+    public static void init() {
+        // Loading the class registers the metrics
+    }
+}
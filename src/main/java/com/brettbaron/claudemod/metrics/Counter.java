@@ -0,0 +1,36 @@
+package com.brettbaron.claudemod.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A value that only goes up, such as the number of requests sent
+ */
+public class Counter extends Metric {
+    private final LongAdder value = new LongAdder();
+
+    Counter(String name, String help) {
+        super(name, help);
+    }
+
+    public void increment() {
+        value.increment();
+    }
+
+    public void add(long amount) {
+        value.add(amount);
+    }
+
+    public long get() {
+        return value.sum();
+    }
+
+    @Override
+    String getType() {
+        return "counter";
+    }
+
+    @Override
+    void write(StringBuilder out) {
+        out.append(getName()).append(' ').append(get()).append('\n');
+    }
+}
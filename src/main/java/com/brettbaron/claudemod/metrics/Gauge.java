@@ -0,0 +1,29 @@
+package com.brettbaron.claudemod.metrics;
+
+import java.util.function.DoubleSupplier;
+
+/**
+ * A value read on demand, such as the number of running builds
+ */
+public class Gauge extends Metric {
+    private final DoubleSupplier supplier;
+
+    Gauge(String name, String help, DoubleSupplier supplier) {
+        super(name, help);
+        this.supplier = supplier;
+    }
+
+    public double get() {
+        return supplier.getAsDouble();
+    }
+
+    @Override
+    String getType() {
+        return "gauge";
+    }
+
+    @Override
+    void write(StringBuilder out) {
+        out.append(getName()).append(' ').append(get()).append('\n');
+    }
+}
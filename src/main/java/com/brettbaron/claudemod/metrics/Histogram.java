@@ -0,0 +1,109 @@
+package com.brettbaron.claudemod.metrics;
+
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Distribution of observed values over fixed buckets, such as request latency in seconds.
+ * Recording is lock-free; quantiles are estimated from the buckets.
+ */
+public class Histogram extends Metric {
+    private final double[] bounds;
+    // One more than the bounds, for values above the last one
+    private final LongAdder[] buckets;
+    private final LongAdder count = new LongAdder();
+    private final DoubleAdder sum = new DoubleAdder();
+
+    /**
+     * @param bounds Upper bounds of the buckets, in ascending order
+     */
+    Histogram(String name, String help, double[] bounds) {
+        super(name, help);
+        this.bounds = bounds.clone();
+        this.buckets = new LongAdder[bounds.length + 1];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public void observe(double value) {
+        int bucket = 0;
+        while (bucket < bounds.length && value > bounds[bucket]) {
+            bucket++;
+        }
+        buckets[bucket].increment();
+        count.increment();
+        sum.add(value);
+    }
+
+    /**
+     * Record a duration measured with {@link System#nanoTime()}, in seconds
+     */
+    public void observeNanos(long nanos) {
+        observe(nanos / 1_000_000_000.0);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public double getSum() {
+        return sum.sum();
+    }
+
+    public double getMean() {
+        long n = getCount();
+        return n == 0 ? 0 : getSum() / n;
+    }
+
+    /**
+     * Estimate a quantile by interpolating within the bucket it falls in
+     *
+     * @param quantile Between 0 and 1
+     * @return The estimate, or 0 if nothing has been observed
+     */
+    public double getQuantile(double quantile) {
+        long[] counts = new long[buckets.length];
+        long total = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            counts[i] = buckets[i].sum();
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        double rank = quantile * total;
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            if (seen + counts[i] >= rank && counts[i] > 0) {
+                if (i == bounds.length) {
+                    // Above the last bound there is nothing to interpolate towards
+                    return bounds[bounds.length - 1];
+                }
+                double lower = i == 0 ? 0 : bounds[i - 1];
+                return lower + (bounds[i] - lower) * ((rank - seen) / counts[i]);
+            }
+            seen += counts[i];
+        }
+        return bounds[bounds.length - 1];
+    }
+
+    @Override
+    String getType() {
+        return "histogram";
+    }
+
+    @Override
+    void write(StringBuilder out) {
+        long cumulative = 0;
+        for (int i = 0; i < bounds.length; i++) {
+            cumulative += buckets[i].sum();
+            out.append(getName()).append("_bucket{le=\"").append(bounds[i]).append("\"} ").append(cumulative).append('\n');
+        }
+        cumulative += buckets[bounds.length].sum();
+        out.append(getName()).append("_bucket{le=\"+Inf\"} ").append(cumulative).append('\n');
+        out.append(getName()).append("_sum ").append(getSum()).append('\n');
+        out.append(getName()).append("_count ").append(cumulative).append('\n');
+    }
+}
@@ -0,0 +1,32 @@
+package com.brettbaron.claudemod.metrics;
+
+/**
+ * A named metric that can be written in the Prometheus text format
+ */
+public abstract class Metric {
+    private final String name;
+    private final String help;
+
+    Metric(String name, String help) {
+        this.name = name;
+        this.help = help;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getHelp() {
+        return help;
+    }
+
+    /**
+     * @return The Prometheus metric type
+     */
+    abstract String getType();
+
+    /**
+     * Append the metric's samples, without the HELP and TYPE lines
+     */
+    abstract void write(StringBuilder out);
+}
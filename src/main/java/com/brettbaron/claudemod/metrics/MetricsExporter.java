@@ -0,0 +1,99 @@
+package com.brettbaron.claudemod.metrics;
+
+import com.brettbaron.claudemod.ClaudeMod;
+import com.brettbaron.claudemod.config.ClaudeConfig;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes the metrics registry for Prometheus: periodically as a text file (for the node exporter's
+ * textfile collector) and, when a port is configured, from an HTTP endpoint bound to localhost.
+ */
+public class MetricsExporter {
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static ScheduledExecutorService fileExporter;
+    private static HttpServer httpServer;
+
+    /**
+     * Start whichever exports are enabled in the config
+     */
+    public static synchronized void start() {
+        Path exportFile = ClaudeConfig.getMetricsExportFile();
+        if (exportFile != null && fileExporter == null) {
+            int interval = ClaudeConfig.getMetricsExportIntervalSeconds();
+            fileExporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "Claude-Metrics-Export");
+                thread.setDaemon(true);
+                return thread;
+            });
+            fileExporter.scheduleWithFixedDelay(() -> {
+                try {
+                    writeFile(exportFile);
+                } catch (IOException e) {
+                    ClaudeMod.log("Could not export metrics to " + exportFile + ": " + e.getMessage());
+                }
+            }, interval, interval, TimeUnit.SECONDS);
+            ClaudeMod.log("Exporting metrics to " + exportFile.toAbsolutePath() + " every " + interval + "s");
+        }
+
+        int port = ClaudeConfig.getMetricsHttpPort();
+        if (port > 0 && httpServer == null) {
+            try {
+                httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+                httpServer.createContext("/metrics", exchange -> {
+                    byte[] body = MetricsRegistry.toPrometheusText().getBytes(StandardCharsets.UTF_8);
+                    exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+                    exchange.sendResponseHeaders(200, body.length);
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        out.write(body);
+                    }
+                });
+                httpServer.start();
+                ClaudeMod.log("Serving metrics on http://127.0.0.1:" + port + "/metrics");
+            } catch (IOException e) {
+                ClaudeMod.log("Could not start metrics endpoint on port " + port + ": " + e.getMessage());
+                httpServer = null;
+            }
+        }
+    }
+
+    /**
+     * Stop all exports
+     */
+    public static synchronized void stop() {
+        if (fileExporter != null) {
+            fileExporter.shutdownNow();
+            fileExporter = null;
+        }
+        if (httpServer != null) {
+            httpServer.stop(0);
+            httpServer = null;
+        }
+    }
+
+    /**
+     * Write the current metrics to a file. The file is replaced atomically so readers never see it half written.
+     */
+    public static void writeFile(Path file) throws IOException {
+        Path directory = file.toAbsolutePath().getParent();
+        if (directory != null) {
+            Files.createDirectories(directory);
+        }
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.writeString(temp, MetricsRegistry.toPrometheusText(), StandardCharsets.UTF_8);
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,56 @@
+package com.brettbaron.claudemod.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Holds every metric by name and renders them in the Prometheus text exposition format
+ */
+public class MetricsRegistry {
+    private static final Map<String, Metric> metrics = new ConcurrentSkipListMap<>();
+
+    public static Counter counter(String name, String help) {
+        return register(new Counter(name, help));
+    }
+
+    /**
+     * @param bounds Upper bounds of the buckets, in ascending order
+     */
+    public static Histogram histogram(String name, String help, double... bounds) {
+        return register(new Histogram(name, help, bounds));
+    }
+
+    public static Gauge gauge(String name, String help, DoubleSupplier supplier) {
+        return register(new Gauge(name, help, supplier));
+    }
+
+    /**
+     * @return All metrics, sorted by name
+     */
+    public static List<Metric> getMetrics() {
+        return new ArrayList<>(metrics.values());
+    }
+
+    /**
+     * Render every metric in the Prometheus text format
+     */
+    public static String toPrometheusText() {
+        StringBuilder out = new StringBuilder(4096);
+        for (Metric metric : metrics.values()) {
+            out.append("# HELP ").append(metric.getName()).append(' ').append(metric.getHelp()).append('\n');
+            out.append("# TYPE ").append(metric.getName()).append(' ').append(metric.getType()).append('\n');
+            metric.write(out);
+        }
+        return out.toString();
+    }
+
+    private static <T extends Metric> T register(T metric) {
+        if (metrics.putIfAbsent(metric.getName(), metric) != null) {
+            throw new IllegalArgumentException("Metric " + metric.getName() + " is already registered");
+        }
+        return metric;
+    }
+}
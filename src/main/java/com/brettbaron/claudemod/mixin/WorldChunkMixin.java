@@ -0,0 +1,24 @@
+package com.brettbaron.claudemod.mixin;
+
+import com.brettbaron.claudemod.mcs.DirectBlockWriter;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.chunk.WorldChunk;
+import net.minecraft.world.chunk.light.LightingProvider;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Redirect;
+
+/**
+ * Lets builds placed in bulk hold back the light check for each block they change, so the area is
+ * relit once when the build is done instead of once per block.
+ */
+@Mixin(WorldChunk.class)
+public class WorldChunkMixin {
+	// Not required: if the call moves, blocks are simply relit as they are placed
+	@Redirect(method = "setBlockState", at = @At(value = "INVOKE", target = "Lnet/minecraft/world/chunk/light/LightingProvider;checkBlock(Lnet/minecraft/util/math/BlockPos;)V"), require = 0)
+	private void deferLightCheck(LightingProvider provider, BlockPos pos) {
+		if (!DirectBlockWriter.deferLightCheck(pos)) {
+			provider.checkBlock(pos);
+		}
+	}
+}
@@ -0,0 +1,243 @@
+package com.brettbaron.claudemod.world;
+
+import com.brettbaron.claudemod.config.ClaudeConfig;
+import com.brettbaron.claudemod.log.ClaudeLog;
+import com.brettbaron.claudemod.log.LogCategory;
+import net.minecraft.block.Block;
+import net.minecraft.registry.Registries;
+import net.minecraft.server.command.ServerCommandSource;
+import net.minecraft.server.world.ServerWorld;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.Heightmap;
+import net.minecraft.world.chunk.WorldChunk;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntFunction;
+
+/**
+ * Describes the terrain around a player for the prompt, so Claude can fit a build to the ground instead
+ * of filling into hills or floating over ravines.
+ *
+ * Each loaded chunk is summarised once into the height and block of its surface in every column, and
+ * the summary is reused until it is a minute old or a build changes the chunk. A request samples the
+ * summaries on a grid around the player and writes each row run-length encoded: ground heights relative
+ * to the player, then a letter per surface block. The grid spacing is doubled until the text fits in
+ * context_max_tokens. Chunk data is only safe to read on the server thread, so that is where sampling
+ * happens; with the summaries cached it costs a few array reads per grid cell, and chunks that are not
+ * loaded are never loaded for it.
+ */
+public class WorldContextSampler {
+    private static final long SUMMARY_TTL_NANOS = 60_000_000_000L;
+    // Summaries kept per world at least; more are kept when context_radius covers more chunks
+    private static final int MIN_SUMMARIES = 1024;
+    // Rough length of a token in the encoded rows
+    private static final double CHARS_PER_TOKEN = 3.0;
+    private static final String SYMBOLS = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ";
+
+    private static final Map<ServerWorld, Map<Long, ChunkSummary>> summaries = new IdentityHashMap<>();
+
+    /**
+     * Describe the terrain around a command source. Must be called on the server thread.
+     *
+     * @return The description, or an empty string if sampling is turned off or nothing around the source is loaded
+     */
+    public static String describe(ServerCommandSource source) {
+        int maxTokens = ClaudeConfig.getContextMaxTokens();
+        int radius = ClaudeConfig.getContextRadius();
+        if (maxTokens == 0 || radius == 0 || !source.getServer().isOnThread()) {
+            return "";
+        }
+
+        long start = System.nanoTime();
+        ServerWorld world = source.getWorld();
+        BlockPos origin = BlockPos.ofFloored(source.getPosition());
+        for (int step = 1; step <= radius; step *= 2) {
+            String text = encode(world, origin, radius, step);
+            if (text == null) {
+                return "";
+            }
+            if (text.length() <= maxTokens * CHARS_PER_TOKEN) {
+                int finalStep = step;
+                ClaudeLog.debug(LogCategory.API, () -> "Sampled terrain every " + finalStep + " blocks in "
+                    + (System.nanoTime() - start) / 1000 + " us, " + text.length() + " characters");
+                return text;
+            }
+        }
+        return "";
+    }
+
+    /**
+     * Forget the summaries of the chunks a build changed
+     *
+     * @param bounds min x, y, z, max x, y, z of the changes
+     */
+    public static void invalidate(ServerWorld world, int[] bounds) {
+        Map<Long, ChunkSummary> worldSummaries = summaries.get(world);
+        if (worldSummaries == null) {
+            return;
+        }
+        for (int chunkX = bounds[0] >> 4; chunkX <= bounds[3] >> 4; chunkX++) {
+            for (int chunkZ = bounds[2] >> 4; chunkZ <= bounds[5] >> 4; chunkZ++) {
+                worldSummaries.remove(ChunkPos.toLong(chunkX, chunkZ));
+            }
+        }
+    }
+
+    /**
+     * Forget every summary, for when the server stops
+     */
+    public static void clear() {
+        summaries.clear();
+    }
+
+    /**
+     * @return Summaries to keep per world: room for the areas around two players at the configured
+     * radius, so a single sample never evicts its own chunks
+     */
+    private static int getMaxSummaries() {
+        int columns = ClaudeConfig.getContextRadius() * 2 / 16 + 2;
+        return Math.max(MIN_SUMMARIES, columns * columns * 2);
+    }
+
+    /**
+     * @return The encoded grid, or null if none of it is loaded
+     */
+    private static String encode(ServerWorld world, BlockPos origin, int radius, int step) {
+        int cells = radius / step;
+        int size = cells * 2 + 1;
+        int[] heights = new int[size * size];
+        Block[] blocks = new Block[size * size];
+        long now = System.nanoTime();
+
+        boolean anyLoaded = false;
+        int minHeight = Integer.MAX_VALUE;
+        int maxHeight = Integer.MIN_VALUE;
+        for (int row = 0; row < size; row++) {
+            int z = origin.getZ() + (row - cells) * step;
+            for (int column = 0; column < size; column++) {
+                int x = origin.getX() + (column - cells) * step;
+                ChunkSummary summary = getSummary(world, x >> 4, z >> 4, now);
+                int index = row * size + column;
+                if (summary == null) {
+                    heights[index] = Integer.MIN_VALUE;
+                    continue;
+                }
+
+                int local = (z & 15) * 16 + (x & 15);
+                heights[index] = summary.heights[local] - origin.getY();
+                blocks[index] = summary.surface[local];
+                minHeight = Math.min(minHeight, heights[index]);
+                maxHeight = Math.max(maxHeight, heights[index]);
+                anyLoaded = true;
+            }
+        }
+        if (!anyLoaded) {
+            return null;
+        }
+
+        StringBuilder text = new StringBuilder();
+        text.append("Terrain within ").append(radius).append(" blocks of the player, sampled every ").append(step)
+            .append(step == 1 ? " block" : " blocks").append(". Each row runs west to east (x from ~-").append(cells * step)
+            .append(" to ~").append(cells * step).append("), rows run north to south (z from ~-").append(cells * step)
+            .append(" to ~").append(cells * step).append("), and the player is in the middle. Runs of equal values are written value*count.\n");
+        text.append("Ground height relative to the player: a block placed at ~0 there rests on the ground when the value is 0, ")
+            .append("? is unknown. It ranges from ").append(minHeight).append(" to ").append(maxHeight).append(".\n");
+        for (int row = 0; row < size; row++) {
+            appendRow(text, heights, row * size, size, value -> value == Integer.MIN_VALUE ? "?" : String.valueOf(value), " ");
+        }
+
+        List<Block> palette = new ArrayList<>();
+        for (Block block : blocks) {
+            if (block != null && !palette.contains(block) && palette.size() < SYMBOLS.length()) {
+                palette.add(block);
+            }
+        }
+        text.append("Surface blocks (");
+        for (int i = 0; i < palette.size(); i++) {
+            text.append(i > 0 ? ", " : "").append(SYMBOLS.charAt(i)).append('=')
+                .append(Registries.BLOCK.getId(palette.get(i)).getPath());
+        }
+        text.append(", ? = unknown):\n");
+
+        int[] symbols = new int[blocks.length];
+        for (int i = 0; i < blocks.length; i++) {
+            symbols[i] = blocks[i] == null ? -1 : palette.indexOf(blocks[i]);
+        }
+        for (int row = 0; row < size; row++) {
+            appendRow(text, symbols, row * size, size, value -> value < 0 ? "?" : String.valueOf(SYMBOLS.charAt(value)), "");
+        }
+        return text.toString();
+    }
+
+    private static void appendRow(StringBuilder text, int[] values, int start, int length, IntFunction<String> formatter, String separator) {
+        int column = 0;
+        while (column < length) {
+            int value = values[start + column];
+            int run = 1;
+            while (column + run < length && values[start + column + run] == value) {
+                run++;
+            }
+
+            if (column > 0) {
+                text.append(separator);
+            }
+            text.append(formatter.apply(value));
+            if (run > 1) {
+                text.append('*').append(run);
+            }
+            column += run;
+        }
+        text.append('\n');
+    }
+
+    private static ChunkSummary getSummary(ServerWorld world, int chunkX, int chunkZ, long now) {
+        Map<Long, ChunkSummary> worldSummaries = summaries.computeIfAbsent(world, key -> new LinkedHashMap<>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, ChunkSummary> eldest) {
+                return size() > getMaxSummaries();
+            }
+        });
+
+        long key = ChunkPos.toLong(chunkX, chunkZ);
+        ChunkSummary summary = worldSummaries.get(key);
+        if (summary != null && now - summary.createdNanos < SUMMARY_TTL_NANOS) {
+            return summary;
+        }
+
+        WorldChunk chunk = world.getChunkManager().getWorldChunk(chunkX, chunkZ);
+        if (chunk == null) {
+            worldSummaries.remove(key);
+            return null;
+        }
+        summary = new ChunkSummary(chunk, chunkX, chunkZ, now);
+        worldSummaries.put(key, summary);
+        return summary;
+    }
+
+    /**
+     * The surface of one chunk: for each column, the lowest free height above the ground (ignoring
+     * leaves) and the block at the top
+     */
+    private static final class ChunkSummary {
+        private final int[] heights = new int[256];
+        private final Block[] surface = new Block[256];
+        private final long createdNanos;
+
+        private ChunkSummary(WorldChunk chunk, int chunkX, int chunkZ, long createdNanos) {
+            this.createdNanos = createdNanos;
+            BlockPos.Mutable pos = new BlockPos.Mutable();
+            for (int z = 0; z < 16; z++) {
+                for (int x = 0; x < 16; x++) {
+                    int top = chunk.sampleHeightmap(Heightmap.Type.MOTION_BLOCKING_NO_LEAVES, x, z);
+                    heights[z * 16 + x] = top + 1;
+                    surface[z * 16 + x] = chunk.getBlockState(pos.set(chunkX * 16 + x, top, chunkZ * 16 + z)).getBlock();
+                }
+            }
+        }
+    }
+}
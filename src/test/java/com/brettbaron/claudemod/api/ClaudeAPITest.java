@@ -0,0 +1,98 @@
+package com.brettbaron.claudemod.api;
+
+import com.brettbaron.claudemod.metrics.ClaudeMetrics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ClaudeAPITest {
+    private static final String RESPONSE = "{\"content\":[{\"type\":\"text\",\"text\":\"/setblock ~ ~ ~ stone\"}],"
+        + "\"usage\":{\"input_tokens\":10,\"output_tokens\":5}}";
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private final ExecutorService callers = Executors.newCachedThreadPool();
+    private StubClaudeServer server;
+
+    @AfterEach
+    void tearDown() {
+        System.clearProperty("claudemod.api.url");
+        ClaudeAPI.shutdown();
+        callers.shutdownNow();
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    @Test
+    void sendsToOverriddenEndpoint() throws Exception {
+        server = new StubClaudeServer(body -> RESPONSE);
+        System.setProperty("claudemod.api.url", server.getUrl("/stub/v1/messages"));
+
+        ResponseReader response = ClaudeAPI.sendRequest("a small stone hut");
+        assertEquals(RESPONSE, response.getBody());
+        assertEquals(1, server.getRequestCount());
+        assertEquals("/stub/v1/messages", server.getPaths().get(0));
+        assertEquals("test-key", server.getApiKeys().get(0));
+        assertTrue(server.getBodies().get(0).contains("a small stone hut"));
+
+        // The stop reason, commands and usage all come from the one read
+        assertFalse(response.isTruncated());
+        assertEquals("/setblock ~ ~ ~ stone", response.getCommands().trim());
+        assertEquals(10, response.getUsage().get("input_tokens").getAsInt());
+        assertEquals(5, response.getUsage().get("output_tokens").getAsInt());
+    }
+
+    @Test
+    void concurrentIdenticalRequestsShareOneCall() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        server = new StubClaudeServer(body -> {
+            release.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            return RESPONSE;
+        });
+        System.setProperty("claudemod.api.url", server.getUrl("/v1/messages"));
+        long coalesced = ClaudeMetrics.API_COALESCED.get();
+
+        Future<ResponseReader> first = callers.submit(() -> ClaudeAPI.sendRequest("a tall tower"));
+        Future<ResponseReader> second = callers.submit(() -> ClaudeAPI.sendRequest("a tall tower"));
+        // Hold the response back until one caller is waiting on the other's call
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        while (ClaudeMetrics.API_COALESCED.get() == coalesced && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        release.countDown();
+
+        assertEquals(RESPONSE, first.get(TIMEOUT_SECONDS, TimeUnit.SECONDS).getBody());
+        assertEquals(RESPONSE, second.get(TIMEOUT_SECONDS, TimeUnit.SECONDS).getBody());
+        assertEquals(coalesced + 1, ClaudeMetrics.API_COALESCED.get());
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    void differentRequestsAreNotShared() throws Exception {
+        CountDownLatch arrived = new CountDownLatch(2);
+        server = new StubClaudeServer(body -> {
+            // Both requests must be in flight at the same time
+            arrived.countDown();
+            arrived.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            return RESPONSE;
+        });
+        System.setProperty("claudemod.api.url", server.getUrl("/v1/messages"));
+
+        Future<ResponseReader> first = callers.submit(() -> ClaudeAPI.sendRequest("a red house"));
+        Future<ResponseReader> second = callers.submit(() -> ClaudeAPI.sendRequest("a blue house"));
+
+        assertEquals(RESPONSE, first.get(TIMEOUT_SECONDS, TimeUnit.SECONDS).getBody());
+        assertEquals(RESPONSE, second.get(TIMEOUT_SECONDS, TimeUnit.SECONDS).getBody());
+        assertEquals(0, arrived.getCount());
+        assertEquals(2, server.getRequestCount());
+    }
+}
@@ -0,0 +1,114 @@
+package com.brettbaron.claudemod.api;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ClaudeRequestPipelineTest {
+    private static final String RESPONSE = "{\"content\":[{\"type\":\"text\",\"text\":\"/setblock ~ ~ ~ stone\"}],"
+        + "\"usage\":{\"input_tokens\":10,\"output_tokens\":5}}";
+    private static final String PROMPT = "a small stone hut";
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private final ExecutorService players = Executors.newCachedThreadPool();
+    private StubClaudeServer server;
+
+    @AfterEach
+    void tearDown() {
+        System.clearProperty("claudemod.api.url");
+        ClaudeAPI.shutdown();
+        players.shutdownNow();
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    @Test
+    void playersAtDifferentPositionsShareOneGeneration() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        server = new StubClaudeServer(body -> {
+            release.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            return RESPONSE;
+        });
+        System.setProperty("claudemod.api.url", server.getUrl("/v1/messages"));
+
+        AtomicReference<String> cache = new AtomicReference<>();
+        CountDownLatch waiting = new CountDownLatch(1);
+        Future<String> first = players.submit(() -> request(100, cache, waiting, true));
+        // The second player only asks once the first is waiting on the API
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        while (server.getRequestCount() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        Future<String> second = players.submit(() -> request(-250, cache, waiting, true));
+        assertTrue(waiting.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        release.countDown();
+
+        assertNull(first.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals("/setblock ~ ~ ~ stone", second.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(1, server.getRequestCount());
+        assertTrue(server.getBodies().get(0).contains("(100, 64, 0)"));
+    }
+
+    @Test
+    void uncachedBuildsAreGeneratedForEachPlayer() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        server = new StubClaudeServer(body -> {
+            release.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            return RESPONSE;
+        });
+        System.setProperty("claudemod.api.url", server.getUrl("/v1/messages"));
+
+        AtomicReference<String> cache = new AtomicReference<>();
+        CountDownLatch waiting = new CountDownLatch(1);
+        Future<String> first = players.submit(() -> request(100, cache, waiting, false));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        while (server.getRequestCount() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        Future<String> second = players.submit(() -> request(-250, cache, waiting, false));
+        assertTrue(waiting.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        release.countDown();
+
+        // Nothing was cached, so the second player generates its own build after waiting
+        assertNull(first.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertNull(second.get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(2, server.getRequestCount());
+        assertNotEquals(server.getBodies().get(0), server.getBodies().get(1));
+    }
+
+    /**
+     * Ask for the same prompt as a player standing at x, the way ClaudeCommand does, with a cache held
+     * in memory
+     *
+     * @param cacheable Whether the generated build goes into the cache
+     * @return The cached build this player was served, or null if it generated its own
+     */
+    private static String request(int x, AtomicReference<String> cache, CountDownLatch waiting, boolean cacheable) {
+        String contextualPrompt = "Player is at position (" + x + ", 64, 0) in Minecraft and wants: " + PROMPT;
+        String cacheKey = ResponseCache.createKey(PROMPT, "", "test-model");
+        return ClaudeRequestPipeline.generateOnce(cacheKey, cache::get, waiting::countDown, () -> {
+            try {
+                String commands = ClaudeAPI.sendRequest(contextualPrompt).getCommands().trim();
+                if (cacheable) {
+                    cache.set(commands);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+}
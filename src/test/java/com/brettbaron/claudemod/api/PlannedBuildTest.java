@@ -0,0 +1,123 @@
+package com.brettbaron.claudemod.api;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import net.minecraft.Bootstrap;
+import net.minecraft.SharedConstants;
+import net.minecraft.util.math.BlockPos;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PlannedBuildTest {
+    private StubClaudeServer server;
+
+    @BeforeAll
+    static void bootstrap() {
+        // Block state parsing needs the vanilla registries
+        SharedConstants.createGameVersion();
+        Bootstrap.initialize();
+    }
+
+    @AfterEach
+    void tearDown() {
+        System.clearProperty("claudemod.api.url");
+        ClaudeAPI.shutdown();
+        PlannedBuild.shutdown();
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    @Test
+    void plansGeneratesAndMergesComponents() throws Exception {
+        server = new StubClaudeServer(body -> {
+            if (body.contains("\"plan_build\"")) {
+                return planResponse();
+            }
+            if (body.contains("Build ONLY this part: floor")) {
+                return commandsResponse("/fill ~-5 ~0 ~-5 ~5 ~0 ~5 stone");
+            }
+            if (body.contains("Build ONLY this part: roof")) {
+                // The setblock is outside the roof's box and has to be clipped
+                return commandsResponse("/fill ~-5 ~5 ~-5 ~5 ~5 ~5 oak_planks\n/setblock ~20 ~20 ~20 glass");
+            }
+            throw new IllegalStateException("Unexpected request");
+        });
+        System.setProperty("claudemod.api.url", server.getUrl("/v1/messages"));
+
+        List<String> progress = new CopyOnWriteArrayList<>();
+        PlannedBuild build = new PlannedBuild(1, null, new BlockPos(0, 64, 0), progress::add);
+        build.generate("a small house");
+        build.merge();
+
+        assertEquals(2, build.getComponents().size());
+        assertEquals("floor", build.getComponents().get(0).getName());
+        assertEquals("roof", build.getComponents().get(1).getName());
+        assertEquals(1, progress.size());
+
+        // The plan is requested first, then one request per component
+        assertEquals(3, server.getRequestCount());
+        assertTrue(server.getBodies().get(0).contains("\"plan_build\""));
+        assertTrue(server.getBodies().get(0).contains("a small house"));
+
+        assertEquals(1, build.getDroppedOps());
+        assertEquals(121 + 121, build.getProgram().getTotalVolume());
+    }
+
+    private static String planResponse() {
+        JsonArray components = new JsonArray();
+        components.add(component("floor", new int[]{-5, 0, -5}, new int[]{5, 0, 5}));
+        components.add(component("roof", new int[]{-5, 5, -5}, new int[]{5, 5, 5}));
+
+        JsonObject input = new JsonObject();
+        input.add("components", components);
+        JsonObject toolUse = new JsonObject();
+        toolUse.addProperty("type", "tool_use");
+        toolUse.addProperty("name", "plan_build");
+        toolUse.add("input", input);
+        return response(toolUse);
+    }
+
+    private static JsonObject component(String name, int[] min, int[] max) {
+        JsonObject component = new JsonObject();
+        component.addProperty("name", name);
+        component.addProperty("description", "the " + name);
+        component.add("min", array(min));
+        component.add("max", array(max));
+        return component;
+    }
+
+    private static JsonArray array(int[] values) {
+        JsonArray array = new JsonArray();
+        for (int value : values) {
+            array.add(value);
+        }
+        return array;
+    }
+
+    private static String commandsResponse(String commands) {
+        JsonObject input = new JsonObject();
+        input.addProperty("commands", commands);
+        JsonObject toolUse = new JsonObject();
+        toolUse.addProperty("type", "tool_use");
+        toolUse.addProperty("name", "generate_mcs");
+        toolUse.add("input", input);
+        return response(toolUse);
+    }
+
+    private static String response(JsonObject content) {
+        JsonArray contents = new JsonArray();
+        contents.add(content);
+        JsonObject response = new JsonObject();
+        response.add("content", contents);
+        response.addProperty("stop_reason", "tool_use");
+        return response.toString();
+    }
+}
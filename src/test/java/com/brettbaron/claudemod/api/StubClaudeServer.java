@@ -0,0 +1,95 @@
+package com.brettbaron.claudemod.api;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A local stand-in for the Messages API. Each request is answered by a handler, on its own thread,
+ * and its path, API key and body are recorded.
+ */
+class StubClaudeServer implements AutoCloseable {
+    /**
+     * Answers a request body with a response body
+     */
+    @FunctionalInterface
+    interface Handler {
+        String respond(String body) throws Exception;
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final List<String> paths = new CopyOnWriteArrayList<>();
+    private final List<String> apiKeys = new CopyOnWriteArrayList<>();
+    private final List<String> bodies = new CopyOnWriteArrayList<>();
+    private volatile Handler handler;
+
+    StubClaudeServer(Handler handler) throws IOException {
+        this.handler = handler;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    /**
+     * @return The URL of a path on the stub, for the claudemod.api.url property
+     */
+    String getUrl(String path) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+    }
+
+    int getRequestCount() {
+        return bodies.size();
+    }
+
+    List<String> getPaths() {
+        return paths;
+    }
+
+    List<String> getApiKeys() {
+        return apiKeys;
+    }
+
+    List<String> getBodies() {
+        return bodies;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+        paths.add(exchange.getRequestURI().getPath());
+        apiKeys.add(String.valueOf(exchange.getRequestHeaders().getFirst("x-api-key")));
+        bodies.add(body);
+
+        int status = 200;
+        String response;
+        try {
+            response = handler.respond(body);
+        } catch (Exception e) {
+            status = 500;
+            response = "{\"type\":\"error\",\"error\":{\"message\":\"" + e.getMessage() + "\"}}";
+        }
+
+        byte[] bytes = response.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("content-type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}